@@ -42,7 +42,7 @@ public class Clientlib implements ClientlibElement {
     /** A reference that matches this. */
     @Override
     public ClientlibRef getRef() {
-        return new ClientlibRef(getType(), resource.getPath(), true, null);
+        return ClientlibRef.interned(getType(), resource.getPath(), true, null);
     }
 
     /** A link that matches this. */
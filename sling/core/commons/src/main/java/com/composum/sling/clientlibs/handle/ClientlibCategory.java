@@ -41,7 +41,7 @@ public class ClientlibCategory implements ClientlibElement {
     }
 
     public ClientlibRef getRef() {
-        return new ClientlibRef(getType(), ClientlibRef.PREFIX_CATEGORY + category, optional, null);
+        return ClientlibRef.forCategory(getType(), category, optional, null);
     }
 
     @Override
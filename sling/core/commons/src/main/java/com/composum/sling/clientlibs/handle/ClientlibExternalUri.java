@@ -41,7 +41,7 @@ public class ClientlibExternalUri implements ClientlibElement {
 
     @Override
     public ClientlibRef getRef() {
-        return new ClientlibRef(link.type, link.path, false, link.properties);
+        return ClientlibRef.interned(link.type, link.path, false, link.properties);
     }
 
 
@@ -23,7 +23,7 @@ public class ClientlibFile implements ClientlibElement {
         this.type = type;
         this.handle = new FileHandle(resource);
         this.properties = properties;
-        this.ref = null != ref ? ref : new ClientlibRef(type, handle.getPath(), false, properties);
+        this.ref = null != ref ? ref : ClientlibRef.interned(type, handle.getPath(), false, properties);
     }
 
     @Override
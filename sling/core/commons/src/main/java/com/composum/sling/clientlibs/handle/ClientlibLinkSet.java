@@ -0,0 +1,149 @@
+package com.composum.sling.clientlibs.handle;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A set of processed or rendered links which finds the links satisfying a {@link ClientlibRef} without matching the
+ * pattern of the reference against each link. The links are indexed by type and by category, external URI or file
+ * name - the file names are indexed as is and with the '.min' of minified files removed. So an index lookup is
+ * exact for categories and external URIs; for paths the pattern is only matched against the few links with the same
+ * file name. References with a pattern in the file name itself (e.g. a version pattern) are matched against all
+ * links.
+ */
+public class ClientlibLinkSet extends LinkedHashSet<ClientlibLink> {
+
+    /** Matches the minification of a file name as it is made optional by the patterns of the references. */
+    protected static final Pattern MINIFIED_NAME = Pattern.compile("\\.min(\\.[^./]+)?$");
+
+    protected final Map<String, List<ClientlibLink>> index = new HashMap<>();
+
+    public ClientlibLinkSet() {
+    }
+
+    public ClientlibLinkSet(Collection<? extends ClientlibLink> links) {
+        addAll(links);
+    }
+
+    /**
+     * @return the first link (in the order of addition) satisfying the reference; 'null' if no such link is present
+     */
+    @Nullable
+    public ClientlibLink findSatisfying(@Nonnull ClientlibRef ref) {
+        String key = ref.indexKey;
+        Collection<ClientlibLink> candidates = key != null ? index.get(key) : this;
+        if (candidates != null) {
+            for (ClientlibLink link : candidates) {
+                if (ref.isSatisfiedby(link)) {
+                    return link;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean add(ClientlibLink link) {
+        if (super.add(link)) {
+            for (String key : keys(link)) {
+                List<ClientlibLink> bucket = index.get(key);
+                if (bucket == null) {
+                    index.put(key, bucket = new ArrayList<>(1));
+                }
+                bucket.add(link);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean remove(Object object) {
+        if (super.remove(object)) {
+            unindex((ClientlibLink) object);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        index.clear();
+    }
+
+    @Override
+    @Nonnull
+    public Iterator<ClientlibLink> iterator() {
+        final Iterator<ClientlibLink> iterator = super.iterator();
+        return new Iterator<ClientlibLink>() {
+
+            protected ClientlibLink current;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public ClientlibLink next() {
+                return current = iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+                unindex(current);
+            }
+        };
+    }
+
+    protected void unindex(ClientlibLink link) {
+        for (String key : keys(link)) {
+            List<ClientlibLink> bucket = index.get(key);
+            if (bucket != null) {
+                bucket.remove(link);
+                if (bucket.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
+    }
+
+    protected static List<String> keys(ClientlibLink link) {
+        List<String> keys = new ArrayList<>(2);
+        if (link.isCategory()) {
+            keys.add(categoryKey(link.type, link.path));
+        } else if (link.isExternalUri()) {
+            keys.add(externalUriKey(link.type, link.path));
+        } else {
+            String name = link.path.substring(link.path.lastIndexOf('/') + 1);
+            keys.add(fileKey(link.type, name));
+            String unminified = MINIFIED_NAME.matcher(name).replaceFirst("$1");
+            if (!unminified.equals(name)) {
+                keys.add(fileKey(link.type, unminified));
+            }
+        }
+        return keys;
+    }
+
+    protected static String categoryKey(Clientlib.Type type, String category) {
+        return type + ":category:" + category;
+    }
+
+    protected static String externalUriKey(Clientlib.Type type, String uri) {
+        return type + ":uri:" + uri;
+    }
+
+    protected static String fileKey(Clientlib.Type type, String name) {
+        return type + ":file:" + name;
+    }
+}
@@ -2,11 +2,15 @@ package com.composum.sling.clientlibs.handle;
 
 import com.composum.sling.core.util.LinkUtil;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 /**
@@ -20,6 +24,17 @@ public class ClientlibRef {
     /** Prefix for a pseudo-path that refers to all client libraries with {@link Clientlib#PROP_CATEGORY}. */
     public static final String PREFIX_CATEGORY = "category:";
 
+    /** The maximum number of shared references kept by {@link #interned(Clientlib.Type, String, boolean, Map)}. */
+    public static final int MAX_INTERNED = 5000;
+
+    /**
+     * The shared references with their compiled patterns keyed by type, rule, optional flag and properties; used
+     * concurrently by all rendering threads without locking. The table is dropped completely if {@link #MAX_INTERNED}
+     * is reached - the references of the installed client libraries are far less, so that happens only if rules are
+     * built dynamically.
+     */
+    protected static final ConcurrentMap<List<Object>, ClientlibRef> INTERNED = new ConcurrentHashMap<>(256);
+
     /**
      * Original description how to locate the corresponding resource: absolute / relative path to clientlib / file,
      * category, URI.
@@ -35,6 +50,15 @@ public class ClientlibRef {
     /** Additional properties, e.g. {@link ClientlibLink#PROP_REL}. */
     public final Map<String, String> properties;
 
+    /**
+     * The key of the links which possibly satisfy this in a {@link ClientlibLinkSet}; null if the file name is a
+     * pattern.
+     */
+    protected final String indexKey;
+
+    /** Characters of a pattern in a file name of a rule. */
+    protected static final Pattern NAME_PATTERN_CHARS = Pattern.compile("[\\\\()\\[\\]{}*+?|^$]");
+
     public ClientlibRef(Clientlib.Type type, String theRule, boolean optional, Map<String, String> properties) {
         this.type = type;
         this.rule = theRule.trim();
@@ -47,11 +71,38 @@ public class ClientlibRef {
         this.category = isCategory ? rule.substring(PREFIX_CATEGORY.length()) : null;
         this.properties = Collections.unmodifiableMap(properties != null
                 ? new HashMap<>(properties) : new HashMap<>());
+        this.indexKey = isCategory ? ClientlibLinkSet.categoryKey(type, category)
+                : isUri ? ClientlibLinkSet.externalUriKey(type, externalUri)
+                : ruleToIndexKey(type, rule);
+    }
+
+    /**
+     * Returns a shared reference for the rule - the references are immutable, so the patterns have to be compiled
+     * only once for all the visits of the client libraries.
+     */
+    public static ClientlibRef interned(Clientlib.Type type, String theRule, boolean optional,
+                                        Map<String, String> properties) {
+        String rule = theRule.trim();
+        List<Object> key = Arrays.<Object>asList(type, rule, optional,
+                properties != null ? properties : Collections.emptyMap());
+        ClientlibRef ref = INTERNED.get(key);
+        if (null == ref) {
+            ref = new ClientlibRef(type, rule, optional, properties);
+            if (INTERNED.size() >= MAX_INTERNED) {
+                INTERNED.clear();
+            }
+            ClientlibRef present = INTERNED.putIfAbsent(
+                    Arrays.<Object>asList(type, ref.rule, optional, ref.properties), ref);
+            if (null != present) {
+                ref = present;
+            }
+        }
+        return ref;
     }
 
     public static ClientlibRef forCategory(Clientlib.Type type, String category, boolean optional, Map<String,
             String> properties) {
-        return new ClientlibRef(type, PREFIX_CATEGORY + category, optional, properties);
+        return interned(type, PREFIX_CATEGORY + category, optional, properties);
     }
 
     public boolean isCategory() {
@@ -79,8 +130,12 @@ public class ClientlibRef {
         return properties.equals(link.properties);
     }
 
-    /** Checks whether one of the links matches this, up to version patterns. */
+    /**
+     * Checks whether one of the links matches this, up to version patterns. A {@link ClientlibLinkSet} is searched
+     * by its index.
+     */
     public boolean isSatisfiedby(Collection<ClientlibLink> links) {
+        if (links instanceof ClientlibLinkSet) return null != ((ClientlibLinkSet) links).findSatisfying(this);
         for (ClientlibLink link : links) if (isSatisfiedby(link)) return true;
         return false;
     }
@@ -99,6 +154,16 @@ public class ClientlibRef {
         return Pattern.compile(rule);
     }
 
+    /**
+     * The file name of the rule with the optional minification removed as in {@link #ruleToPattern(String)}; the
+     * rule has no key if the name is a pattern.
+     */
+    protected String ruleToIndexKey(Clientlib.Type type, String rule) {
+        String name = rule.substring(rule.lastIndexOf('/') + 1);
+        if (NAME_PATTERN_CHARS.matcher(name).find()) return null;
+        return ClientlibLinkSet.fileKey(type, name.replaceFirst("([.-]min)?(\\.[^./]+)?$", "$2"));
+    }
+
     protected String ruleToPath(final String rule) {
         if (rule.startsWith(PREFIX_CATEGORY)) return rule;
         // (xxx:yyy) -> yyy
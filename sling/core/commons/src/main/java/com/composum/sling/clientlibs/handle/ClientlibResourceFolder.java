@@ -8,6 +8,7 @@ import javax.annotation.Nonnull;
 import javax.jcr.RepositoryException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +47,8 @@ public class ClientlibResourceFolder implements ClientlibElement {
     protected final Clientlib.Type type;
     protected Boolean expanded;
     protected Boolean optional;
+    protected List<ClientlibRef> dependencies;
+    protected List<ClientlibRef> embedded;
 
     public ClientlibResourceFolder(Clientlib.Type type, Resource resource) {
         this(type, resource, null);
@@ -77,12 +80,14 @@ public class ClientlibResourceFolder implements ClientlibElement {
 
     @Nonnull
     public List<ClientlibRef> getDependencies() {
-        return getClientlib2Refs(PROP_DEPENDS);
+        if (null == dependencies) dependencies = getClientlib2Refs(PROP_DEPENDS);
+        return dependencies;
     }
 
     @Nonnull
     public List<ClientlibRef> getEmbedded() {
-        return getClientlib2Refs(PROP_EMBED);
+        if (null == embedded) embedded = getClientlib2Refs(PROP_EMBED);
+        return embedded;
     }
 
     @Override
@@ -90,13 +95,16 @@ public class ClientlibResourceFolder implements ClientlibElement {
         return type;
     }
 
+    /** The shared references of the rules in the property; the list is immutable. */
     @Nonnull
     protected List<ClientlibRef> getClientlib2Refs(String property) {
-        List<ClientlibRef> res = new ArrayList<>();
-        for (String rule : resource.getProperty(property, new String[0])) {
-            res.add(new ClientlibRef(type, rule.trim(), getOptional(), getAdditionalProperties()));
+        String[] rules = resource.getProperty(property, String[].class);
+        if (null == rules || rules.length == 0) return Collections.emptyList();
+        List<ClientlibRef> res = new ArrayList<>(rules.length);
+        for (String rule : rules) {
+            res.add(ClientlibRef.interned(type, rule, getOptional(), getAdditionalProperties()));
         }
-        return res;
+        return Collections.unmodifiableList(res);
     }
 
     /**
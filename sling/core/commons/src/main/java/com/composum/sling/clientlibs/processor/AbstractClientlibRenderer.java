@@ -35,8 +35,7 @@ public abstract class AbstractClientlibRenderer implements ClientlibRenderer {
                                         Writer writer, SlingHttpServletRequest request, RendererContext context,
                                         String template)
             throws IOException, RepositoryException {
-        RenderingVisitor visitor = new RenderingVisitor(clientlib, context).execute();
-        List<ClientlibLink> links = visitor.getLinksToRender();
+        List<ClientlibLink> links = context.getClientlibService().getRenderedLinks(clientlib, context).replay(context);
         LOG.debug("Links to render: {}", links);
         for (int i = 0; i < links.size(); ) {
             ClientlibLink link = links.get(i);
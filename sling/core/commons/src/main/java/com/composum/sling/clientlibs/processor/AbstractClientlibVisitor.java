@@ -56,7 +56,7 @@ public abstract class AbstractClientlibVisitor implements ClientlibVisitor {
         this.service = service;
         this.resolver = resolver;
         this.owner = owner;
-        this.processedElements = null != processedElements ? processedElements : new LinkedHashSet<>();
+        this.processedElements = null != processedElements ? processedElements : new ClientlibLinkSet();
     }
 
     /**
@@ -0,0 +1,49 @@
+package com.composum.sling.clientlibs.processor;
+
+import com.composum.sling.clientlibs.service.ClientlibProcessor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Base for the streams of the pipeline mode of {@link ClientlibProcessor}s which need the whole content of a file
+ * for their transformation (e.g. the CSS minification): collects everything written to it and transforms it into
+ * the output within the calling thread on {@link #close()}.
+ */
+public abstract class BufferedProcessorStream extends ByteArrayOutputStream {
+
+    public static final int INITIAL_BUFFER_SIZE = 8192;
+
+    protected final OutputStream output;
+
+    private boolean closed = false;
+
+    protected BufferedProcessorStream(OutputStream output) {
+        super(INITIAL_BUFFER_SIZE);
+        this.output = output;
+    }
+
+    /**
+     * Transforms the collected content into the output.
+     *
+     * @param content the content written to this stream
+     * @param output  the stream to write the transformation result to - must not be closed here
+     */
+    protected abstract void transform(InputStream content, OutputStream output) throws IOException;
+
+    /** Performs the transformation and closes the output. */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                transform(new ByteArrayInputStream(buf, 0, count), output);
+            } finally {
+                output.close();
+            }
+        }
+    }
+}
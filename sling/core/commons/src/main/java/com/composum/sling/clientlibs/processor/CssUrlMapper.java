@@ -9,6 +9,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
@@ -45,6 +46,19 @@ public class CssUrlMapper implements ClientlibProcessor {
         return result;
     }
 
+    @Override
+    public OutputStream processContent(OutputStream output, final ProcessorContext context)
+            throws IOException {
+        return new BufferedProcessorStream(output) {
+            @Override
+            protected void transform(InputStream content, OutputStream output) throws IOException {
+                Writer writer = new OutputStreamWriter(output, DEFAULT_CHARSET);
+                map(IOUtils.toString(content, DEFAULT_CHARSET), writer, context);
+                writer.flush();
+            }
+        };
+    }
+
     public void map(String css, Writer writer, ProcessorContext context) {
 
         try {
@@ -8,8 +8,10 @@ import org.apache.felix.scr.annotations.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.util.zip.GZIPOutputStream;
@@ -20,6 +22,14 @@ public class DefaultGzipProcessor implements GzipProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultGzipProcessor.class);
 
+    public static final int BUFFER_SIZE = 65536;
+
+    @Nonnull
+    @Override
+    public String getEncoding() {
+        return ClientlibService.ENCODING_GZIP;
+    }
+
     @Override
     public InputStream processContent(final InputStream source, ProcessorContext context)
             throws IOException {
@@ -45,4 +55,11 @@ public class DefaultGzipProcessor implements GzipProcessor {
         }
         return result;
     }
+
+    @Override
+    public OutputStream processContent(OutputStream output, ProcessorContext context)
+            throws IOException {
+        context.hint(ResourceUtil.PROP_ENCODING, ClientlibService.ENCODING_GZIP);
+        return new GZIPOutputStream(output, BUFFER_SIZE);
+    }
 }
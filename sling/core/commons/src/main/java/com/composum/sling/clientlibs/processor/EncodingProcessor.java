@@ -0,0 +1,29 @@
+package com.composum.sling.clientlibs.processor;
+
+import com.composum.sling.clientlibs.service.ClientlibProcessor;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A processor which compresses the processed content of a clientlib for a HTTP content encoding. Each encoding is
+ * cached in its own cache file and delivered if the client accepts it (see Accept-Encoding). Besides the
+ * {@link GzipProcessor} and the {@link ZstdProcessor} further encodings (e.g. 'br') can be added by registering an
+ * implementation of this interface as an OSGi service; the implementation has to set the {@link
+ * com.composum.sling.core.util.ResourceUtil#PROP_ENCODING} hint like the {@link DefaultGzipProcessor}.
+ */
+public interface EncodingProcessor extends ClientlibProcessor {
+
+    /**
+     * @return the content coding token of the encoding as used in the Accept-Encoding and Content-Encoding headers
+     */
+    @Nonnull
+    String getEncoding();
+
+    /**
+     * @return the preference of the encoding if a client accepts several encodings with the same quality; the
+     * encoding with the highest preference is delivered
+     */
+    default int getPreference() {
+        return 0;
+    }
+}
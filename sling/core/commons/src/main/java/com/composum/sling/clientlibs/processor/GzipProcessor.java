@@ -1,6 +1,4 @@
 package com.composum.sling.clientlibs.processor;
 
-import com.composum.sling.clientlibs.service.ClientlibProcessor;
-
-public interface GzipProcessor extends ClientlibProcessor {
+public interface GzipProcessor extends EncodingProcessor {
 }
@@ -10,6 +10,7 @@ import com.composum.sling.clientlibs.handle.FileHandle;
 import com.composum.sling.clientlibs.service.ClientlibProcessor;
 import com.composum.sling.clientlibs.service.ClientlibService;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.slf4j.Logger;
@@ -68,10 +69,19 @@ public class ProcessingVisitor extends AbstractClientlibVisitor {
         InputStream content = file.getStream();
         if (content != null) {
             try {
-                if (processor != null) {
-                    content = processor.processContent(content, context);
+                if (context.usePipedProcessing()) {
+                    if (processor != null) {
+                        content = processor.processContent(content, context);
+                    }
+                    IOUtils.copy(content, output);
+                } else {
+                    OutputStream fileOutput = new CloseShieldOutputStream(output);
+                    if (processor != null) {
+                        fileOutput = processor.processContent(fileOutput, context);
+                    }
+                    IOUtils.copy(content, fileOutput);
+                    fileOutput.close();
                 }
-                IOUtils.copy(content, output);
                 output.write('\n');
                 output.write('\n');
                 output.flush();
@@ -26,17 +26,32 @@ public class ProcessorContext {
     protected final Map<String, Object> hints = Collections.synchronizedMap(new HashMap<>());
     protected final boolean mapClientlibURLs;
     protected final boolean useMinifiedFiles;
+    protected final boolean pipedProcessing;
 
     public ProcessorContext(final SlingHttpServletRequest request,
                             final ResourceResolver resolver,
                             final ExecutorService executorService,
                             final boolean mapClientlibURLs,
                             final boolean useMinifiedFiles) {
+        this(request, resolver, executorService, mapClientlibURLs, useMinifiedFiles, true);
+    }
+
+    /**
+     * @param pipedProcessing if true, the content is processed with piped streams in the threads of the
+     *                        executorService, otherwise with the streams of a pipeline within the calling thread
+     */
+    public ProcessorContext(final SlingHttpServletRequest request,
+                            final ResourceResolver resolver,
+                            final ExecutorService executorService,
+                            final boolean mapClientlibURLs,
+                            final boolean useMinifiedFiles,
+                            final boolean pipedProcessing) {
         this.request = request;
         this.resolver = resolver;
         this.executorService = executorService;
         this.mapClientlibURLs = mapClientlibURLs;
         this.useMinifiedFiles = useMinifiedFiles;
+        this.pipedProcessing = pipedProcessing;
         request.setAttribute(CONTEXT_KEY, this);
     }
 
@@ -56,6 +71,15 @@ public class ProcessorContext {
         return useMinifiedFiles;
     }
 
+    /**
+     * If true, the processors are used with {@link com.composum.sling.clientlibs.service.ClientlibProcessor#processContent(java.io.InputStream, ProcessorContext)}
+     * (piped streams, processed in separate threads), otherwise in pipeline mode with
+     * {@link com.composum.sling.clientlibs.service.ClientlibProcessor#processContent(java.io.OutputStream, ProcessorContext)}.
+     */
+    public boolean usePipedProcessing() {
+        return pipedProcessing;
+    }
+
     /** Schedules the runnable for execution in the future. */
     public void execute(Runnable runnable) {
         executorService.execute(runnable);
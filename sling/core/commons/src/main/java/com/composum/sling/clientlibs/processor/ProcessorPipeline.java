@@ -4,6 +4,7 @@ import com.composum.sling.clientlibs.service.ClientlibProcessor;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -41,6 +42,16 @@ public class ProcessorPipeline implements ClientlibProcessor {
         return stream;
     }
 
+    /** Chains the processors streams: the content written to the result passes all processors in their order. */
+    @Override
+    public OutputStream processContent(OutputStream output, ProcessorContext context)
+            throws IOException {
+        for (int i = processors.size() - 1; i >= 0; i--) {
+            output = processors.get(i).processContent(output, context);
+        }
+        return output;
+    }
+
     @Override
     public String toString() {
         StringBuffer buf = new StringBuffer();
@@ -0,0 +1,151 @@
+package com.composum.sling.clientlibs.processor;
+
+import com.composum.sling.clientlibs.handle.ClientlibElement;
+import com.composum.sling.clientlibs.handle.ClientlibLink;
+import com.composum.sling.clientlibs.handle.ClientlibRef;
+import com.composum.sling.clientlibs.handle.ClientlibVisitor.VisitorMode;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.composum.sling.clientlibs.handle.ClientlibVisitor.VisitorMode.DEPENDS;
+import static com.composum.sling.clientlibs.handle.ClientlibVisitor.VisitorMode.EMBEDDED;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * The recorded steps of a {@link RenderingVisitor}: the links of the visited elements and the decisions which have to
+ * be made for them. The traversal of a client library doesn't depend on the elements already rendered for the
+ * request, so the steps can be recorded once and be replayed against the {@link RendererContext} of each request,
+ * which skips the elements already rendered by the previous tags of the request. The recorded steps are immutable
+ * and can be shared between requests.
+ */
+public class RenderedLinks {
+
+    private static final Logger LOG = getLogger(RenderedLinks.class);
+
+    protected interface Step {
+
+        void replay(@Nonnull Replay replay);
+    }
+
+    /** The state of one replay. */
+    protected static class Replay {
+
+        public final RendererContext context;
+        public final boolean[] ownerWasAlreadyRendered;
+        public final List<ClientlibLink> linksToRender = new ArrayList<>();
+
+        public Replay(RendererContext context, int visitors) {
+            this.context = context;
+            this.ownerWasAlreadyRendered = new boolean[visitors];
+        }
+    }
+
+    protected final List<Step> steps = new ArrayList<>();
+
+    protected final List<String> paths = new ArrayList<>();
+
+    protected int visitors = 0;
+
+    /**
+     * Records the creation of a visitor for the owner; if the owner is already rendered at this point, the elements
+     * rendered by this visitor are skipped.
+     *
+     * @return the id of the visitor for the {@link #render(int, VisitorMode, ClientlibElement, ClientlibLink, Object)}
+     * steps
+     */
+    public int startVisitor(@Nonnull final ClientlibRef ownerRef) {
+        final int visitor = visitors++;
+        steps.add(new Step() {
+            @Override
+            public void replay(@Nonnull Replay replay) {
+                replay.ownerWasAlreadyRendered[visitor] = replay.context.isClientlibRendered(ownerRef);
+            }
+        });
+        return visitor;
+    }
+
+    /**
+     * Records an element to render if not rendered already. The recording is cached, so only the description of the
+     * owner is kept - the owner itself can hold the resource and the resolver of the recording request.
+     */
+    public void render(final int visitor, @Nonnull final VisitorMode mode, @Nonnull final ClientlibElement element,
+                       @Nonnull final ClientlibLink link, @Nonnull Object owner) {
+        final ClientlibRef ref = element.getRef();
+        final String ownerName = String.valueOf(owner);
+        steps.add(new Step() {
+            @Override
+            public void replay(@Nonnull Replay replay) {
+                if (replay.ownerWasAlreadyRendered[visitor]) return;
+                if (replay.context.isClientlibRendered(ref)) {
+                    if (EMBEDDED == mode)
+                        LOG.error("Already rendered / embedded file is also embedded in clientlib {} and thus " +
+                                "included twice: {}", ownerName, link);
+                } else {
+                    if (DEPENDS == mode || replay.context.getConfiguration().getDebug())
+                        replay.linksToRender.add(link);
+                    replay.context.registerClientlibLink(link, null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the registration of an element which is rendered by the request of its owner.
+     */
+    public void register(@Nonnull final ClientlibLink link) {
+        steps.add(new Step() {
+            @Override
+            public void replay(@Nonnull Replay replay) {
+                replay.context.registerClientlibLink(link, null);
+            }
+        });
+    }
+
+    /**
+     * Records an external reference which can't be embedded.
+     */
+    public void external(@Nonnull final ClientlibRef ref, @Nonnull final ClientlibLink link) {
+        steps.add(new Step() {
+            @Override
+            public void replay(@Nonnull Replay replay) {
+                if (!replay.context.isClientlibRendered(ref)) {
+                    replay.linksToRender.add(link);
+                    replay.context.registerClientlibLink(link, null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the path of a visited file or client library.
+     */
+    public void addPath(@Nonnull String path) {
+        paths.add(path);
+    }
+
+    /**
+     * @return the paths of the visited files and client libraries
+     */
+    @Nonnull
+    public List<String> getPaths() {
+        return Collections.unmodifiableList(paths);
+    }
+
+    /**
+     * Registers the elements not rendered already in the context.
+     *
+     * @return the links to render into the page
+     */
+    @Nonnull
+    public List<ClientlibLink> replay(@Nonnull RendererContext context) {
+        Replay replay = new Replay(context, visitors);
+        for (Step step : steps) {
+            step.replay(replay);
+        }
+        return replay.linksToRender;
+    }
+}
@@ -1,6 +1,7 @@
 package com.composum.sling.clientlibs.processor;
 
 import com.composum.sling.clientlibs.handle.ClientlibLink;
+import com.composum.sling.clientlibs.handle.ClientlibLinkSet;
 import com.composum.sling.clientlibs.handle.ClientlibRef;
 import com.composum.sling.clientlibs.handle.ClientlibResourceFolder;
 import com.composum.sling.clientlibs.service.ClientlibConfiguration;
@@ -11,7 +12,6 @@ import org.apache.sling.api.resource.ResourceResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -33,25 +33,24 @@ public class RendererContext {
         return attribute;
     }
 
-    protected final Set<ClientlibLink> renderedClientlibs;
+    protected final ClientlibLinkSet renderedClientlibs;
 
     protected transient ResourceResolver resolver;
 
     protected transient ClientlibService clientlibService;
 
     protected RendererContext(BeanContext context, SlingHttpServletRequest request) {
-        this.renderedClientlibs = new LinkedHashSet<>();
+        this.renderedClientlibs = new ClientlibLinkSet();
         clientlibService = context.getService(ClientlibService.class);
         resolver = request.getResourceResolver();
     }
 
     /** Checks whether a referenced resource or client library is satisfied by an already rendered resource. */
     public boolean isClientlibRendered(ClientlibRef reference) {
-        for (ClientlibLink link : renderedClientlibs) {
-            if (reference.isSatisfiedby(link)) {
-                LOG.debug("already rendered: {} by {}", reference, link.path);
-                return true;
-            }
+        ClientlibLink link = renderedClientlibs.findSatisfying(reference);
+        if (link != null) {
+            LOG.debug("already rendered: {} by {}", reference, link.path);
+            return true;
         }
         return false;
     }
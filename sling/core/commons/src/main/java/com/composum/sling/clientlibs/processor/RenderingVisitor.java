@@ -14,60 +14,77 @@ import org.slf4j.Logger;
 
 import javax.jcr.RepositoryException;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 
-import static com.composum.sling.clientlibs.handle.ClientlibVisitor.VisitorMode.DEPENDS;
-import static com.composum.sling.clientlibs.handle.ClientlibVisitor.VisitorMode.EMBEDDED;
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
  * Visitor that realizes the rendering process for a client library. The visit functions return true if the processed
- * element embedded some files.
+ * element embedded some files. The rendering decisions are recorded as {@link RenderedLinks} which are replayed against
+ * the {@link RendererContext} after the traversal, so that the recorded links can be reused for other requests.
  */
 public class RenderingVisitor extends AbstractClientlibVisitor {
 
     private static final Logger LOG = getLogger(RenderingVisitor.class);
 
     protected final RendererContext context;
-    protected final List<ClientlibLink> linksToRender;
-    protected final boolean ownerWasAlreadyRendered;
+    protected final RenderedLinks renderedLinks;
+    protected final int visitorId;
+    protected List<ClientlibLink> linksToRender;
 
     public RenderingVisitor(ClientlibElement owner, RendererContext context) {
-        this(owner, context, null, null);
+        this(owner, context, new RenderedLinks(), null);
     }
 
-    protected RenderingVisitor(ClientlibElement owner, RendererContext context, List<ClientlibLink> linksToRender,
+    protected RenderingVisitor(ClientlibElement owner, RendererContext context, RenderedLinks renderedLinks,
                                LinkedHashSet<ClientlibLink> processedElements) {
         super(owner, context.getClientlibService(), context.getResolver(), processedElements);
         this.context = context;
-        this.linksToRender = linksToRender != null ? linksToRender : new ArrayList<>();
-        this.ownerWasAlreadyRendered = context.isClientlibRendered(owner.getRef());
+        this.renderedLinks = renderedLinks;
+        this.visitorId = renderedLinks.startVisitor(owner.getRef());
     }
 
+    /**
+     * Visits the client library and renders the links into the context.
+     */
     @Override
     public RenderingVisitor execute() throws IOException, RepositoryException {
-        super.execute();
+        linksToRender = record().replay(context);
         return this;
     }
 
+    /**
+     * Visits the client library without changing the context.
+     *
+     * @return the recorded rendering steps to replay against a context
+     */
+    public RenderedLinks record() throws IOException, RepositoryException {
+        super.execute();
+        for (ClientlibLink link : processedElements) {
+            if (link.kind == ClientlibLink.Kind.FILE || link.kind == ClientlibLink.Kind.CLIENTLIB) {
+                renderedLinks.addPath(link.path);
+            }
+        }
+        return renderedLinks;
+    }
+
     @Override
     protected ClientlibVisitor createVisitorFor(ClientlibElement element) {
-        return new RenderingVisitor(element, context, linksToRender, processedElements);
+        return new RenderingVisitor(element, context, renderedLinks, processedElements);
     }
 
     @Override
     public void action(ClientlibCategory clientlibCategory, ClientlibVisitor.VisitorMode mode,
                        ClientlibResourceFolder parent) {
         if (hasEmbeddedFiles && !context.getConfiguration().getDebug()) render(mode, clientlibCategory, parent);
-        else context.registerClientlibLink(clientlibCategory.makeLink(), parent);
+        else renderedLinks.register(clientlibCategory.makeLink());
     }
 
     @Override
     public void action(Clientlib clientlib, ClientlibVisitor.VisitorMode mode, ClientlibResourceFolder parent) {
         if (hasEmbeddedFiles && !context.getConfiguration().getDebug()) render(mode, clientlib, parent);
-        else context.registerClientlibLink(clientlib.makeLink(), parent);
+        else renderedLinks.register(clientlib.makeLink());
     }
 
     @Override
@@ -76,31 +93,21 @@ public class RenderingVisitor extends AbstractClientlibVisitor {
     }
 
     protected void render(VisitorMode mode, ClientlibElement element, ClientlibResourceFolder parent) {
-        if (ownerWasAlreadyRendered) return;
         ClientlibLink link = element.makeLink();
         if (owner == element) link = link.withHash(getHash());
-        if (context.isClientlibRendered(element.getRef())) {
-            if (EMBEDDED == mode)
-                LOG.error("Already rendered / embedded file is also embedded in clientlib {} and thus included twice:" +
-                        " {}", owner, link);
-        } else {
-            if (DEPENDS == mode || context.getConfiguration().getDebug())
-                linksToRender.add(link);
-            context.registerClientlibLink(link, parent);
-        }
+        renderedLinks.render(visitorId, mode, element, link, owner);
     }
 
     @Override
     public void action(ClientlibExternalUri externalUri, VisitorMode mode, ClientlibResourceFolder parent) {
         LOG.trace(">>> {} {}", mode, externalUri);
-        if (!context.isClientlibRendered(externalUri.getRef())) {
-            ClientlibLink link = externalUri.makeLink();
-            linksToRender.add(link); // external references can't be embedded
-            context.registerClientlibLink(link, parent);
-        }
+        renderedLinks.external(externalUri.getRef(), externalUri.makeLink()); // external references can't be embedded
         LOG.trace("<<< {} {}", mode, externalUri);
     }
 
+    /**
+     * @return the links rendered by {@link #execute()}
+     */
     public List<ClientlibLink> getLinksToRender() {
         return linksToRender;
     }
@@ -1,9 +1,11 @@
 package com.composum.sling.clientlibs.processor;
 
 import com.composum.sling.clientlibs.handle.Clientlib;
+import com.composum.sling.clientlibs.handle.ClientlibCategory;
 import com.composum.sling.clientlibs.handle.ClientlibElement;
 import com.composum.sling.clientlibs.handle.ClientlibFile;
 import com.composum.sling.clientlibs.handle.ClientlibLink;
+import com.composum.sling.clientlibs.handle.ClientlibRef;
 import com.composum.sling.clientlibs.handle.ClientlibResourceFolder;
 import com.composum.sling.clientlibs.handle.ClientlibVisitor;
 import com.composum.sling.clientlibs.service.ClientlibService;
@@ -13,7 +15,9 @@ import org.slf4j.Logger;
 import javax.jcr.RepositoryException;
 import java.io.IOException;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.Set;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -26,13 +30,26 @@ public class UpdateTimeVisitor extends AbstractClientlibVisitor {
 
     protected Calendar lastUpdateTime = null;
 
+    /**
+     * The paths of the visited resources and of the parents of missing references - the result can change if
+     * something is changed there. Shared with the visitors of the dependencies since these are influencing which
+     * elements are embedded.
+     */
+    protected final Set<String> dependencyPaths;
+
+    /** The visited and the missing categories; shared like the {@link #dependencyPaths}. */
+    protected final Set<String> dependencyCategories;
+
     public UpdateTimeVisitor(ClientlibElement owner, ClientlibService service, ResourceResolver resolver) {
-        this(owner, service, resolver, null);
+        this(owner, service, resolver, null, new HashSet<String>(), new HashSet<String>());
     }
 
     protected UpdateTimeVisitor(ClientlibElement owner, ClientlibService service, ResourceResolver resolver,
-                                LinkedHashSet<ClientlibLink> processedElements) {
+                                LinkedHashSet<ClientlibLink> processedElements,
+                                Set<String> dependencyPaths, Set<String> dependencyCategories) {
         super(owner, service, resolver, processedElements);
+        this.dependencyPaths = dependencyPaths;
+        this.dependencyCategories = dependencyCategories;
     }
 
     @Override
@@ -53,9 +70,28 @@ public class UpdateTimeVisitor extends AbstractClientlibVisitor {
         return lastUpdateTime;
     }
 
+    /**
+     * The paths of the resources the hash and the update time depend on: the visited resources and the parents of
+     * references which couldn't be resolved. Relative paths are relative to the search path.
+     */
+    public Set<String> getDependencyPaths() {
+        return dependencyPaths;
+    }
+
+    /** The categories the hash and the update time depend on. */
+    public Set<String> getDependencyCategories() {
+        return dependencyCategories;
+    }
+
     @Override
     protected ClientlibVisitor createVisitorFor(ClientlibElement element) {
-        return new UpdateTimeVisitor(element, service, resolver, processedElements);
+        return new UpdateTimeVisitor(element, service, resolver, processedElements,
+                dependencyPaths, dependencyCategories);
+    }
+
+    @Override
+    public void action(ClientlibCategory category, VisitorMode mode, ClientlibResourceFolder parent) {
+        dependencyCategories.add(category.getRef().category);
     }
 
     @Override
@@ -71,6 +107,24 @@ public class UpdateTimeVisitor extends AbstractClientlibVisitor {
         }
     }
 
+    @Override
+    protected void updateHash(String path, Calendar updatetime) {
+        dependencyPaths.add(path);
+        super.updateHash(path, updatetime);
+    }
+
+    /** A resource or category created later would change the result. */
+    @Override
+    protected void notPresent(ClientlibRef ref, VisitorMode mode, ClientlibResourceFolder parent) {
+        if (ref.isCategory()) {
+            dependencyCategories.add(ref.category);
+        } else if (null != ref.path) {
+            int index = ref.path.lastIndexOf('/');
+            dependencyPaths.add(index > 0 ? ref.path.substring(0, index) : ref.path);
+        }
+        super.notPresent(ref, mode, parent);
+    }
+
     protected void updateTime(Object entity, Calendar resourceTime) {
         if (LOG.isDebugEnabled())
             LOG.debug("{} modification on {}", entity, null != resourceTime ? resourceTime.getTime() : "null");
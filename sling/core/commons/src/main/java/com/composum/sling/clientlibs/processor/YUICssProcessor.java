@@ -12,9 +12,11 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.io.Writer;
 
 @Component(
         label = "Clientlib CSS Processor (YUI)",
@@ -60,4 +62,22 @@ public class YUICssProcessor extends AbstractClientlibRenderer implements CssPro
         }
         return result;
     }
+
+    @Override
+    public OutputStream processContent(OutputStream output, ProcessorContext context)
+            throws IOException {
+        context.hint(ResourceUtil.PROP_MIME_TYPE, "text/css");
+        if (context.useMinifiedFiles() && clientlibConfig.getCssMinimize()) {
+            return new BufferedProcessorStream(output) {
+                @Override
+                protected void transform(InputStream content, OutputStream output) throws IOException {
+                    Writer writer = new OutputStreamWriter(output, DEFAULT_CHARSET);
+                    final CssCompressor compressor = new CssCompressor(new InputStreamReader(content, DEFAULT_CHARSET));
+                    compressor.compress(writer, clientlibConfig.getCssLineBreak());
+                    writer.flush();
+                }
+            };
+        }
+        return output;
+    }
 }
@@ -0,0 +1,141 @@
+package com.composum.sling.clientlibs.processor;
+
+import com.composum.sling.clientlibs.service.ClientlibService;
+import com.composum.sling.core.util.ResourceUtil;
+import io.airlift.compress.zstd.ZstdCompressor;
+import org.apache.commons.io.IOUtils;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+/**
+ * Compresses the clientlib content for the 'zstd' content encoding with the pure Java implementation of the
+ * aircompressor library. The content is written as a sequence of independent frames of at most {@link #FRAME_SIZE}
+ * bytes, so that the memory needed is bounded and the window of each frame stays far below the limit of the
+ * browsers (8MB); a sequence of frames is decoded as one content.
+ */
+@Component(immediate = true)
+@Service(EncodingProcessor.class)
+public class ZstdProcessor implements EncodingProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZstdProcessor.class);
+
+    public static final int FRAME_SIZE = 256 * 1024;
+
+    @Nonnull
+    @Override
+    public String getEncoding() {
+        return ClientlibService.ENCODING_ZSTD;
+    }
+
+    @Override
+    public InputStream processContent(final InputStream source, ProcessorContext context)
+            throws IOException {
+        InputStream result = source;
+        if (source != null) {
+            context.hint(ResourceUtil.PROP_ENCODING, ClientlibService.ENCODING_ZSTD);
+            final PipedOutputStream outputStream = new PipedOutputStream();
+            result = new PipedInputStream(outputStream);
+            final OutputStream zstdOutputStream = new FrameOutputStream(outputStream);
+            context.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        IOUtils.copy(source, zstdOutputStream);
+                        zstdOutputStream.flush();
+                    } catch (IOException ex) {
+                        LOG.error(ex.getMessage(), ex);
+                    } finally {
+                        IOUtils.closeQuietly(zstdOutputStream);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    @Override
+    public OutputStream processContent(OutputStream output, ProcessorContext context)
+            throws IOException {
+        context.hint(ResourceUtil.PROP_ENCODING, ClientlibService.ENCODING_ZSTD);
+        return new FrameOutputStream(output);
+    }
+
+    /**
+     * Collects the content up to the frame size and writes each block as a complete zstd frame.
+     */
+    protected static class FrameOutputStream extends FilterOutputStream {
+
+        protected final ZstdCompressor compressor = new ZstdCompressor();
+        protected final byte[] block = new byte[FRAME_SIZE];
+        protected final byte[] frame = new byte[compressor.maxCompressedLength(FRAME_SIZE)];
+        protected int count;
+        protected boolean written;
+        protected boolean closed;
+
+        public FrameOutputStream(OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == block.length) {
+                writeFrame();
+            }
+            block[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(@Nonnull byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == block.length) {
+                    writeFrame();
+                }
+                int chunk = Math.min(length, block.length - count);
+                System.arraycopy(buffer, offset, block, count, chunk);
+                count += chunk;
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        /**
+         * Doesn't end the current frame - a flush between the writes of a processor would split the frames.
+         */
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    if (count > 0 || !written) {
+                        writeFrame(); // an empty content is encoded as one empty frame
+                    }
+                    out.flush();
+                } finally {
+                    out.close();
+                }
+            }
+        }
+
+        protected void writeFrame() throws IOException {
+            int size = compressor.compress(block, 0, count, frame, 0, frame.length);
+            out.write(frame, 0, size);
+            written = true;
+            count = 0;
+        }
+    }
+}
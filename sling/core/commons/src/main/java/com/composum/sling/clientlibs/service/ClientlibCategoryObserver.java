@@ -0,0 +1,209 @@
+package com.composum.sling.clientlibs.service;
+
+import com.composum.sling.core.event.AbstractCoalescingChangeObserver;
+import com.composum.sling.core.filter.StringFilter;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.slf4j.Logger;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.composum.sling.clientlibs.handle.Clientlib.PROP_CATEGORY;
+import static com.composum.sling.clientlibs.handle.Clientlib.PROP_ORDER;
+import static com.composum.sling.clientlibs.handle.Clientlib.RESOURCE_TYPE;
+import static com.composum.sling.core.util.ResourceUtil.PROP_RESOURCE_TYPE;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Observes the client libraries below one element of the search path (e.g. '/apps' or '/libs') and drops the
+ * cached locations of the client libraries of the categories affected by a change from the
+ * {@link DefaultClientlibService#categoryToPathCache}: the categories containing a removed, moved or changed client
+ * library (or a client library shadowed by it) and the categories of added or changed client libraries. Changes of
+ * the files of a client library don't change the locations; these are only dropping the memoized update times
+ * ({@link DefaultClientlibService#updateTimeCache}) depending on the changed files. The events are collected by the
+ * coalescing base class; the changes of each window are handled with one invalidation in a worker thread.
+ */
+public class ClientlibCategoryObserver extends AbstractCoalescingChangeObserver {
+
+    private static final Logger LOG = getLogger(ClientlibCategoryObserver.class);
+
+    /**
+     * the properties relevant for the resolution of a category
+     */
+    public static final StringFilter CATEGORY_PROPERTY_FILTER = new StringFilter.WhiteList(
+            "/(" + PROP_CATEGORY + "|" + PROP_ORDER + "|" + PROP_RESOURCE_TYPE + ")$");
+
+    /**
+     * the properties relevant for the update times (the default filter) and for the resolution of the categories
+     */
+    public static final StringFilter PROPERTY_FILTER = new StringFilter.FilterSet(StringFilter.FilterSet.Rule.or,
+            PROPERTY_PATH_FILTER, CATEGORY_PROPERTY_FILTER);
+
+    /**
+     * the time (in milliseconds) the changes are collected - short to keep the caches up to date
+     */
+    public static final long WINDOW_TIME = 200L;
+
+    protected final DefaultClientlibService service;
+
+    protected final String observedPath;
+
+    /**
+     * the resolver of the session the observer is registered for - open while the observer is active
+     */
+    protected ResourceResolver observationResolver;
+
+    public ClientlibCategoryObserver(DefaultClientlibService service, String observedPath) {
+        this.service = service;
+        this.observedPath = observedPath;
+    }
+
+    /**
+     * we don't change anything - there are no self generated events to ignore
+     */
+    @Override
+    protected String getServiceUserId() {
+        return null;
+    }
+
+    @Override
+    protected String getObservedPath() {
+        return observedPath;
+    }
+
+    @Override
+    protected StringFilter getPropertyPathFilter() {
+        return PROPERTY_FILTER;
+    }
+
+    @Override
+    protected long getWindowTime() {
+        return WINDOW_TIME;
+    }
+
+    /**
+     * the windows are processed one after the other
+     */
+    @Override
+    protected int getParallelism() {
+        return 1;
+    }
+
+    /**
+     * changes on other cluster nodes are relevant for the cache, too
+     */
+    @Override
+    protected boolean ignoreEvent(Event event) {
+        return false;
+    }
+
+    @Override
+    protected boolean isTargetNode(Node node) throws RepositoryException {
+        return node.hasProperty(PROP_RESOURCE_TYPE)
+                && RESOURCE_TYPE.equals(node.getProperty(PROP_RESOURCE_TYPE).getString());
+    }
+
+    /**
+     * only the changed client libraries themselves are targets - the changes of their files are not affecting the
+     * locations of the categories
+     */
+    @Override
+    protected String getTargetPath(Node node) {
+        return null;
+    }
+
+    /**
+     * drops the cached locations of the categories of an added or changed client library
+     */
+    @Override
+    protected void doOnChange(ResourceResolver resolver, ChangedResource change) {
+        Collection<String> categories = getCategories(change.getResource());
+        if (!categories.isEmpty()) {
+            service.invalidateCategories(null, categories);
+        }
+    }
+
+    /**
+     * Handles all changes of the window with one invalidation: the changed paths (removed, moved and changed client
+     * libraries and the client libraries shadowed by them, changed files) and the categories of the added or
+     * changed client libraries. The date of the latest event is the new stamp of the hash index.
+     *
+     * @return the number of changes of the window - each change is handled
+     */
+    @Override
+    protected int processChanges(List<PendingChange> window) {
+        Set<String> changedPaths = new LinkedHashSet<>();
+        Set<String> categories = new LinkedHashSet<>();
+        Calendar changeTime = null;
+        boolean clearAll = false;
+        try {
+            ResourceResolver resolver = getResolver();
+            try {
+                for (PendingChange change : window) {
+                    changedPaths.add(change.getPath());
+                    if (change.getTime() != null && (changeTime == null || change.getTime().after(changeTime))) {
+                        changeTime = change.getTime();
+                    }
+                    Resource resource = resolver.getResource(change.getPath());
+                    Node node = resource != null ? resource.adaptTo(Node.class) : null;
+                    if (node != null) {
+                        if (isTargetNode(node)) {
+                            categories.addAll(getCategories(resource));
+                        } else if ((change.getTypes() & Event.NODE_MOVED) != 0) {
+                            // client libraries could be moved with the node - we don't search for them
+                            clearAll = true;
+                        }
+                    }
+                }
+            } finally {
+                resolver.close();
+            }
+        } catch (LoginException | RepositoryException | RuntimeException ex) {
+            LOG.error(ex.getMessage(), ex);
+            clearAll = true;
+        }
+        if (clearAll) {
+            service.clearCategoryCache();
+        }
+        service.invalidateCategories(changedPaths, categories, changeTime);
+        return window.size();
+    }
+
+    protected Collection<String> getCategories(Resource resource) {
+        ValueMap values = resource.adaptTo(ValueMap.class);
+        return Arrays.asList(values != null ? values.get(PROP_CATEGORY, new String[0]) : new String[0]);
+    }
+
+    @Override
+    protected ResourceResolver getResolver() throws LoginException {
+        return service.createAdministrativeResolver();
+    }
+
+    @Override
+    protected Session getSession() throws RepositoryException {
+        if (observationResolver == null) {
+            observationResolver = service.createAdministrativeResolver();
+        }
+        return observationResolver.adaptTo(Session.class);
+    }
+
+    @Override
+    public void deactivate() {
+        super.deactivate();
+        if (observationResolver != null) {
+            observationResolver.close();
+            observationResolver = null;
+        }
+    }
+}
@@ -30,6 +30,12 @@ public interface ClientlibConfiguration {
 
     String getCacheRoot();
 
+    /** General - Memory cache size : the size (in kB) of the in-memory cache for the content of the clientlib cache files. <=0 disables it. */
+    int getMemoryCacheSize();
+
+    /** General - Piped processing : if true, the content is processed with piped streams in several threads of the thread pool instead of a single threaded pipeline. */
+    boolean getPipedProcessing();
+
     int getThreadPoolMin();
 
     int getThreadPoolMax();
@@ -37,6 +43,15 @@ public interface ClientlibConfiguration {
     /** General - Resolver cachetime : the time (in seconds) the clientlib resolver caches the locations of all client libraries for a category. <=0 means no caching. */
     int getResolverCachetime();
 
+    /** General - Resolver observation : if true the locations of the client libraries for a category are cached until changes are observed instead of the resolver cachetime. */
+    boolean getResolverObservation();
+
+    /** General - Hash index : if true the hashes for the recency checks are persisted below the cache root and shared by the cluster nodes (requires the resolver observation). */
+    boolean getHashIndex();
+
+    /** General - Hash index verification : if true each memoized hash is checked against a full recompute; for debugging. */
+    boolean getHashIndexVerification();
+
     /** Inserts HTML comments with the client libraries that have been called up into the page */
     boolean getTagDebug();
 
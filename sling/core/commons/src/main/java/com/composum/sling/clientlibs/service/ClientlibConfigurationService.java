@@ -122,6 +122,17 @@ public class ClientlibConfigurationService implements ClientlibConfiguration {
     )
     protected String cacheRoot;
 
+    public static final int DEFAULT_MEMORY_CACHE_SIZE = 4096;
+    public static final String MEMORY_CACHE_SIZE = "clientlibs.cache.memory.size";
+    @Property(
+            name = MEMORY_CACHE_SIZE,
+            label = "General - Memory cache size",
+            description = "the size (in kB) of the in-memory cache for the content of the clientlib cache files; <=0 disables the memory cache; default: "
+                    + DEFAULT_MEMORY_CACHE_SIZE,
+            intValue = DEFAULT_MEMORY_CACHE_SIZE
+    )
+    protected int memoryCacheSize;
+
     public static final boolean DEFAULT_USE_MINIFIED_FILES = true;
     public static final String USE_MINIFIED_FILES = "clientlibs.files.minified";
     @Property(
@@ -142,6 +153,17 @@ public class ClientlibConfigurationService implements ClientlibConfiguration {
     )
     protected boolean mapClientlibURLs;
 
+    public static final boolean DEFAULT_PIPED_PROCESSING = false;
+    public static final String PIPED_PROCESSING = "clientlibs.processing.piped";
+    @Property(
+            name = PIPED_PROCESSING,
+            label = "General - Piped processing",
+            description = "if 'on' the clientlib content is processed with piped streams in several threads of the thread pool " +
+                    "(the former mode) instead of a single threaded streaming pipeline; default: 'off'",
+            boolValue = DEFAULT_PIPED_PROCESSING
+    )
+    protected boolean pipedProcessing;
+
     public static final int DEFAULT_THREAD_POOL_MIN = 10;
     public static final String MIN_THREAD_POOL_SIZE = "clientlibs.threadpool.min";
     @Property(
@@ -173,6 +195,35 @@ public class ClientlibConfigurationService implements ClientlibConfiguration {
     )
     protected int resolverCachetime;
 
+    public static final boolean DEFAULT_RESOLVER_OBSERVATION = true;
+    public static final String RESOLVER_OBSERVATION = "clientlibs.resolver.observation";
+    @Property(
+            name = RESOLVER_OBSERVATION,
+            label = "General - Resolver observation",
+            description = "if 'true' the locations of the client libraries for a category are cached until changes of client libraries in the search path are observed - the resolver cachetime is ignored then; <=0 as resolver cachetime still disables the caching",
+            boolValue = DEFAULT_RESOLVER_OBSERVATION
+    )
+    protected boolean resolverObservation;
+
+    public static final boolean DEFAULT_HASH_INDEX = false;
+    public static final String HASH_INDEX = "clientlibs.hashindex";
+    @Property(
+            name = HASH_INDEX,
+            label = "General - Hash index",
+            description = "if 'true' the hashes for the recency checks of the cache files are persisted below the cache root, so that the cluster nodes are sharing them; requires the resolver observation",
+            boolValue = DEFAULT_HASH_INDEX
+    )
+    protected boolean hashIndex;
+
+    public static final String HASH_INDEX_VERIFICATION = "clientlibs.hashindex.verification";
+    @Property(
+            name = HASH_INDEX_VERIFICATION,
+            label = "General - Hash index verification",
+            description = "if 'true' each memoized or persisted hash is checked against a full recompute and mismatches are logged as errors; for debugging only",
+            boolValue = false
+    )
+    protected boolean hashIndexVerification;
+
     // CSS configuration
 
     @Override
@@ -231,6 +282,18 @@ public class ClientlibConfigurationService implements ClientlibConfiguration {
         return cacheRoot;
     }
 
+    /** General - Memory cache size : the size (in kB) of the in-memory cache for the content of the clientlib cache files. <=0 disables it. */
+    @Override
+    public int getMemoryCacheSize() {
+        return memoryCacheSize;
+    }
+
+    /** General - Piped processing : if true, the content is processed with piped streams in several threads of the thread pool instead of a single threaded pipeline. */
+    @Override
+    public boolean getPipedProcessing() {
+        return pipedProcessing;
+    }
+
     @Override
     public int getThreadPoolMin() {
         return threadPoolMin;
@@ -247,6 +310,24 @@ public class ClientlibConfigurationService implements ClientlibConfiguration {
         return resolverCachetime;
     }
 
+    /** General - Resolver observation : if true the locations of the client libraries for a category are cached until changes are observed instead of the resolver cachetime. */
+    @Override
+    public boolean getResolverObservation() {
+        return resolverObservation;
+    }
+
+    /** General - Hash index : if true the hashes for the recency checks are persisted below the cache root and shared by the cluster nodes (requires the resolver observation). */
+    @Override
+    public boolean getHashIndex() {
+        return hashIndex;
+    }
+
+    /** General - Hash index verification : if true each memoized hash is checked against a full recompute; for debugging. */
+    @Override
+    public boolean getHashIndexVerification() {
+        return hashIndexVerification;
+    }
+
     /** Inserts HTML comments with the client libraries that have been called up into the page */
     @Override
     public boolean getTagDebug() {
@@ -276,11 +357,16 @@ public class ClientlibConfigurationService implements ClientlibConfiguration {
         useMinifiedFiles = !debug && PropertiesUtil.toBoolean(properties.get(USE_MINIFIED_FILES), DEFAULT_USE_MINIFIED_FILES);
         gzipEnabled = PropertiesUtil.toBoolean(properties.get(GZIP_ENABLED), DEFAULT_GZIP_ENABLED);
         cacheRoot = PropertiesUtil.toString(properties.get(CACHE_ROOT), DEFAULT_CACHE_ROOT);
+        memoryCacheSize = PropertiesUtil.toInteger(properties.get(MEMORY_CACHE_SIZE), DEFAULT_MEMORY_CACHE_SIZE);
+        pipedProcessing = PropertiesUtil.toBoolean(properties.get(PIPED_PROCESSING), DEFAULT_PIPED_PROCESSING);
         threadPoolMin = PropertiesUtil.toInteger(properties.get(MIN_THREAD_POOL_SIZE), DEFAULT_THREAD_POOL_MIN);
         threadPoolMax = PropertiesUtil.toInteger(properties.get(MAX_THREAD_POOL_SIZE), DEFAULT_THREAD_POOL_MAX);
         if (threadPoolMin < DEFAULT_THREAD_POOL_MIN) threadPoolMin = DEFAULT_THREAD_POOL_MIN;
         if (threadPoolMax < threadPoolMin) threadPoolMax = threadPoolMin;
         resolverCachetime = PropertiesUtil.toInteger(properties.get(RESOLVER_CACHETIME), DEFAULT_RESOLVER_CACHETIME);
+        resolverObservation = PropertiesUtil.toBoolean(properties.get(RESOLVER_OBSERVATION), DEFAULT_RESOLVER_OBSERVATION);
+        hashIndex = PropertiesUtil.toBoolean(properties.get(HASH_INDEX), DEFAULT_HASH_INDEX);
+        hashIndexVerification = PropertiesUtil.toBoolean(properties.get(HASH_INDEX_VERIFICATION), false);
         rerenderOnNocache = PropertiesUtil.toBoolean(properties.get(RERENDER_ON_NOCACHE), false);
     }
 }
@@ -0,0 +1,170 @@
+package com.composum.sling.clientlibs.service;
+
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A size bounded in-memory cache for the content of the clientlib cache files. The entries are keyed by the path of
+ * the cache file and are only valid for the hash ({@link DefaultClientlibService#PROP_HASH}) the content was cached
+ * with, so that a cache file regenerated (e.g. by another cluster node) is never delivered from a stale entry.
+ * If the configured size is exceeded the least recently used entries are evicted.
+ */
+public class ClientlibContentCache {
+
+    private static final Logger LOG = getLogger(ClientlibContentCache.class);
+
+    protected static class Entry {
+
+        protected final String hash;
+        protected final byte[] content;
+
+        protected Entry(String hash, byte[] content) {
+            this.hash = hash;
+            this.content = content;
+        }
+    }
+
+    /** The maximum summarized size of the cached content in bytes; <= 0 disables the cache. */
+    protected final long maxSize;
+
+    /** The maximum size of a single entry - we don't want to throw away everything for one huge file. */
+    protected final long maxEntrySize;
+
+    /** Access ordered map of the cached entries - the eldest entry is the least recently used one. */
+    protected final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    protected long size = 0;
+
+    protected final AtomicLong hits = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+    protected final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum summarized size of the cached content in bytes; <= 0 disables the cache
+     */
+    public ClientlibContentCache(long maxSize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxSize / 4;
+    }
+
+    /** Returns true if the cache is configured to hold any content. */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /** Returns true if content of the given size is a candidate for caching. */
+    public boolean accepts(@Nullable Long contentSize) {
+        return isEnabled() && contentSize != null && contentSize >= 0 && contentSize <= maxEntrySize;
+    }
+
+    /**
+     * Returns the cached content of the cache file, if there is content cached for exactly this hash.
+     *
+     * @param cachePath the path of the cache file
+     * @param hash      the hash of the cache files current content
+     * @return the content or null if there is no matching entry
+     */
+    @Nullable
+    public byte[] get(@Nonnull String cachePath, @Nullable String hash) {
+        if (!isEnabled()) {
+            return null;
+        }
+        if (hash != null) {
+            synchronized (entries) {
+                Entry entry = entries.get(cachePath);
+                if (entry != null) {
+                    if (hash.equals(entry.hash)) {
+                        hits.incrementAndGet();
+                        return entry.content;
+                    }
+                    // the cache file was regenerated - the entry is obsolete
+                    removeEntry(cachePath);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the content of the cache file for the given hash. Ignored if the content is too large.
+     */
+    public void put(@Nonnull String cachePath, @Nullable String hash, @Nonnull byte[] content) {
+        if (hash != null && accepts((long) content.length)) {
+            synchronized (entries) {
+                removeEntry(cachePath);
+                entries.put(cachePath, new Entry(hash, content));
+                size += content.length;
+                Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+                while (size > maxSize && iterator.hasNext()) {
+                    Map.Entry<String, Entry> eldest = iterator.next();
+                    iterator.remove();
+                    size -= eldest.getValue().content.length;
+                    evictions.incrementAndGet();
+                    LOG.debug("evicted: {}", eldest.getKey());
+                }
+            }
+        }
+    }
+
+    /** Drops the cached content of the cache file, e.g. if the cache file is regenerated. */
+    public void invalidate(@Nonnull String cachePath) {
+        synchronized (entries) {
+            removeEntry(cachePath);
+        }
+    }
+
+    /** Drops the whole cached content. */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    protected void removeEntry(String cachePath) {
+        Entry removed = entries.remove(cachePath);
+        if (removed != null) {
+            size -= removed.content.length;
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** The summarized size of the currently cached content in bytes. */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ClientlibContentCache{" + "entries=" + getEntryCount() + ", size=" + getSize() + "/" + maxSize +
+                ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + '}';
+    }
+}
@@ -0,0 +1,178 @@
+package com.composum.sling.clientlibs.service;
+
+import com.composum.sling.clientlibs.processor.UpdateTimeVisitor;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.RepositoryException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.composum.sling.core.util.ResourceUtil.PROP_PRIMARY_TYPE;
+import static com.composum.sling.core.util.ResourceUtil.TYPE_SLING_FOLDER;
+import static com.composum.sling.core.util.ResourceUtil.TYPE_UNSTRUCTURED;
+import static com.composum.sling.core.util.ResourceUtil.getOrCreateResource;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Persists the memoized results of the {@link UpdateTimeVisitor} ({@link ClientlibUpdateTimeCache.Entry}) below the
+ * clientlib cache root, so that a cluster node doesn't need to visit all embedded elements again if another node has
+ * done that already - a lookup reads a single node with a handful of properties. The entries are stored in a folder
+ * named by the stamp of the index: the date of the latest change of a client library observed. The date of an event
+ * is the same on all cluster nodes, so the nodes which have observed the same changes are sharing the entries, and an
+ * entry written by a node which has not observed a change yet can't be used by a node which has. The stamp is
+ * advanced by the category observers once for each window of changes, the folders of the older stamps are removed
+ * then. Entries written before the observation of this node was started are not trusted since the changes before
+ * are possibly not observed.
+ */
+public class ClientlibHashIndex {
+
+    private static final Logger LOG = getLogger(ClientlibHashIndex.class);
+
+    public static final String PROP_KEY = "key";
+    public static final String PROP_HASH = "hash";
+    public static final String PROP_LAST_UPDATE_TIME = "lastUpdateTime";
+    public static final String PROP_DEPENDENCIES = "dependencies";
+    public static final String PROP_CATEGORIES = "categories";
+    public static final String PROP_INDEXED = "indexed";
+
+    protected final String indexRoot;
+
+    /** the time (in milliseconds) since the changes are observed; older entries are ignored */
+    protected final long trustedSince;
+
+    /** the date (in milliseconds) of the latest observed change; the name of the folder of the current entries */
+    protected volatile long stamp = 0L;
+
+    public ClientlibHashIndex(@Nonnull String indexRoot, long trustedSince) {
+        this.indexRoot = indexRoot;
+        this.trustedSince = trustedSince;
+    }
+
+    /**
+     * @return the persisted entry for the key if it's present and trusted
+     */
+    @Nullable
+    public ClientlibUpdateTimeCache.Entry read(@Nonnull ResourceResolver resolver, @Nonnull String key) {
+        Resource resource = resolver.getResource(getIndexPath(key));
+        ValueMap values = resource != null ? resource.adaptTo(ValueMap.class) : null;
+        if (values != null && key.equals(values.get(PROP_KEY, String.class))) {
+            Calendar indexed = values.get(PROP_INDEXED, Calendar.class);
+            String hash = values.get(PROP_HASH, String.class);
+            if (indexed != null && indexed.getTimeInMillis() >= trustedSince && hash != null) {
+                return new ClientlibUpdateTimeCache.Entry(hash, values.get(PROP_LAST_UPDATE_TIME, Calendar.class),
+                        Arrays.asList(values.get(PROP_DEPENDENCIES, new String[0])),
+                        Arrays.asList(values.get(PROP_CATEGORIES, new String[0])));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Persists the entry for the key; a concurrent write of another node is ignored.
+     */
+    public void write(@Nonnull ResourceResolver resolver, @Nonnull String key,
+                      @Nonnull ClientlibUpdateTimeCache.Entry entry) {
+        try {
+            Resource resource = resolver.getResource(getIndexPath(key));
+            if (resource != null) {
+                resolver.delete(resource);
+            }
+            Map<String, Object> properties = new HashMap<>();
+            properties.put(PROP_PRIMARY_TYPE, TYPE_UNSTRUCTURED);
+            properties.put(PROP_KEY, key);
+            properties.put(PROP_HASH, entry.getHash());
+            if (entry.getLastUpdateTime() != null) {
+                properties.put(PROP_LAST_UPDATE_TIME, entry.getLastUpdateTime());
+            }
+            properties.put(PROP_DEPENDENCIES, entry.getDependencies().toArray(new String[0]));
+            properties.put(PROP_CATEGORIES, entry.getCategories().toArray(new String[0]));
+            properties.put(PROP_INDEXED, Calendar.getInstance());
+            String path = getIndexPath(key);
+            Resource parent = getOrCreateResource(resolver, path.substring(0, path.lastIndexOf('/')),
+                    TYPE_SLING_FOLDER);
+            resolver.create(parent, getIndexName(key), properties);
+            resolver.commit();
+        } catch (PersistenceException | RepositoryException ex) {
+            LOG.debug("hash index entry for '{}' not written: {}", key, ex.toString());
+            resolver.revert();
+        }
+    }
+
+    /**
+     * Advances the stamp to the date of a change and removes the folders of the older stamps; the entries of the
+     * folders aren't visited.
+     *
+     * @param changeTime the date (in milliseconds) of the latest observed change
+     */
+    public void advance(@Nonnull ResourceResolver resolver, long changeTime) {
+        if (changeTime <= stamp) {
+            return;
+        }
+        stamp = changeTime;
+        Resource root = resolver.getResource(indexRoot);
+        if (root != null) {
+            try {
+                List<String> removed = new ArrayList<>();
+                for (Iterator<Resource> iterator = root.listChildren(); iterator.hasNext(); ) {
+                    Resource folder = iterator.next();
+                    if (NumberUtils.toLong(folder.getName(), Long.MAX_VALUE) < changeTime) {
+                        removed.add(folder.getName());
+                        resolver.delete(folder);
+                    }
+                }
+                if (!removed.isEmpty()) {
+                    resolver.commit();
+                    LOG.debug("hash index stamps removed: {}", removed);
+                }
+            } catch (PersistenceException ex) {
+                // probably removed concurrently by the observer of another node
+                LOG.debug("hash index stamps not removed: {}", ex.toString());
+                resolver.revert();
+            }
+        }
+    }
+
+    public long getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Removes the entry for the key, e.g. if it's not matching the full recompute in the verification mode.
+     */
+    public void remove(@Nonnull ResourceResolver resolver, @Nonnull String key) {
+        try {
+            Resource resource = resolver.getResource(getIndexPath(key));
+            if (resource != null) {
+                resolver.delete(resource);
+                resolver.commit();
+            }
+        } catch (PersistenceException ex) {
+            LOG.debug("hash index entry for '{}' not removed: {}", key, ex.toString());
+            resolver.revert();
+        }
+    }
+
+    @Nonnull
+    protected String getIndexPath(@Nonnull String key) {
+        return indexRoot + "/" + stamp + "/" + getIndexName(key);
+    }
+
+    /** The name of the entry node is the hash of the key to avoid invalid names. */
+    @Nonnull
+    protected String getIndexName(@Nonnull String key) {
+        return DigestUtils.sha1Hex(key);
+    }
+}
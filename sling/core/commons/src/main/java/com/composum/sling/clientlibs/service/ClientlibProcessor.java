@@ -1,9 +1,12 @@
 package com.composum.sling.clientlibs.service;
 
+import com.composum.sling.clientlibs.processor.BufferedProcessorStream;
 import com.composum.sling.clientlibs.processor.ProcessorContext;
+import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 /** Modifies the content of resources embedded in a client library. */
 public interface ClientlibProcessor {
@@ -19,4 +22,28 @@ public interface ClientlibProcessor {
      */
     InputStream processContent(InputStream sourceStream, ProcessorContext context)
             throws IOException;
+
+    /**
+     * Pipeline mode: returns a stream which transforms the content written to it into the output within the calling
+     * thread - without pipes and further threads. Closing the returned stream completes the transformation and
+     * closes the output. The default implementation collects the content and transforms it with
+     * {@link #processContent(InputStream, ProcessorContext)} on close.
+     *
+     * @param output the stream to write the transformation result to
+     * @return the stream to write the original content to - might also be the output itself if switched off
+     */
+    default OutputStream processContent(OutputStream output, final ProcessorContext context)
+            throws IOException {
+        return new BufferedProcessorStream(output) {
+            @Override
+            protected void transform(InputStream content, OutputStream output) throws IOException {
+                InputStream result = processContent(content, context);
+                try {
+                    IOUtils.copy(result, output);
+                } finally {
+                    IOUtils.closeQuietly(result);
+                }
+            }
+        };
+    }
 }
@@ -5,6 +5,7 @@ import com.composum.sling.clientlibs.handle.ClientlibCategory;
 import com.composum.sling.clientlibs.handle.ClientlibElement;
 import com.composum.sling.clientlibs.handle.ClientlibLink;
 import com.composum.sling.clientlibs.handle.ClientlibRef;
+import com.composum.sling.clientlibs.processor.RenderedLinks;
 import com.composum.sling.clientlibs.processor.RendererContext;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.PersistenceException;
@@ -18,6 +19,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.util.Calendar;
+import java.util.List;
 
 /**
  * Various internal functionality about client libraries.
@@ -25,6 +27,7 @@ import java.util.Calendar;
 public interface ClientlibService {
 
     String ENCODING_GZIP = "gzip";
+    String ENCODING_ZSTD = "zstd";
 
     /**
      * Resolves the element corresponding to the ref.
@@ -40,6 +43,15 @@ public interface ClientlibService {
 
     ClientlibConfiguration getClientlibConfig();
 
+    /**
+     * Returns the content encodings the clientlibs can be delivered with in the order of preference - each
+     * encoding has its own cache file.
+     *
+     * @return the enabled encodings of the registered encoding processors; empty if no encoding is enabled
+     */
+    @Nonnull
+    List<String> getEncodings();
+
     /**
      * Renders the references to the ressources of the clientlibs into the page.
      *
@@ -48,6 +60,17 @@ public interface ClientlibService {
     void renderClientlibLinks(ClientlibElement clientlib, Writer writer, SlingHttpServletRequest request,
                               RendererContext context) throws IOException, RepositoryException;
 
+    /**
+     * Returns the recorded rendering of the references to the resources of the clientlib; the result is to be
+     * replayed against the context of the request to determine the links to render into the page.
+     *
+     * @param clientlib a {@link Clientlib} or {@link ClientlibCategory}
+     * @param context   the context of the request; only the resolver and the configuration are used
+     */
+    @Nonnull
+    RenderedLinks getRenderedLinks(ClientlibElement clientlib, RendererContext context)
+            throws IOException, RepositoryException;
+
     /**
      * Writes the content to a cache if it wasn't there, and returns a collection of information to be put into the
      * response headers.
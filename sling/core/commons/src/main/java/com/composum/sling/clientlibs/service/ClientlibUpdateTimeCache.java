@@ -0,0 +1,183 @@
+package com.composum.sling.clientlibs.service;
+
+import com.composum.sling.clientlibs.processor.UpdateTimeVisitor;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Memoizes the results of the {@link UpdateTimeVisitor} (hash and last update time) of clientlibs and categories
+ * together with the resources the results depend on, so that the recency check of a cache file doesn't need to walk
+ * the whole graph of the embedded elements as long as nothing relevant was changed. The entries are invalidated by
+ * the observed changes ({@link #invalidate(Collection, Collection)}); the dependencies are keyed relative to the
+ * search path (see {@link DefaultClientlibService#getSearchPathKey(String)}) so that shadowing resources are
+ * detected, too.
+ * <p>
+ * Only the result of the whole graph is memoized. A relevant change drops the entry and the next check walks the
+ * whole graph of the clientlib or category again. The hash contributions of the embedded elements are not kept:
+ * the hash is a rolling hash over the elements in the order of the visit, and the elements of a branch depend on
+ * the elements processed before it (duplicates are skipped), so a branch can't be recomputed on its own.
+ */
+public class ClientlibUpdateTimeCache {
+
+    private static final Logger LOG = getLogger(ClientlibUpdateTimeCache.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /** The memoized result of a visitor and the resources and categories it depends on. */
+    public static class Entry {
+
+        protected final String hash;
+        protected final Calendar lastUpdateTime;
+        protected final NavigableSet<String> dependencies;
+        protected final Set<String> categories;
+
+        public Entry(@Nonnull String hash, @Nullable Calendar lastUpdateTime,
+                     @Nonnull Collection<String> dependencies, @Nonnull Collection<String> categories) {
+            this.hash = hash;
+            this.lastUpdateTime = lastUpdateTime;
+            this.dependencies = new TreeSet<>(dependencies);
+            this.categories = new TreeSet<>(categories);
+        }
+
+        @Nonnull
+        public String getHash() {
+            return hash;
+        }
+
+        @Nullable
+        public Calendar getLastUpdateTime() {
+            return lastUpdateTime;
+        }
+
+        @Nonnull
+        public Set<String> getDependencies() {
+            return dependencies;
+        }
+
+        @Nonnull
+        public Set<String> getCategories() {
+            return categories;
+        }
+
+        /**
+         * Returns true if one of the changed keys or categories can change the result.
+         *
+         * @param changedKeys the search path keys of the changed resources
+         * @param categories  the changed categories
+         */
+        public boolean isAffectedBy(@Nullable Collection<String> changedKeys, @Nullable Collection<String> categories) {
+            if (categories != null && !Collections.disjoint(categories, this.categories)) {
+                return true;
+            }
+            if (changedKeys != null) {
+                for (String changedKey : changedKeys) {
+                    if (dependsOn(changedKey)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns true if a change at the given key can change the result: the key is a dependency, an ancestor of
+         * a dependency (e.g. a removed folder) or a descendant of a dependency (e.g. a file added to a folder).
+         */
+        public boolean dependsOn(@Nonnull String changedKey) {
+            if (changedKey.isEmpty() || dependencies.contains(changedKey)) {
+                return true;
+            }
+            for (int index = changedKey.lastIndexOf('/'); index > 0; index = changedKey.lastIndexOf('/', index - 1)) {
+                if (dependencies.contains(changedKey.substring(0, index))) {
+                    return true;
+                }
+            }
+            return !dependencies.subSet(changedKey + "/", true, changedKey + "/\uffff", true).isEmpty();
+        }
+    }
+
+    protected final Map<String, Entry> entries;
+
+    protected long generation = 0;
+
+    public ClientlibUpdateTimeCache(final int maxEntries) {
+        entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /** Returns the memoized result for the key. */
+    @Nullable
+    public synchronized Entry get(@Nonnull String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Returns the current generation which has to be given to {@link #put(String, long, Entry)}.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Memoizes the result if there was no invalidation since the given generation was retrieved - otherwise the
+     * result is possibly outdated already.
+     *
+     * @return 'true' if the result is memoized
+     */
+    public synchronized boolean put(@Nonnull String key, long generation, @Nonnull Entry entry) {
+        if (generation == this.generation) {
+            entries.put(key, entry);
+            return true;
+        }
+        return false;
+    }
+
+    /** Drops the memoized result for the key. */
+    public synchronized void remove(@Nonnull String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Drops the results depending on one of the changed keys or categories.
+     *
+     * @param changedKeys the search path keys of the changed resources
+     * @param categories  the changed categories
+     */
+    public synchronized void invalidate(@Nullable Collection<String> changedKeys,
+                                        @Nullable Collection<String> categories) {
+        generation++;
+        for (Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Entry> mapEntry = iterator.next();
+            if (mapEntry.getValue().isAffectedBy(changedKeys, categories)) {
+                LOG.debug("update time invalidated: {}", mapEntry.getKey());
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+}
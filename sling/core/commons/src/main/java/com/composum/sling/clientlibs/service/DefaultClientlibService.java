@@ -11,13 +11,16 @@ import com.composum.sling.clientlibs.handle.ClientlibResourceFolder;
 import com.composum.sling.clientlibs.handle.FileHandle;
 import com.composum.sling.clientlibs.processor.CssProcessor;
 import com.composum.sling.clientlibs.processor.CssUrlMapper;
+import com.composum.sling.clientlibs.processor.EncodingProcessor;
 import com.composum.sling.clientlibs.processor.GzipProcessor;
 import com.composum.sling.clientlibs.processor.JavascriptProcessor;
 import com.composum.sling.clientlibs.processor.LinkRenderer;
 import com.composum.sling.clientlibs.processor.ProcessingVisitor;
 import com.composum.sling.clientlibs.processor.ProcessorContext;
 import com.composum.sling.clientlibs.processor.ProcessorPipeline;
+import com.composum.sling.clientlibs.processor.RenderedLinks;
 import com.composum.sling.clientlibs.processor.RendererContext;
+import com.composum.sling.clientlibs.processor.RenderingVisitor;
 import com.composum.sling.clientlibs.processor.UpdateTimeVisitor;
 import com.composum.sling.core.ResourceHandle;
 import com.composum.sling.core.concurrent.LazyCreationService;
@@ -26,7 +29,9 @@ import com.composum.sling.core.filter.ResourceFilter;
 import com.composum.sling.core.util.ResourceUtil;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.map.LRUMap;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.felix.scr.annotations.Activate;
@@ -55,7 +60,10 @@ import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.query.Query;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -116,6 +124,15 @@ public class DefaultClientlibService implements ClientlibService {
     /** Top node for the category cache within the {@link ClientlibConfiguration#getCacheRoot()}. */
     protected static final String CATEGORYCACHE = "categorycache";
 
+    /** Top node for the {@link ClientlibHashIndex} within the {@link ClientlibConfiguration#getCacheRoot()}. */
+    protected static final String HASHINDEX = "hashindex";
+
+    /** The buffer size for the processing in pipeline mode. */
+    protected static final int PROCESSING_BUFFER_SIZE = 65536;
+
+    /** Content processed in pipeline mode which is larger than this is buffered in a temporary file. */
+    protected static final int PROCESSING_MEMORY_THRESHOLD = 4 * 1024 * 1024;
+
     static {
         CRUD_CACHE_FOLDER_PROPS = new HashMap<>();
         CRUD_CACHE_FOLDER_PROPS.put(com.composum.sling.core.util.ResourceUtil.PROP_PRIMARY_TYPE, ResourceUtil
@@ -154,6 +171,13 @@ public class DefaultClientlibService implements ClientlibService {
     )
     protected final List<ClientlibPermissionPlugin> permissionPlugins = new CopyOnWriteArrayList<>();
 
+    /** Additional encodings besides the always available {@link #gzipProcessor} (e.g. 'zstd'). */
+    @Reference(referenceInterface = EncodingProcessor.class,
+            cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE, policy = ReferencePolicy.DYNAMIC,
+            bind = "bindEncodingProcessor", unbind = "unbindEncodingProcessor"
+    )
+    protected final List<EncodingProcessor> encodingProcessors = new CopyOnWriteArrayList<>();
+
     protected ThreadPoolExecutor executorService = null;
 
     protected EnumMap<Clientlib.Type, ClientlibRenderer> rendererMap;
@@ -166,14 +190,77 @@ public class DefaultClientlibService implements ClientlibService {
      */
     protected final LRUMap /*String, Pair<Long, List<String>>*/ categoryToPathCache = new LRUMap(100);
 
+    /**
+     * Incremented on each invalidation of the {@link #categoryToPathCache} to prevent the caching of query results
+     * which were retrieved concurrently to the invalidation.
+     */
+    protected long categoryCacheGeneration = 0;
+
+    /**
+     * The observers of the search path elements which are invalidating the {@link #categoryToPathCache} on changes;
+     * while active the cached entries don't expire. Present only if all observers are registered successfully,
+     * otherwise the cached entries are expiring after the resolver cachetime (see {@link #isObserved()}).
+     */
+    protected final List<ClientlibCategoryObserver> categoryObservers = new CopyOnWriteArrayList<>();
+
+    /** The search path elements (e.g. '/apps/', '/libs/') the category observation is registered for. */
+    protected volatile String[] categorySearchPath = new String[0];
+
+    /**
+     * Memoized results of the {@link UpdateTimeVisitor} for the recency checks; used only while the changes are
+     * observed (see {@link #categoryObservers}).
+     */
+    protected final ClientlibUpdateTimeCache updateTimeCache =
+            new ClientlibUpdateTimeCache(ClientlibUpdateTimeCache.DEFAULT_MAX_ENTRIES);
+
+    /**
+     * Cache (String, RenderedLinks) of the recorded link rendering of the clientlib tag for each clientlib and user;
+     * used only while the changes are observed (see {@link #categoryObservers}) and dropped on each change.
+     */
+    protected final LRUMap /*String, RenderedLinks*/ renderedLinksCache = new LRUMap(500);
+
+    /**
+     * Incremented on each invalidation of the {@link #renderedLinksCache} to prevent the caching of renderings which
+     * were recorded concurrently to the invalidation.
+     */
+    protected long renderedLinksGeneration = 0;
+
+    /**
+     * The persisted results of the {@link UpdateTimeVisitor} shared with the other cluster nodes; present only while
+     * the changes are observed and if enabled by {@link ClientlibConfiguration#getHashIndex()}.
+     */
+    protected volatile ClientlibHashIndex hashIndex;
+
+    /**
+     * In-memory cache for the content of the cache files to avoid reading the binaries from the repository on each
+     * delivery; sized by {@link ClientlibConfiguration#getMemoryCacheSize()}.
+     */
+    protected volatile ClientlibContentCache contentCache = new ClientlibContentCache(0);
+
+    /**
+     * The permission plugins are filtering the resolved client libraries, so the cached locations and the recorded
+     * renderings are dropped on each change of the plugins.
+     */
     protected synchronized void bindPermissionPlugin(ClientlibPermissionPlugin permissionPlugin) {
         permissionPlugins.add(permissionPlugin);
-        categoryToPathCache.clear();
+        clearCategoryCache();
+        clearRenderedLinks();
     }
 
     protected synchronized void unbindPermissionPlugin(ClientlibPermissionPlugin permissionPlugin) {
         permissionPlugins.remove(permissionPlugin);
-        categoryToPathCache.clear();
+        clearCategoryCache();
+        clearRenderedLinks();
+    }
+
+    protected void bindEncodingProcessor(EncodingProcessor encodingProcessor) {
+        LOG.info("bindEncodingProcessor: {}", encodingProcessor.getEncoding());
+        encodingProcessors.add(encodingProcessor);
+    }
+
+    protected void unbindEncodingProcessor(EncodingProcessor encodingProcessor) {
+        LOG.info("unbindEncodingProcessor: {}", encodingProcessor.getEncoding());
+        encodingProcessors.remove(encodingProcessor);
     }
 
     @Modified
@@ -189,6 +276,12 @@ public class DefaultClientlibService implements ClientlibService {
         processorMap.put(Clientlib.Type.js, javascriptProcessor);
         processorMap.put(Clientlib.Type.css, getClientlibConfig().getMapClientlibURLs() ? new ProcessorPipeline(new
                 CssUrlMapper(), cssProcessor) : cssProcessor);
+        contentCache = new ClientlibContentCache(clientlibConfig.getMemoryCacheSize() * 1024L);
+        stopCategoryObservation();
+        clearCategoryCache();
+        if (clientlibConfig.getResolverObservation() && clientlibConfig.getResolverCachetime() > 0) {
+            startCategoryObservation(context);
+        }
     }
 
     @Deactivate
@@ -197,6 +290,59 @@ public class DefaultClientlibService implements ClientlibService {
             executorService.shutdown();
             executorService = null;
         }
+        LOG.info("deactivated: {}", contentCache);
+        contentCache.clear();
+        stopCategoryObservation();
+    }
+
+    /**
+     * Registers a {@link ClientlibCategoryObserver} for each element of the search path.
+     */
+    protected void startCategoryObservation(ComponentContext context) {
+        ResourceResolver adminResolver = createAdministrativeResolver();
+        try {
+            categorySearchPath = adminResolver.getSearchPath();
+        } finally {
+            adminResolver.close();
+        }
+        for (String searchPathElement : categorySearchPath) {
+            ClientlibCategoryObserver observer = new ClientlibCategoryObserver(this,
+                    StringUtils.defaultIfBlank(searchPathElement.replaceFirst("/+$", ""), "/"));
+            observer.activate(context);
+            categoryObservers.add(observer);
+            if (!observer.isRegistered()) {
+                // changes would be missed - the caches have to expire after the resolver cachetime
+                LOG.warn("observation of '{}' not available, using the resolver cachetime", observer.observedPath);
+                stopCategoryObservation();
+                return;
+            }
+        }
+        if (clientlibConfig.getHashIndex()) {
+            hashIndex = new ClientlibHashIndex(clientlibConfig.getCacheRoot() + "/" + HASHINDEX,
+                    System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @return 'true' if the changes of the client libraries are observed - the cached locations and the memoized
+     * results are valid until a change is observed then
+     */
+    protected boolean isObserved() {
+        return !categoryObservers.isEmpty();
+    }
+
+    /**
+     * Stops the observation - also if the observation couldn't be started completely; the caches which are valid
+     * only while the changes are observed are dropped.
+     */
+    protected void stopCategoryObservation() {
+        hashIndex = null;
+        for (ClientlibCategoryObserver observer : categoryObservers) {
+            observer.deactivate();
+        }
+        categoryObservers.clear();
+        clearCategoryCache();
+        clearRenderedLinks();
     }
 
 
@@ -328,10 +474,13 @@ public class DefaultClientlibService implements ClientlibService {
 
         List<String> paths = null;
         long currentTimeMillis = System.currentTimeMillis();
+        boolean observed = isObserved();
+        long generation;
         synchronized (categoryToPathCache) {
             Pair<Long, List<String>> cacheEntry = (Pair<Long, List<String>>) categoryToPathCache.get(category);
-            if (null != cacheEntry && cacheEntry.getLeft() >= (currentTimeMillis - cacheTime))
+            if (null != cacheEntry && (observed || cacheEntry.getLeft() >= (currentTimeMillis - cacheTime)))
                 paths = cacheEntry.getRight();
+            generation = categoryCacheGeneration;
         }
 
         if (null == paths) {
@@ -346,7 +495,9 @@ public class DefaultClientlibService implements ClientlibService {
             }
 
             synchronized (categoryToPathCache) {
-                categoryToPathCache.put(category, Pair.of(currentTimeMillis, paths));
+                if (generation == categoryCacheGeneration) { // otherwise the result is possibly outdated already
+                    categoryToPathCache.put(category, Pair.of(currentTimeMillis, paths));
+                }
             }
         }
 
@@ -361,6 +512,100 @@ public class DefaultClientlibService implements ClientlibService {
         return resources;
     }
 
+    /**
+     * Drops the cached client library locations of the given categories and of all categories containing a client
+     * library which is at or below one of the changed paths or shadowed by such a client library. The memoized
+     * update times depending on the changes are dropped, too.
+     *
+     * @param changedPaths the paths of changed, moved or removed nodes
+     * @param categories   the categories to drop
+     */
+    protected void invalidateCategories(@Nullable Collection<String> changedPaths,
+                                        @Nullable Collection<String> categories) {
+        invalidateCategories(changedPaths, categories, null);
+    }
+
+    /**
+     * Drops the cached client library locations and memoized update times like
+     * {@link #invalidateCategories(Collection, Collection)} and advances the stamp of the hash index.
+     *
+     * @param changeTime the date of the latest observed event; the current time if not known
+     */
+    protected void invalidateCategories(@Nullable Collection<String> changedPaths,
+                                        @Nullable Collection<String> categories, @Nullable Calendar changeTime) {
+        List<String> changedKeys = new ArrayList<>();
+        if (changedPaths != null) {
+            for (String path : changedPaths) {
+                changedKeys.add(getSearchPathKey(path));
+            }
+        }
+        updateTimeCache.invalidate(changedKeys, categories);
+        invalidateHashIndex(changeTime);
+        clearRenderedLinks();
+        synchronized (categoryToPathCache) {
+            categoryCacheGeneration++;
+            for (Iterator<Map.Entry> iterator = categoryToPathCache.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry entry = iterator.next();
+                boolean affected = categories != null && categories.contains(entry.getKey());
+                List<String> paths = ((Pair<Long, List<String>>) entry.getValue()).getRight();
+                for (int i = 0; !affected && i < paths.size(); i++) {
+                    String key = getSearchPathKey(paths.get(i));
+                    for (String changedKey : changedKeys) {
+                        if (changedKey.isEmpty() || key.equals(changedKey) || key.startsWith(changedKey + "/")) {
+                            affected = true;
+                            break;
+                        }
+                    }
+                }
+                if (affected) {
+                    LOG.debug("category cache invalidated: {}", entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Advances the stamp of the hash index to the time of the change, so that the persisted update times written
+     * before aren't used anymore; called once per window of observed changes.
+     */
+    protected void invalidateHashIndex(@Nullable Calendar changeTime) {
+        ClientlibHashIndex hashIndex = this.hashIndex;
+        if (hashIndex != null) {
+            ResourceResolver adminResolver = createAdministrativeResolver();
+            try {
+                hashIndex.advance(adminResolver,
+                        changeTime != null ? changeTime.getTimeInMillis() : System.currentTimeMillis());
+            } finally {
+                adminResolver.close();
+            }
+        }
+    }
+
+    /** Drops all cached client library locations and the memoized update times. */
+    protected void clearCategoryCache() {
+        updateTimeCache.clear();
+        synchronized (categoryToPathCache) {
+            categoryCacheGeneration++;
+            categoryToPathCache.clear();
+        }
+    }
+
+    /**
+     * @return the path relative to the search path element containing it - equal for shadowing client libraries
+     */
+    protected String getSearchPathKey(String path) {
+        for (String searchPathElement : categorySearchPath) {
+            if (path.startsWith(searchPathElement)) {
+                return path.substring(searchPathElement.length());
+            }
+            if (searchPathElement.equals(path + "/")) {
+                return "";
+            }
+        }
+        return path;
+    }
+
     protected List<Resource> retrieveResourcesForCategoryUncached(String category, ResourceResolver resolver) {
         List<Resource> resources = new ArrayList<>();
         Set<String> foundlibs = new HashSet<>();
@@ -444,6 +689,49 @@ public class DefaultClientlibService implements ClientlibService {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p> While the changes are observed the recorded rendering is cached per clientlib and user (the readable
+     * elements depend on the user) until a change in the search path; renderings which depend on resources outside
+     * of the search path are not cached.
+     */
+    @Override
+    @Nonnull
+    public RenderedLinks getRenderedLinks(ClientlibElement clientlib, RendererContext context)
+            throws IOException, RepositoryException {
+        boolean observed = isObserved();
+        String key = clientlib.getRef().toString() + "|" + context.getResolver().getUserID();
+        long generation;
+        synchronized (renderedLinksCache) {
+            RenderedLinks renderedLinks = observed ? (RenderedLinks) renderedLinksCache.get(key) : null;
+            if (renderedLinks != null) {
+                return renderedLinks;
+            }
+            generation = renderedLinksGeneration;
+        }
+        RenderedLinks renderedLinks = new RenderingVisitor(clientlib, context).record();
+        boolean cacheable = observed;
+        for (String path : renderedLinks.getPaths()) {
+            cacheable = cacheable && !getSearchPathKey(path).startsWith("/"); // changes outside aren't observed
+        }
+        if (cacheable) {
+            synchronized (renderedLinksCache) {
+                if (generation == renderedLinksGeneration) { // otherwise the recording is possibly outdated already
+                    renderedLinksCache.put(key, renderedLinks);
+                }
+            }
+        }
+        return renderedLinks;
+    }
+
+    /** Drops all recorded link renderings. */
+    protected void clearRenderedLinks() {
+        synchronized (renderedLinksCache) {
+            renderedLinksGeneration++;
+            renderedLinksCache.clear();
+        }
+    }
+
     /**
      * {@inheritDoc}
      * <p> If the requestedHash (generated by the rendering process) equal to the saved hash, we have no
@@ -492,9 +780,8 @@ public class DefaultClientlibService implements ClientlibService {
                 }
                 element = resolve(clientlibRef, adminResolver);
 
-                UpdateTimeVisitor updateTimeVisitor = new UpdateTimeVisitor(element, this, adminResolver);
-                updateTimeVisitor.execute();
-                final String hash = updateTimeVisitor.getHash();
+                ClientlibUpdateTimeCache.Entry updateTimes = getUpdateTimes(clientlibRef, element, adminResolver);
+                final String hash = updateTimes.getHash();
                 String cacheFileHash = cacheFile.getContent().getProperty(PROP_HASH);
 
                 if (!StringUtils.equals(requestedHash, hash)) {
@@ -510,14 +797,15 @@ public class DefaultClientlibService implements ClientlibService {
 
                 boolean refreshNeeded = refreshForced || !hash.equals(cacheFileHash);
                 // if the clientlib seems newer than the clientlib last modified, we rather regenerate things, too.
-                if (null != cacheFile.getLastModified() && null != updateTimeVisitor.getLastUpdateTime() &&
-                        updateTimeVisitor.getLastUpdateTime().after(cacheFile.getLastModified()))
+                if (null != cacheFile.getLastModified() && null != updateTimes.getLastUpdateTime() &&
+                        updateTimes.getLastUpdateTime().after(cacheFile.getLastModified()))
                     refreshNeeded = true;
 
                 if (refreshNeeded) {
                     LOG.info("prepare ''{}''...", clientlibRef);
 
                     Resource cacheEntry = adminResolver.getResource(cachePath);
+                    contentCache.invalidate(cachePath);
                     if (cacheEntry != null) {
                         LOG.info("deleting to be refreshed ''{}''...", cacheEntry);
                         adminResolver.delete(cacheEntry);
@@ -526,7 +814,7 @@ public class DefaultClientlibService implements ClientlibService {
 
                     final ProcessorContext context = new ProcessorContext(request, adminResolver, executorService,
                             getClientlibConfig().getMapClientlibURLs(), minified && clientlibConfig
-                            .getUseMinifiedFiles());
+                            .getUseMinifiedFiles(), clientlibConfig.getPipedProcessing());
 
                     LazyCreationService.InitializationStrategy initializer = initializationStrategy(clientlibRef,
                             encoding, hash, context);
@@ -546,6 +834,80 @@ public class DefaultClientlibService implements ClientlibService {
         return fileHints;
     }
 
+    /**
+     * Determines hash and last update time of the embedded elements with an {@link UpdateTimeVisitor}. While the
+     * changes are observed the results are memoized until a resource or category they depend on is changed; the
+     * results are persisted in the {@link #hashIndex} (if enabled) to share them with the other cluster nodes. After
+     * a relevant change the whole graph of the element is visited again (see {@link ClientlibUpdateTimeCache}).
+     */
+    @Nonnull
+    protected ClientlibUpdateTimeCache.Entry getUpdateTimes(ClientlibRef clientlibRef, ClientlibElement element,
+                                                            ResourceResolver adminResolver)
+            throws IOException, RepositoryException {
+        boolean observed = isObserved();
+        ClientlibHashIndex hashIndex = this.hashIndex;
+        String key = clientlibRef.toString() + (clientlibConfig.getUseMinifiedFiles() ? ".min" : "");
+        ClientlibUpdateTimeCache.Entry entry = null;
+        if (observed) {
+            entry = updateTimeCache.get(key);
+            if (entry == null && hashIndex != null) {
+                long generation = updateTimeCache.getGeneration();
+                entry = hashIndex.read(adminResolver, key);
+                if (entry != null) {
+                    updateTimeCache.put(key, generation, entry);
+                }
+            }
+            if (entry != null && clientlibConfig.getHashIndexVerification()) {
+                ClientlibUpdateTimeCache.Entry recomputed = computeUpdateTimes(element, adminResolver);
+                if (!entry.getHash().equals(recomputed.getHash())
+                        || !isSameTime(entry.getLastUpdateTime(), recomputed.getLastUpdateTime())) {
+                    LOG.error("Memoized hash for {} is outdated: {} instead of {}", key, entry.getHash(),
+                            recomputed.getHash());
+                    updateTimeCache.remove(key);
+                    if (hashIndex != null) {
+                        hashIndex.remove(adminResolver, key);
+                    }
+                    entry = null;
+                }
+            }
+        }
+        if (entry == null) {
+            long generation = updateTimeCache.getGeneration();
+            entry = computeUpdateTimes(element, adminResolver);
+            boolean cacheable = observed;
+            for (String dependency : entry.getDependencies()) {
+                cacheable = cacheable && !dependency.startsWith("/"); // changes outside aren't observed
+            }
+            if (cacheable && updateTimeCache.put(key, generation, entry) && hashIndex != null) {
+                hashIndex.write(adminResolver, key, entry);
+            }
+        }
+        return entry;
+    }
+
+    protected static boolean isSameTime(@Nullable Calendar time, @Nullable Calendar other) {
+        return time == null ? other == null : other != null && time.getTimeInMillis() == other.getTimeInMillis();
+    }
+
+    /**
+     * Visits the embedded elements with an {@link UpdateTimeVisitor}; the dependencies of the result are keyed
+     * relative to the search path.
+     */
+    @Nonnull
+    protected ClientlibUpdateTimeCache.Entry computeUpdateTimes(ClientlibElement element,
+                                                                ResourceResolver adminResolver)
+            throws IOException, RepositoryException {
+        UpdateTimeVisitor updateTimeVisitor = new UpdateTimeVisitor(element, this, adminResolver);
+        updateTimeVisitor.execute();
+        List<String> dependencies = new ArrayList<>();
+        for (String path : updateTimeVisitor.getDependencyPaths()) {
+            dependencies.add(getSearchPathKey(path));
+        }
+        return new ClientlibUpdateTimeCache.Entry(updateTimeVisitor.getHash(),
+                updateTimeVisitor.getLastUpdateTime(), dependencies,
+                updateTimeVisitor.getDependencyCategories());
+    }
+
     protected LazyCreationService.CreationStrategy creationStrategy() {
         return new LazyCreationService.CreationStrategy() {
             @Override
@@ -568,19 +930,34 @@ public class DefaultClientlibService implements ClientlibService {
             public void initialize(ResourceResolver adminResolver, Resource cacheEntry) throws
                     RepositoryException, PersistenceException {
 
+                DeferredFileOutputStream buffer = null;
                 try {
                     FileHandle cacheFile = new FileHandle(cacheEntry);
                     if (cacheFile.isValid()) {
                         LOG.debug("create clientlib cache content ''{}''...", cacheFile.getResource()
                                 .getPath());
 
-                        final PipedOutputStream outputStream = new PipedOutputStream();
-                        InputStream inputStream = new PipedInputStream(outputStream);
-                        Future<Void> result = startProcessing(clientlibRef, encoding, context, outputStream);
-                        if (ENCODING_GZIP.equals(encoding)) {
-                            inputStream = gzipProcessor.processContent(inputStream, context);
+                        Future<Void> result = null;
+                        InputStream inputStream;
+                        if (context.usePipedProcessing()) {
+                            final PipedOutputStream outputStream = new PipedOutputStream();
+                            inputStream = new PipedInputStream(outputStream);
+                            result = startProcessing(clientlibRef, encoding, context, outputStream);
+                            EncodingProcessor encodingProcessor = getEncodingProcessor(encoding);
+                            if (encodingProcessor != null) {
+                                inputStream = encodingProcessor.processContent(inputStream, context);
+                            }
+                        } else {
+                            buffer = processContent(clientlibRef, encoding, context);
+                            inputStream = buffer.isInMemory()
+                                    ? new ByteArrayInputStream(buffer.getData())
+                                    : new FileInputStream(buffer.getFile());
+                        }
+                        try {
+                            cacheFile.storeContent(inputStream);
+                        } finally {
+                            if (null != buffer) IOUtils.closeQuietly(inputStream);
                         }
-                        cacheFile.storeContent(inputStream);
 
                         ModifiableValueMap contentValues = cacheFile.getContent().adaptTo
                                 (ModifiableValueMap.class);
@@ -590,7 +967,7 @@ public class DefaultClientlibService implements ClientlibService {
                         contentValues.put(PROP_HASH, hash);
 
                         adminResolver.commit();
-                        result.get(); // transport any exceptions here
+                        if (null != result) result.get(); // transport any exceptions here
 
                         LOG.info("clientlib cache content ''{}'' created", cacheFile.getResource()
                                 .getPath());
@@ -603,11 +980,44 @@ public class DefaultClientlibService implements ClientlibService {
                     refreshSession(adminResolver, false);
                     adminResolver.delete(cacheEntry);
                     throw new PersistenceException("" + e, e);
+                } finally {
+                    if (null != buffer && null != buffer.getFile()) FileUtils.deleteQuietly(buffer.getFile());
                 }
             }
         };
     }
 
+    /**
+     * Generates the embedded content of the clientlib / -category within the calling thread (pipeline mode, see
+     * {@link ClientlibProcessor#processContent(OutputStream, ProcessorContext)}). The result is kept in memory up to
+     * {@link #PROCESSING_MEMORY_THRESHOLD} bytes and buffered in a temporary file otherwise - remember to delete it.
+     */
+    protected DeferredFileOutputStream processContent(final ClientlibRef clientlibRef, String encoding,
+                                                      final ProcessorContext context)
+            throws IOException, RepositoryException {
+        final ClientlibProcessor processor = processorMap.get(clientlibRef.type);
+        File tempFile = File.createTempFile("clientlib", ".tmp");
+        FileUtils.deleteQuietly(tempFile); // created on demand if the threshold is reached
+        DeferredFileOutputStream buffer = new DeferredFileOutputStream(PROCESSING_MEMORY_THRESHOLD, tempFile);
+        OutputStream outputStream = new BufferedOutputStream(buffer, PROCESSING_BUFFER_SIZE);
+        try {
+            EncodingProcessor encodingProcessor = getEncodingProcessor(encoding);
+            if (encodingProcessor != null) {
+                outputStream = encodingProcessor.processContent(outputStream, context);
+            }
+            ClientlibElement element = resolve(clientlibRef, context.getResolver());
+            ProcessingVisitor visitor = new ProcessingVisitor(element, DefaultClientlibService.this,
+                    outputStream, processor, context);
+            visitor.execute();
+            outputStream.close();
+        } catch (IOException | RepositoryException | RuntimeException ex) {
+            IOUtils.closeQuietly(outputStream);
+            FileUtils.deleteQuietly(tempFile);
+            throw ex;
+        }
+        return buffer;
+    }
+
     /**
      * Starts the processing (generation of the embedded content) of the clientlib / -category in the background.
      */
@@ -662,10 +1072,22 @@ public class DefaultClientlibService implements ClientlibService {
         Resource resource = lazyCreationService.waitForInitialization(resolver, cachePath);
         FileHandle file = new FileHandle(resource);
         if (file.isValid()) {
+            String hash = contentCache.isEnabled() ? file.getContent().getProperty(PROP_HASH) : null;
+            byte[] cached = contentCache.get(cachePath, hash);
+            if (cached != null) {
+                outputStream.write(cached);
+                return;
+            }
             InputStream content = file.getStream();
             if (content != null) {
                 try {
-                    IOUtils.copy(content, outputStream);
+                    if (hash != null && contentCache.accepts(file.getSize())) {
+                        byte[] bytes = IOUtils.toByteArray(content);
+                        contentCache.put(cachePath, hash, bytes);
+                        outputStream.write(bytes);
+                    } else {
+                        IOUtils.copy(content, outputStream);
+                    }
                 } finally {
                     IOUtils.closeQuietly(content);
                 }
@@ -693,13 +1115,64 @@ public class DefaultClientlibService implements ClientlibService {
         return cacheRoot + cacheKey;
     }
 
+    /**
+     * @return the encoding if it is enabled, otherwise null (no encoding)
+     */
     protected String adjustEncoding(String encoding) {
-        if (ENCODING_GZIP.equals(encoding) && !clientlibConfig.getGzipEnabled()) {
+        if (getEncodingProcessor(encoding) == null) {
             encoding = null;
         }
         return encoding;
     }
 
+    /**
+     * @return the processor for the encoding or null if there is no processor for the encoding or the encoding is
+     * disabled
+     */
+    @Nullable
+    protected EncodingProcessor getEncodingProcessor(@Nullable String encoding) {
+        if (StringUtils.isNotBlank(encoding)) {
+            if (ENCODING_GZIP.equals(encoding)) {
+                return clientlibConfig.getGzipEnabled() ? gzipProcessor : null;
+            }
+            for (EncodingProcessor encodingProcessor : encodingProcessors) {
+                if (encoding.equals(encodingProcessor.getEncoding())) {
+                    return encodingProcessor;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The encodings of the registered {@link EncodingProcessor}s ordered by their preference; on equal preference
+     * the additional encodings are preferred to gzip since they are registered for a better compression.
+     */
+    @Nonnull
+    @Override
+    public List<String> getEncodings() {
+        List<EncodingProcessor> processors = new ArrayList<>();
+        for (EncodingProcessor encodingProcessor : encodingProcessors) {
+            if (!ENCODING_GZIP.equals(encodingProcessor.getEncoding())) {
+                processors.add(encodingProcessor);
+            }
+        }
+        if (clientlibConfig.getGzipEnabled() && gzipProcessor != null) {
+            processors.add(gzipProcessor);
+        }
+        processors.sort(new Comparator<EncodingProcessor>() {
+            @Override
+            public int compare(EncodingProcessor o1, EncodingProcessor o2) {
+                return Integer.compare(o2.getPreference(), o1.getPreference());
+            }
+        });
+        List<String> encodings = new ArrayList<>();
+        for (EncodingProcessor encodingProcessor : processors) {
+            encodings.add(encodingProcessor.getEncoding());
+        }
+        return encodings;
+    }
+
     /**
      * Resets unmodified resources to the currently saved state.
      */
@@ -818,11 +1291,15 @@ public class DefaultClientlibService implements ClientlibService {
     @Override
     public void clearCache(ResourceResolver resolver) throws PersistenceException {
         LOG.info("Clear cache requested.");
+        contentCache.clear();
+        clearCategoryCache();
+        clearRenderedLinks();
         String cacheRootPath = clientlibConfig.getCacheRoot();
         Resource cacheRoot = resolver.getResource(cacheRootPath);
         List<String> subpaths = new ArrayList<>();
         subpaths.addAll(Arrays.asList(resolver.getSearchPath()));
         subpaths.add(CATEGORYCACHE);
+        subpaths.add(HASHINDEX);
         for (String child : subpaths) {
             Resource childResource = cacheRoot.getChild(StringUtils.removeStart(child, "/"));
             if (childResource != null) {
@@ -21,6 +21,7 @@ import javax.jcr.RepositoryException;
 import javax.servlet.http.HttpServletResponse;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.List;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -48,14 +49,12 @@ public abstract class AbstractClientlibServlet extends SlingSafeMethodsServlet {
 
         try {
 
-            String encoding = null;
             boolean refreshCache = false;
             String header;
 
-            header = request.getHeader(HttpUtil.HEADER_ACCEPT_ENCODING);
-            if (StringUtils.isNotBlank(header) && header.contains("gzip")) {
-                encoding = ClientlibService.ENCODING_GZIP;
-            }
+            // the best encoding accepted by the client - each encoding has its own cache file
+            List<String> encodings = service.getEncodings();
+            String encoding = HttpUtil.selectEncoding(request.getHeader(HttpUtil.HEADER_ACCEPT_ENCODING), encodings);
 
             header = request.getHeader(HttpUtil.HEADER_CACHE_CONTROL);
             if (StringUtils.isNotBlank(header) && configuration.getRerenderOnNocache()) {
@@ -87,6 +86,8 @@ public abstract class AbstractClientlibServlet extends SlingSafeMethodsServlet {
                 }
                 if (hints.encoding != null) {
                     response.setHeader(HttpUtil.HEADER_CONTENT_ENCODING, hints.encoding);
+                }
+                if (!encodings.isEmpty()) {
                     response.setHeader(HttpUtil.HEADER_VARY, HttpUtil.HEADER_ACCEPT_ENCODING);
                 }
                 if (hints.size != null) {
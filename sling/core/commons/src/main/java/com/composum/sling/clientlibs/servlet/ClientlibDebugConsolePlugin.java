@@ -7,6 +7,7 @@ import com.composum.sling.clientlibs.handle.ClientlibElement;
 import com.composum.sling.clientlibs.handle.ClientlibExternalUri;
 import com.composum.sling.clientlibs.handle.ClientlibFile;
 import com.composum.sling.clientlibs.handle.ClientlibLink;
+import com.composum.sling.clientlibs.handle.ClientlibLinkSet;
 import com.composum.sling.clientlibs.handle.ClientlibRef;
 import com.composum.sling.clientlibs.handle.ClientlibResourceFolder;
 import com.composum.sling.clientlibs.handle.ClientlibVisitor;
@@ -42,7 +43,6 @@ import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -369,7 +369,7 @@ public class ClientlibDebugConsolePlugin extends HttpServlet {
 
         protected DebugVisitor(ClientlibElement owner, ClientlibService service, ResourceResolver resolver,
                                PrintWriter writer) {
-            super(owner, service, resolver, new LinkedHashSet<ClientlibLink>());
+            super(owner, service, resolver, new ClientlibLinkSet());
             this.writer = writer;
         }
 
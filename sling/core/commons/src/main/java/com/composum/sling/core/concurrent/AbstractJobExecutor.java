@@ -3,6 +3,7 @@ package com.composum.sling.core.concurrent;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.ModifiableValueMap;
@@ -21,12 +22,14 @@ import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
@@ -34,16 +37,22 @@ import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Collections;
-import java.util.Dictionary;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -88,6 +97,24 @@ public abstract class AbstractJobExecutor<Result> implements JobExecutor, EventH
         CRUD_AUDIT_FOLDER_PROPS = Collections.unmodifiableMap(map);
     }
 
+    /** the time (in milliseconds) to wait for the result of a job before the job state is checked */
+    public static final long JOB_WAIT_INTERVAL = 500L;
+
+    /** the minimal time (in milliseconds) between two updates of the audit file during the execution */
+    public static final long AUDIT_UPDATE_INTERVAL = 10000L;
+
+    /** the maximum number of concurrently executed jobs of one job executor */
+    public static final int MAX_JOB_THREADS = 20;
+
+    /** the maximum number of jobs waiting for a thread of the executor; further jobs are failed and retried */
+    public static final int MAX_JOB_QUEUE = 100;
+
+    /** the name suffix of the folder of the output segments pushed to the audit during the execution */
+    public static final String AUDIT_SEGMENTS_SUFFIX = ".segments";
+
+    /** the executor of the jobs; created on activation and shut down on deactivation */
+    protected volatile ExecutorService jobExecutorService;
+
     @Reference
     protected ResourceResolverFactory resolverFactory;
 
@@ -99,7 +126,13 @@ public abstract class AbstractJobExecutor<Result> implements JobExecutor, EventH
 
     @Activate
     protected void activate(ComponentContext context) throws Exception {
-        Dictionary<String, Object> properties = context.getProperties();
+        shutdownJobExecutorService();
+        jobExecutorService = createJobExecutorService();
+    }
+
+    @Deactivate
+    protected void deactivate(ComponentContext context) {
+        shutdownJobExecutorService();
     }
 
     protected abstract String getJobTopic();
@@ -180,25 +213,34 @@ public abstract class AbstractJobExecutor<Result> implements JobExecutor, EventH
             lock.unlock();
         }
 
+        final String auditFileName = outfile.substring(outfile.lastIndexOf(File.separator) + 1);
         try {
             try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
                  PrintWriter out = new PrintWriter(new OutputStreamWriter(fileOutputStream, "UTF-8"))) {
-                final ExecutorService executorService = Executors.newSingleThreadExecutor();
+                final Future<Result> submit;
+                try {
+                    submit = getJobExecutorService().submit(createCallable(job, context, adminResolver, out));
+                } catch (RejectedExecutionException e) {
+                    LOG.warn("job:{} rejected - too many jobs queued or executor deactivated", reference);
+                    return context.result().message(e.toString()).failed();
+                }
+                final AuditUpdate auditUpdate = new AuditUpdate(auditPath, auditFileName, tempFile);
                 try {
-                    final Future<Result> submit = executorService.submit(
-                            createCallable(job, context, adminResolver, out));
-                    while (!submit.isDone()) {
-                        Thread.yield();
-                        out.flush();
-                        if (context.isStopped()) {
-                            LOG.warn("context for job:{} stopped", reference);
-                            executorService.shutdownNow();
-                            // magic string. message must not be changed!
-                            return context.result().message("execution stopped").cancelled();
+                    while (true) {
+                        try {
+                            final Object run = submit.get(JOB_WAIT_INTERVAL, TimeUnit.MILLISECONDS);
+                            return context.result().message(String.valueOf(run)).succeeded();
+                        } catch (TimeoutException ignore) {
+                            out.flush();
+                            if (context.isStopped()) {
+                                LOG.warn("context for job:{} stopped", reference);
+                                submit.cancel(true);
+                                // magic string. message must not be changed!
+                                return context.result().message("execution stopped").cancelled();
+                            }
+                            auditUpdate.update();
                         }
                     }
-                    final Object run = submit.get();
-                    return context.result().message(String.valueOf(run)).succeeded();
                 } catch (ExecutionException e) {
                     final Throwable cause = e.getCause();
                     if (cause instanceof JobFailureException) {
@@ -209,6 +251,13 @@ public abstract class AbstractJobExecutor<Result> implements JobExecutor, EventH
                         e.printStackTrace(out);
                         return context.result().message(e.getMessage()).cancelled();
                     }
+                } catch (InterruptedException e) {
+                    LOG.warn("waiting for job:{} interrupted", reference);
+                    submit.cancel(true);
+                    Thread.currentThread().interrupt();
+                    return context.result().message(e.toString()).cancelled();
+                } finally {
+                    auditUpdate.close();
                 }
             }
         } catch (Exception e) {
@@ -216,15 +265,12 @@ public abstract class AbstractJobExecutor<Result> implements JobExecutor, EventH
             return context.result().message(e.toString()).cancelled();
         } finally {
             try {
-                Resource logFileResource = adminResolver.create(auditResource, outfile.substring(outfile.lastIndexOf(File.separator) + 1), new HashMap<String, Object>() {{
-                    put(PROP_PRIMARY_TYPE, TYPE_FILE);
-                }});
-                try (final InputStream inputStream = new FileInputStream(tempFile)) {
-                    adminResolver.create(logFileResource, CONTENT_NODE, new HashMap<String, Object>() {{
-                        put(PROP_PRIMARY_TYPE, TYPE_RESOURCE);
-                        put(PROP_MIME_TYPE, "text/plain");
-                        put(PROP_DATA, inputStream);
-                    }});
+                // the audit file can be written during the execution by the audit update
+                adminResolver.adaptTo(Session.class).refresh(true);
+                writeAuditFile(adminResolver, auditResource, auditFileName, tempFile);
+                final Resource segments = auditResource.getChild(auditFileName + AUDIT_SEGMENTS_SUFFIX);
+                if (segments != null) {
+                    adminResolver.delete(segments);
                 }
                 final boolean deleted = tempFile.delete();
                 final Set<String> propertyNames = job.getPropertyNames();
@@ -245,6 +291,212 @@ public abstract class AbstractJobExecutor<Result> implements JobExecutor, EventH
         }
     }
 
+    /**
+     * Creates or replaces the audit copy of the output file of a job; the changes are not committed.
+     */
+    protected void writeAuditFile(ResourceResolver resolver, Resource auditResource, String name, File file)
+            throws IOException {
+        Resource fileResource = auditResource.getChild(name);
+        if (fileResource == null) {
+            fileResource = resolver.create(auditResource, name,
+                    Collections.<String, Object>singletonMap(PROP_PRIMARY_TYPE, TYPE_FILE));
+        }
+        final Resource contentResource = fileResource.getChild(CONTENT_NODE);
+        try (final InputStream inputStream = new FileInputStream(file)) {
+            if (contentResource == null) {
+                final Map<String, Object> properties = new HashMap<>();
+                properties.put(PROP_PRIMARY_TYPE, TYPE_RESOURCE);
+                properties.put(PROP_MIME_TYPE, "text/plain");
+                properties.put(PROP_DATA, inputStream);
+                resolver.create(fileResource, CONTENT_NODE, properties);
+            } else {
+                final ModifiableValueMap values = contentResource.adaptTo(ModifiableValueMap.class);
+                values.put(PROP_DATA, inputStream);
+            }
+        }
+    }
+
+    /**
+     * Pushes the output of a running job to the audit from time to time, so that the output is available in the
+     * repository (e.g. on the other cluster nodes) during the execution and is not lost if the node is gone.
+     * JCR binaries can't be appended, so each update stores only the output written since the last update as a
+     * numbered segment file in the folder '{fileName}{@value #AUDIT_SEGMENTS_SUFFIX}'; the complete audit file is
+     * written once at the end of the execution and replaces the segments.
+     * Uses its own resolver since the admin resolver of the job is used by the job itself concurrently.
+     */
+    protected class AuditUpdate {
+
+        protected final String auditPath;
+        protected final String fileName;
+        protected final File tempFile;
+
+        protected ResourceResolver auditResolver;
+        protected long nextUpdate;
+        protected long writtenLength = 0L;
+        protected int segmentCount = 0;
+
+        public AuditUpdate(String auditPath, String fileName, File tempFile) {
+            this.auditPath = auditPath;
+            this.fileName = fileName;
+            this.tempFile = tempFile;
+            nextUpdate = System.currentTimeMillis() + AUDIT_UPDATE_INTERVAL;
+        }
+
+        /**
+         * Writes the output appended since the last update as a new segment if the update interval is reached;
+         * the output stream must be flushed before.
+         */
+        public void update() {
+            final long now = System.currentTimeMillis();
+            if (now < nextUpdate) {
+                return;
+            }
+            nextUpdate = now + AUDIT_UPDATE_INTERVAL;
+            final long length = tempFile.length();
+            if (length <= writtenLength) {
+                return;
+            }
+            try {
+                if (auditResolver == null) {
+                    auditResolver = resolverFactory.getAdministrativeResourceResolver(null);
+                }
+                auditResolver.adaptTo(Session.class).refresh(false);
+                final Resource auditResource = auditResolver.getResource(auditPath);
+                if (auditResource != null) {
+                    Resource segments = auditResource.getChild(fileName + AUDIT_SEGMENTS_SUFFIX);
+                    if (segments == null) {
+                        segments = auditResolver.create(auditResource, fileName + AUDIT_SEGMENTS_SUFFIX,
+                                CRUD_AUDIT_FOLDER_PROPS);
+                    }
+                    try (final FileInputStream fileInput = new FileInputStream(tempFile)) {
+                        fileInput.getChannel().position(writtenLength);
+                        final Resource segment = auditResolver.create(segments,
+                                String.format("%05d", segmentCount + 1),
+                                Collections.<String, Object>singletonMap(PROP_PRIMARY_TYPE, TYPE_FILE));
+                        final Map<String, Object> properties = new HashMap<>();
+                        properties.put(PROP_PRIMARY_TYPE, TYPE_RESOURCE);
+                        properties.put(PROP_MIME_TYPE, "text/plain");
+                        properties.put(PROP_DATA, new SegmentInputStream(fileInput, length - writtenLength));
+                        auditResolver.create(segment, CONTENT_NODE, properties);
+                        auditResolver.commit();
+                    }
+                    segmentCount++;
+                    writtenLength = length;
+                }
+            } catch (LoginException | RepositoryException | IOException ex) {
+                LOG.warn("Error updating audit file {}/{}: {}", auditPath, fileName, ex.toString());
+                if (auditResolver != null) {
+                    auditResolver.revert();
+                }
+            }
+        }
+
+        public void close() {
+            if (auditResolver != null) {
+                auditResolver.close();
+                auditResolver = null;
+            }
+        }
+    }
+
+    /**
+     * Reads a segment of a given length of the output file; the output is appended by the job concurrently.
+     */
+    protected static class SegmentInputStream extends FilterInputStream {
+
+        protected long remaining;
+
+        public SegmentInputStream(InputStream input, long length) {
+            super(input);
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int value = super.read();
+            if (value >= 0) {
+                remaining--;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int count = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            final long skipped = super.skip(Math.min(count, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the executor of this job executor; the number of threads is bounded by {@link #MAX_JOB_THREADS} and
+     * the number of waiting jobs by {@link #MAX_JOB_QUEUE}, idle threads are terminated.
+     */
+    protected ExecutorService getJobExecutorService() {
+        final ExecutorService executorService = jobExecutorService;
+        if (executorService == null) {
+            throw new RejectedExecutionException("job executor not active");
+        }
+        return executorService;
+    }
+
+    protected ExecutorService createJobExecutorService() {
+        final String name = "composum-job-" + getClass().getSimpleName() + "-";
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_JOB_THREADS, MAX_JOB_THREADS,
+                60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(MAX_JOB_QUEUE), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@Nonnull Runnable runnable) {
+                final Thread thread = new Thread(runnable, name + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Stops the jobs in execution - these are interrupted and cancelled - and terminates the threads.
+     */
+    protected void shutdownJobExecutorService() {
+        final ExecutorService executorService = jobExecutorService;
+        jobExecutorService = null;
+        if (executorService != null) {
+            final List<Runnable> waiting = executorService.shutdownNow();
+            if (!waiting.isEmpty()) {
+                LOG.warn("{} waiting jobs of {} dropped on deactivation", waiting.size(), getJobTopic());
+            }
+        }
+    }
+
     /**
      * Can be overwritten to handle some cleanup or logging when job is finished.
      */
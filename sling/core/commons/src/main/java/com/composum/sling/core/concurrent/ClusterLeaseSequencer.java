@@ -0,0 +1,429 @@
+package com.composum.sling.core.concurrent;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.SlingException;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.Calendar;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.composum.sling.core.util.ResourceUtil.PROP_PRIMARY_TYPE;
+import static com.composum.sling.core.util.ResourceUtil.TYPE_SLING_FOLDER;
+import static com.composum.sling.core.util.ResourceUtil.TYPE_UNSTRUCTURED;
+import static com.composum.sling.core.util.ResourceUtil.getOrCreateResource;
+
+/**
+ * A {@link SequencerService} which serializes the work for a key across all nodes of a cluster sharing a repository.
+ * A key is acquired in two steps: first the local lock of the key (like the {@link ConcurrentSequencer}) so that the
+ * threads of one node are waiting without touching the repository, then a lease persisted in the repository - a node
+ * below {@value #DEFAULT_LEASE_ROOT} named by the hash of the key with the id of the owner and the time the lease
+ * expires. The lease is created or - if it's expired - taken over in one commit; concurrent commits of other nodes
+ * are rejected by the repository as conflicts. The leases held are renewed by a heartbeat, so that a lease expires
+ * only if its owner is gone (or hangs); on release the lease node is removed. Since the expiry time is written with
+ * the clock of the owner, an expired lease is taken over only after an additional clock skew margin which is larger
+ * than the heartbeat period.
+ * <p>
+ * JCR locks are not used for that purpose since their timeouts are not reliably supported by all repositories and
+ * a crashed owner would block the key until the lock is broken.
+ * <p>
+ * The sequencer is optional and is used instead of the {@link SemaphoreSequencer} or the {@link ConcurrentSequencer}
+ * if configured (because of the higher service ranking).
+ */
+@Component(
+        label = "Composum Cluster Lease Sequencer",
+        description = "a sequencer service which serializes the work for a key across all cluster nodes using a " +
+                "lease persisted in the repository; replaces the local sequencers if configured",
+        policy = ConfigurationPolicy.REQUIRE,
+        metatype = true, immediate = true)
+@Service(SequencerService.class)
+@Properties({
+        @Property(
+                name = Constants.SERVICE_RANKING,
+                label = "Service Ranking",
+                description = "the ranking of this sequencer; higher than the ranking of the local sequencers",
+                intValue = 200
+        )
+})
+public class ClusterLeaseSequencer implements SequencerService<ClusterLeaseSequencer.Token> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterLeaseSequencer.class);
+
+    public static final String PROP_KEY = "key";
+    public static final String PROP_OWNER = "owner";
+    public static final String PROP_EXPIRES = "expires";
+    public static final String PROP_HEARTBEAT = "heartbeat";
+
+    public static final String DEFAULT_LEASE_ROOT = "/var/composum/sequencer/leases";
+    public static final String LEASE_ROOT = "lease.root";
+    @Property(
+            name = LEASE_ROOT,
+            label = "Lease Root",
+            description = "the repository folder of the lease nodes",
+            value = DEFAULT_LEASE_ROOT
+    )
+    protected String leaseRoot = DEFAULT_LEASE_ROOT;
+
+    public static final long DEFAULT_LEASE_TIME = 60;
+    public static final String LEASE_TIME = "lease.time";
+    @Property(
+            name = LEASE_TIME,
+            label = "Lease Time",
+            description = "the time (in seconds) a lease is valid without a heartbeat of its owner; the heartbeat " +
+                    "renews the leases held three times within this time",
+            longValue = DEFAULT_LEASE_TIME
+    )
+    protected long leaseTime = DEFAULT_LEASE_TIME;
+
+    public static final long DEFAULT_CLOCK_SKEW = 30;
+    public static final String CLOCK_SKEW = "lease.clock.skew";
+    @Property(
+            name = CLOCK_SKEW,
+            label = "Clock Skew",
+            description = "the time (in seconds) the clocks of the cluster nodes may differ; the expiry time of a " +
+                    "lease is written with the clock of its owner, so a lease is taken over by another node only if " +
+                    "it's expired for this time additionally; at least the heartbeat period (a third of the lease " +
+                    "time) is used",
+            longValue = DEFAULT_CLOCK_SKEW
+    )
+    protected long clockSkew = DEFAULT_CLOCK_SKEW;
+
+    public static final long DEFAULT_POLL_INTERVAL = 200;
+    public static final String POLL_INTERVAL = "lease.poll.interval";
+    @Property(
+            name = POLL_INTERVAL,
+            label = "Poll Interval",
+            description = "the time (in milliseconds) between two attempts to obtain a lease held by another node",
+            longValue = DEFAULT_POLL_INTERVAL
+    )
+    protected long pollInterval = DEFAULT_POLL_INTERVAL;
+
+    public static final String ACQUIRE_TIMEOUT = ConcurrentSequencer.ACQUIRE_TIMEOUT;
+    @Property(
+            name = ACQUIRE_TIMEOUT,
+            label = "Acquire Timeout",
+            description = "the maximum time (in seconds) to wait in 'acquire' for a key; there must be something " +
+                    "broken if that's exceeded",
+            longValue = ConcurrentSequencer.DEFAULT_ACQUIRE_TIMEOUT
+    )
+    protected long acquireTimeout = ConcurrentSequencer.DEFAULT_ACQUIRE_TIMEOUT;
+
+    @Reference
+    protected ResourceResolverFactory resolverFactory;
+
+    /** The token of a key: the local lock of the key and the lease in the repository. */
+    public static final class Token implements SequencerService.Token {
+
+        @Nonnull
+        protected final ConcurrentSequencer.Token localToken;
+        @Nonnull
+        protected final String leasePath;
+
+        protected Token(@Nonnull ConcurrentSequencer.Token localToken, @Nonnull String leasePath) {
+            this.localToken = localToken;
+            this.leasePath = leasePath;
+        }
+
+        @Override
+        public String toString() {
+            return "Token(" + localToken.key + "," + leasePath + ")";
+        }
+    }
+
+    /** The local fast path - the threads of this node are waiting here for a key. */
+    protected final ConcurrentSequencer localSequencer = new ConcurrentSequencer();
+
+    /** The tokens held by this node; their leases are renewed by the heartbeat. */
+    protected final Set<Token> heldTokens = ConcurrentHashMap.newKeySet();
+
+    /** The id of this sequencer as owner of the leases; unique per instance. */
+    protected String ownerId;
+
+    protected ScheduledExecutorService heartbeatExecutor;
+
+    @Override
+    @Nonnull
+    public Token acquire(@Nonnull String key) {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new IllegalStateException("Can't acquire lock since our thread is interrupted.");
+        }
+        Token token;
+        try {
+            token = tryAcquire(key, acquireTimeout, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while acquiring the lease for " + key, ex);
+        }
+        if (token == null) {
+            throw new IllegalStateException("Could not acquire the lease for " + key + " within " + acquireTimeout
+                    + " seconds - there must be something broken.");
+        }
+        return token;
+    }
+
+    @Override
+    @Nullable
+    public Token tryAcquire(@Nonnull String key, long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        ConcurrentSequencer.Token localToken = localSequencer.tryAcquire(key, timeout, unit);
+        if (localToken == null) {
+            LOG.debug("local lock not acquired in time ({})", key);
+            return null;
+        }
+        Token token = null;
+        try {
+            String leasePath = getLeasePath(key);
+            ResourceResolver resolver = createAdministrativeResolver();
+            try {
+                while (token == null) {
+                    if (obtainLease(resolver, key, leasePath)) {
+                        token = new Token(localToken, leasePath);
+                        heldTokens.add(token);
+                        LOG.debug("acquired ({})", token);
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            LOG.debug("lease not acquired in time ({})", key);
+                            break;
+                        }
+                        Thread.sleep(Math.min(pollInterval, TimeUnit.NANOSECONDS.toMillis(remaining) + 1));
+                    }
+                }
+            } finally {
+                resolver.close();
+            }
+        } finally {
+            if (token == null) {
+                localSequencer.release(localToken);
+            }
+        }
+        return token;
+    }
+
+    @Override
+    public void release(@Nonnull Token token) {
+        if (token != null) {
+            LOG.debug("release ({})", token);
+            heldTokens.remove(token);
+            try {
+                ResourceResolver resolver = createAdministrativeResolver();
+                try {
+                    refresh(resolver);
+                    Resource lease = resolver.getResource(token.leasePath);
+                    if (lease != null && isOwner(lease)) {
+                        resolver.delete(lease);
+                        resolver.commit();
+                    }
+                } finally {
+                    resolver.close();
+                }
+            } catch (PersistenceException | RepositoryException | RuntimeException ex) {
+                // the lease expires without heartbeat, so the key is not blocked forever
+                LOG.warn("can't remove the lease {}: {}", token.leasePath, ex.toString());
+            } finally {
+                localSequencer.release(token.localToken);
+            }
+        } else {
+            LOG.warn("release called with a null token");
+        }
+    }
+
+    /**
+     * Creates the lease if there is none or takes over the lease if it's expired.
+     *
+     * @return 'true' if the lease is owned by this sequencer now
+     */
+    protected boolean obtainLease(@Nonnull ResourceResolver resolver, @Nonnull String key,
+                                  @Nonnull String leasePath) {
+        try {
+            refresh(resolver);
+            long now = System.currentTimeMillis();
+            Resource lease = resolver.getResource(leasePath);
+            if (lease == null) {
+                Resource parent = getOrCreateResource(resolver, leaseRoot, TYPE_SLING_FOLDER);
+                Map<String, Object> properties = new HashMap<>();
+                properties.put(PROP_PRIMARY_TYPE, TYPE_UNSTRUCTURED);
+                properties.put(PROP_KEY, key);
+                properties.put(PROP_OWNER, ownerId);
+                properties.put(PROP_EXPIRES, now + TimeUnit.SECONDS.toMillis(leaseTime));
+                properties.put(PROP_HEARTBEAT, Calendar.getInstance());
+                resolver.create(parent, leasePath.substring(leasePath.lastIndexOf('/') + 1), properties);
+                resolver.commit();
+                return true;
+            }
+            ValueMap values = lease.adaptTo(ValueMap.class);
+            long expires = values != null ? values.get(PROP_EXPIRES, 0L) : 0L;
+            boolean expired = isExpired(expires, now);
+            if (expired || isOwner(lease)) {
+                ModifiableValueMap modifiable = lease.adaptTo(ModifiableValueMap.class);
+                if (modifiable != null) {
+                    if (expired) {
+                        LOG.info("taking over the expired lease of '{}' from '{}'", key,
+                                values != null ? values.get(PROP_OWNER, String.class) : null);
+                    }
+                    modifiable.put(PROP_OWNER, ownerId);
+                    modifiable.put(PROP_EXPIRES, now + TimeUnit.SECONDS.toMillis(leaseTime));
+                    modifiable.put(PROP_HEARTBEAT, Calendar.getInstance());
+                    resolver.commit();
+                    return true;
+                }
+            }
+        } catch (PersistenceException | RepositoryException ex) {
+            // a conflicting commit of another node - the lease is taken by it
+            LOG.debug("lease of '{}' not obtained: {}", key, ex.toString());
+            resolver.revert();
+        }
+        return false;
+    }
+
+    /**
+     * The expiry time of a lease is written with the clock of the owners node, so the lease is taken over only if
+     * it's expired for the configured clock skew additionally; the clocks are never compared closer than that.
+     */
+    protected boolean isExpired(long expires, long now) {
+        return expires + TimeUnit.SECONDS.toMillis(clockSkew) < now;
+    }
+
+    /** Renews the leases held by this sequencer; called periodically by the heartbeat. */
+    protected void heartbeat() {
+        if (heldTokens.isEmpty()) {
+            return;
+        }
+        try {
+            ResourceResolver resolver = createAdministrativeResolver();
+            try {
+                refresh(resolver);
+                long expires = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(leaseTime);
+                for (Token token : heldTokens) {
+                    Resource lease = resolver.getResource(token.leasePath);
+                    ModifiableValueMap values = lease != null && isOwner(lease)
+                            ? lease.adaptTo(ModifiableValueMap.class) : null;
+                    if (values != null) {
+                        values.put(PROP_EXPIRES, expires);
+                        values.put(PROP_HEARTBEAT, Calendar.getInstance());
+                    } else if (heldTokens.contains(token)) {
+                        LOG.error("the lease of {} was lost - the heartbeat was too late", token);
+                    }
+                }
+                resolver.commit();
+            } finally {
+                resolver.close();
+            }
+        } catch (PersistenceException | RepositoryException | RuntimeException ex) {
+            LOG.error("renewing the leases failed: {}", ex.toString());
+        }
+    }
+
+    /** Drops the state of the session to see the changes of the other nodes. */
+    protected void refresh(@Nonnull ResourceResolver resolver) throws RepositoryException {
+        Session session = resolver.adaptTo(Session.class);
+        if (session != null) {
+            session.refresh(false);
+        }
+    }
+
+    protected boolean isOwner(@Nonnull Resource lease) {
+        ValueMap values = lease.adaptTo(ValueMap.class);
+        return values != null && ownerId.equals(values.get(PROP_OWNER, String.class));
+    }
+
+    /** The path of the lease node of a key; the name is the hash of the key to avoid invalid names. */
+    @Nonnull
+    protected String getLeasePath(@Nonnull String key) {
+        return leaseRoot + "/" + DigestUtils.sha1Hex(key);
+    }
+
+    /** The number of leases held by this sequencer. */
+    public int getLeaseCount() {
+        return heldTokens.size();
+    }
+
+    protected ResourceResolver createAdministrativeResolver() {
+        // used for maximum backwards compatibility like in the LazyCreationServiceImpl
+        try {
+            return resolverFactory.getAdministrativeResourceResolver(null);
+        } catch (LoginException e) {
+            throw new SlingException("Configuration problem: we cannot get an administrative resolver ", e);
+        }
+    }
+
+    @Activate
+    @Modified
+    protected void activate(ComponentContext context) {
+        Dictionary properties = context.getProperties();
+        leaseRoot = PropertiesUtil.toString(properties.get(LEASE_ROOT), DEFAULT_LEASE_ROOT);
+        leaseTime = Math.max(1, PropertiesUtil.toLong(properties.get(LEASE_TIME), DEFAULT_LEASE_TIME));
+        long heartbeatPeriod = Math.max(1, TimeUnit.SECONDS.toMillis(leaseTime) / 3);
+        clockSkew = Math.max(TimeUnit.MILLISECONDS.toSeconds(heartbeatPeriod) + 1,
+                PropertiesUtil.toLong(properties.get(CLOCK_SKEW), DEFAULT_CLOCK_SKEW));
+        pollInterval = Math.max(1, PropertiesUtil.toLong(properties.get(POLL_INTERVAL), DEFAULT_POLL_INTERVAL));
+        acquireTimeout = PropertiesUtil.toLong(properties.get(ACQUIRE_TIMEOUT),
+                ConcurrentSequencer.DEFAULT_ACQUIRE_TIMEOUT);
+        localSequencer.acquireTimeout = acquireTimeout;
+        if (ownerId == null) {
+            ownerId = UUID.randomUUID().toString();
+        }
+        stopHeartbeat();
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@Nonnull Runnable runnable) {
+                Thread thread = new Thread(runnable, "composum-sequencer-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        heartbeatExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                heartbeat();
+            }
+        }, heartbeatPeriod, heartbeatPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    @Deactivate
+    protected void deactivate(@SuppressWarnings("UnusedParameters") ComponentContext context) {
+        stopHeartbeat();
+        if (!heldTokens.isEmpty()) {
+            LOG.warn("deactivated with {} leases held; these will expire", heldTokens.size());
+        }
+    }
+
+    protected void stopHeartbeat() {
+        if (heartbeatExecutor != null) {
+            heartbeatExecutor.shutdownNow();
+            heartbeatExecutor = null;
+        }
+    }
+}
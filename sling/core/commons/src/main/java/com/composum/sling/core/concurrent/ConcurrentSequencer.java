@@ -0,0 +1,196 @@
+package com.composum.sling.core.concurrent;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link SequencerService} without a global monitor: the locks are kept per key in a {@link ConcurrentHashMap} and
+ * are reference counted by the threads holding or waiting for them, so that a lock is removed from the map as soon
+ * as nobody uses it anymore. Like the {@link SemaphoreSequencer} the locks are not reentrant. The lock of a key is
+ * also the token returned by {@link #acquire(String)} so no allocation is done if the lock is already in use.
+ * <p>
+ * The sequencer is an alternative to the {@link SemaphoreSequencer} which is used instead of it if configured
+ * (because of the higher service ranking).
+ */
+@Component(
+        label = "Composum Concurrent Sequencer",
+        description = "a sequencer service with per key locks without a global monitor; replaces the default " +
+                "semaphore sequencer if configured",
+        policy = ConfigurationPolicy.REQUIRE,
+        metatype = true, immediate = true)
+@Service(SequencerService.class)
+@Properties({
+        @Property(
+                name = Constants.SERVICE_RANKING,
+                label = "Service Ranking",
+                description = "the ranking of this sequencer; higher than the ranking of the default sequencer (0)",
+                intValue = 100
+        )
+})
+public class ConcurrentSequencer implements SequencerService<ConcurrentSequencer.Token> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrentSequencer.class);
+
+    public static final long DEFAULT_ACQUIRE_TIMEOUT = 3600;
+    public static final String ACQUIRE_TIMEOUT = "acquire.timeout";
+    @Property(
+            name = ACQUIRE_TIMEOUT,
+            label = "Acquire Timeout",
+            description = "the maximum time (in seconds) to wait in 'acquire' for a key; there must be something " +
+                    "broken if that's exceeded",
+            longValue = DEFAULT_ACQUIRE_TIMEOUT
+    )
+    protected long acquireTimeout = DEFAULT_ACQUIRE_TIMEOUT;
+
+    /**
+     * The lock of a key and the token for its owner. The usage counter counts the threads holding or waiting for the
+     * lock; it's set to -1 if the lock is retired (removed from the map) so that it can't be used again.
+     */
+    public static final class Token implements SequencerService.Token {
+
+        @Nonnull
+        protected final String key;
+        protected final Semaphore semaphore = new Semaphore(1);
+        protected final AtomicInteger usage = new AtomicInteger();
+
+        protected Token(@Nonnull String key) {
+            this.key = key;
+        }
+
+        /** Increments the usage counter if the lock is not retired. */
+        protected boolean use() {
+            for (int count = usage.get(); count >= 0; count = usage.get()) {
+                if (usage.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Decrements the usage counter and retires the lock if it's not used anymore. */
+        protected boolean unuse() {
+            return usage.decrementAndGet() == 0 && usage.compareAndSet(0, -1);
+        }
+
+        @Override
+        public String toString() {
+            return "Token(" + key + ")";
+        }
+    }
+
+    protected final ConcurrentMap<String, Token> locks = new ConcurrentHashMap<>();
+
+    @Override
+    @Nonnull
+    public Token acquire(@Nonnull String key) {
+        if (Thread.currentThread().isInterrupted()) {
+            // tryAcquire would fail, and it doesn't make sense to continue here.
+            throw new IllegalStateException("Can't acquire lock since our thread is interrupted.");
+        }
+        Token token;
+        try {
+            token = tryAcquire(key, acquireTimeout, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while acquiring the lock for " + key, ex);
+        }
+        if (token == null) {
+            throw new IllegalStateException("Could not acquire the lock for " + key + " within " + acquireTimeout
+                    + " seconds - there must be something broken.");
+        }
+        return token;
+    }
+
+    @Override
+    public Token tryAcquire(@Nonnull String key, long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        Token token = use(key);
+        boolean acquired = false;
+        try {
+            LOG.debug("acquiring ({})", key);
+            acquired = token.semaphore.tryAcquire(timeout, unit);
+        } finally {
+            if (!acquired) {
+                unuse(token);
+            }
+        }
+        if (acquired) {
+            LOG.debug("acquired ({})", key);
+            return token;
+        }
+        LOG.debug("not acquired in time ({})", key);
+        return null;
+    }
+
+    @Override
+    public void release(@Nonnull Token token) {
+        if (token != null) {
+            LOG.debug("release ({})", token.key);
+            token.semaphore.release();
+            unuse(token);
+        } else {
+            LOG.warn("release called with a null token");
+        }
+    }
+
+    /** Returns the lock of the key with an incremented usage counter; creates the lock if it's not in use. */
+    @Nonnull
+    protected Token use(@Nonnull String key) {
+        while (true) {
+            Token token = locks.get(key);
+            if (token == null) {
+                Token created = new Token(key);
+                token = locks.putIfAbsent(key, created);
+                if (token == null) {
+                    token = created;
+                }
+            }
+            if (token.use()) {
+                return token;
+            }
+            // the lock was retired concurrently - help removing it and try again
+            locks.remove(key, token);
+        }
+    }
+
+    protected void unuse(@Nonnull Token token) {
+        if (token.unuse()) {
+            locks.remove(token.key, token);
+        }
+    }
+
+    /** The number of keys currently locked or waited for. */
+    public int getLockCount() {
+        return locks.size();
+    }
+
+    @Activate
+    @Modified
+    protected void activate(ComponentContext context) {
+        acquireTimeout = PropertiesUtil.toLong(context.getProperties().get(ACQUIRE_TIMEOUT), DEFAULT_ACQUIRE_TIMEOUT);
+    }
+
+    @Deactivate
+    protected void deactivate(@SuppressWarnings("UnusedParameters") ComponentContext context) {
+        if (!locks.isEmpty()) {
+            LOG.warn("deactivated with {} keys in use", locks.size());
+        }
+    }
+}
@@ -6,6 +6,8 @@ import org.apache.commons.lang3.Validate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferencePolicy;
+import org.apache.felix.scr.annotations.ReferencePolicyOption;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.sling.api.SlingException;
 import org.apache.sling.api.resource.LoginException;
@@ -64,8 +66,12 @@ public class LazyCreationServiceImpl implements LazyCreationService {
     @Reference
     protected ResourceResolverFactory resolverFactory;
 
-    @Reference
-    protected SequencerService sequencer;
+    /**
+     * The sequencer with the highest ranking - a dynamic reference since the {@link ClusterLeaseSequencer} is
+     * registered only if configured and must replace the local sequencer then.
+     */
+    @Reference(policy = ReferencePolicy.DYNAMIC, policyOption = ReferencePolicyOption.GREEDY)
+    protected volatile SequencerService sequencer;
 
     @Override
     public <T> T getOrCreate(ResourceResolver resolver, String path, RetrievalStrategy<T> getter,
@@ -108,6 +114,7 @@ public class LazyCreationServiceImpl implements LazyCreationService {
 
         String parentPath = ResourceUtil.getParent(path);
         ResourceResolver adminResolver = null;
+        SequencerService sequencer = this.sequencer; // dynamic reference - release with the acquiring one
         SequencerService.Token token = sequencer.acquire(path);
         try {
             refreshSession(resolver, true);
@@ -216,6 +223,7 @@ public class LazyCreationServiceImpl implements LazyCreationService {
 
     protected Resource createUninitializedResource(ResourceResolver adminResolver, Resource parentResource, String path,
                                                    CreationStrategy creator) {
+        SequencerService sequencer = this.sequencer; // dynamic reference - release with the acquiring one
         SequencerService.Token token = sequencer.acquire(path);
         try {
             refreshSession(adminResolver, false);
@@ -267,6 +275,7 @@ public class LazyCreationServiceImpl implements LazyCreationService {
             } catch (InterruptedException e) {
             }
             // We need sequencer because the JCR locking doesn't seem to distinguish between sessions on one instance, or something. Hard to test.
+            SequencerService sequencer = this.sequencer; // dynamic reference - release with the acquiring one
             SequencerService.Token token = sequencer.acquire(path);
             try {
                 refreshSession(adminResolver, false);
@@ -293,6 +302,7 @@ public class LazyCreationServiceImpl implements LazyCreationService {
         } while (restWait > 0);
 
         // we take over the lock from whoever locked it.
+        SequencerService sequencer = this.sequencer; // dynamic reference - release with the acquiring one
         SequencerService.Token token = sequencer.acquire(path);
         try {
             refreshSession(adminResolver, false);
@@ -334,6 +344,7 @@ public class LazyCreationServiceImpl implements LazyCreationService {
 
     protected void initializeResource(ResourceResolver adminResolver, String path, InitializationStrategy
             initializer, LockManager lockManager) {
+        SequencerService sequencer = this.sequencer; // dynamic reference - release with the acquiring one
         SequencerService.Token token = sequencer.acquire(path);
         try {
             Resource resource;
@@ -386,6 +397,7 @@ public class LazyCreationServiceImpl implements LazyCreationService {
         Resource resource = resolver.getResource(path);
         if (null == resource) {
             // there may be a creation in progress, so we wait for the lock.
+            SequencerService sequencer = this.sequencer; // dynamic reference - release with the acquiring one
             SequencerService.Token token = sequencer.acquire(path);
             sequencer.release(token);
             refreshSession(resolver, true);
@@ -427,6 +439,7 @@ public class LazyCreationServiceImpl implements LazyCreationService {
 
         String[] separated = com.composum.sling.core.util.ResourceUtil.splitPathAndName(path);
         String parentPath = separated[0];
+        SequencerService sequencer = this.sequencer; // dynamic reference - release with the acquiring one
         SequencerService.Token token = sequencer.acquire(path);
         try {
             refreshSession(adminResolver, false);
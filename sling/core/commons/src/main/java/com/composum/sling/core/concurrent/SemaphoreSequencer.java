@@ -58,20 +58,7 @@ public class SemaphoreSequencer implements SequencerService<SemaphoreSequencer.T
     @Nonnull
     public Token acquire(String key) {
 
-        Token token;
-        Semaphore semaphore;
-
-        synchronized (this) {
-            WeakReference<Token> ref = activeTokens.get(new Token(key, null));
-            token = ref != null ? ref.get() : null;
-            if (token == null) {
-                semaphore = new Semaphore(1);
-                token = new Token(key, semaphore);
-                activeTokens.put(token, new WeakReference<>(token));
-            } else {
-                semaphore = token.semaphore;
-            }
-        }
+        Semaphore semaphore = getSemaphore(key);
 
         if (Thread.currentThread().isInterrupted()) {
             // tryAcquire would fail, and it doesn't make sense to continue here.
@@ -96,12 +83,45 @@ public class SemaphoreSequencer implements SequencerService<SemaphoreSequencer.T
             throw new java.lang.IllegalStateException("Could not acquive lock for a loong time, or we have been interrupted.", ex);
         }
 
-        // We create a fresh token so that each user gets it's own token, which might make debugging easier at times.
+        return createToken(key, semaphore);
+    }
+
+    @Override
+    public Token tryAcquire(@Nonnull String key, long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        Semaphore semaphore = getSemaphore(key);
+        LOG.debug("acquiring (" + key + ")");
+        if (semaphore.tryAcquire(1, timeout, unit)) {
+            LOG.debug("acquired (" + key + ")");
+            return createToken(key, semaphore);
+        }
+        LOG.debug("not acquired in time (" + key + ")");
+        return null;
+    }
+
+    /** Returns the semaphore of the active tokens for the key or a new one if there is no active token. */
+    protected Semaphore getSemaphore(String key) {
+        synchronized (this) {
+            WeakReference<Token> ref = activeTokens.get(new Token(key, null));
+            Token token = ref != null ? ref.get() : null;
+            if (token == null) {
+                Semaphore semaphore = new Semaphore(1);
+                token = new Token(key, semaphore);
+                activeTokens.put(token, new WeakReference<>(token));
+                return semaphore;
+            }
+            return token.semaphore;
+        }
+    }
+
+    /**
+     * We create a fresh token so that each user gets it's own token, which might make debugging easier at times.
+     */
+    protected Token createToken(String key, Semaphore semaphore) {
         synchronized (this) {
-            token = new Token(key, semaphore);
+            Token token = new Token(key, semaphore);
             activeTokens.put(token, new WeakReference<>(token));
+            return token;
         }
-        return token;
     }
 
     @Override
@@ -58,10 +58,16 @@ public abstract class AbstractChangeObserver implements EventListener {
 
     protected BundleContext bundleContext;
 
+    /**
+     * 'true' if the listener is registered successfully
+     */
+    protected volatile boolean registered;
+
     // to complete for a change observer...
 
     /**
-     * returns the user id used by the observer (used to detect self generated events)
+     * returns the user id used by the observer (used to detect self generated events); 'null' if the observer
+     * doesn't change anything so that no event has to be ignored
      */
     protected abstract String getServiceUserId();
 
@@ -205,7 +211,7 @@ public abstract class AbstractChangeObserver implements EventListener {
                             String path = event.getPath();
                             String user = event.getUserID();
                             // if the service user is the initiator this is a self initiated event - ignore it
-                            if (!serviceUserId.equals(user)) {
+                            if (serviceUserId == null || !serviceUserId.equals(user)) {
                                 Calendar time = Calendar.getInstance();
                                 time.setTime(new Date(event.getDate()));
                                 int type = event.getType();
@@ -299,15 +305,24 @@ public abstract class AbstractChangeObserver implements EventListener {
             session.getWorkspace().getObservationManager().addEventListener(
                     this, EVENT_TYPES, getObservedPath(),
                     true, null, null, true);
+            registered = true;
         } catch (RepositoryException ex) {
             LOG.error(ex.getMessage(), ex);
         }
         LOG.info("{} activated ({})", getClass().getName(), System.identityHashCode(this));
     }
 
+    /**
+     * @return 'true' if the observer is registered successfully and receives the events
+     */
+    public boolean isRegistered() {
+        return registered;
+    }
+
     @Deactivate
     public void deactivate() {
         bundleContext = null;
+        registered = false;
         try {
             Session session = getSession();
             session.getWorkspace().getObservationManager().removeEventListener(this);
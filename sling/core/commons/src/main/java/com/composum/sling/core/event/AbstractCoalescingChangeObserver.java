@@ -0,0 +1,556 @@
+package com.composum.sling.core.event;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A change observer which decouples the processing of the changes from the observation thread. The events are only
+ * collected - deduplicated by the path of the changed node, also across the event batches - and processed
+ * asynchronously if the collecting window is closed: after the window time since the first collected change or if
+ * the window size is reached. The target nodes of the collected changes are determined once per window and
+ * 'doOnChange' is called in parallel on a bounded worker pool; each worker uses its own resolver and commits its
+ * part of the changes. A target which is in progress in another worker is postponed to the next window.
+ * <p>
+ * The contract for the implementations is the same as for the {@link AbstractChangeObserver}; the window and the
+ * parallelism can be adjusted by overriding the extension hooks, the processing of a window by overriding
+ * {@link #processChanges(List)}. The state of the processing is available via {@link #getQueueDepth()},
+ * {@link #getLag()} and {@link #getLastBatchLag()}; the base class keeps this accounting for all implementations.
+ * On deactivation the changes of the open window are processed before the workers are shut down.
+ */
+public abstract class AbstractCoalescingChangeObserver extends AbstractChangeObserver {
+
+    private final Logger LOG = LoggerFactory.getLogger(getClass());
+
+    public static final long DEFAULT_WINDOW_TIME = 1000L;
+    public static final int DEFAULT_WINDOW_SIZE = 1000;
+    public static final int DEFAULT_PARALLELISM = 2;
+
+    /**
+     * the time (in milliseconds) to wait for the pending workers on deactivation
+     */
+    public static final long SHUTDOWN_TIMEOUT = 10000L;
+
+    /**
+     * a change collected from the events, merged for all events of the same path
+     */
+    protected static class PendingChange {
+
+        protected final String path;
+        /** the time (in milliseconds) the change was observed first */
+        protected final long queued;
+        /** the types of the events merged into this change */
+        protected int types;
+        protected Calendar time;
+        protected String user;
+
+        public PendingChange(String path, Calendar time, String user, long queued) {
+            this(path, 0, time, user, queued);
+        }
+
+        public PendingChange(String path, int types, Calendar time, String user, long queued) {
+            this.path = path;
+            this.types = types;
+            this.time = time;
+            this.user = user;
+            this.queued = queued;
+        }
+
+        public void mergeChange(Calendar time, String user) {
+            if (time.after(this.time)) {
+                this.time = time;
+                this.user = user;
+            }
+        }
+
+        public void mergeChange(int types, Calendar time, String user) {
+            this.types |= types;
+            mergeChange(time, user);
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getTypes() {
+            return types;
+        }
+
+        /** the date of the latest event of the change */
+        public Calendar getTime() {
+            return time;
+        }
+
+        public long getQueued() {
+            return queued;
+        }
+    }
+
+    /**
+     * the changes collected in the current window by the path of the changed node
+     */
+    protected final Map<String, PendingChange> pendingChanges = new LinkedHashMap<>();
+
+    /**
+     * the paths of the target nodes currently processed by the workers
+     */
+    protected final Set<String> targetsInProgress = ConcurrentHashMap.newKeySet();
+
+    /**
+     * the number of changes handed over to the workers and not processed yet
+     */
+    private final AtomicInteger changesInProcess = new AtomicInteger();
+
+    private final AtomicLong processedCount = new AtomicLong();
+
+    private volatile long lastBatchLag;
+
+    /**
+     * the number of changes received while the observer is not active (during and after the deactivation)
+     */
+    private final AtomicInteger droppedChanges = new AtomicInteger();
+
+    protected ScheduledExecutorService windowTimer;
+    protected ScheduledFuture<?> windowClose;
+    protected volatile ExecutorService workers;
+
+    // extension hooks
+
+    /**
+     * the time (in milliseconds) the changes are collected after the first change of a window
+     */
+    protected long getWindowTime() {
+        return DEFAULT_WINDOW_TIME;
+    }
+
+    /**
+     * the number of collected changes which closes a window before the window time is elapsed
+     */
+    protected int getWindowSize() {
+        return DEFAULT_WINDOW_SIZE;
+    }
+
+    /**
+     * the maximum number of workers processing the changes concurrently
+     */
+    protected int getParallelism() {
+        return DEFAULT_PARALLELISM;
+    }
+
+    // metrics
+
+    /**
+     * the number of changes collected or in process but not processed yet
+     */
+    public int getQueueDepth() {
+        synchronized (pendingChanges) {
+            return pendingChanges.size() + changesInProcess.get();
+        }
+    }
+
+    /**
+     * the age (in milliseconds) of the oldest change collected in the current window; '0' if nothing is pending
+     */
+    public long getLag() {
+        synchronized (pendingChanges) {
+            Iterator<PendingChange> iterator = pendingChanges.values().iterator();
+            return iterator.hasNext() ? System.currentTimeMillis() - iterator.next().queued : 0L;
+        }
+    }
+
+    /**
+     * the time (in milliseconds) from the observation of the oldest change of the last processed window to the end
+     * of its processing
+     */
+    public long getLastBatchLag() {
+        return lastBatchLag;
+    }
+
+    /**
+     * the number of target nodes processed since the activation (as reported by {@link #processChanges(List)})
+     */
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    // event handler...
+
+    /**
+     * collects the changed nodes of the events; doesn't access the repository
+     */
+    @Override
+    public void onEvent(EventIterator events) {
+        String serviceUserId = getServiceUserId();
+        long now = System.currentTimeMillis();
+        while (events.hasNext()) {
+            Event event = events.nextEvent();
+            if (ignoreEvent(event)) continue;
+            try {
+                String path = event.getPath();
+                String user = event.getUserID();
+                // if the service user is the initiator this is a self initiated event - ignore it
+                if (serviceUserId == null || !serviceUserId.equals(user)) {
+                    int type = event.getType();
+                    if (isPropertyEvent(type)) {
+                        if (getPropertyPathFilter().accept(path)) {
+                            String nodePath = StringUtils.defaultIfEmpty(StringUtils.substringBeforeLast(path, "/"), "/");
+                            collectChange(nodePath, type, getTime(event), user, now);
+                        } else {
+                            LOG.debug("property change {} ignored {}", type, path);
+                        }
+                    } else {
+                        if (getNodePathFilter().accept(path)) {
+                            collectChange(path, type, getTime(event), user, now);
+                        } else {
+                            LOG.debug("node change {} ignored {}", type, path);
+                        }
+                    }
+                }
+            } catch (RepositoryException rex) {
+                LOG.error(rex.getMessage(), rex);
+            }
+        }
+    }
+
+    protected Calendar getTime(Event event) throws RepositoryException {
+        Calendar time = Calendar.getInstance();
+        time.setTime(new Date(event.getDate()));
+        return time;
+    }
+
+    /**
+     * adds a change to the current window; opens a new window if no change is pending
+     */
+    protected void collectChange(String path, Calendar time, String user, long queued) {
+        collectChange(path, 0, time, user, queued);
+    }
+
+    /**
+     * adds a change of the given event types to the current window; opens a new window if no change is pending;
+     * the change is dropped if the observer is not active (a window would never be closed)
+     */
+    protected void collectChange(String path, int types, Calendar time, String user, long queued) {
+        boolean windowFull;
+        synchronized (pendingChanges) {
+            if (windowTimer == null) {
+                droppedChanges.incrementAndGet();
+                LOG.debug("observer not active, change dropped: {}", path);
+                return;
+            }
+            PendingChange change = pendingChanges.get(path);
+            if (change != null) {
+                change.mergeChange(types, time, user);
+            } else {
+                pendingChanges.put(path, new PendingChange(path, types, time, user, queued));
+            }
+            windowFull = pendingChanges.size() >= getWindowSize();
+            if (!windowFull && windowClose == null) {
+                windowClose = windowTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeWindow();
+                    }
+                }, getWindowTime(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (windowFull) {
+            closeWindow();
+        }
+    }
+
+    /**
+     * hands over the changes of the current window to the workers
+     */
+    protected void closeWindow() {
+        final List<PendingChange> window;
+        synchronized (pendingChanges) {
+            if (windowClose != null) {
+                windowClose.cancel(false);
+                windowClose = null;
+            }
+            if (pendingChanges.isEmpty() || workers == null) {
+                return;
+            }
+            window = new ArrayList<>(pendingChanges.values());
+            pendingChanges.clear();
+            changesInProcess.addAndGet(window.size());
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                processWindow(window);
+            }
+        });
+    }
+
+    /**
+     * processes the changes of a window (see {@link #processChanges(List)}) and keeps the accounting of the metrics
+     */
+    protected final void processWindow(List<PendingChange> window) {
+        long oldest = Long.MAX_VALUE;
+        for (PendingChange change : window) {
+            oldest = Math.min(oldest, change.queued);
+        }
+        int processed = 0;
+        try {
+            processed = processChanges(window);
+        } catch (RuntimeException ex) {
+            LOG.error(ex.getMessage(), ex);
+        } finally {
+            processedCount.addAndGet(processed);
+            changesInProcess.addAndGet(-window.size());
+            lastBatchLag = System.currentTimeMillis() - oldest;
+            LOG.debug("{} changes processed, lag: {}ms", window.size(), lastBatchLag);
+        }
+    }
+
+    /**
+     * determines the target nodes of the changes of a window and distributes the targets to the workers; returns
+     * if all targets are processed; can be overridden if the changes of a window have to be handled in one step
+     * (called in a worker thread)
+     *
+     * @return the number of processed targets
+     */
+    protected int processChanges(List<PendingChange> window) {
+        Map<String, PendingChange> targets = new LinkedHashMap<>();
+        try {
+            ResourceResolver resolver = getResolver();
+            if (resolver != null) {
+                try {
+                    Session session = resolver.adaptTo(Session.class);
+                    for (PendingChange change : window) {
+                        try {
+                            Node contentNode = getContentNode(session, change.path);
+                            if (contentNode != null) {
+                                String path = contentNode.getPath();
+                                PendingChange target = targets.get(path);
+                                if (target != null) {
+                                    target.mergeChange(change.types, change.time, change.user);
+                                } else {
+                                    targets.put(path, new PendingChange(path, change.types, change.time,
+                                            change.user, change.queued));
+                                }
+                            }
+                        } catch (RepositoryException rex) {
+                            LOG.error(rex.getMessage(), rex);
+                        }
+                    }
+                } finally {
+                    resolver.close();
+                }
+            } else {
+                LOG.warn("Can't get resolver. {} ({})", getClass().getName(), System.identityHashCode(this));
+            }
+        } catch (LoginException ex) {
+            LOG.error(ex.getMessage(), ex);
+        }
+        int processed = 0;
+        if (!targets.isEmpty()) {
+            List<PendingChange> targetList = new ArrayList<>(targets.values());
+            int partSize = (targetList.size() + getParallelism() - 1) / getParallelism();
+            List<FutureTask<Integer>> parts = new ArrayList<>();
+            for (int start = partSize; start < targetList.size(); start += partSize) {
+                final List<PendingChange> part = targetList.subList(start,
+                        Math.min(start + partSize, targetList.size()));
+                FutureTask<Integer> task = new FutureTask<>(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return processTargets(part);
+                    }
+                });
+                parts.add(task);
+                execute(task);
+            }
+            processed += processTargets(targetList.subList(0, Math.min(partSize, targetList.size())));
+            for (FutureTask<Integer> task : parts) {
+                task.run(); // processed here if not started by a worker yet - a worker could wait for this window
+            }
+            for (FutureTask<Integer> task : parts) {
+                try {
+                    processed += task.get();
+                } catch (ExecutionException ex) {
+                    LOG.error(ex.getMessage(), ex);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return processed;
+    }
+
+    /**
+     * calls the observers strategy (doOnChange) for each target and commits the changes
+     *
+     * @return the number of processed targets (without the targets postponed to the next window)
+     */
+    protected int processTargets(List<PendingChange> targets) {
+        List<String> acquired = new ArrayList<>();
+        try {
+            ResourceResolver resolver = getResolver();
+            if (resolver != null) {
+                try {
+                    for (PendingChange target : targets) {
+                        if (targetsInProgress.add(target.path)) {
+                            acquired.add(target.path);
+                            Resource resource = resolver.getResource(target.path);
+                            if (resource != null && getResourceFilter().accept(resource)) {
+                                try {
+                                    doOnChange(resolver, new ChangedResource(resource, target.time, target.user));
+                                } catch (RepositoryException ex) {
+                                    LOG.error(ex.getMessage(), ex);
+                                }
+                            }
+                        } else {
+                            // in progress in another worker - postponed to avoid concurrent changes of the target
+                            LOG.debug("target in progress, postponed: {}", target.path);
+                            collectChange(target.path, target.types, target.time, target.user, target.queued);
+                        }
+                    }
+                    resolver.commit();
+                } catch (PersistenceException ex) {
+                    LOG.error(ex.getMessage(), ex);
+                } finally {
+                    resolver.close();
+                }
+            } else {
+                LOG.warn("Can't get resolver. {} ({})", getClass().getName(), System.identityHashCode(this));
+            }
+        } catch (LoginException | RuntimeException ex) {
+            LOG.error(ex.getMessage(), ex);
+        } finally {
+            targetsInProgress.removeAll(acquired);
+        }
+        return acquired.size();
+    }
+
+    /**
+     * executes the task on a worker; in the current thread if the workers are shut down already
+     */
+    protected void execute(Runnable task) {
+        ExecutorService workers = this.workers;
+        if (workers != null) {
+            try {
+                workers.execute(task);
+                return;
+            } catch (RejectedExecutionException ignore) {
+                // shut down concurrently
+            }
+        }
+        task.run();
+    }
+
+    @Override
+    @Activate
+    @Modified
+    public void activate(ComponentContext context) {
+        synchronized (pendingChanges) {
+            droppedChanges.set(0);
+            if (windowTimer == null) {
+                windowTimer = Executors.newSingleThreadScheduledExecutor(createThreadFactory("window"));
+            }
+            if (workers == null) {
+                int parallelism = Math.max(1, getParallelism());
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), createThreadFactory("worker"));
+                executor.allowCoreThreadTimeOut(true);
+                workers = executor;
+            }
+        }
+        super.activate(context);
+    }
+
+    /**
+     * stops the collecting of changes, processes the changes of the open window and waits for the workers
+     */
+    @Override
+    @Deactivate
+    public void deactivate() {
+        super.deactivate();
+        int flushed;
+        synchronized (pendingChanges) {
+            if (windowTimer != null) {
+                windowTimer.shutdownNow();
+                windowTimer = null; // the changes received from now on are dropped
+            }
+            flushed = pendingChanges.size();
+        }
+        closeWindow();
+        if (flushed > 0) {
+            LOG.info("{} pending changes processed on deactivation", flushed);
+        }
+        ExecutorService workers;
+        synchronized (pendingChanges) {
+            workers = this.workers;
+            this.workers = null;
+        }
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                if (!workers.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    LOG.warn("workers not terminated in time");
+                    workers.shutdownNow();
+                }
+            } catch (InterruptedException ex) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        int dropped = droppedChanges.get();
+        if (dropped > 0) {
+            LOG.warn("{} changes dropped on deactivation", dropped);
+        }
+    }
+
+    protected ThreadFactory createThreadFactory(final String role) {
+        final String prefix = getClass().getSimpleName() + "-" + role + "-";
+        return new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
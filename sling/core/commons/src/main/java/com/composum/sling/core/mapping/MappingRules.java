@@ -258,6 +258,11 @@ public class MappingRules {
      * the change policy
      */
     public final DateParser dateParser;
+    /**
+     * if 'true' the properties are exported sorted by their names; otherwise in the repository order
+     * which doesn't need to collect the properties of each node
+     */
+    public final boolean sortProperties;
 
     /**
      * Generates a resource traversal filter for generation JSON objects.
@@ -277,6 +282,7 @@ public class MappingRules {
         this.maxDepth = maxDepth;
         this.changeRule = changeRule;
         this.dateParser = new DateParser();
+        this.sortProperties = true;
     }
 
     /**
@@ -287,6 +293,20 @@ public class MappingRules {
     public MappingRules(MappingRules template, ResourceFilter resourceFilter,
                         StringFilter exportPropertyFilter, StringFilter importPropertyFilter,
                         PropertyFormat propertyFormat, Integer maxDepth, ChangeRule changeRule) {
+        this(template, resourceFilter, exportPropertyFilter, importPropertyFilter,
+                propertyFormat, maxDepth, changeRule, null);
+    }
+
+    /**
+     * the copy constructor to clone and modify rules partially
+     *
+     * @param template       the template with all the default settings
+     * @param sortProperties the property order of the export; the templates order if 'null'
+     */
+    public MappingRules(MappingRules template, ResourceFilter resourceFilter,
+                        StringFilter exportPropertyFilter, StringFilter importPropertyFilter,
+                        PropertyFormat propertyFormat, Integer maxDepth, ChangeRule changeRule,
+                        Boolean sortProperties) {
         this.resourceFilter = resourceFilter != null
                 ? resourceFilter : template.resourceFilter;
         this.exportPropertyFilter = exportPropertyFilter != null
@@ -300,6 +320,8 @@ public class MappingRules {
         this.changeRule = changeRule != null
                 ? changeRule : template.changeRule;
         this.dateParser = new DateParser();
+        this.sortProperties = sortProperties != null
+                ? sortProperties : template.sortProperties;
     }
 
     /**
@@ -11,15 +11,30 @@ import javax.annotation.Nullable;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
+import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
+/**
+ * Iterates over the resources of the nodes of a node iterator (e.g. of a query result) which are accepted by the
+ * filter. The resources are resolved in batches ahead of the consumer, so that at most one batch of resources is
+ * held in memory independent from the size of the node iteration.
+ */
 public class ResourceNodeIterator implements Iterator<Resource> {
 
     private static final Logger LOG = LoggerFactory.getLogger(ResourceNodeIterator.class);
 
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
     protected final ResourceResolver resolver;
     protected final NodeIterator nodeIterator;
     protected final ResourceFilter filter;
+    protected final int batchSize;
+
+    protected final ArrayDeque<Resource> prefetched;
+
+    /** the number of nodes read from the node iterator */
+    protected long read = 0;
 
     public ResourceNodeIterator(@Nonnull final ResourceResolver resolver, @Nonnull final NodeIterator nodeIterator) {
         this(resolver, nodeIterator, null);
@@ -27,28 +42,63 @@ public class ResourceNodeIterator implements Iterator<Resource> {
 
     public ResourceNodeIterator(@Nonnull final ResourceResolver resolver, @Nonnull final NodeIterator nodeIterator,
                                 @Nullable ResourceFilter filter) {
+        this(resolver, nodeIterator, filter, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize the maximum number of accepted resources resolved ahead of the consumer
+     */
+    public ResourceNodeIterator(@Nonnull final ResourceResolver resolver, @Nonnull final NodeIterator nodeIterator,
+                                @Nullable ResourceFilter filter, int batchSize) {
         this.resolver = resolver;
         this.nodeIterator = nodeIterator;
         this.filter = filter != null ? filter : ResourceFilter.ALL;
+        this.batchSize = Math.max(1, batchSize);
+        this.prefetched = new ArrayDeque<>(this.batchSize);
     }
 
     @Override
     public boolean hasNext() {
-        return nodeIterator.hasNext();
+        if (prefetched.isEmpty()) {
+            prefetch();
+        }
+        return !prefetched.isEmpty();
     }
 
     @Override
     public Resource next() {
-        try {
-            Node node = nodeIterator.nextNode();
-            return resolver.getResource(node.getPath());
-        } catch (RepositoryException ex) {
-            LOG.error(ex.getMessage(), ex);
-            return null;
+        if (!hasNext()) {
+            throw new NoSuchElementException();
         }
+        return prefetched.poll();
     }
 
     @Override
     public void remove() {
     }
+
+    /**
+     * @return the number of nodes read from the node iterator (the rejected nodes included)
+     */
+    public long getRead() {
+        return read;
+    }
+
+    /**
+     * resolves the next batch of resources accepted by the filter
+     */
+    protected void prefetch() {
+        while (prefetched.size() < batchSize && nodeIterator.hasNext()) {
+            try {
+                Node node = nodeIterator.nextNode();
+                read++;
+                Resource resource = resolver.getResource(node.getPath());
+                if (resource != null && filter.accept(resource)) {
+                    prefetched.add(resource);
+                }
+            } catch (RepositoryException ex) {
+                LOG.error(ex.getMessage(), ex);
+            }
+        }
+    }
 }
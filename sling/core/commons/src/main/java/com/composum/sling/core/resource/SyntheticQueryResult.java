@@ -17,6 +17,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 
+/**
+ * A synthetic resource with the nodes of a query result as children. The children are resolved lazily in batches
+ * during the iteration and only the nodes accepted by the filter are delivered.
+ */
 public class SyntheticQueryResult extends SyntheticResource {
 
     private static final Logger LOG = LoggerFactory.getLogger(SyntheticQueryResult.class);
@@ -24,6 +28,7 @@ public class SyntheticQueryResult extends SyntheticResource {
     protected final QueryResult queryResult;
     protected final ModifiableValueMap valueMap;
     protected final ResourceFilter filter;
+    protected int batchSize = ResourceNodeIterator.DEFAULT_BATCH_SIZE;
 
     public SyntheticQueryResult(ResourceResolver resolver, String path, QueryResult queryResult) {
         this(resolver, path, queryResult, ResourceFilter.ALL);
@@ -55,10 +60,17 @@ public class SyntheticQueryResult extends SyntheticResource {
         valueMap.put(path, value);
     }
 
+    /**
+     * @param batchSize the number of children resolved ahead during the iteration
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
     @Override
     public Iterator<Resource> listChildren() {
         try {
-            return new ResourceNodeIterator(getResourceResolver(), queryResult.getNodes(), filter);
+            return new ResourceNodeIterator(getResourceResolver(), queryResult.getNodes(), filter, batchSize);
         } catch (RepositoryException ex) {
             LOG.error(ex.getMessage(), ex);
             return Collections.<Resource>emptyList().iterator();
@@ -74,17 +74,31 @@ public class GroovyJobExecutor extends AbstractJobExecutor<Object> {
     )
     protected String groovySetupScript;
 
+    public static final String GROOVY_SCRIPT_CACHE_SIZE = "groovy.script.cache.size";
+    @Property(
+            name = GROOVY_SCRIPT_CACHE_SIZE,
+            label = "Script cache size",
+            description = "the maximum number of compiled scripts kept for the next runs; 0: no caching",
+            intValue = 100
+    )
+    protected int groovyScriptCacheSize;
+
+    protected GroovyScriptCache scriptCache;
+
     @Reference
     protected DynamicClassLoaderManager dynamicClassLoaderManager;
 
     @Override
     @Activate
     protected void activate(ComponentContext context) throws Exception {
+        super.activate(context);
         Dictionary<String, Object> properties = context.getProperties();
         groovySetupScript = PropertiesUtil.toString(properties.get(GROOVY_SETUP_SCRIPT), DEFAULT_SETUP_SCRIPT);
         if (StringUtils.isBlank(groovySetupScript)) {
             groovySetupScript = DEFAULT_SETUP_SCRIPT;
         }
+        groovyScriptCacheSize = PropertiesUtil.toInteger(properties.get(GROOVY_SCRIPT_CACHE_SIZE), 100);
+        scriptCache = groovyScriptCacheSize > 0 ? new GroovyScriptCache(groovyScriptCacheSize) : null;
     }
 
     @Override
@@ -157,7 +171,7 @@ public class GroovyJobExecutor extends AbstractJobExecutor<Object> {
         public Object call() throws Exception {
             ClassLoader tccl = Thread.currentThread().getContextClassLoader();
             Thread.currentThread().setContextClassLoader(dynamicClassLoaderManager.getDynamicClassLoader());
-            final GroovyRunner groovyRunner = new GroovyRunner(session, out, groovySetupScript);
+            final GroovyRunner groovyRunner = new GroovyRunner(session, out, groovySetupScript, scriptCache);
             final HashMap<String, Object> variables = new HashMap<>();
             variables.put("jctx", context);
             variables.put("job", job);
@@ -2,16 +2,20 @@ package com.composum.sling.core.script;
 
 import com.composum.sling.core.util.ResourceUtil;
 import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
 import groovy.lang.GroovyShell;
 import groovy.lang.MissingPropertyException;
 import groovy.lang.Script;
 import groovy.transform.ThreadInterrupt;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.codehaus.groovy.control.CompilerConfiguration;
 import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.FrameworkUtil;
@@ -56,14 +60,22 @@ public class GroovyRunner {
 
     protected String setupScript;
 
+    /** the cache of the compiled script classes; scripts are compiled for each run if not present */
+    protected GroovyScriptCache scriptCache;
+
     public GroovyRunner(Session session, PrintWriter out) {
         this(session, out, DEFAULT_SETUP_SCRIPT);
     }
 
     public GroovyRunner(Session session, PrintWriter out, String setupScript) {
+        this(session, out, setupScript, null);
+    }
+
+    public GroovyRunner(Session session, PrintWriter out, String setupScript, GroovyScriptCache scriptCache) {
         this.out = out;
         this.session = session;
         this.setupScript = setupScript;
+        this.scriptCache = scriptCache;
         if (session != null) {
             bundleContext = getBundleContext();
             resourceResolverFactory = getResourceResolverFactory();
@@ -83,9 +95,10 @@ public class GroovyRunner {
 
     public Object run(String path, Map<String, Object> variables) throws InterruptedException {
         Object result = null;
-        try (Reader reader = getScriptResource(path)) {
-            if (reader != null) {
-                result = run(reader, variables, path.substring(path.lastIndexOf('/') +1 ));
+        try {
+            Script script = getScript(path, variables);
+            if (script != null) {
+                result = run(script);
             }
         } catch (IOException ioex) {
             LOG.error(ioex.getMessage(), ioex);
@@ -98,7 +111,10 @@ public class GroovyRunner {
     }
 
     public Object run(Reader scriptReader, Map<String, Object> variables, String name) throws InterruptedException {
-        Script script = getScript(scriptReader, variables, name);
+        return run(getScript(scriptReader, variables, name));
+    }
+
+    protected Object run(Script script) throws InterruptedException {
         Object setupVariables = setup(script);
         extendBinding(script, setupVariables);
         extendBinding(script, generalBindings);
@@ -110,12 +126,8 @@ public class GroovyRunner {
         if (variables == null) {
             variables = new HashMap<>();
         }
-        CompilerConfiguration compilerConfig = new CompilerConfiguration();
-        compilerConfig.addCompilationCustomizers(
-                new ASTTransformationCustomizer(ThreadInterrupt.class));
-
         Binding binding = new Binding(variables);
-        GroovyShell shell = new GroovyShell(binding,compilerConfig);
+        GroovyShell shell = new GroovyShell(binding, createCompilerConfiguration());
         if (name == null) {
             return shell.parse(scriptReader);
         } else {
@@ -123,6 +135,52 @@ public class GroovyRunner {
         }
     }
 
+    /**
+     * Creates a new instance with a new binding of the (cached) script class of the script at the path.
+     *
+     * @return the script or 'null' if no script is available at the path
+     */
+    protected Script getScript(String path, Map<String, Object> variables) throws IOException {
+        if (variables == null) {
+            variables = new HashMap<>();
+        }
+        Class<?> scriptClass = getScriptClass(path);
+        return scriptClass != null ? InvokerHelper.createScript(scriptClass, new Binding(variables)) : null;
+    }
+
+    /**
+     * Returns the compiled class of the script at the path. The cache entries are keyed by the hash of the
+     * script source - a changed script is compiled again - and by the context class loader of the compilation.
+     */
+    protected Class<?> getScriptClass(String path) throws IOException {
+        String source;
+        try (Reader reader = getScriptResource(path)) {
+            if (reader == null) {
+                return null;
+            }
+            source = IOUtils.toString(reader);
+        }
+        ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        String version = DigestUtils.sha1Hex(source);
+        Class<?> scriptClass = scriptCache != null ? scriptCache.get(path, version, parent) : null;
+        if (scriptClass == null) {
+            GroovyShell shell = new GroovyShell(createCompilerConfiguration());
+            GroovyClassLoader classLoader = shell.getClassLoader();
+            scriptClass = classLoader.parseClass(source, path.substring(path.lastIndexOf('/') + 1));
+            if (scriptCache != null) {
+                scriptCache.put(path, version, parent, scriptClass);
+            }
+        }
+        return scriptClass;
+    }
+
+    protected CompilerConfiguration createCompilerConfiguration() {
+        CompilerConfiguration compilerConfig = new CompilerConfiguration();
+        compilerConfig.addCompilationCustomizers(
+                new ASTTransformationCustomizer(ThreadInterrupt.class));
+        return compilerConfig;
+    }
+
     protected void extendBinding(Script script, Object variables) {
         extendBinding(script.getBinding(), variables);
     }
@@ -144,23 +202,18 @@ public class GroovyRunner {
 
     protected Object setup(Script script) {
         Object result = null;
-        Reader reader = getScriptResource(setupScript);
-        if (reader != null) {
-            try {
-                try {
-                    Map<String, Object> variables = new HashMap<>();
-                    variables.put("script", script);
-                    variables.put("log", LOG);
-                    variables.put("out", out);
-                    Script setupScript = getScript(reader, variables, this.setupScript.substring(this.setupScript.lastIndexOf('/') + 1));
-                    extendBinding(setupScript, generalBindings);
-                    result = setupScript.run();
-                } finally {
-                    reader.close();
-                }
-            } catch (IOException ioex) {
-                LOG.error(ioex.getMessage(), ioex);
+        try {
+            Map<String, Object> variables = new HashMap<>();
+            variables.put("script", script);
+            variables.put("log", LOG);
+            variables.put("out", out);
+            Script setupScript = getScript(this.setupScript, variables);
+            if (setupScript != null) {
+                extendBinding(setupScript, generalBindings);
+                result = setupScript.run();
             }
+        } catch (IOException ioex) {
+            LOG.error(ioex.getMessage(), ioex);
         }
         return result;
     }
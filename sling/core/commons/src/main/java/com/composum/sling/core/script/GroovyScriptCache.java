@@ -0,0 +1,74 @@
+package com.composum.sling.core.script;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the compiled classes of the recently used Groovy scripts (the least recently used scripts are dropped if
+ * the maximum size is reached). An entry is only valid for the version of the script source it was compiled from
+ * and for the parent class loader used for compiling - a changed script or a replaced (dynamic) class loader leads
+ * to a new compilation. The classes are shared, each run creates its own script instance with its own binding.
+ */
+public class GroovyScriptCache {
+
+    protected static class Entry {
+
+        public final String version;
+        public final ClassLoader parent;
+        public final Class<?> scriptClass;
+
+        public Entry(String version, ClassLoader parent, Class<?> scriptClass) {
+            this.version = version;
+            this.parent = parent;
+            this.scriptClass = scriptClass;
+        }
+    }
+
+    protected final Map<String, Entry> entries;
+
+    public GroovyScriptCache(final int maxEntries) {
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param path    the path of the script
+     * @param version the version of the script source (e.g. the hash of the content)
+     * @param parent  the parent class loader for the compilation
+     * @return the compiled script class if it's cached for the version and the class loader
+     */
+    @Nullable
+    public synchronized Class<?> get(@Nonnull String path, @Nonnull String version, @Nullable ClassLoader parent) {
+        Entry entry = entries.get(path);
+        if (entry != null) {
+            if (entry.version.equals(version) && entry.parent == parent) {
+                return entry.scriptClass;
+            }
+            entries.remove(path);
+        }
+        return null;
+    }
+
+    public synchronized void put(@Nonnull String path, @Nonnull String version, @Nullable ClassLoader parent,
+                                 @Nonnull Class<?> scriptClass) {
+        entries.put(path, new Entry(version, parent, scriptClass));
+    }
+
+    public synchronized void invalidate(@Nonnull String path) {
+        entries.remove(path);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
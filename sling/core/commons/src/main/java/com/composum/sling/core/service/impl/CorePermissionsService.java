@@ -1,7 +1,11 @@
 package com.composum.sling.core.service.impl;
 
 import com.composum.sling.core.service.PermissionsService;
+import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.jackrabbit.api.JackrabbitSession;
 import org.apache.jackrabbit.api.security.user.Authorizable;
@@ -9,6 +13,12 @@ import org.apache.jackrabbit.api.security.user.Group;
 import org.apache.jackrabbit.api.security.user.User;
 import org.apache.jackrabbit.api.security.user.UserManager;
 import org.apache.jackrabbit.commons.jackrabbit.authorization.AccessControlUtils;
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,15 +26,125 @@ import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.Privilege;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The group memberships and the privileges checked for a user are cached for a short time (the 'cache TTL') so that
+ * the repeated checks during the rendering of a page are map lookups. The transitive memberships of a user are
+ * resolved in one pass if one of the requested groups is not cached yet. A change of a user drops the cached checks
+ * of this user, the whole cache is dropped on each other change below '/home' (e.g. of groups) and of access control
+ * policies; the login tokens stored below the users are ignored.
+ */
 @Component(
-        label = "Composum Nodes Permissions Service"
+        label = "Composum Nodes Permissions Service",
+        metatype = true
 )
-@Service
-public class CorePermissionsService implements PermissionsService {
+@Service({PermissionsService.class, EventHandler.class})
+@Properties({
+        @Property(
+                name = EventConstants.EVENT_TOPIC,
+                value = {SlingConstants.TOPIC_RESOURCE_ADDED,
+                        SlingConstants.TOPIC_RESOURCE_CHANGED,
+                        SlingConstants.TOPIC_RESOURCE_REMOVED},
+                propertyPrivate = true),
+        @Property(
+                name = EventConstants.EVENT_FILTER,
+                value = "(|(&(path=/home/*)(!(path=*/.tokens*)))(path=*/rep:policy*))",
+                propertyPrivate = true)
+})
+public class CorePermissionsService implements PermissionsService, EventHandler {
 
     private static final Logger LOG = LoggerFactory.getLogger(CorePermissionsService.class);
 
+    public static final String CACHE_TTL_SECONDS = "permissions.cache.ttl";
+    public static final int CACHE_TTL_SECONDS_DEFAULT = 10;
+    @Property(
+            name = CACHE_TTL_SECONDS,
+            label = "Cache TTL",
+            description = "the time (in seconds) the checked memberships and privileges of a user are cached; 0: no caching",
+            intValue = CACHE_TTL_SECONDS_DEFAULT
+    )
+    protected long cacheTtlMillis; // the configured seconds in milliseconds
+
+    /** the root of the users (the default of Oak); a change of a user which isn't cached affects no cached checks */
+    public static final String USERS_ROOT = "/home/users/";
+
+    /** the name of the folders of the login tokens of a user */
+    public static final String TOKENS_NAME = ".tokens";
+
+    /** the maximum number of cached users; the expired users are removed if reached */
+    public static final int MAX_CACHED_USERS = 1000;
+
+    /**
+     * The cached checks of one user.
+     */
+    protected static class UserChecks {
+
+        public final long created = System.currentTimeMillis();
+        public final boolean admin;
+        /** the path of the user node; the cached checks are dropped on a change of the user */
+        public final String userPath;
+
+        /** the ids of the transitive groups of the user - resolved on demand */
+        protected volatile Set<String> memberOf;
+
+        public final Map<String, Boolean> memberships = new ConcurrentHashMap<>();
+        /** the name of the granted privilege or "" if not granted for each 'path|privilege key' */
+        public final Map<String, String> privileges = new ConcurrentHashMap<>();
+
+        public UserChecks(boolean admin, String userPath) {
+            this.admin = admin;
+            this.userPath = userPath;
+        }
+    }
+
+    protected final Map<String, UserChecks> cache = new ConcurrentHashMap<>();
+
+    @Activate
+    @Modified
+    protected void activate(ComponentContext context) {
+        Dictionary<String, Object> properties = context.getProperties();
+        cacheTtlMillis = PropertiesUtil.toInteger(properties.get(CACHE_TTL_SECONDS), CACHE_TTL_SECONDS_DEFAULT) * 1000L;
+        cache.clear();
+    }
+
+    /**
+     * drops the cached checks of a changed user, all cached checks on changes of groups and policies
+     */
+    @Override
+    public void handleEvent(Event event) {
+        if (!cache.isEmpty()) {
+            Object property = event.getProperty(SlingConstants.PROPERTY_PATH);
+            String path = property instanceof String ? (String) property : null;
+            if (path != null && !path.contains("/rep:policy")) {
+                if (path.contains("/" + TOKENS_NAME)) {
+                    return; // a login of a user
+                }
+                boolean userChanged = false;
+                for (Map.Entry<String, UserChecks> entry : cache.entrySet()) {
+                    String userPath = entry.getValue().userPath;
+                    if (userPath != null && (path.equals(userPath) || path.startsWith(userPath + "/"))) {
+                        LOG.debug("permissions of '{}' dropped on change of '{}'", entry.getKey(), path);
+                        cache.remove(entry.getKey());
+                        userChanged = true;
+                    }
+                }
+                if (userChanged || path.startsWith(USERS_ROOT)) {
+                    return;
+                }
+            }
+            LOG.debug("permissions cache cleared on change of '{}'", path);
+            cache.clear();
+        }
+    }
+
     /**
      * @param session         the current session
      * @param authorizableIds a list of group ids to check
@@ -33,10 +153,20 @@ public class CorePermissionsService implements PermissionsService {
     @Override
     public String isMemberOfOne(Session session, String... authorizableIds) {
         try {
+            UserChecks checks = getChecks(session);
+            if (checks != null) {
+                resolveMemberships(session, checks, authorizableIds);
+                for (String authorizableId : authorizableIds) {
+                    if (authorizableId != null && checks.memberships.get(authorizableId)) {
+                        return authorizableId;
+                    }
+                }
+                return checks.admin ? "" : null;
+            }
             UserManager userManager = ((JackrabbitSession) session).getUserManager();
             Authorizable user = userManager.getAuthorizable(session.getUserID());
             for (String authorizableId : authorizableIds) {
-                Authorizable authorizable = userManager.getAuthorizable(authorizableId);
+                Authorizable authorizable = authorizableId != null ? userManager.getAuthorizable(authorizableId) : null;
                 if (authorizable instanceof Group && ((Group) authorizable).isMember(user)) {
                     return authorizableId;
                 }
@@ -58,13 +188,26 @@ public class CorePermissionsService implements PermissionsService {
     @Override
     public boolean isMemberOfAll(Session session, String... authorizableIds) {
         try {
+            UserChecks checks = getChecks(session);
+            if (checks != null) {
+                if (checks.admin) {
+                    return true; // always include 'admin' user
+                }
+                resolveMemberships(session, checks, authorizableIds);
+                for (String authorizableId : authorizableIds) {
+                    if (authorizableId == null || !checks.memberships.get(authorizableId)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
             UserManager userManager = ((JackrabbitSession) session).getUserManager();
             Authorizable user = userManager.getAuthorizable(session.getUserID());
             if (user instanceof User && ((User) user).isAdmin()) {
                 return true; // always include 'admin' user
             }
             for (String authorizableId : authorizableIds) {
-                Authorizable authorizable = userManager.getAuthorizable(authorizableId);
+                Authorizable authorizable = authorizableId != null ? userManager.getAuthorizable(authorizableId) : null;
                 if (!(authorizable instanceof Group) || !((Group) authorizable).isMember(user)) {
                     return false;
                 }
@@ -84,6 +227,16 @@ public class CorePermissionsService implements PermissionsService {
     @Override
     public String hasOneOfPrivileges(Session session, String path, String... privilegeKeys) {
         try {
+            final UserChecks checks = getChecks(session);
+            if (checks != null) {
+                for (String privilegeKey : privilegeKeys) {
+                    String granted = checkPrivilege(session, checks, path, privilegeKey);
+                    if (granted != null) {
+                        return granted;
+                    }
+                }
+                return null;
+            }
             final AccessControlManager acManager = session.getAccessControlManager();
             final Privilege[] privileges = AccessControlUtils.privilegesFromNames(acManager, privilegeKeys);
             for (Privilege privilege : privileges) {
@@ -105,6 +258,15 @@ public class CorePermissionsService implements PermissionsService {
     @Override
     public boolean hasAllPrivileges(Session session, String path, String... privilegeKeys) {
         try {
+            final UserChecks checks = getChecks(session);
+            if (checks != null) {
+                for (String privilegeKey : privilegeKeys) {
+                    if (checkPrivilege(session, checks, path, privilegeKey) == null) {
+                        return false;
+                    }
+                }
+                return true;
+            }
             final AccessControlManager acManager = session.getAccessControlManager();
             final Privilege[] privileges = AccessControlUtils.privilegesFromNames(acManager, privilegeKeys);
             return acManager.hasPrivileges(path, privileges);
@@ -113,4 +275,85 @@ public class CorePermissionsService implements PermissionsService {
         }
         return false;
     }
+
+    // cache
+
+    /**
+     * @return the name of the privilege if granted for the path, 'null' otherwise
+     */
+    protected String checkPrivilege(Session session, UserChecks checks, String path, String privilegeKey)
+            throws RepositoryException {
+        String key = path + "|" + privilegeKey;
+        String granted = checks.privileges.get(key);
+        if (granted == null) {
+            final AccessControlManager acManager = session.getAccessControlManager();
+            final Privilege privilege = acManager.privilegeFromName(privilegeKey);
+            granted = acManager.hasPrivileges(path, new Privilege[]{privilege}) ? privilege.getName() : "";
+            checks.privileges.put(key, granted);
+        }
+        return granted.isEmpty() ? null : granted;
+    }
+
+    /**
+     * Determines the memberships of the user for all given groups which are not cached yet; the transitive groups
+     * of the user are resolved once, only the groups not found there are checked individually.
+     */
+    protected void resolveMemberships(Session session, UserChecks checks, String... authorizableIds)
+            throws RepositoryException {
+        List<String> missing = new ArrayList<>();
+        for (String authorizableId : authorizableIds) {
+            // a null id is no group - the cache can't hold it
+            if (authorizableId != null && !checks.memberships.containsKey(authorizableId)) {
+                missing.add(authorizableId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            UserManager userManager = ((JackrabbitSession) session).getUserManager();
+            Authorizable user = userManager.getAuthorizable(session.getUserID());
+            Set<String> memberOf = checks.memberOf;
+            if (memberOf == null) {
+                memberOf = new HashSet<>();
+                if (user != null) {
+                    for (Iterator<Group> groups = user.memberOf(); groups.hasNext(); ) {
+                        memberOf.add(groups.next().getID());
+                    }
+                }
+                checks.memberOf = memberOf;
+            }
+            for (String authorizableId : missing) {
+                boolean member = memberOf.contains(authorizableId);
+                if (!member && user != null) {
+                    // groups with dynamic membership (e.g. 'everyone') are not listed by 'memberOf'
+                    Authorizable authorizable = userManager.getAuthorizable(authorizableId);
+                    member = authorizable instanceof Group && ((Group) authorizable).isMember(user);
+                }
+                checks.memberships.put(authorizableId, member);
+            }
+        }
+    }
+
+    /**
+     * @return the cached checks of the sessions user; 'null' if caching is disabled
+     */
+    protected UserChecks getChecks(Session session) throws RepositoryException {
+        String userId = session.getUserID();
+        if (cacheTtlMillis <= 0 || userId == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        UserChecks checks = cache.get(userId);
+        if (checks == null || checks.created < now - cacheTtlMillis) {
+            Authorizable user = ((JackrabbitSession) session).getUserManager().getAuthorizable(userId);
+            if (cache.size() >= MAX_CACHED_USERS) {
+                cache.values().removeIf(entry -> entry.created < now - cacheTtlMillis);
+                if (cache.size() >= MAX_CACHED_USERS) {
+                    cache.clear();
+                }
+            }
+            checks = new UserChecks(user instanceof User && ((User) user).isAdmin(),
+                    user != null ? user.getPath() : null);
+            cache.put(userId, checks);
+        }
+        return checks;
+    }
 }
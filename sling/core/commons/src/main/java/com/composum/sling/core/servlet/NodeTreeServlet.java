@@ -9,7 +9,9 @@ import com.composum.sling.core.util.ResourceUtil;
 import com.composum.sling.core.util.ResponseUtil;
 import com.composum.sling.core.util.XSS;
 import com.google.gson.stream.JsonWriter;
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.jackrabbit.JcrConstants;
 import org.apache.sling.api.SlingHttpServletRequest;
@@ -31,10 +33,17 @@ import javax.jcr.nodetype.NodeType;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 @Component(componentAbstract = true)
 public abstract class NodeTreeServlet extends AbstractServiceServlet {
@@ -113,10 +122,14 @@ public abstract class NodeTreeServlet extends AbstractServiceServlet {
      * suffix: the path to the node
      * selectors / parameters:
      * - 'label': 'name' or 'title' - selects the value to use for the nodes 'text' attribute
+     * - 'limit': the maximum number of children to deliver (optional, see {@link TreePage})
+     * - 'offset': the number of children to skip (optional, with 'limit')
+     * - 'cursor': the cursor of the previous page (optional, instead of 'offset')
      * URL examples:
      * - http://host/bin/cpm/nodes/node.tree.json/path/to/the/node
      * - http://host/bin/cpm/nodes/node.tree.title.json/path/to/the/node
      * - http://host/bin/cpm/nodes/node.tree.json/path/to/the/node?label=title
+     * - http://host/bin/cpm/nodes/node.tree.json/path/to/the/node?limit=100&cursor=...
      */
     public class TreeOperation implements ServletOperation {
 
@@ -146,17 +159,125 @@ public abstract class NodeTreeServlet extends AbstractServiceServlet {
 
             response.setStatus(HttpServletResponse.SC_OK);
 
-            writeJsonNode(jsonWriter, strategy, resource, labelType, false);
+            jsonWriter.beginObject();
+            writeJsonNodeData(jsonWriter, strategy, resource, labelType, false, TreePage.fromRequest(request));
+            jsonWriter.endObject();
         }
     }
 
+    /**
+     * The paging of the children of a tree node: up to 'limit' children are delivered starting at 'offset' or after
+     * the last child of the previous page encoded in the 'cursor' of the previous response. The cursor is opaque for
+     * the client; it contains the position for nodes in repository order and the sort key of the last child for
+     * sorted nodes (see {@link #isSortedTreeItems(ResourceHandle)}), so that a page of a sorted node doesn't depend
+     * on the number of the preceding children.
+     */
+    public static class TreePage {
+
+        protected static final char CURSOR_OFFSET = 'o';
+        protected static final char CURSOR_KEY = 'k';
+
+        public final int offset;
+        public final int limit;
+        /** the sort key of the last child of the previous page (sorted nodes only) */
+        public final String afterKey;
+
+        public TreePage(int offset, int limit, String afterKey) {
+            this.offset = offset;
+            this.limit = limit;
+            this.afterKey = afterKey;
+        }
+
+        /**
+         * @return the requested page; 'null' if no 'limit' is requested (all children)
+         */
+        public static TreePage fromRequest(SlingHttpServletRequest request) {
+            int limit = RequestUtil.getParameter(request, PARAM_LIMIT, 0);
+            if (limit <= 0) {
+                return null;
+            }
+            int offset = Math.max(0, RequestUtil.getParameter(request, PARAM_OFFSET, 0));
+            String afterKey = null;
+            String cursor = request.getParameter(PARAM_CURSOR);
+            if (StringUtils.isNotBlank(cursor)) {
+                String decoded = new String(Base64.decodeBase64(cursor), StandardCharsets.UTF_8);
+                if (decoded.length() > 0 && decoded.charAt(0) == CURSOR_KEY) {
+                    afterKey = decoded.substring(1);
+                } else if (decoded.length() > 0 && decoded.charAt(0) == CURSOR_OFFSET) {
+                    offset = Math.max(0, NumberUtils.toInt(decoded.substring(1), offset));
+                }
+            }
+            return new TreePage(offset, limit, afterKey);
+        }
+
+        public static String offsetCursor(int offset) {
+            return encodeCursor(CURSOR_OFFSET + Integer.toString(offset));
+        }
+
+        public static String keyCursor(String key) {
+            return encodeCursor(CURSOR_KEY + key);
+        }
+
+        protected static String encodeCursor(String value) {
+            return Base64.encodeBase64URLSafeString(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * a child with its sort key determined once for sorting
+     */
+    protected static class TreeItem {
+
+        public final String key;
+        public final Resource resource;
+
+        public TreeItem(String key, Resource resource) {
+            this.key = key;
+            this.resource = resource;
+        }
+    }
+
+    protected static final Comparator<TreeItem> TREE_ITEM_ORDER = new Comparator<TreeItem>() {
+        @Override
+        public int compare(TreeItem item1, TreeItem item2) {
+            return item1.key.compareTo(item2.key);
+        }
+    };
+
     /**
      * extension hook for additional filters or sorting
      */
     protected List<Resource> prepareTreeItems(ResourceHandle resource, List<Resource> items) {
+        if (isSortedTreeItems(resource)) {
+            List<TreeItem> sorted = new ArrayList<>(items.size());
+            for (Resource item : items) {
+                sorted.add(new TreeItem(getSortKey(item), item));
+            }
+            Collections.sort(sorted, TREE_ITEM_ORDER);
+            items = new ArrayList<>(sorted.size());
+            for (TreeItem item : sorted) {
+                items.add(item.resource);
+            }
+        }
         return items;
     }
 
+    /**
+     * extension hook: returns 'true' if the children of the node are sorted by their sort name
+     * ({@link #getSortName(Resource)}) instead of the repository order
+     */
+    protected boolean isSortedTreeItems(ResourceHandle resource) {
+        return false;
+    }
+
+    /**
+     * the sort name completed with the name to get a well defined order (and position of a cursor) for equal
+     * sort names
+     */
+    protected String getSortKey(Resource resource) {
+        return getSortName(resource) + '\u0000' + resource.getName();
+    }
+
     //
     // JSON helpers
     //
@@ -172,40 +293,155 @@ public abstract class NodeTreeServlet extends AbstractServiceServlet {
     public void writeJsonNodeData(JsonWriter writer, TreeNodeStrategy nodeStrategy,
                                   ResourceHandle resource, LabelType labelType, boolean isVirtual)
             throws IOException {
+        writeJsonNodeData(writer, nodeStrategy, resource, labelType, isVirtual, null);
+    }
+
+    /**
+     * writes the node data and the children of the node
+     *
+     * @param page the page of the children to write; all children if 'null'
+     */
+    public void writeJsonNodeData(JsonWriter writer, TreeNodeStrategy nodeStrategy,
+                                  ResourceHandle resource, LabelType labelType, boolean isVirtual,
+                                  TreePage page)
+            throws IOException {
         ResourceFilter filter = nodeStrategy.getFilter();
         writeNodeIdentifiers(writer, nodeStrategy, resource, labelType, isVirtual);
         writeNodeTreeType(writer, filter, resource, isVirtual);
         writeNodeJcrState(writer, resource);
-        List<Resource> children = new ArrayList<>();
-        boolean hasChildren = false;
-        for (Resource child : nodeStrategy.getChildren(resource)) {
-            hasChildren = true;
-            if (filter.accept(child) &&
-                    // filter out additional synthetic folders in addition to the 1st level '//...' nodes (AEM 6.1 !?)
-                    !(ResourceUtil.containsPath(children, child) && ResourceUtil.isSyntheticResource(child))) {
-                children.add(ResourceHandle.use(child));
-            }
-        }
-        if (!hasChildren) {
+        Iterator<Resource> iterator = nodeStrategy.getChildren(resource).iterator();
+        if (!iterator.hasNext()) {
             if (!isVirtual) {
                 addVirtualContent(writer, nodeStrategy, resource, labelType);
             }
-        } else {
+        } else if (page == null) {
+            List<Resource> children = new ArrayList<>();
+            Set<String> names = new HashSet<>();
+            while (iterator.hasNext()) {
+                Resource child = iterator.next();
+                if (acceptTreeItem(filter, names, child)) {
+                    children.add(ResourceHandle.use(child));
+                }
+            }
             children = prepareTreeItems(resource, children);
-            writer.name("children").beginArray();
-            for (Resource child : children) {
-                ResourceHandle handle = ResourceHandle.use(child);
-                writer.beginObject();
-                writeNodeIdentifiers(writer, nodeStrategy, ResourceHandle.use(child), labelType, isVirtual);
-                writeNodeTreeType(writer, filter, handle, isVirtual);
-                writeNodeJcrState(writer, handle);
-                writer.name("state").beginObject(); // that's the 'jstree' state object
-                writer.name("loaded").value(false);
-                writer.endObject();
-                writer.endObject();
+            writeJsonChildren(writer, nodeStrategy, children, labelType, isVirtual);
+        } else if (isSortedTreeItems(resource)) {
+            writeSortedPage(writer, nodeStrategy, iterator, labelType, isVirtual, page);
+        } else {
+            writeOrderedPage(writer, nodeStrategy, iterator, labelType, isVirtual, page);
+        }
+    }
+
+    /**
+     * a page of the children in repository order: the iteration ends with the page
+     */
+    protected void writeOrderedPage(JsonWriter writer, TreeNodeStrategy nodeStrategy, Iterator<Resource> iterator,
+                                    LabelType labelType, boolean isVirtual, TreePage page)
+            throws IOException {
+        ResourceFilter filter = nodeStrategy.getFilter();
+        List<Resource> children = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        int position = 0;
+        boolean hasMore = false;
+        while (iterator.hasNext()) {
+            Resource child = iterator.next();
+            if (acceptTreeItem(filter, names, child)) {
+                if (position >= page.offset + page.limit) {
+                    hasMore = true;
+                    break;
+                }
+                if (position >= page.offset) {
+                    children.add(ResourceHandle.use(child));
+                }
+                position++;
             }
-            writer.endArray();
         }
+        writeJsonChildren(writer, nodeStrategy, children, labelType, isVirtual);
+        writePaging(writer, page, hasMore ? TreePage.offsetCursor(page.offset + page.limit) : null);
+    }
+
+    /**
+     * a page of the sorted children: only the children of the page are kept during the iteration (bounded heap)
+     */
+    protected void writeSortedPage(JsonWriter writer, TreeNodeStrategy nodeStrategy, Iterator<Resource> iterator,
+                                   LabelType labelType, boolean isVirtual, TreePage page)
+            throws IOException {
+        ResourceFilter filter = nodeStrategy.getFilter();
+        int skip = page.afterKey != null ? 0 : page.offset;
+        int capacity = skip + page.limit + 1; // one more to detect further children
+        PriorityQueue<TreeItem> heap = new PriorityQueue<>(Math.min(capacity, 1024),
+                Collections.reverseOrder(TREE_ITEM_ORDER));
+        Set<String> names = new HashSet<>();
+        while (iterator.hasNext()) {
+            Resource child = iterator.next();
+            if (acceptTreeItem(filter, names, child)) {
+                String key = getSortKey(child);
+                if ((page.afterKey == null || key.compareTo(page.afterKey) > 0)
+                        && (heap.size() < capacity || key.compareTo(heap.peek().key) < 0)) {
+                    heap.add(new TreeItem(key, child));
+                    if (heap.size() > capacity) {
+                        heap.poll();
+                    }
+                }
+            }
+        }
+        List<TreeItem> sorted = new ArrayList<>(heap);
+        Collections.sort(sorted, TREE_ITEM_ORDER);
+        boolean hasMore = sorted.size() == capacity;
+        List<Resource> children = new ArrayList<>();
+        for (int i = skip; i < Math.min(sorted.size(), skip + page.limit); i++) {
+            children.add(ResourceHandle.use(sorted.get(i).resource));
+        }
+        writeJsonChildren(writer, nodeStrategy, children, labelType, isVirtual);
+        writePaging(writer, page, hasMore ? TreePage.keyCursor(sorted.get(skip + page.limit - 1).key) : null);
+    }
+
+    /**
+     * filters out additional synthetic folders in addition to the 1st level '//...' nodes (AEM 6.1 !?)
+     *
+     * @param names the names of the children accepted before
+     */
+    protected boolean acceptTreeItem(ResourceFilter filter, Set<String> names, Resource child) {
+        if (filter.accept(child)) {
+            if (names.add(child.getName())) {
+                return true;
+            }
+            return !ResourceUtil.isSyntheticResource(child);
+        }
+        return false;
+    }
+
+    protected void writeJsonChildren(JsonWriter writer, TreeNodeStrategy nodeStrategy, List<Resource> children,
+                                     LabelType labelType, boolean isVirtual)
+            throws IOException {
+        ResourceFilter filter = nodeStrategy.getFilter();
+        writer.name("children").beginArray();
+        for (Resource child : children) {
+            ResourceHandle handle = ResourceHandle.use(child);
+            writer.beginObject();
+            writeNodeIdentifiers(writer, nodeStrategy, handle, labelType, isVirtual);
+            writeNodeTreeType(writer, filter, handle, isVirtual);
+            writeNodeJcrState(writer, handle);
+            writer.name("state").beginObject(); // that's the 'jstree' state object
+            writer.name("loaded").value(false);
+            writer.endObject();
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    protected void writePaging(JsonWriter writer, TreePage page, String nextCursor)
+            throws IOException {
+        writer.name("paging").beginObject();
+        if (page.afterKey == null) {
+            writer.name("offset").value(page.offset);
+        }
+        writer.name("limit").value(page.limit);
+        writer.name("hasMore").value(nextCursor != null);
+        if (nextCursor != null) {
+            writer.name("cursor").value(nextCursor);
+        }
+        writer.endObject();
     }
 
     public void writeNodeTreeType(JsonWriter writer, ResourceFilter filter,
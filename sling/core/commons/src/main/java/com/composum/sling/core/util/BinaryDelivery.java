@@ -0,0 +1,228 @@
+package com.composum.sling.core.util;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.api.JackrabbitValue;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.Binary;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.servlet.http.HttpServletResponse;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Delivers a repository binary as response of a GET request with the support of conditional requests (the entity
+ * tag and the last modification date) and of range requests (single ranges and 'multipart/byteranges'), so that
+ * the downloads of large binaries (e.g. of videos played in the browser) can be resumed. The content is transferred
+ * from the channel of the binary if the repository provides a file based stream.
+ */
+public class BinaryDelivery {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryDelivery.class);
+
+    public static final String MULTIPART_BYTERANGES = "multipart/byteranges; boundary=";
+
+    protected static final int BUFFER_SIZE = 32 * 1024;
+
+    /**
+     * Delivers the binary of the property; the content type and the disposition should be set before.
+     *
+     * @param property     the binary property
+     * @param lastModified the last modification of the binary (e.g. 'jcr:lastModified'), if known
+     */
+    public static void deliver(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response,
+                               @Nonnull Property property, @Nullable Calendar lastModified)
+            throws IOException, RepositoryException {
+        Binary binary = property.getBinary();
+        try {
+            deliver(request, response, binary, getETag(property, binary, lastModified), lastModified);
+        } finally {
+            binary.dispose();
+        }
+    }
+
+    /**
+     * Delivers the binary; the content type and the disposition should be set before.
+     *
+     * @param etag         the entity tag of the binary (see {@link #getETag(Property, Binary, Calendar)})
+     * @param lastModified the last modification of the binary (e.g. 'jcr:lastModified'), if known
+     */
+    public static void deliver(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response,
+                               @Nonnull Binary binary, @Nullable String etag, @Nullable Calendar lastModified)
+            throws IOException, RepositoryException {
+        long size = binary.getSize();
+        response.setHeader(HttpUtil.HEADER_ACCEPT_RANGES, HttpUtil.VALUE_BYTES);
+        if (etag != null) {
+            response.setHeader(HttpUtil.HEADER_ETAG, etag);
+        }
+        if (lastModified != null) {
+            response.setDateHeader(HttpUtil.HEADER_LAST_MODIFIED, lastModified.getTimeInMillis());
+        }
+
+        String ifNoneMatch = request.getHeader(HttpUtil.HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null ? HttpUtil.matchesETag(ifNoneMatch, etag)
+                : HttpUtil.notModifiedSince(getDateHeader(request, HttpUtil.HEADER_IF_MODIFIED_SINCE), lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        List<long[]> ranges = isRangeApplicable(request, etag, lastModified)
+                ? HttpUtil.parseRanges(request.getHeader(HttpUtil.HEADER_RANGE), size) : null;
+        if (ranges == null) {
+            response.setHeader(HttpUtil.HEADER_CONTENT_LENGTH, Long.toString(size));
+            response.setStatus(HttpServletResponse.SC_OK);
+            copy(binary, 0L, size, response.getOutputStream());
+
+        } else if (ranges.isEmpty()) {
+            response.setHeader(HttpUtil.HEADER_CONTENT_RANGE, HttpUtil.VALUE_BYTES + " */" + size);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+
+        } else if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.setHeader(HttpUtil.HEADER_CONTENT_RANGE, contentRange(range, size));
+            response.setHeader(HttpUtil.HEADER_CONTENT_LENGTH, Long.toString(range[1] - range[0] + 1));
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            copy(binary, range[0], range[1] - range[0] + 1, response.getOutputStream());
+
+        } else {
+            String contentType = response.getContentType();
+            String boundary = UUID.randomUUID().toString();
+            response.setContentType(MULTIPART_BYTERANGES + boundary);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            OutputStream output = response.getOutputStream();
+            for (long[] range : ranges) {
+                StringBuilder header = new StringBuilder("\r\n--").append(boundary).append("\r\n");
+                if (StringUtils.isNotBlank(contentType)) {
+                    header.append("Content-Type: ").append(contentType).append("\r\n");
+                }
+                header.append(HttpUtil.HEADER_CONTENT_RANGE).append(": ").append(contentRange(range, size))
+                        .append("\r\n\r\n");
+                output.write(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+                copy(binary, range[0], range[1] - range[0] + 1, output);
+            }
+            output.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /**
+     * Builds a strong entity tag from the content identity of the binary if the repository provides one (a hash of
+     * the content in Oak), otherwise a weak tag from the last modification date and the size of the binary - a
+     * change of the content with the same size within the resolution of the date isn't reflected by this tag.
+     *
+     * @return the quoted tag; null if the binary can't be identified
+     */
+    @Nullable
+    public static String getETag(@Nonnull Property property, @Nonnull Binary binary, @Nullable Calendar lastModified)
+            throws RepositoryException {
+        String identity = null;
+        if (!property.isMultiple()) {
+            Value value = property.getValue();
+            if (value instanceof JackrabbitValue) {
+                identity = ((JackrabbitValue) value).getContentIdentity();
+            }
+        }
+        // the identity is hashed to avoid to reveal internals of the blob store
+        if (identity != null) {
+            return "\"" + DigestUtils.sha1Hex(identity) + "\"";
+        }
+        if (lastModified != null) {
+            return "W/\"" + DigestUtils.sha1Hex(lastModified.getTimeInMillis() + ":" + binary.getSize()) + "\"";
+        }
+        return null;
+    }
+
+    /**
+     * A range request is only served as such if the {@link HttpUtil#HEADER_IF_RANGE} condition (if present) is
+     * fulfilled, otherwise the whole content has to be delivered. An entity tag condition requires the strong
+     * comparison, so a weak tag never fulfills it.
+     */
+    protected static boolean isRangeApplicable(@Nonnull SlingHttpServletRequest request,
+                                               @Nullable String etag, @Nullable Calendar lastModified) {
+        String ifRange = request.getHeader(HttpUtil.HEADER_IF_RANGE);
+        if (StringUtils.isBlank(ifRange)) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etag != null && !etag.startsWith("W/") && ifRange.equals(etag);
+        }
+        long date = getDateHeader(request, HttpUtil.HEADER_IF_RANGE);
+        return lastModified != null && date != -1
+                && lastModified.getTimeInMillis() / 1000L == date / 1000L;
+    }
+
+    protected static long getDateHeader(@Nonnull SlingHttpServletRequest request, @Nonnull String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException ex) {
+            LOG.debug("invalid date header '{}': {}", name, ex.getMessage());
+            return -1;
+        }
+    }
+
+    protected static String contentRange(long[] range, long size) {
+        return HttpUtil.VALUE_BYTES + " " + range[0] + "-" + range[1] + "/" + size;
+    }
+
+    /**
+     * Copies the range of the binary; a range which doesn't start at the beginning is read at its position by the
+     * binary, the content from the beginning is streamed - by the channel of a file based stream directly.
+     */
+    protected static void copy(@Nonnull Binary binary, long start, long length, @Nonnull OutputStream output)
+            throws IOException, RepositoryException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+        if (start > 0) {
+            long position = start;
+            long end = start + length;
+            while (position < end) {
+                // the binary reads as many bytes as the array can take
+                byte[] bytes = end - position < buffer.length ? new byte[(int) (end - position)] : buffer;
+                int count = binary.read(bytes, position);
+                if (count <= 0) {
+                    break;
+                }
+                output.write(bytes, 0, count);
+                position += count;
+            }
+            return;
+        }
+        try (InputStream input = binary.getStream()) {
+            if (input instanceof FileInputStream) {
+                FileChannel channel = ((FileInputStream) input).getChannel();
+                WritableByteChannel target = Channels.newChannel(output);
+                long position = 0;
+                while (position < length) {
+                    long transferred = channel.transferTo(position, length - position, target);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                }
+            } else {
+                long remaining = length;
+                int count;
+                while (remaining > 0 && (count = input.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+                    output.write(buffer, 0, count);
+                    remaining -= count;
+                }
+            }
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package com.composum.sling.core.util;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.servlets.HttpConstants;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * A basic class for all '/bin/{service}/path/to/resource' servlets.
@@ -21,6 +29,143 @@ public class HttpUtil extends HttpConstants {
     public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
 
     public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    public static final String HEADER_ETAG = "ETag";
+
+    public static final String HEADER_RANGE = "Range";
+    public static final String HEADER_IF_RANGE = "If-Range";
+    public static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+    public static final String HEADER_CONTENT_RANGE = "Content-Range";
+    public static final String VALUE_BYTES = "bytes";
+
+    /** The maximum number of ranges of a request which are delivered; the whole content is delivered if exceeded. */
+    public static final int MAX_RANGES = 20;
+
+    /**
+     * Chooses the content encoding to deliver from the {@link #HEADER_ACCEPT_ENCODING} header of a request: the
+     * available encoding with the highest quality value is chosen; if several encodings have the same quality the
+     * first one of the available encodings wins. Encodings not listed in the header are accepted with the quality of
+     * a '*' entry, if present.
+     *
+     * @param acceptEncoding the value of the {@link #HEADER_ACCEPT_ENCODING} header, e.g. 'gzip, deflate, br;q=0.9'
+     * @param available      the encodings the server is able to deliver in the order of the servers preference
+     * @return the encoding to deliver or null if the content should be delivered without encoding
+     */
+    @Nullable
+    public static String selectEncoding(@Nullable String acceptEncoding, @Nonnull List<String> available) {
+        if (StringUtils.isBlank(acceptEncoding) || available.isEmpty()) {
+            return null;
+        }
+        Map<String, Float> accepted = new HashMap<>();
+        for (String entry : StringUtils.split(acceptEncoding, ',')) {
+            String[] parts = StringUtils.split(entry, ';');
+            if (parts.length > 0 && StringUtils.isNotBlank(parts[0])) {
+                float quality = 1.0f;
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=") || param.startsWith("Q=")) {
+                        try {
+                            quality = Float.parseFloat(param.substring(2).trim());
+                        } catch (NumberFormatException ignore) {
+                            quality = 0.0f;
+                        }
+                    }
+                }
+                accepted.put(parts[0].trim().toLowerCase(Locale.ROOT), quality);
+            }
+        }
+        Float wildcard = accepted.get("*");
+        String result = null;
+        float resultQuality = 0.0f;
+        for (String encoding : available) {
+            Float quality = accepted.get(encoding.toLowerCase(Locale.ROOT));
+            if (quality == null) {
+                quality = wildcard;
+            }
+            if (quality != null && quality > resultQuality) {
+                result = encoding;
+                resultQuality = quality;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the {@link #HEADER_IF_NONE_MATCH} header matches the entity tag of the resource; the tags are
+     * compared weakly as required for this header.
+     *
+     * @param ifNoneMatch the value of the {@link #HEADER_IF_NONE_MATCH} header, e.g. '"abc", W/"def"' or '*'
+     * @param etag        the entity tag of the resource to be submitted (quoted)
+     * @return if the resource transmission can be skipped since the browser has the current version
+     */
+    public static boolean matchesETag(@Nullable String ifNoneMatch, @Nullable String etag) {
+        if (StringUtils.isBlank(ifNoneMatch) || etag == null) {
+            return false;
+        }
+        String opaqueTag = StringUtils.removeStart(etag, "W/");
+        for (String entry : StringUtils.split(ifNoneMatch, ',')) {
+            String tag = entry.trim();
+            if ("*".equals(tag) || opaqueTag.equals(StringUtils.removeStart(tag, "W/"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the byte ranges of a {@link #HEADER_RANGE} header, e.g. 'bytes=0-499, 1000-, -500'.
+     *
+     * @param range the value of the {@link #HEADER_RANGE} header
+     * @param size  the size of the content
+     * @return the satisfiable ranges as pairs of the first and the last position (inclusive); an empty list if no
+     * range is satisfiable; null if the header is missing, not valid or has more than {@link #MAX_RANGES} ranges -
+     * the whole content has to be delivered in this case
+     */
+    @Nullable
+    public static List<long[]> parseRanges(@Nullable String range, long size) {
+        if (StringUtils.isBlank(range) || !range.trim().startsWith(VALUE_BYTES + "=")) {
+            return null;
+        }
+        String[] specs = StringUtils.split(range.trim().substring(VALUE_BYTES.length() + 1), ',');
+        if (specs.length == 0 || specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>();
+        try {
+            for (String spec : specs) {
+                spec = spec.trim();
+                int dash = spec.indexOf('-');
+                if (dash < 0) {
+                    return null;
+                }
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                long start, end;
+                if (first.isEmpty()) { // suffix range: the last n bytes
+                    long length = Long.parseLong(last);
+                    if (length < 0) {
+                        return null;
+                    }
+                    start = Math.max(0L, size - length);
+                    end = size - 1;
+                    if (length == 0) {
+                        continue;
+                    }
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                    if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                        return null;
+                    }
+                }
+                if (start < size) {
+                    ranges.add(new long[]{start, end});
+                }
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        return ranges;
+    }
 
     /**
      * Checks whether we can skip transmission of a resource because of a recent enough {@link #HEADER_IF_MODIFIED_SINCE}
@@ -34,10 +34,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Deque;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -58,6 +60,16 @@ public class JsonUtil {
      */
     public static final GsonBuilder GSON_BUILDER = new GsonBuilder();
 
+    /**
+     * the date format of the JSON mapping reused for all values of a thread (not thread safe itself)
+     */
+    protected static final ThreadLocal<SimpleDateFormat> MAP_DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(MappingRules.MAP_DATE_FORMAT);
+        }
+    };
+
     /**
      * the structure for parsing property values from JSON using Gson
      */
@@ -225,22 +237,58 @@ public class JsonUtil {
 
         if (resource != null) {
 
-            writer.beginObject();
+            // the hierarchy is traversed with an explicit stack of the open objects (no recursion)
+            // to avoid a stack overflow on deep trees
+            Deque<ExportLevel> stack = new ArrayDeque<>();
 
+            writer.beginObject();
             exportProperties(writer, resource, mapping);
+            stack.push(new ExportLevel(resource, depth, mapping));
+
+            while (!stack.isEmpty()) {
+                ExportLevel level = stack.peek();
+                Resource child = level.nextChild(mapping);
+                if (child != null) {
+                    writer.name(child.getName());
+                    writer.beginObject();
+                    exportProperties(writer, child, mapping);
+                    stack.push(new ExportLevel(child, level.depth + 1, mapping));
+                } else {
+                    writer.endObject();
+                    stack.pop();
+                }
+            }
+        }
+    }
 
+    /**
+     * an object (resource) opened during the JSON export with the iterator of the children to export
+     */
+    protected static class ExportLevel {
+
+        public final int depth;
+        protected final Iterator<Resource> children;
+
+        public ExportLevel(Resource resource, int depth, MappingRules mapping) {
+            this.depth = depth;
             // export children after the properties(!) if depth is not reached or not restricted
-            if (mapping.maxDepth == 0 || depth < mapping.maxDepth) {
-                depth++;
-                for (Resource child : resource.getChildren()) {
+            this.children = mapping.maxDepth == 0 || depth < mapping.maxDepth
+                    ? resource.listChildren() : null;
+        }
+
+        /**
+         * @return the next child accepted by the mapping rules; 'null' if no more children available
+         */
+        public Resource nextChild(MappingRules mapping) {
+            if (children != null) {
+                while (children.hasNext()) {
+                    Resource child = children.next();
                     if (mapping.resourceFilter.accept(child)) {
-                        writer.name(child.getName());
-                        exportJson(writer, child, mapping, depth);
+                        return child;
                     }
                 }
             }
-
-            writer.endObject();
+            return null;
         }
     }
 
@@ -256,38 +304,46 @@ public class JsonUtil {
 
         Node node = resource.adaptTo(Node.class);
 
-        // property collection for a sorted output
-        TreeMap<String, Object> propertiesSet = new TreeMap<>();
-        if (node != null) {
-            // retrieve properties from the resources repository node
-            PropertyIterator iterator = node.getProperties();
-            while (iterator.hasNext()) {
-                Property property = iterator.nextProperty();
-                propertiesSet.put(property.getName(), property);
-            }
-        } else {
-            // for synthetic resources use the synthetic values from the resources value map
-            ValueMap properties = ResourceUtil.getValueMap(resource);
-            for (Map.Entry<String, Object> entry : properties.entrySet()) {
-                propertiesSet.put(entry.getKey(), entry.getValue());
-            }
-        }
-
         // write properties first to ensure that types are read first on import
         if (mapping.propertyFormat.scope != MappingRules.PropertyFormat.Scope.value) {
             writer.name(MappingRules.PROPERTIES_NAME);
             writer.beginArray();
         }
-        for (Map.Entry<String, Object> entry : propertiesSet.entrySet()) {
-            String name = entry.getKey();
-            if (mapping.exportPropertyFilter.accept(name)) {
-                Object value = entry.getValue();
-                if (value instanceof Property) {
-                    Property property = (Property) value;
+        if (node != null) {
+            // retrieve properties from the resources repository node
+            PropertyIterator iterator = node.getProperties();
+            if (mapping.sortProperties) {
+                // property collection for a sorted output
+                TreeMap<String, Property> propertiesSet = new TreeMap<>();
+                while (iterator.hasNext()) {
+                    Property property = iterator.nextProperty();
+                    String name = property.getName();
+                    if (mapping.exportPropertyFilter.accept(name)) {
+                        propertiesSet.put(name, property);
+                    }
+                }
+                for (Property property : propertiesSet.values()) {
                     writeJsonProperty(writer, node, property, mapping);
-                } else {
-                    // if no node exists (synthetic resource) the properties are simple values
-                    writeJsonProperty(writer, name, value, mapping);
+                }
+            } else {
+                // stream the properties in the repository order
+                while (iterator.hasNext()) {
+                    Property property = iterator.nextProperty();
+                    if (mapping.exportPropertyFilter.accept(property.getName())) {
+                        writeJsonProperty(writer, node, property, mapping);
+                    }
+                }
+            }
+        } else {
+            // for synthetic resources use the synthetic values from the resources value map;
+            // if no node exists (synthetic resource) the properties are simple values
+            ValueMap properties = ResourceUtil.getValueMap(resource);
+            Map<String, Object> propertiesSet = mapping.sortProperties
+                    ? new TreeMap<>(properties) : properties;
+            for (Map.Entry<String, Object> entry : propertiesSet.entrySet()) {
+                String name = entry.getKey();
+                if (mapping.exportPropertyFilter.accept(name)) {
+                    writeJsonProperty(writer, name, entry.getValue(), mapping);
                 }
             }
         }
@@ -760,7 +816,10 @@ public class JsonUtil {
                 writer.name("name").value(name);
                 writer.name("value");
             }
-            StringBuilder valueString = PropertyType.STRING == type ? new StringBuilder() : null;
+            // the value string is needed for the subtype of the property definition only
+            StringBuilder valueString = PropertyType.STRING == type &&
+                    mapping.propertyFormat.scope == MappingRules.PropertyFormat.Scope.definition
+                    ? new StringBuilder() : null;
             if (property.isMultiple()) {
                 writer.beginArray();
                 for (Value value : property.getValues()) {
@@ -877,7 +936,12 @@ public class JsonUtil {
                         writer.setHtmlSafe(htmlSafe);
                     } else if (mapping.propertyFormat.binary == MappingRules.PropertyFormat.Binary.base64) {
                         Binary binary = jcrValue.getBinary();
-                        byte[] buffer = IOUtils.toByteArray(binary.getStream());
+                        byte[] buffer;
+                        try (InputStream stream = binary.getStream()) {
+                            buffer = IOUtils.toByteArray(stream);
+                        } finally {
+                            binary.dispose();
+                        }
                         String encoded = Base64.encodeBase64String(buffer);
                         writer.value(getValueString(encoded, type, mapping));
                     } else {
@@ -895,7 +959,7 @@ public class JsonUtil {
                 Calendar cal = jcrValue != null ? jcrValue.getDate()
                         : (value instanceof Calendar ? (Calendar) value : null);
                 if (cal != null) {
-                    SimpleDateFormat dateFormat = new SimpleDateFormat(MappingRules.MAP_DATE_FORMAT);
+                    SimpleDateFormat dateFormat = MAP_DATE_FORMAT.get();
                     dateFormat.setTimeZone(cal.getTimeZone());
                     writer.value(getValueString(dateFormat.format(cal.getTime()), type, mapping));
                 }
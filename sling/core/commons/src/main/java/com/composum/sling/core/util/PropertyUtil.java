@@ -139,16 +139,29 @@ public class PropertyUtil {
 
     public static Binary getBinaryData(Node node) {
         Binary result = null;
+        Property property = getBinaryDataProperty(node);
+        if (property != null) {
+            try {
+                result = property.getBinary();
+            } catch (RepositoryException rex) {
+                // ok, property isn't a binary
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the 'jcr:data' property of the node or of its 'jcr:content' node; null if not present
+     */
+    public static Property getBinaryDataProperty(Node node) {
+        Property result = null;
         if (node != null) {
             try {
-                Property property = null;
                 try {
-                    property = node.getProperty(ResourceUtil.PROP_DATA);
-                    result = property.getBinary();
+                    result = node.getProperty(ResourceUtil.PROP_DATA);
                 } catch (PathNotFoundException pnfex) {
                     Node contentNode = node.getNode(ResourceUtil.CONTENT_NODE);
-                    property = contentNode.getProperty(ResourceUtil.PROP_DATA);
-                    result = property.getBinary();
+                    result = contentNode.getProperty(ResourceUtil.PROP_DATA);
                 }
             } catch (RepositoryException rex) {
                 // ok, property doesn't exist
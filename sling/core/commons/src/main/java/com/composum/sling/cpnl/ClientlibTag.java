@@ -95,7 +95,7 @@ public class ClientlibTag extends CpnlBodyTagSupport {
                 ClientlibRef ref = null;
 
                 if (StringUtils.isNotBlank(path)) {
-                    ref = new ClientlibRef(type, path, false, null);
+                    ref = ClientlibRef.interned(type, path, false, null);
                     LOG.debug("<cpn:clientlib.{} path={}/>", type, path);
                 } else if (StringUtils.isNotBlank(category)) {
                     ref = ClientlibRef.forCategory(type, category, false, null);
@@ -0,0 +1,91 @@
+package com.composum.sling.clientlibs.handle;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.composum.sling.clientlibs.handle.Clientlib.Type.css;
+import static com.composum.sling.clientlibs.handle.Clientlib.Type.js;
+import static com.composum.sling.clientlibs.handle.Clientlib.Type.link;
+import static com.composum.sling.clientlibs.handle.ClientlibLink.PROP_REL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ClientlibLinkSet}: the indexed lookup has to give the same results as the matching of each link.
+ */
+public class ClientlibLinkSetTest {
+
+    protected static final List<ClientlibLink> LINKS = Arrays.asList(
+            new ClientlibLink(js, ClientlibLink.Kind.FILE, "/libs/jslib/2.1.2/outerembed.js", null),
+            new ClientlibLink(js, ClientlibLink.Kind.FILE, "/libs/jslib/onlyc3depend.min.js", null),
+            new ClientlibLink(js, ClientlibLink.Kind.FILE, "/apps/some/thing.min", null),
+            new ClientlibLink(css, ClientlibLink.Kind.FILE, "/libs/jslib/2.1.2/outerembed.css", null),
+            new ClientlibLink(js, ClientlibLink.Kind.CLIENTLIB, "/apps/c1", null),
+            ClientlibLink.forCategory(js, "c1cat"),
+            new ClientlibLink(link, ClientlibLink.Kind.EXTERNALURI, "//example.net/bla",
+                    Collections.singletonMap(PROP_REL, "search")));
+
+    protected static final List<ClientlibRef> REFS = Arrays.asList(
+            new ClientlibRef(js, "jslib/([1-3]*:2.3.1)/outerembed.js", true, null),
+            new ClientlibRef(js, "jslib/(4*:4.1.2)/outerembed.js", true, null),
+            new ClientlibRef(js, "/libs/jslib/2.1.2/outerembed.min.js", true, null),
+            new ClientlibRef(js, "/libs/jslib/2.1.2/outerembed.css", true, null),
+            new ClientlibRef(css, "jslib/2.1.2/outerembed.css", true, null),
+            new ClientlibRef(js, "jslib/onlyc3depend.js", true, null),
+            new ClientlibRef(js, "jslib/onlyc3depend-min.js", true, null),
+            new ClientlibRef(js, "some/thing", true, null),
+            new ClientlibRef(js, "some/thing.min", true, null),
+            new ClientlibRef(js, "jslib/*.js", true, null),
+            new ClientlibRef(js, "c1", true, null),
+            new ClientlibRef(js, "/apps/c2", true, null),
+            ClientlibRef.forCategory(js, "c1cat", true, null),
+            ClientlibRef.forCategory(css, "c1cat", true, null),
+            new ClientlibRef(link, "//example.net/bla", true, Collections.singletonMap(PROP_REL, "search")),
+            new ClientlibRef(link, "//example.net/bla", true, null));
+
+    @Test
+    public void sameResultsAsMatching() {
+        ClientlibLinkSet links = new ClientlibLinkSet(LINKS);
+        for (ClientlibRef ref : REFS) {
+            ClientlibLink expected = null;
+            for (ClientlibLink link : LINKS) {
+                if (ref.isSatisfiedby(link)) {
+                    expected = link;
+                    break;
+                }
+            }
+            assertSame(ref.toString(), expected, links.findSatisfying(ref));
+        }
+        assertTrue(REFS.get(0).isSatisfiedby(links));
+        assertFalse(REFS.get(1).isSatisfiedby(links));
+        assertTrue(REFS.get(9).isSatisfiedby(links));
+    }
+
+    @Test
+    public void removedFromIndex() {
+        ClientlibLinkSet links = new ClientlibLinkSet(LINKS);
+        ClientlibRef ref = new ClientlibRef(js, "jslib/onlyc3depend.js", true, null);
+        assertTrue(links.remove(new ClientlibLink(js, ClientlibLink.Kind.FILE, "/libs/jslib/onlyc3depend.min.js",
+                null)));
+        assertNull(links.findSatisfying(ref));
+
+        ref = ClientlibRef.forCategory(js, "c1cat", true, null);
+        for (Iterator<ClientlibLink> iterator = links.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().isCategory()) {
+                iterator.remove();
+            }
+        }
+        assertNull(links.findSatisfying(ref));
+        assertEquals(LINKS.size() - 2, links.size());
+
+        links.clear();
+        assertTrue(links.index.isEmpty());
+    }
+}
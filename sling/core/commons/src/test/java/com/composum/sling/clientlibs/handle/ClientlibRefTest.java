@@ -2,9 +2,15 @@ package com.composum.sling.clientlibs.handle;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.composum.sling.clientlibs.handle.Clientlib.Type.js;
 import static com.composum.sling.clientlibs.handle.Clientlib.Type.link;
@@ -12,6 +18,8 @@ import static com.composum.sling.clientlibs.handle.ClientlibLink.PROP_REL;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 
@@ -48,6 +56,48 @@ public class ClientlibRefTest {
         };
     }
 
+    @Test
+    public void testInterned() {
+        ClientlibRef ref = ClientlibRef.interned(js, " jslib/([1-3]*:2.3.1)/outerembed.js", false, null);
+        assertSame(ref, ClientlibRef.interned(js, "jslib/([1-3]*:2.3.1)/outerembed.js", false,
+                Collections.<String, String>emptyMap()));
+        assertEquals(new ClientlibRef(js, "jslib/([1-3]*:2.3.1)/outerembed.js", false, null), ref);
+        assertNotSame(ref, ClientlibRef.interned(js, "jslib/([1-3]*:2.3.1)/outerembed.js", true, null));
+        assertNotSame(ref, ClientlibRef.interned(link, "jslib/([1-3]*:2.3.1)/outerembed.js", false, null));
+        assertNotSame(ref, ClientlibRef.interned(js, "jslib/([1-3]*:2.3.1)/outerembed.js", false,
+                Collections.singletonMap(PROP_REL, "search")));
+    }
+
+    @Test
+    public void testInternedBounded() throws Exception {
+        final int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<ClientlibRef>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<ClientlibRef>() {
+                    @Override
+                    public ClientlibRef call() {
+                        ClientlibRef shared = ClientlibRef.interned(js, "shared/lib.js", false, null);
+                        for (int rule = 0; rule < ClientlibRef.MAX_INTERNED; rule++) {
+                            ClientlibRef.interned(js, "dynamic/lib" + rule + ".js", false, null);
+                            assertTrue(ClientlibRef.INTERNED.size() <= ClientlibRef.MAX_INTERNED + threads);
+                        }
+                        return shared;
+                    }
+                }));
+            }
+            for (Future<ClientlibRef> result : results) {
+                assertEquals(new ClientlibRef(js, "shared/lib.js", false, null), result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(ClientlibRef.INTERNED.size() <= ClientlibRef.MAX_INTERNED + threads);
+        ClientlibRef ref = ClientlibRef.interned(js, "shared/lib.js", false, null);
+        assertSame(ref, ClientlibRef.interned(js, "shared/lib.js", false, null));
+    }
+
     @Test
     public void testUriRef() {
         assertFalse(new ClientlibRef(link, "/somepath/something", true, null).getExternalUri());
@@ -0,0 +1,90 @@
+package com.composum.sling.clientlibs.processor;
+
+import com.composum.sling.clientlibs.service.ClientlibService;
+import com.composum.sling.core.util.ResourceUtil;
+import io.airlift.compress.zstd.ZstdDecompressor;
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ZstdProcessor}: the content has to be restored by a zstd decoder, also if it is split into
+ * several frames.
+ */
+public class ZstdProcessorTest {
+
+    protected ExecutorService executorService;
+    protected ProcessorContext context;
+    protected ZstdProcessor processor = new ZstdProcessor();
+
+    @Before
+    public void setup() {
+        executorService = Executors.newSingleThreadExecutor();
+        context = new ProcessorContext(Mockito.mock(SlingHttpServletRequest.class),
+                Mockito.mock(ResourceResolver.class), executorService, false, true);
+    }
+
+    @After
+    public void teardown() {
+        executorService.shutdown();
+    }
+
+    @Test
+    public void encodeOutputStream() throws Exception {
+        for (int size : new int[]{0, 1000, ZstdProcessor.FRAME_SIZE, ZstdProcessor.FRAME_SIZE * 3 + 17}) {
+            byte[] content = createContent(size);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (OutputStream output = processor.processContent(buffer, context)) {
+                output.write(content, 0, content.length / 2);
+                for (int i = content.length / 2; i < content.length; i++) {
+                    output.write(content[i]);
+                }
+            }
+            assertEquals(ClientlibService.ENCODING_ZSTD, context.getHints().get(ResourceUtil.PROP_ENCODING));
+            assertArrayEquals("size " + size, content, decode(buffer.toByteArray(), size));
+            if (size > 1000) {
+                assertTrue(buffer.size() < size / 4);
+            }
+        }
+    }
+
+    @Test
+    public void encodeInputStream() throws Exception {
+        byte[] content = createContent(ZstdProcessor.FRAME_SIZE * 2 + 4711);
+        InputStream encoded = processor.processContent(new ByteArrayInputStream(content), context);
+        assertEquals(ClientlibService.ENCODING_ZSTD, context.getHints().get(ResourceUtil.PROP_ENCODING));
+        assertArrayEquals(content, decode(IOUtils.toByteArray(encoded), content.length));
+    }
+
+    protected byte[] decode(byte[] encoded, int size) {
+        byte[] decoded = new byte[size + 1];
+        int length = new ZstdDecompressor().decompress(encoded, 0, encoded.length, decoded, 0, decoded.length);
+        return Arrays.copyOf(decoded, length);
+    }
+
+    protected byte[] createContent(int size) {
+        StringBuilder buf = new StringBuilder();
+        for (int rule = 0; buf.length() < size; rule++) {
+            buf.append(".rule").append(rule).append(" { margin: 0; background: url('../images/image")
+                    .append(rule % 100).append(".png') no-repeat; }\n");
+        }
+        return buf.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+}
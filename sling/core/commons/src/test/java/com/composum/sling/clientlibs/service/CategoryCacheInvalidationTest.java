@@ -0,0 +1,127 @@
+package com.composum.sling.clientlibs.service;
+
+import com.composum.sling.clientlibs.processor.RenderedLinks;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.service.component.ComponentContext;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+
+/**
+ * Tests for the invalidation of the {@link DefaultClientlibService#categoryToPathCache} on observed changes.
+ */
+public class CategoryCacheInvalidationTest {
+
+    protected DefaultClientlibService service;
+
+    @Before
+    public void setup() {
+        service = new DefaultClientlibService();
+        service.categorySearchPath = new String[]{"/apps/", "/libs/"};
+        cache("a", "/libs/composum/nodes/commons/clientlibs/a", "/apps/site/clientlibs/a");
+        cache("b", "/libs/composum/nodes/commons/clientlibs/b");
+        cache("c", "/apps/site/clientlibs/c");
+    }
+
+    @Test
+    public void testPathInvalidation() {
+        // a change within a clientlib (e.g. of a file) doesn't affect the categories
+        service.invalidateCategories(Collections.singletonList("/apps/site/clientlibs/c/css"), null);
+        assertEquals(3, service.categoryToPathCache.size());
+        service.invalidateCategories(Collections.singletonList("/apps/site/clientlibs/c"), null);
+        assertCached(false, "c");
+        assertCached(true, "a", "b");
+        // a removed parent
+        service.invalidateCategories(Collections.singletonList("/apps/site"), null);
+        assertCached(false, "a");
+        assertCached(true, "b");
+    }
+
+    @Test
+    public void testShadowingAndCategories() {
+        // '/apps/composum/nodes/commons/clientlibs/b' shadows the clientlib of category 'b' in '/libs'
+        service.invalidateCategories(Collections.singletonList("/apps/composum/nodes/commons/clientlibs/b"),
+                Collections.singletonList("c"));
+        assertCached(false, "b", "c");
+        assertCached(true, "a");
+        service.invalidateCategories(Collections.singletonList("/apps"), null);
+        assertEquals(0, service.categoryToPathCache.size());
+    }
+
+    @Test
+    public void testGeneration() {
+        long generation = service.categoryCacheGeneration;
+        service.invalidateCategories(null, Collections.singletonList("x"));
+        assertEquals(3, service.categoryToPathCache.size());
+        assertTrue(service.categoryCacheGeneration > generation);
+        service.clearCategoryCache();
+        assertEquals(0, service.categoryToPathCache.size());
+    }
+
+    @Test
+    public void testFailedObservation() throws Exception {
+        ObservationManager observationManager = Mockito.mock(ObservationManager.class);
+        Mockito.doThrow(new RepositoryException("not available")).when(observationManager).addEventListener(
+                any(EventListener.class), anyInt(), anyString(), anyBoolean(),
+                any(String[].class), any(String[].class), anyBoolean());
+        Workspace workspace = Mockito.mock(Workspace.class);
+        Mockito.when(workspace.getObservationManager()).thenReturn(observationManager);
+        Session session = Mockito.mock(Session.class);
+        Mockito.when(session.getWorkspace()).thenReturn(workspace);
+        ResourceResolver resolver = Mockito.mock(ResourceResolver.class);
+        Mockito.when(resolver.getSearchPath()).thenReturn(new String[]{"/apps/", "/libs/"});
+        Mockito.when(resolver.adaptTo(Session.class)).thenReturn(session);
+        service.resolverFactory = Mockito.mock(ResourceResolverFactory.class);
+        Mockito.when(service.resolverFactory.getAdministrativeResourceResolver(null)).thenReturn(resolver);
+        service.renderedLinksCache.put("css:/apps/site/clientlibs/c", new RenderedLinks());
+
+        service.startCategoryObservation(Mockito.mock(ComponentContext.class));
+        // the cached entries have to expire after the resolver cachetime if the changes can't be observed
+        assertFalse(service.isObserved());
+        assertTrue(service.categoryObservers.isEmpty());
+        assertEquals(0, service.categoryToPathCache.size());
+        assertTrue(service.renderedLinksCache.isEmpty());
+    }
+
+    @Test
+    public void testPermissionPluginChange() {
+        ClientlibPermissionPlugin plugin = Mockito.mock(ClientlibPermissionPlugin.class);
+        service.renderedLinksCache.put("css:/apps/site/clientlibs/c", new RenderedLinks());
+        service.bindPermissionPlugin(plugin);
+        assertEquals(0, service.categoryToPathCache.size());
+        assertTrue(service.renderedLinksCache.isEmpty());
+        service.renderedLinksCache.put("css:/apps/site/clientlibs/c", new RenderedLinks());
+        service.unbindPermissionPlugin(plugin);
+        assertTrue(service.renderedLinksCache.isEmpty());
+    }
+
+    protected void cache(String category, String... paths) {
+        List<String> pathList = Arrays.asList(paths);
+        service.categoryToPathCache.put(category, Pair.of(0L, pathList));
+    }
+
+    protected void assertCached(boolean expected, String... categories) {
+        for (String category : categories) {
+            assertEquals(category, expected, service.categoryToPathCache.containsKey(category));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.composum.sling.clientlibs.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ClientlibContentCache}.
+ */
+public class ClientlibContentCacheTest {
+
+    @Test
+    public void testHashMatching() {
+        ClientlibContentCache cache = new ClientlibContentCache(1000);
+        byte[] content = "content".getBytes();
+        cache.put("/var/composum/clientlibs/lib.js", "hash1", content);
+        assertArrayEquals(content, cache.get("/var/composum/clientlibs/lib.js", "hash1"));
+        assertNull(cache.get("/var/composum/clientlibs/lib.js", "hash2"));
+        // the obsolete entry is dropped
+        assertNull(cache.get("/var/composum/clientlibs/lib.js", "hash1"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testEviction() {
+        ClientlibContentCache cache = new ClientlibContentCache(1000);
+        cache.put("/a", "h", new byte[200]);
+        cache.put("/b", "h", new byte[200]);
+        cache.put("/c", "h", new byte[200]);
+        cache.put("/d", "h", new byte[200]);
+        cache.put("/e", "h", new byte[200]);
+        assertEquals(1000, cache.getSize());
+        cache.get("/a", "h"); // '/b' is the least recently used one now
+        cache.put("/f", "h", new byte[200]);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1000, cache.getSize());
+        assertNull(cache.get("/b", "h"));
+        assertTrue(null != cache.get("/a", "h"));
+        assertTrue(null != cache.get("/f", "h"));
+    }
+
+    @Test
+    public void testLimitsAndInvalidation() {
+        ClientlibContentCache cache = new ClientlibContentCache(1000);
+        assertFalse(cache.accepts(251L));
+        cache.put("/large", "h", new byte[251]);
+        assertEquals(0, cache.getEntryCount());
+        cache.put("/small", "h", new byte[250]);
+        assertEquals(1, cache.getEntryCount());
+        cache.invalidate("/small");
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSize());
+
+        ClientlibContentCache disabled = new ClientlibContentCache(0);
+        assertFalse(disabled.isEnabled());
+        disabled.put("/small", "h", new byte[1]);
+        assertNull(disabled.get("/small", "h"));
+    }
+}
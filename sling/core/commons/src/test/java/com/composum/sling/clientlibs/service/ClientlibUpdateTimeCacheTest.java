@@ -0,0 +1,65 @@
+package com.composum.sling.clientlibs.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ClientlibUpdateTimeCache}.
+ */
+public class ClientlibUpdateTimeCacheTest {
+
+    protected ClientlibUpdateTimeCache.Entry entry(String... dependencies) {
+        return new ClientlibUpdateTimeCache.Entry("hash", null, Arrays.asList(dependencies),
+                Collections.singletonList("category"));
+    }
+
+    @Test
+    public void testDependsOn() {
+        ClientlibUpdateTimeCache.Entry entry = entry("composum/lib", "composum/lib/css", "composum/lib/css/a.css");
+        assertTrue(entry.dependsOn("composum/lib/css/a.css"));
+        assertTrue(entry.dependsOn("composum/lib/css/a.css/jcr:content")); // changed file content
+        assertTrue(entry.dependsOn("composum/lib/css/b.css")); // added file
+        assertTrue(entry.dependsOn("composum")); // removed parent
+        assertTrue(entry.dependsOn(""));
+        assertFalse(entry.dependsOn("composum/other"));
+        assertFalse(entry.dependsOn("composum/li"));
+        assertFalse(entry.dependsOn("/content/composum/lib"));
+    }
+
+    @Test
+    public void testInvalidation() {
+        ClientlibUpdateTimeCache cache = new ClientlibUpdateTimeCache(10);
+        cache.put("a", cache.getGeneration(), entry("composum/a"));
+        cache.put("b", cache.getGeneration(), entry("composum/b"));
+        List<String> changed = Collections.singletonList("composum/a/js/script.js");
+        cache.invalidate(changed, null);
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        cache.invalidate(null, Collections.singletonList("category"));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testConcurrentInvalidationAndLimit() {
+        ClientlibUpdateTimeCache cache = new ClientlibUpdateTimeCache(2);
+        long generation = cache.getGeneration();
+        cache.invalidate(Collections.singletonList("composum/x"), null);
+        cache.put("a", generation, entry("composum/a")); // computed before the invalidation
+        assertNull(cache.get("a"));
+        generation = cache.getGeneration();
+        cache.put("a", generation, entry("composum/a"));
+        cache.put("b", generation, entry("composum/b"));
+        cache.put("c", generation, entry("composum/c"));
+        assertEquals(2, cache.getEntryCount());
+        assertNull(cache.get("a"));
+    }
+}
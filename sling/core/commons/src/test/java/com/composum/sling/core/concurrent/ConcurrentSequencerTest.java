@@ -0,0 +1,94 @@
+package com.composum.sling.core.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link ConcurrentSequencer}.
+ */
+public class ConcurrentSequencerTest {
+
+    protected final ConcurrentSequencer sequencer = new ConcurrentSequencer();
+
+    @Test
+    public void testTryAcquire() throws Exception {
+        final ConcurrentSequencer.Token token = sequencer.acquire("/a");
+        assertEquals(1, sequencer.getLockCount());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ConcurrentSequencer.Token> blocked = executor.submit(new Callable<ConcurrentSequencer.Token>() {
+                @Override
+                public ConcurrentSequencer.Token call() throws Exception {
+                    return sequencer.tryAcquire("/a", 50, TimeUnit.MILLISECONDS);
+                }
+            });
+            assertNull(blocked.get());
+            Future<ConcurrentSequencer.Token> other = executor.submit(new Callable<ConcurrentSequencer.Token>() {
+                @Override
+                public ConcurrentSequencer.Token call() throws Exception {
+                    return sequencer.tryAcquire("/b", 50, TimeUnit.MILLISECONDS);
+                }
+            });
+            ConcurrentSequencer.Token otherToken = other.get();
+            assertNotNull(otherToken);
+            sequencer.release(otherToken);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertSame(token, sequencer.locks.get("/a"));
+        sequencer.release(token);
+        assertEquals(0, sequencer.getLockCount());
+    }
+
+    @Test
+    public void testExclusiveness() throws Exception {
+        final int threads = 16;
+        final int loops = 2000;
+        final AtomicInteger[] inside = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+        final AtomicInteger violations = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int loop = 0; loop < loops; loop++) {
+                            int key = loop % inside.length;
+                            ConcurrentSequencer.Token token = sequencer.acquire("/key" + key);
+                            try {
+                                if (inside[key].incrementAndGet() != 1) {
+                                    violations.incrementAndGet();
+                                }
+                                inside[key].decrementAndGet();
+                            } finally {
+                                sequencer.release(token);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, violations.get());
+        assertEquals(0, sequencer.getLockCount());
+    }
+}
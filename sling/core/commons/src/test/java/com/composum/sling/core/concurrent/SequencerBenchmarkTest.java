@@ -0,0 +1,94 @@
+package com.composum.sling.core.concurrent;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Compares the throughput of the {@link SemaphoreSequencer} and the {@link ConcurrentSequencer} with 1 to 64
+ * threads over a few keys (high contention per key) and over many keys (contention on the sequencer itself only).
+ * The results are logged; for real measurements the number of operations per thread can be raised with the system
+ * property {@value #PROP_OPERATIONS}.
+ */
+public class SequencerBenchmarkTest {
+
+    private static final Logger LOG = getLogger(SequencerBenchmarkTest.class);
+
+    protected static final String PROP_OPERATIONS = "sequencer.benchmark.operations";
+
+    protected static final int[] THREADS = {1, 4, 16, 64};
+    protected static final int FEW_KEYS = 4;
+    protected static final int MANY_KEYS = 10000;
+
+    @Test
+    public void compareSequencers() throws Exception {
+        int operations = Integer.getInteger(PROP_OPERATIONS, 2000);
+        SemaphoreSequencer semaphoreSequencer = new SemaphoreSequencer();
+        semaphoreSequencer.activate(null);
+        ConcurrentSequencer concurrentSequencer = new ConcurrentSequencer();
+        String[] fewKeys = keys(FEW_KEYS);
+        String[] manyKeys = keys(MANY_KEYS);
+        for (int threads : THREADS) {
+            for (String[] keys : new String[][]{fewKeys, manyKeys}) {
+                run(semaphoreSequencer, threads, keys, operations); // warm up
+                run(concurrentSequencer, threads, keys, operations);
+                long semaphoreTime = run(semaphoreSequencer, threads, keys, operations);
+                long concurrentTime = run(concurrentSequencer, threads, keys, operations);
+                LOG.info("{} threads, {} keys, {} operations per thread: SemaphoreSequencer {} ms, " +
+                                "ConcurrentSequencer {} ms", threads, keys.length, operations,
+                        TimeUnit.NANOSECONDS.toMillis(semaphoreTime), TimeUnit.NANOSECONDS.toMillis(concurrentTime));
+            }
+        }
+    }
+
+    protected String[] keys(int count) {
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = "/var/composum/clientlibs/key" + i;
+        }
+        return keys;
+    }
+
+    /** Returns the time needed by all threads to acquire and release 'operations' keys each. */
+    @SuppressWarnings("unchecked")
+    protected long run(final SequencerService sequencer, final int threads, final String[] keys,
+                       final int operations) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                final int offset = thread * 7;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int operation = 0; operation < operations; operation++) {
+                            SequencerService.Token token = sequencer.acquire(keys[(offset + operation) % keys.length]);
+                            sequencer.release(token);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - begin;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
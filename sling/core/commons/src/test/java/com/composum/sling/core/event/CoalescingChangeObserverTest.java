@@ -0,0 +1,232 @@
+package com.composum.sling.core.event;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.service.component.ComponentContext;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the collecting and the deduplication of the changes of the {@link AbstractCoalescingChangeObserver}. The
+ * target of a change is the second level of the changed path (e.g. '/content/a' for '/content/a/x').
+ */
+public class CoalescingChangeObserverTest {
+
+    protected TestObserver observer;
+
+    @After
+    public void teardown() {
+        if (observer != null) {
+            observer.deactivate();
+        }
+    }
+
+    @Test
+    public void coalescesEventsAcrossBatches() throws Exception {
+        observer = new TestObserver(300L, 1000, 2);
+        observer.onEvent(events(
+                event(Event.NODE_ADDED, "/content/a/x", "user"),
+                event(Event.PROPERTY_CHANGED, "/content/a/x/title", "user")));
+        observer.onEvent(events(
+                event(Event.PROPERTY_CHANGED, "/content/a/y/title", "user"),
+                event(Event.NODE_ADDED, "/content/b/z", "user"),
+                event(Event.NODE_ADDED, "/content/c/q", TestObserver.SERVICE_USER))); // self generated
+        assertEquals(3, observer.getQueueDepth());
+        assertTrue(observer.processed.isEmpty());
+        assertTrue(observer.done.await(5, TimeUnit.SECONDS));
+        List<String> processed = new ArrayList<>(observer.processed);
+        Collections.sort(processed);
+        assertEquals(Arrays.asList("/content/a", "/content/b"), processed);
+        waitForEmptyQueue();
+        assertEquals(2L, observer.getProcessedCount());
+        assertEquals(0L, observer.getLag());
+    }
+
+    @Test
+    public void windowSizeClosesTheWindow() throws Exception {
+        observer = new TestObserver(60000L, 2, 1);
+        observer.onEvent(events(
+                event(Event.NODE_ADDED, "/content/a/x", "user"),
+                event(Event.NODE_ADDED, "/content/b/y", "user")));
+        assertTrue(observer.done.await(5, TimeUnit.SECONDS));
+        waitForEmptyQueue();
+        assertEquals(2L, observer.getProcessedCount());
+    }
+
+    @Test
+    public void pendingChangesProcessedOnDeactivation() throws Exception {
+        observer = new TestObserver(60000L, 1000, 2);
+        observer.onEvent(events(
+                event(Event.NODE_ADDED, "/content/a/x", "user"),
+                event(Event.NODE_ADDED, "/content/b/y", "user")));
+        assertEquals(2, observer.getQueueDepth());
+        TestObserver deactivated = observer;
+        observer = null;
+        deactivated.deactivate();
+        // the open window is processed before the workers are shut down
+        assertEquals(0L, deactivated.done.getCount());
+        assertEquals(2L, deactivated.getProcessedCount());
+        assertEquals(0, deactivated.getQueueDepth());
+        // changes received after the deactivation are dropped, not queued without a window
+        deactivated.onEvent(events(event(Event.NODE_ADDED, "/content/c/z", "user")));
+        assertEquals(0, deactivated.getQueueDepth());
+    }
+
+    @Test
+    public void accountingOfOverriddenProcessing() throws Exception {
+        final List<Integer> windows = Collections.synchronizedList(new ArrayList<Integer>());
+        observer = new TestObserver(60000L, 3, 1) {
+            @Override
+            protected int processChanges(List<PendingChange> window) {
+                windows.add(window.size());
+                done.countDown();
+                if (windows.size() > 1) {
+                    throw new IllegalStateException("failure for the test");
+                }
+                return window.size();
+            }
+        };
+        observer.onEvent(events(
+                event(Event.NODE_ADDED, "/content/a/x", "user"),
+                event(Event.NODE_ADDED, "/content/a/y", "user"),
+                event(Event.NODE_ADDED, "/content/b/z", "user")));
+        observer.onEvent(events(
+                event(Event.NODE_ADDED, "/content/c/x", "user"),
+                event(Event.NODE_ADDED, "/content/c/y", "user"),
+                event(Event.NODE_ADDED, "/content/d/z", "user")));
+        assertTrue(observer.done.await(5, TimeUnit.SECONDS));
+        waitForEmptyQueue();
+        assertEquals(Arrays.asList(3, 3), windows);
+        // the base class keeps the metrics, also if the processing of a window fails
+        assertEquals(3L, observer.getProcessedCount());
+        assertTrue(observer.getLastBatchLag() >= 0L);
+    }
+
+    protected void waitForEmptyQueue() throws InterruptedException {
+        for (int i = 0; i < 100 && observer.getQueueDepth() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, observer.getQueueDepth());
+    }
+
+    protected static class TestObserver extends AbstractCoalescingChangeObserver {
+
+        public static final String SERVICE_USER = "service";
+
+        protected final long windowTime;
+        protected final int windowSize;
+        protected final int parallelism;
+
+        protected final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+        protected final CountDownLatch done = new CountDownLatch(2);
+
+        protected final Session session = mock(Session.class, RETURNS_DEEP_STUBS);
+
+        public TestObserver(long windowTime, int windowSize, int parallelism) {
+            this.windowTime = windowTime;
+            this.windowSize = windowSize;
+            this.parallelism = parallelism;
+            activate(mock(ComponentContext.class));
+        }
+
+        @Override
+        protected long getWindowTime() {
+            return windowTime;
+        }
+
+        @Override
+        protected int getWindowSize() {
+            return windowSize;
+        }
+
+        @Override
+        protected int getParallelism() {
+            return parallelism;
+        }
+
+        @Override
+        protected String getServiceUserId() {
+            return SERVICE_USER;
+        }
+
+        @Override
+        protected String getObservedPath() {
+            return "/content";
+        }
+
+        @Override
+        protected void doOnChange(ResourceResolver resolver, ChangedResource change) {
+            processed.add(change.getResource().getPath());
+            done.countDown();
+        }
+
+        @Override
+        protected boolean isTargetNode(Node node) {
+            return true;
+        }
+
+        @Override
+        protected Node getContentNode(Session session, String path) throws RepositoryException {
+            String[] segments = StringUtils.split(path, "/");
+            Node node = mock(Node.class);
+            when(node.getPath()).thenReturn("/" + segments[0] + "/" + segments[1]);
+            return node;
+        }
+
+        @Override
+        protected ResourceResolver getResolver() throws LoginException {
+            ResourceResolver resolver = mock(ResourceResolver.class);
+            when(resolver.adaptTo(Session.class)).thenReturn(session);
+            when(resolver.getResource(anyString())).thenAnswer(invocation -> {
+                Resource resource = mock(Resource.class);
+                when(resource.getPath()).thenReturn(invocation.getArgument(0));
+                return resource;
+            });
+            return resolver;
+        }
+
+        @Override
+        protected Session getSession() {
+            return session;
+        }
+    }
+
+    protected static Event event(int type, String path, String user) throws RepositoryException {
+        Event event = mock(Event.class);
+        when(event.getType()).thenReturn(type);
+        when(event.getPath()).thenReturn(path);
+        when(event.getUserID()).thenReturn(user);
+        when(event.getDate()).thenReturn(System.currentTimeMillis());
+        return event;
+    }
+
+    protected static EventIterator events(Event... events) {
+        final Iterator<Event> iterator = Arrays.asList(events).iterator();
+        EventIterator eventIterator = mock(EventIterator.class);
+        when(eventIterator.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(eventIterator.nextEvent()).thenAnswer(invocation -> iterator.next());
+        return eventIterator;
+    }
+}
@@ -0,0 +1,81 @@
+package com.composum.sling.core.resource;
+
+import com.composum.sling.core.filter.ResourceFilter;
+import com.composum.sling.core.filter.StringFilter;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the filtering and the batched resolving of the {@link ResourceNodeIterator}.
+ */
+public class ResourceNodeIteratorTest {
+
+    public static final ResourceFilter PATH_FILTER = new ResourceFilter.PathFilter(
+            new StringFilter.BlackList("^.*/skip[^/]*$"));
+
+    @Test
+    public void filterAppliedDuringIteration() throws RepositoryException {
+        ResourceNodeIterator iterator = new ResourceNodeIterator(resolver(),
+                nodes("/content/a", "/content/skip1", "/content/b", "/content/missing", "/content/skip2",
+                        "/content/c"), PATH_FILTER, 2);
+        List<String> paths = new ArrayList<>();
+        while (iterator.hasNext()) {
+            paths.add(iterator.next().getPath());
+        }
+        assertEquals(Arrays.asList("/content/a", "/content/b", "/content/c"), paths);
+        assertEquals(6L, iterator.getRead());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void prefetchedInBatches() throws RepositoryException {
+        ResourceNodeIterator iterator = new ResourceNodeIterator(resolver(),
+                nodes("/content/a", "/content/b", "/content/c", "/content/d", "/content/e"), null, 2);
+        assertEquals("/content/a", iterator.next().getPath());
+        assertEquals(2L, iterator.getRead());
+        assertEquals("/content/b", iterator.next().getPath());
+        assertEquals("/content/c", iterator.next().getPath());
+        assertEquals(4L, iterator.getRead());
+    }
+
+    protected ResourceResolver resolver() {
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getResource(anyString())).thenAnswer(invocation -> {
+            String path = invocation.getArgument(0);
+            if (path.endsWith("/missing")) {
+                return null;
+            }
+            Resource resource = mock(Resource.class);
+            when(resource.getPath()).thenReturn(path);
+            return resource;
+        });
+        return resolver;
+    }
+
+    protected NodeIterator nodes(String... paths) throws RepositoryException {
+        final Iterator<String> pathIterator = Arrays.asList(paths).iterator();
+        NodeIterator nodeIterator = mock(NodeIterator.class);
+        when(nodeIterator.hasNext()).thenAnswer(invocation -> pathIterator.hasNext());
+        when(nodeIterator.nextNode()).thenAnswer(invocation -> {
+            Node node = mock(Node.class);
+            when(node.getPath()).thenReturn(pathIterator.next());
+            return node;
+        });
+        return nodeIterator;
+    }
+}
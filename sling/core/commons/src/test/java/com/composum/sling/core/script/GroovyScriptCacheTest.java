@@ -0,0 +1,43 @@
+package com.composum.sling.core.script;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class GroovyScriptCacheTest {
+
+    @Test
+    public void versionAndClassLoader() {
+        GroovyScriptCache cache = new GroovyScriptCache(10);
+        ClassLoader loader = getClass().getClassLoader();
+        cache.put("/apps/test.groovy", "v1", loader, String.class);
+        assertSame(String.class, cache.get("/apps/test.groovy", "v1", loader));
+
+        // a replaced class loader drops the entry
+        assertNull(cache.get("/apps/test.groovy", "v1", new URLClassLoader(new URL[0], loader)));
+        assertNull(cache.get("/apps/test.groovy", "v1", loader));
+
+        // a changed script drops the entry
+        cache.put("/apps/test.groovy", "v1", loader, String.class);
+        assertNull(cache.get("/apps/test.groovy", "v2", loader));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedDropped() {
+        GroovyScriptCache cache = new GroovyScriptCache(2);
+        ClassLoader loader = getClass().getClassLoader();
+        cache.put("/a", "v", loader, String.class);
+        cache.put("/b", "v", loader, Integer.class);
+        cache.get("/a", "v", loader);
+        cache.put("/c", "v", loader, Long.class);
+        assertEquals(2, cache.size());
+        assertSame(String.class, cache.get("/a", "v", loader));
+        assertNull(cache.get("/b", "v", loader));
+    }
+}
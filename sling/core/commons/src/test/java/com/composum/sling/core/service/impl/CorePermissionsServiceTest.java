@@ -0,0 +1,126 @@
+package com.composum.sling.core.service.impl;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.SlingConstants;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.event.Event;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CorePermissionsServiceTest {
+
+    protected CorePermissionsService service;
+    protected JackrabbitSession session;
+    protected UserManager userManager;
+    protected User user;
+    protected Group editors;
+    protected Group authors;
+
+    @Before
+    public void setup() throws Exception {
+        service = new CorePermissionsService();
+        ComponentContext context = mock(ComponentContext.class);
+        when(context.getProperties()).thenReturn(new Hashtable<>());
+        service.activate(context);
+
+        session = mock(JackrabbitSession.class);
+        userManager = mock(UserManager.class);
+        user = mock(User.class);
+        editors = mock(Group.class);
+        authors = mock(Group.class);
+        when(session.getUserID()).thenReturn("jdoe");
+        when(session.getUserManager()).thenReturn(userManager);
+        when(userManager.getAuthorizable("jdoe")).thenReturn(user);
+        when(userManager.getAuthorizable("editors")).thenReturn(editors);
+        when(userManager.getAuthorizable("authors")).thenReturn(authors);
+        when(editors.getID()).thenReturn("editors");
+        when(user.memberOf()).thenAnswer(invocation -> Arrays.asList(editors).iterator());
+        when(user.getPath()).thenReturn("/home/users/j/jdoe");
+    }
+
+    @Test
+    public void membershipsResolvedOnce() throws Exception {
+        assertEquals("editors", service.isMemberOfOne(session, "authors", "editors"));
+        assertTrue(service.isMemberOfAll(session, "editors"));
+        assertFalse(service.isMemberOfAll(session, "editors", "authors"));
+        assertNull(service.isMemberOfOne(session, "authors"));
+
+        verify(user, times(1)).memberOf();
+        verify(authors, times(1)).isMember(any());
+        verify(editors, times(0)).isMember(any());
+    }
+
+    @Test
+    public void clearedOnChange() throws Exception {
+        assertEquals("editors", service.isMemberOfOne(session, "editors"));
+        when(user.memberOf()).thenAnswer(invocation -> Arrays.asList(editors, authors).iterator());
+        when(authors.getID()).thenReturn("authors");
+        assertNull(service.isMemberOfOne(session, "authors"));
+
+        service.handleEvent(new Event("org/apache/sling/api/resource/Resource/CHANGED", new Hashtable<>()));
+        assertEquals("authors", service.isMemberOfOne(session, "authors"));
+    }
+
+    @Test
+    public void keptOnLogin() throws Exception {
+        assertEquals("editors", service.isMemberOfOne(session, "editors"));
+        service.handleEvent(changed("/home/users/j/jdoe/.tokens/2026-10-18T10.15.00.000+02.00_1a2b3c"));
+        service.handleEvent(changed("/home/users/x/xdoe"));
+        assertEquals("editors", service.isMemberOfOne(session, "editors"));
+        verify(user, times(1)).memberOf();
+    }
+
+    @Test
+    public void droppedForChangedUser() throws Exception {
+        JackrabbitSession otherSession = mock(JackrabbitSession.class);
+        User other = mock(User.class);
+        when(otherSession.getUserID()).thenReturn("xdoe");
+        when(otherSession.getUserManager()).thenReturn(userManager);
+        when(userManager.getAuthorizable("xdoe")).thenReturn(other);
+        when(other.getPath()).thenReturn("/home/users/x/xdoe");
+        when(other.memberOf()).thenAnswer(invocation -> Arrays.asList(editors).iterator());
+        assertEquals("editors", service.isMemberOfOne(session, "editors"));
+        assertEquals("editors", service.isMemberOfOne(otherSession, "editors"));
+
+        service.handleEvent(changed("/home/users/j/jdoe/profile"));
+        assertEquals("editors", service.isMemberOfOne(session, "editors"));
+        assertEquals("editors", service.isMemberOfOne(otherSession, "editors"));
+        verify(user, times(2)).memberOf();
+        verify(other, times(1)).memberOf();
+
+        // a change of a group affects all users
+        service.handleEvent(changed("/home/groups/e/editors"));
+        assertEquals("editors", service.isMemberOfOne(otherSession, "editors"));
+        verify(other, times(2)).memberOf();
+    }
+
+    @Test
+    public void nullGroupIds() throws Exception {
+        assertNull(service.isMemberOfOne(session, (String) null));
+        assertEquals("editors", service.isMemberOfOne(session, null, "editors"));
+        assertFalse(service.isMemberOfAll(session, "editors", null));
+        assertTrue(service.isMemberOfAll(session, "editors"));
+    }
+
+    protected Event changed(String path) {
+        Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(SlingConstants.PROPERTY_PATH, path);
+        return new Event("org/apache/sling/api/resource/Resource/CHANGED", properties);
+    }
+}
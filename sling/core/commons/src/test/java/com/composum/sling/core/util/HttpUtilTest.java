@@ -0,0 +1,71 @@
+package com.composum.sling.core.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link HttpUtil}.
+ */
+public class HttpUtilTest {
+
+    protected final List<String> available = Arrays.asList("br", "zstd", "gzip");
+
+    @Test
+    public void testSelectEncoding() {
+        assertNull(HttpUtil.selectEncoding(null, available));
+        assertNull(HttpUtil.selectEncoding("", available));
+        assertNull(HttpUtil.selectEncoding("deflate", available));
+        assertNull(HttpUtil.selectEncoding("gzip", Collections.<String>emptyList()));
+        assertEquals("gzip", HttpUtil.selectEncoding("gzip, deflate", available));
+        assertEquals("br", HttpUtil.selectEncoding("gzip, deflate, br", available));
+        assertEquals("zstd", HttpUtil.selectEncoding("gzip, zstd", available));
+        assertEquals("br", HttpUtil.selectEncoding("*", available));
+    }
+
+    @Test
+    public void testSelectEncodingQuality() {
+        assertEquals("gzip", HttpUtil.selectEncoding("gzip;q=1.0, br;q=0.8", available));
+        assertEquals("br", HttpUtil.selectEncoding("gzip;q=0.5, BR ; q=0.8", available));
+        assertEquals("gzip", HttpUtil.selectEncoding("br;q=0, gzip", available));
+        assertEquals("zstd", HttpUtil.selectEncoding("br;q=0, *;q=0.5", available));
+        assertNull(HttpUtil.selectEncoding("gzip;q=0", available));
+        assertNull(HttpUtil.selectEncoding("gzip;q=invalid", available));
+    }
+
+    @Test
+    public void testMatchesETag() {
+        assertFalse(HttpUtil.matchesETag(null, "\"abc\""));
+        assertFalse(HttpUtil.matchesETag("\"abc\"", null));
+        assertTrue(HttpUtil.matchesETag("\"abc\"", "\"abc\""));
+        assertTrue(HttpUtil.matchesETag("\"xyz\", W/\"abc\"", "\"abc\""));
+        assertTrue(HttpUtil.matchesETag("*", "\"abc\""));
+        assertFalse(HttpUtil.matchesETag("\"xyz\"", "\"abc\""));
+    }
+
+    @Test
+    public void testParseRanges() {
+        assertNull(HttpUtil.parseRanges(null, 1000));
+        assertNull(HttpUtil.parseRanges("items=0-10", 1000));
+        assertNull(HttpUtil.parseRanges("bytes=abc", 1000));
+        assertNull(HttpUtil.parseRanges("bytes=10-5", 1000));
+        assertTrue(HttpUtil.parseRanges("bytes=1000-", 1000).isEmpty());
+        List<long[]> ranges = HttpUtil.parseRanges("bytes=0-499, 900-, -100, 990-2000", 1000);
+        assertEquals(4, ranges.size());
+        assertArrayEquals(new long[]{0, 499}, ranges.get(0));
+        assertArrayEquals(new long[]{900, 999}, ranges.get(1));
+        assertArrayEquals(new long[]{900, 999}, ranges.get(2));
+        assertArrayEquals(new long[]{990, 999}, ranges.get(3));
+        assertArrayEquals(new long[]{0, 9}, HttpUtil.parseRanges("bytes=-100", 10).get(0));
+        assertArrayEquals(new long[]{3000000000L, 3999999999L},
+                HttpUtil.parseRanges("bytes=3000000000-", 4000000000L).get(0));
+    }
+}
@@ -61,6 +61,22 @@ public class NodesConfigImpl implements NodesConfiguration {
     )
     private long queryResultLimit;
 
+    @Property(
+            name = SOURCE_EXPORT_THREADS_KEY,
+            label = "Source Export Threads",
+            description = "the number of threads to render the subtrees of a ZIP or package source export concurrently (default: 0 - sequential export)",
+            intValue = SOURCE_EXPORT_THREADS_DEFAULT
+    )
+    private int sourceExportThreads;
+
+    @Property(
+            name = SOURCE_EXPORT_STAGING_KEY,
+            label = "Source Export Staging Limit",
+            description = "the size (in MB) of the content staged in temporary files by the concurrent source exports to stop rendering further subtrees (default: 1024)",
+            intValue = SOURCE_EXPORT_STAGING_DEFAULT
+    )
+    private long sourceExportStagingLimit;
+
     @Property(
             name = ERRORPAGES_PATH,
             label = "Errorpages",
@@ -204,6 +220,16 @@ public class NodesConfigImpl implements NodesConfiguration {
         return queryResultLimit;
     }
 
+    @Override
+    public int getSourceExportThreads() {
+        return sourceExportThreads;
+    }
+
+    @Override
+    public long getSourceExportStagingLimit() {
+        return sourceExportStagingLimit;
+    }
+
     @Override
     public ResourceFilter getPageNodeFilter() {
         return pageNodeFilter;
@@ -248,6 +274,8 @@ public class NodesConfigImpl implements NodesConfiguration {
         checkConsoleAccess = (Boolean) properties.get(CONSOLE_ACCESS_CHECK);
         consoleCategories = PropertiesUtil.toStringArray(properties.get(CONSOLE_CATEGORIES_KEY));
         queryResultLimit = PropertiesUtil.toLong(properties.get(QUERY_RESULT_LIMIT_KEY), QUERY_RESULT_LIMIT_DEFAULT);
+        sourceExportThreads = PropertiesUtil.toInteger(properties.get(SOURCE_EXPORT_THREADS_KEY), SOURCE_EXPORT_THREADS_DEFAULT);
+        sourceExportStagingLimit = PropertiesUtil.toInteger(properties.get(SOURCE_EXPORT_STAGING_KEY), SOURCE_EXPORT_STAGING_DEFAULT) * 1024L * 1024L;
         errorpagesPath = (String) properties.get(ERRORPAGES_PATH);
         if (errorpagesPath.endsWith("/") && errorpagesPath.length() > 1) {
             errorpagesPath = errorpagesPath.substring(errorpagesPath.length() - 1);
@@ -20,6 +20,11 @@ public interface NodesConfiguration {
     String QUERY_RESULT_LIMIT_KEY = "query.result.limit";
     String QUERY_TEMPLATES_KEY = "query.templates";
 
+    int SOURCE_EXPORT_THREADS_DEFAULT = 0;
+    String SOURCE_EXPORT_THREADS_KEY = "source.export.threads";
+    int SOURCE_EXPORT_STAGING_DEFAULT = 1024;
+    String SOURCE_EXPORT_STAGING_KEY = "source.export.staging";
+
     String PAGE_NODE_FILTER_KEY = "node.page.filter";
     String DEFAULT_NODE_FILTER_KEY = "node.default.filter";
     String TREE_INTERMEDIATE_FILTER_KEY = "tree.intermediate.filter";
@@ -42,6 +47,17 @@ public interface NodesConfiguration {
 
     long getQueryResultLimit();
 
+    /**
+     * @return the number of threads to render the subtrees of a source export concurrently; 0: sequential export
+     */
+    int getSourceExportThreads();
+
+    /**
+     * @return the number of bytes staged in temporary files by the concurrent source exports to stop rendering
+     * further subtrees until the staged content is written
+     */
+    long getSourceExportStagingLimit();
+
     boolean isEnabled(Servlet servlet);
 
     ResourceFilter getPageNodeFilter();
@@ -18,32 +18,47 @@ import javax.annotation.Nonnull;
 import javax.jcr.RepositoryException;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.PrintWriter;
 
 import static com.composum.sling.nodes.servlet.NodeServlet.getJsonSelectorIndent;
 import static com.composum.sling.nodes.servlet.NodeServlet.getJsonSelectorRules;
 
 /**
  * a servlet to export the results of a query execution as a JSON object with emebedded object for each
- * found resource - the resource type of this servlet is used in the 'export set' configuration; see:
- * /libs/composum/nodes/browser/query/export/json
+ * found resource or as JSON lines (NDJSON) with one object per line for each found resource - the resource
+ * types of this servlet are used in the 'export set' configuration; see:
+ * /libs/composum/nodes/browser/query/export/json, /libs/composum/nodes/browser/query/export/jsonl
+ * the response is flushed after each chunk of resources to keep the memory bounded for huge results
  */
 @SlingServlet(
-        resourceTypes = "composum/nodes/browser/query/export/json/objects",
+        resourceTypes = {
+                ExportQueryJson.RESOURCE_TYPE_OBJECTS,
+                ExportQueryJson.RESOURCE_TYPE_LINES
+        },
         methods = {"POST"}
 )
 public class ExportQueryJson extends SlingAllMethodsServlet {
 
     private static final Logger LOG = LoggerFactory.getLogger(ExportQueryJson.class);
 
+    public static final String RESOURCE_TYPE_OBJECTS = "composum/nodes/browser/query/export/json/objects";
+    public static final String RESOURCE_TYPE_LINES = "composum/nodes/browser/query/export/json/lines";
+
+    /** the number of exported resources between two flushes of the response */
+    public static final int FLUSH_INTERVAL = 50;
+
     @Override
     protected void doPost(@Nonnull SlingHttpServletRequest request,
                           @Nonnull SlingHttpServletResponse response)
             throws IOException {
 
         Resource resource = request.getResource();
+        boolean jsonLines = RESOURCE_TYPE_LINES.equals(resource.getResourceType());
 
         response.setStatus(HttpServletResponse.SC_OK);
-        response.setContentType("application/json; charset=UTF-8");
+        response.setContentType(jsonLines
+                ? "application/x-ndjson; charset=UTF-8"
+                : "application/json; charset=UTF-8");
 
         String filename = XSS.filter(request.getRequestPathInfo().getSuffix());
         if (filename != null) {
@@ -52,33 +67,71 @@ public class ExportQueryJson extends SlingAllMethodsServlet {
             }
         }
         if (StringUtils.isBlank(filename)) {
-            filename = "query-export.json";
+            filename = jsonLines ? "query-export.ndjson" : "query-export.json";
         }
         response.setHeader("Content-Disposition", "attachment; filename=\"" + filename + "\"");
 
+        try {
+            // reuse the 'selector parameters' of the JSON view; see 'selectors' in the export configuration
+            MappingRules rules = getJsonSelectorRules(request);
+            if (jsonLines) {
+                exportLines(response, resource, rules);
+            } else {
+                exportObjects(request, response, resource, rules);
+            }
+
+        } catch (RepositoryException ex) {
+            LOG.error(ex.getMessage(), ex);
+            if (!response.isCommitted()) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+            }
+        }
+    }
+
+    protected void exportObjects(@Nonnull SlingHttpServletRequest request,
+                                 @Nonnull SlingHttpServletResponse response,
+                                 @Nonnull Resource resource, @Nonnull MappingRules rules)
+            throws RepositoryException, IOException {
         // reuse the 'selector parameters' of the JSON view; see 'selectors' in the export configuration
         int indent = getJsonSelectorIndent(request);
         JsonWriter writer = new JsonWriter(response.getWriter());
         if (indent > 0) {
             writer.setIndent(StringUtils.repeat(' ', indent));
         }
+        ValueMap values = resource.adaptTo(ValueMap.class);
+        writer.beginObject();
+        writer.name("query").value(values.get("query", ""));
+        int count = 0;
+        for (Resource item : resource.getChildren()) {
+            writer.name(item.getPath());
+            JsonUtil.exportJson(writer, item, rules);
+            if (++count % FLUSH_INTERVAL == 0) {
+                writer.flush();
+            }
+        }
+        writer.endObject();
+        writer.flush();
+    }
 
-        try {
-            ValueMap values = resource.adaptTo(ValueMap.class);
-            // reuse the 'selector parameters' of the JSON view; see 'selectors' in the export configuration
-            MappingRules rules = getJsonSelectorRules(request);
+    /**
+     * writes each resource as a single line object named with the path of the resource (no indent)
+     */
+    protected void exportLines(@Nonnull SlingHttpServletResponse response,
+                               @Nonnull Resource resource, @Nonnull MappingRules rules)
+            throws RepositoryException, IOException {
+        PrintWriter out = response.getWriter();
+        int count = 0;
+        for (Resource item : resource.getChildren()) {
+            JsonWriter writer = new JsonWriter(out); // a JSON writer accepts one top level value only
             writer.beginObject();
-            writer.name("query").value(values.get("query", ""));
-            for (Resource item : resource.getChildren()) {
-                ValueMap valueMap = item.adaptTo(ValueMap.class);
-                writer.name(item.getPath());
-                JsonUtil.exportJson(writer, item, rules);
-            }
+            writer.name(item.getPath());
+            JsonUtil.exportJson(writer, item, rules);
             writer.endObject();
-
-        } catch (RepositoryException ex) {
-            LOG.error(ex.getMessage(), ex);
-            response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+            out.write('\n');
+            if (++count % FLUSH_INTERVAL == 0) {
+                out.flush();
+            }
         }
+        out.flush();
     }
 }
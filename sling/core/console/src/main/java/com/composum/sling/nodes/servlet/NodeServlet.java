@@ -11,18 +11,21 @@ import com.composum.sling.core.servlet.AbstractServiceServlet;
 import com.composum.sling.core.servlet.NodeTreeServlet;
 import com.composum.sling.core.servlet.ServletOperation;
 import com.composum.sling.core.servlet.ServletOperationSet;
+import com.composum.sling.core.util.BinaryDelivery;
 import com.composum.sling.core.util.I18N;
 import com.composum.sling.core.util.JsonUtil;
 import com.composum.sling.core.util.MimeTypeUtil;
+import com.composum.sling.core.util.PropertyUtil;
 import com.composum.sling.core.util.RequestUtil;
 import com.composum.sling.core.util.ResourceUtil;
 import com.composum.sling.core.util.ResponseUtil;
 import com.composum.sling.core.util.XSS;
 import com.composum.sling.cpnl.CpnlElFunctions;
 import com.composum.sling.nodes.NodesConfiguration;
+import com.composum.sling.nodes.upload.ChunkedUpload;
+import com.composum.sling.nodes.upload.ChunkedUploadService;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
@@ -38,12 +41,10 @@ import org.apache.sling.api.request.RequestPathInfo;
 import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
-import org.apache.sling.api.servlets.HttpConstants;
 import org.apache.tika.mime.MimeType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.jcr.Binary;
 import javax.jcr.ItemExistsException;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -62,7 +63,6 @@ import javax.jcr.query.QueryResult;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -71,10 +71,10 @@ import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.LinkedHashMap;
@@ -114,6 +114,9 @@ public class NodeServlet extends NodeTreeServlet {
     @Reference
     protected NodesConfiguration nodesConfig;
 
+    @Reference
+    protected ChunkedUploadService uploadService;
+
     protected Map<String, ResourceFilter> nodeFilters = new LinkedHashMap<>();
 
     /**
@@ -343,6 +346,86 @@ public class NodeServlet extends NodeTreeServlet {
      */
     public static final Pattern WORD_QUERY = Pattern.compile("^ *([^ /]+) *$");
 
+    /**
+     * the pattern of a node type name which can be used in a generated query
+     */
+    public static final Pattern NODE_TYPE_NAME = Pattern.compile("^[A-Za-z0-9_.-]+(:[A-Za-z0-9_.-]+)?$");
+
+    /**
+     * the maximum number of query rows read for one page (rows rejected by the node filter included)
+     * as a multiple of the page size
+     */
+    public static final int MAX_ROWS_READ_FACTOR = 10;
+
+    /**
+     * The page of a query result: the 'offset' is the offset of the query rows (not of the accepted nodes), the
+     * 'cursor' encodes the row offset of the next page together with a hash of the query to continue the reading
+     * where the previous page has stopped.
+     */
+    public static class QueryPage {
+
+        public final long offset;
+        public final int limit;
+
+        /** the time of the query execution in milliseconds */
+        public long time;
+        /** the number of query rows read */
+        public long read;
+        /** the number of accepted nodes written */
+        public int count;
+        public boolean hasMore;
+
+        public QueryPage(long offset, int limit) {
+            this.offset = offset;
+            this.limit = limit;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the cursor is not valid for the query
+         */
+        public static QueryPage fromRequest(SlingHttpServletRequest request, String queryString, long maxLimit) {
+            int limit = RequestUtil.getParameter(request, PARAM_LIMIT, (int) maxLimit);
+            if (limit <= 0 || limit > maxLimit) {
+                limit = (int) maxLimit;
+            }
+            long offset = Math.max(0, RequestUtil.getParameter(request, PARAM_OFFSET, 0));
+            String cursor = request.getParameter(PARAM_CURSOR);
+            if (StringUtils.isNotBlank(cursor)) {
+                try {
+                    String[] value = StringUtils.split(new String(
+                            Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8), ':');
+                    if (value.length != 2 || !getQueryHash(queryString).equals(value[1])) {
+                        throw new IllegalArgumentException("cursor doesn't match the query");
+                    }
+                    offset = Long.parseLong(value[0]);
+                } catch (IllegalArgumentException ex) { // includes NumberFormatException
+                    throw new IllegalArgumentException("invalid cursor (" + ex.getMessage() + ")");
+                }
+            }
+            return new QueryPage(offset, limit);
+        }
+
+        /**
+         * @return the maximum number of rows to read for this page; one more than the page size at least to
+         * detect further rows
+         */
+        public long getReadLimit() {
+            return (limit + 1L) * MAX_ROWS_READ_FACTOR;
+        }
+
+        /**
+         * @return the cursor of the next page or 'null' if no more rows are present
+         */
+        public String getNextCursor(String queryString) {
+            return hasMore ? Base64.getUrlEncoder().withoutPadding().encodeToString(
+                    ((offset + read) + ":" + getQueryHash(queryString)).getBytes(StandardCharsets.UTF_8)) : null;
+        }
+
+        protected static String getQueryHash(String queryString) {
+            return Integer.toHexString(queryString.hashCode());
+        }
+    }
+
     protected abstract class AbstractQueryOperation implements ServletOperation {
 
         @Override
@@ -361,7 +444,7 @@ public class NodeServlet extends NodeTreeServlet {
                 text = matcher.group(4);
                 if (StringUtils.isNotBlank(text)) {
                     // use simple text separated from path
-                    queryString = getSimpleQuery(matcher.group(1), text);
+                    queryString = getSimpleQuery(matcher.group(1), text, getNodeType(request));
                 }
                 // add the 'jcr:root' if not present
                 if (!queryString.startsWith("/jcr:root")) {
@@ -372,7 +455,7 @@ public class NodeServlet extends NodeTreeServlet {
                 matcher = WORD_QUERY.matcher(queryString);
                 if (matcher.matches()) {
                     // simple text
-                    queryString = getSimpleQuery(getPath(request), matcher.group(1));
+                    queryString = getSimpleQuery(getPath(request), matcher.group(1), getNodeType(request));
                 } else {
                     // SQL-2...
                     queryLang = Query.JCR_SQL2;
@@ -386,30 +469,85 @@ public class NodeServlet extends NodeTreeServlet {
                     Workspace workspace = session.getWorkspace();
                     QueryManager queryManager = workspace.getQueryManager();
 
+                    QueryPage page = getQueryPage(request, queryString);
+
                     Query query = queryManager.createQuery(queryString, queryLang);
-                    query.setLimit(nodesConfig.getQueryResultLimit() + 1);
+                    if (page.offset > 0) {
+                        query.setOffset(page.offset);
+                    }
+                    query.setLimit(page.getReadLimit());
+                    long start = System.currentTimeMillis();
                     QueryResult result = query.execute();
+                    page.time = System.currentTimeMillis() - start;
 
                     ResourceFilter filter = getNodeFilter(request);
-                    writeQueryResult(request, response, queryString, result, filter, resolver);
+                    writeQueryResult(request, response, queryString, result, filter, resolver, page);
 
                 } catch (RepositoryException rex) {
                     LOG.error(rex.getMessage(), rex);
                     writeError(response, queryString, rex);
+                } catch (IllegalArgumentException iaex) {
+                    LOG.warn(iaex.getMessage());
+                    writeError(response, queryString, iaex);
                 }
             }
         }
 
+        /**
+         * @return the requested page of the query result
+         */
+        protected QueryPage getQueryPage(SlingHttpServletRequest request, String queryString) {
+            return QueryPage.fromRequest(request, queryString, nodesConfig.getQueryResultLimit());
+        }
+
+        /**
+         * @return the node type of the 'type' parameter to restrict a simple query; 'null' if not present
+         */
+        protected String getNodeType(SlingHttpServletRequest request) {
+            String type = request.getParameter(PARAM_TYPE);
+            return StringUtils.isNotBlank(type) && NODE_TYPE_NAME.matcher(type.trim()).matches() ? type.trim() : null;
+        }
+
         public String getSimpleQuery(String path, String text) {
+            return getSimpleQuery(path, text, null);
+        }
+
+        /**
+         * @param nodeType the node type to restrict the query (pushed down into the query instead of filtering
+         *                 the result); optional
+         */
+        public String getSimpleQuery(String path, String text, String nodeType) {
             String queryString = "/jcr:root";
             if (StringUtils.isNotBlank(path)) {
                 queryString += path;
             }
-            queryString += queryString.endsWith("/") ? "/*" : "//*";
+            queryString += queryString.endsWith("/") ? "/" : "//";
+            queryString += StringUtils.isNotBlank(nodeType) ? "element(*," + nodeType + ")" : "*";
             queryString += "[jcr:contains(.,'" + text + "')] order by @path";
             return queryString;
         }
 
+        /**
+         * reads the query rows of the page lazily and calls the writer for each accepted node; stops reading if
+         * the page is full or the read limit is reached
+         */
+        protected void readQueryPage(QueryResult result, ResourceFilter filter, ResourceResolver resolver,
+                                     QueryPage page, QueryNodeWriter nodeWriter)
+                throws RepositoryException, IOException {
+            NodeIterator iterator = result.getNodes();
+            long readLimit = page.getReadLimit() - 1;
+            while (page.count < page.limit && page.read < readLimit && iterator.hasNext()) {
+                Node node = iterator.nextNode();
+                page.read++;
+                ResourceHandle resource = ResourceHandle.use(resolver.getResource(node.getPath()));
+                if (resource.isValid() && accept(filter, resource)) {
+                    nodeWriter.write(node, resource);
+                    page.count++;
+                }
+            }
+            page.hasMore = iterator.hasNext();
+        }
+
         protected boolean accept(ResourceFilter filter, Resource resource) {
             if (filter instanceof ResourceFilter.FilterSet) {
                 ResourceFilter.FilterSet set = (ResourceFilter.FilterSet) filter;
@@ -425,7 +563,7 @@ public class NodeServlet extends NodeTreeServlet {
 
         protected abstract void writeQueryResult(SlingHttpServletRequest request, SlingHttpServletResponse response,
                                                  String queryString, QueryResult result,
-                                                 ResourceFilter filter, ResourceResolver resolver)
+                                                 ResourceFilter filter, ResourceResolver resolver, QueryPage page)
                 throws RepositoryException, ServletException, IOException;
 
         protected void writeError(SlingHttpServletResponse response, String queryString, Exception ex)
@@ -435,41 +573,49 @@ public class NodeServlet extends NodeTreeServlet {
         }
     }
 
+    protected interface QueryNodeWriter {
+
+        void write(Node node, ResourceHandle resource) throws RepositoryException, IOException;
+    }
+
     protected class JsonQueryOperation extends AbstractQueryOperation {
 
         @Override
         protected void writeQueryResult(SlingHttpServletRequest request, SlingHttpServletResponse response,
                                         String queryString, QueryResult result,
-                                        ResourceFilter filter, ResourceResolver resolver)
+                                        ResourceFilter filter, ResourceResolver resolver, QueryPage page)
                 throws RepositoryException, IOException {
 
-            JsonWriter writer = ResponseUtil.getJsonWriter(response);
+            final JsonWriter writer = ResponseUtil.getJsonWriter(response);
             response.setStatus(HttpServletResponse.SC_OK);
 
-            TreeNodeStrategy nodeStrategy = new DefaultTreeNodeStrategy(getNodeFilter(request));
-            NodeIterator iterator = result.getNodes();
+            final TreeNodeStrategy nodeStrategy = new DefaultTreeNodeStrategy(getNodeFilter(request));
 
-            writer.beginArray();
+            writer.beginObject();
 
             writer.name("result").beginArray();
-            int count = 0;
-            while (iterator.hasNext()) {
-                Node node = iterator.nextNode();
-                ResourceHandle resource = ResourceHandle.use(resolver.getResource(node.getPath()));
-                if (resource.isValid() && accept(filter, resource)) {
+            readQueryPage(result, filter, resolver, page, new QueryNodeWriter() {
+                @Override
+                public void write(Node node, ResourceHandle resource) throws IOException {
                     writer.beginObject();
-                    String type = writeNodeIdentifiers(writer, nodeStrategy, resource, LabelType.name, false);
+                    writeNodeIdentifiers(writer, nodeStrategy, resource, LabelType.name, false);
                     writeNodeJcrState(writer, resource);
                     writer.endObject();
-                    count++;
                 }
-            }
+            });
             writer.endArray();
 
             writer.name("summary").beginObject();
             writer.name("query").value(CpnlElFunctions.script(queryString)); // XSS? - checked (2019-05-04)
-            writer.name("count").value(count);
-            writer.name("limit").value(nodesConfig.getQueryResultLimit());
+            writer.name("count").value(page.count);
+            writer.name("offset").value(page.offset);
+            writer.name("limit").value(page.limit);
+            writer.name("read").value(page.read);
+            writer.name("time").value(page.time);
+            writer.name("hasMore").value(page.hasMore);
+            if (page.hasMore) {
+                writer.name("cursor").value(page.getNextCursor(queryString));
+            }
             writer.endObject();
 
             writer.endObject();
@@ -481,23 +627,19 @@ public class NodeServlet extends NodeTreeServlet {
         @Override
         protected void writeQueryResult(SlingHttpServletRequest request, SlingHttpServletResponse response,
                                         String queryString, QueryResult result,
-                                        ResourceFilter filter, ResourceResolver resolver)
+                                        ResourceFilter filter, ResourceResolver resolver, QueryPage page)
                 throws RepositoryException, IOException {
 
-            PrintWriter writer = response.getWriter();
+            final PrintWriter writer = response.getWriter();
             response.setStatus(HttpServletResponse.SC_OK);
             response.setContentType("text/html;charset=" + CHARSET); // XSS? - checked (2019-05-04)
 
-            TreeNodeStrategy nodeStrategy = new DefaultTreeNodeStrategy(getNodeFilter(request));
-            NodeIterator iterator = result.getNodes();
+            final TreeNodeStrategy nodeStrategy = new DefaultTreeNodeStrategy(getNodeFilter(request));
 
             writer.append("<tbody>");
-            long limit = nodesConfig.getQueryResultLimit();
-            int count = 0;
-            while (count < limit && iterator.hasNext()) {
-                Node node = iterator.nextNode();
-                ResourceHandle resource = ResourceHandle.use(resolver.getResource(node.getPath()));
-                if (resource.isValid() && accept(filter, resource)) {
+            readQueryPage(result, filter, resolver, page, new QueryNodeWriter() {
+                @Override
+                public void write(Node node, ResourceHandle resource) throws RepositoryException {
                     StringBuilder classes = new StringBuilder();
                     String nodePath = node.getPath();
                     Session session = node.getSession();
@@ -535,23 +677,31 @@ public class NodeServlet extends NodeTreeServlet {
                             .append(CpnlElFunctions.text(path)).append("</a></td>");
                     writer.append("<td class=\"type\">").append(resource.getPrimaryType()).append("</td>");
                     writer.append("</tr>");
-                    count++;
                 }
-            }
+            });
             StringBuilder message = new StringBuilder();
-            message.append(count).append(" items found");
-            if (count >= limit) {
-                message.append(" (current limit: ").append(limit).append(", ")
-                        .append(iterator.hasNext() ? "more items present" : "no more items").append(")");
+            message.append(page.count).append(" items found");
+            if (page.count >= page.limit || page.hasMore) {
+                message.append(" (current limit: ").append(page.limit).append(", ")
+                        .append(page.hasMore ? "more items present" : "no more items").append(")");
             }
-            message.append(".");
-            writeSummary(queryString, message.toString(), writer, "summary info");
+            message.append(" - ").append(page.read).append(" rows read in ").append(page.time).append("ms.");
+            writeSummary(queryString, message.toString(), writer, "summary info", page.getNextCursor(queryString));
             writer.append("</tbody>");
         }
 
         protected void writeSummary(String queryString, String message,
                                     PrintWriter writer, String cssClasses) {
-            writer.append("<tr class=\"").append(cssClasses).append("\">");
+            writeSummary(queryString, message, writer, cssClasses, null);
+        }
+
+        protected void writeSummary(String queryString, String message,
+                                    PrintWriter writer, String cssClasses, String cursor) {
+            writer.append("<tr class=\"").append(cssClasses).append("\"");
+            if (cursor != null) {
+                writer.append(" data-cursor=\"").append(cursor).append("\"");
+            }
+            writer.append(">");
             writer.append("<td class=\"icon\" data-type=\"summary\" rowspan=\"2\"><span></span></td>");
             writer.append("<td class=\"message\" colspan=\"5\">").append(CpnlElFunctions.text(message))
                     .append("<br/>query: '").append(CpnlElFunctions.text(queryString)).append("'</td>"); // XSS! (2019-05-04)
@@ -570,10 +720,23 @@ public class NodeServlet extends NodeTreeServlet {
 
     protected class ExportQueryOperation extends AbstractQueryOperation {
 
+        /**
+         * the export is not paged; the query is limited to the configured result limit
+         */
+        @Override
+        protected QueryPage getQueryPage(SlingHttpServletRequest request, String queryString) {
+            return new QueryPage(0, (int) nodesConfig.getQueryResultLimit()) {
+                @Override
+                public long getReadLimit() {
+                    return limit + 1L;
+                }
+            };
+        }
+
         @Override
         protected void writeQueryResult(SlingHttpServletRequest request, SlingHttpServletResponse response,
                                         String queryString, QueryResult result,
-                                        ResourceFilter filter, ResourceResolver resolver)
+                                        ResourceFilter filter, ResourceResolver resolver, QueryPage page)
                 throws ServletException, IOException {
 
             String rendererType = XSS.filter(request.getParameter("export"));
@@ -595,19 +758,11 @@ public class NodeServlet extends NodeTreeServlet {
     //
 
     /**
-     * sort children of orderable nodes
+     * sort children of non orderable nodes by name
      */
     @Override
-    protected List<Resource> prepareTreeItems(ResourceHandle resource, List<Resource> items) {
-        if (!nodesConfig.getOrderableNodesFilter().accept(resource)) {
-            Collections.sort(items, new Comparator<Resource>() {
-                @Override
-                public int compare(Resource r1, Resource r2) {
-                    return getSortName(r1).compareTo(getSortName(r2));
-                }
-            });
-        }
-        return items;
+    protected boolean isSortedTreeItems(ResourceHandle resource) {
+        return !nodesConfig.getOrderableNodesFilter().accept(resource);
     }
 
     /**
@@ -805,8 +960,8 @@ public class NodeServlet extends NodeTreeServlet {
                          ResourceHandle resource)
                 throws ServletException, IOException {
 
-            Binary binary = ResourceUtil.getBinaryData(resource);
-            if (binary == null) {
+            javax.jcr.Property property = PropertyUtil.getBinaryDataProperty(resource.adaptTo(Node.class));
+            if (property == null) {
                 response.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 return;
             }
@@ -814,19 +969,12 @@ public class NodeServlet extends NodeTreeServlet {
             try {
                 prepareResponse(response, resource);
 
-                response.setContentLength((int) binary.getSize());
-                response.setStatus(HttpServletResponse.SC_OK);
-
-                try (InputStream input = binary.getStream();
-                     BufferedInputStream buffered = new BufferedInputStream(input)) {
-                    IOUtils.copy(buffered, response.getOutputStream());
-                }
+                Calendar lastModified = resource.getProperty(com.composum.sling.core.util.ResourceUtil.PROP_LAST_MODIFIED, Calendar.class);
+                BinaryDelivery.deliver(request, response, property, lastModified);
 
             } catch (RepositoryException ex) {
                 LOG.error(ex.getMessage(), ex);
                 response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
-            } finally {
-                binary.dispose();
             }
         }
 
@@ -849,11 +997,6 @@ public class NodeServlet extends NodeTreeServlet {
             if (StringUtils.isNotBlank(filename)) {
                 response.setHeader("Content-Disposition", "inline; filename=" + filename);
             }
-
-            Calendar lastModified = resource.getProperty(com.composum.sling.core.util.ResourceUtil.PROP_LAST_MODIFIED, Calendar.class);
-            if (lastModified != null) {
-                response.setDateHeader(HttpConstants.HEADER_LAST_MODIFIED, lastModified.getTimeInMillis());
-            }
         }
     }
 
@@ -888,20 +1031,50 @@ public class NodeServlet extends NodeTreeServlet {
                 RequestParameterMap parameters = request.getRequestParameterMap();
 
                 Property property = null;
-                RequestParameter file = parameters.getValue(AbstractServiceServlet.PARAM_FILE);
-                if (file != null) {
-                    InputStream input = file.getInputStream();
-                    values.put(JcrConstants.JCR_DATA, input);
+                ChunkedUpload upload = null;
+                InputStream input = null;
+                String uploadId = request.getParameter(PropertyServlet.PARAM_UPLOAD);
+                if (StringUtils.isNotBlank(uploadId)) {
+                    // the content is staged by a chunked upload (see PropertyServlet.StartUploadOperation)
+                    upload = uploadService.get(resolver.getUserID(), uploadId);
+                    if (upload == null || !(upload.getPath().equals(resource.getPath())
+                            || upload.getPath().equals(content.getPath()))) {
+                        response.sendError(HttpServletResponse.SC_NOT_FOUND, "no upload '" + uploadId + "' found");
+                        return;
+                    }
+                    try {
+                        input = uploadService.open(upload, request.getParameter(PropertyServlet.PARAM_CHECKSUM));
+                    } catch (IOException ex) {
+                        LOG.error(resource.getPath() + ": upload not committed - " + ex.getMessage());
+                        response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+                        return;
+                    }
+                } else {
+                    RequestParameter file = parameters.getValue(AbstractServiceServlet.PARAM_FILE);
+                    if (file != null) {
+                        input = file.getInputStream();
+                    }
                 }
 
-                if (RequestUtil.getParameter(request, "adjustLastModified", Boolean.FALSE)) {
-                    GregorianCalendar now = new GregorianCalendar();
-                    now.setTime(new Date());
-                    values.put(JcrConstants.JCR_LASTMODIFIED, now);
-                    values.put(JcrConstants.JCR_LASTMODIFIED + "By", resolver.getUserID());
+                try {
+                    if (input != null) {
+                        values.put(JcrConstants.JCR_DATA, input);
+                    }
+                    if (RequestUtil.getParameter(request, "adjustLastModified", Boolean.FALSE)) {
+                        GregorianCalendar now = new GregorianCalendar();
+                        now.setTime(new Date());
+                        values.put(JcrConstants.JCR_LASTMODIFIED, now);
+                        values.put(JcrConstants.JCR_LASTMODIFIED + "By", resolver.getUserID());
+                    }
+                    resolver.commit();
+                } finally {
+                    if (upload != null) {
+                        input.close(); // the staged file is closed before it is removed
+                    }
+                }
+                if (upload != null) {
+                    uploadService.remove(upload);
                 }
-
-                resolver.commit();
 
                 JsonWriter jsonWriter = ResponseUtil.getJsonWriter(response);
                 writeJsonNode(jsonWriter, MappingRules.DEFAULT_TREE_NODE_STRATEGY, resource, LabelType.name, false);
@@ -1299,7 +1472,9 @@ public class NodeServlet extends NodeTreeServlet {
                 RequestUtil.getParameter(request, "depth",
                         RequestUtil.getIntSelector(request, MAP_DEPTH_SELECTOR,
                                 RequestUtil.getIntSelector(request, 0))),
-                null);
+                null,
+                // the 'unsorted' export streams the properties in the repository order
+                RequestUtil.checkSelector(request, "unsorted") ? Boolean.FALSE : null);
     }
 
     public static int getJsonSelectorIndent(SlingHttpServletRequest request) {
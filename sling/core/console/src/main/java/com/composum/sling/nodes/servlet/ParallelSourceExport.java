@@ -0,0 +1,496 @@
+package com.composum.sling.nodes.servlet;
+
+import com.composum.sling.core.BeanContext;
+import com.composum.sling.nodes.NodesConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.RepositoryException;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Renders the entries of a {@link SourceModel} export concurrently: each subtree which is written into its own
+ * files (the 'additional files' of a node) is rendered by a worker with its own resolver into temporary buffers,
+ * and the rendering of the subtrees found is scheduled immediately. The zip stream itself is written by the calling
+ * thread only, in the same order as the sequential export. A limited number of buffers is kept in memory, all other
+ * content is buffered in temporary files.
+ * The workers are shared by all exports (see {@link Workers}); if the content staged in temporary files by all
+ * exports exceeds the limit of the workers, the rendering of further subtrees waits for the zip writers - except
+ * the rendering of the subtree a zip writer is waiting for. A subtree which isn't rendered yet when the zip writer
+ * needs it is rendered by the zip writer itself.
+ * Binaries which are compressed already are stored without compression.
+ */
+public class ParallelSourceExport implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelSourceExport.class);
+
+    /** the maximum size of a buffer kept in memory */
+    public static final int MEMORY_BUFFER_SIZE = 1024 * 1024;
+
+    /** the number of memory buffers for each worker thread */
+    public static final int MEMORY_BUFFERS_PER_THREAD = 4;
+
+    protected static final AtomicInteger WORKERS_COUNT = new AtomicInteger();
+
+    /**
+     * The threads shared by the exports of a component and the limit of the content staged in temporary files by
+     * all these exports together; owned (created and closed) by the component.
+     */
+    public static class Workers implements Closeable {
+
+        protected final int threads;
+        protected final long stagingLimit;
+        protected final ExecutorService executor;
+        /** the bytes in temporary files; decreased only while locked to notify the waiting workers */
+        protected final AtomicLong staged = new AtomicLong();
+
+        /**
+         * @param threads      the number of worker threads
+         * @param stagingLimit the number of bytes in temporary files to stop rendering further subtrees
+         */
+        public Workers(int threads, long stagingLimit) {
+            this.threads = threads;
+            this.stagingLimit = stagingLimit;
+            final String name = "source-export-" + WORKERS_COUNT.incrementAndGet() + "-";
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+                protected final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(@Nonnull Runnable runnable) {
+                    Thread thread = new Thread(runnable, name + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * @return the number of bytes currently staged in temporary files
+         */
+        public long getStaged() {
+            return staged.get();
+        }
+
+        protected void stage(long bytes) {
+            staged.addAndGet(bytes);
+        }
+
+        protected synchronized void unstage(long bytes) {
+            staged.addAndGet(-bytes);
+            notifyAll();
+        }
+
+        protected synchronized void headChanged() {
+            notifyAll();
+        }
+
+        /**
+         * Waits until the staged content is below the limit; the subtree the zip writer of its export is waiting
+         * for is rendered immediately, otherwise the writer could never release the staged content.
+         */
+        protected synchronized void awaitStagingSpace(@Nonnull ParallelSourceExport export, @Nonnull Future<?> task)
+                throws InterruptedException {
+            while (staged.get() > stagingLimit && export.head != task) {
+                wait();
+            }
+        }
+
+        /**
+         * Stops the workers after the scheduled renderings; the subtrees of the running exports which are not
+         * scheduled anymore are rendered by their zip writers.
+         */
+        @Override
+        public void close() {
+            executor.shutdown();
+        }
+    }
+
+    protected final NodesConfiguration config;
+    protected final Workers workers;
+    protected final List<ResourceResolver> clones = new ArrayList<>();
+    protected final BlockingQueue<ResourceResolver> resolvers;
+    protected final Semaphore memoryBuffers;
+    protected final Set<ExportBuffer> buffers = ConcurrentHashMap.newKeySet();
+    protected final Set<Future<List<Object>>> tasks = ConcurrentHashMap.newKeySet();
+    protected final AtomicInteger running = new AtomicInteger();
+
+    /** the subtree the zip writer is waiting for */
+    protected volatile Future<List<Object>> head;
+
+    protected volatile boolean closed;
+
+    public ParallelSourceExport(@Nonnull NodesConfiguration config, @Nonnull ResourceResolver resolver,
+                                @Nonnull Workers workers)
+            throws RepositoryException {
+        this.config = config;
+        this.workers = workers;
+        int threads = workers.getThreads();
+        resolvers = new ArrayBlockingQueue<>(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                ResourceResolver clone = resolver.clone(null);
+                clones.add(clone);
+                resolvers.add(clone);
+            }
+        } catch (LoginException ex) {
+            closeResolvers();
+            throw new RepositoryException(ex);
+        }
+        memoryBuffers = new Semaphore(threads * MEMORY_BUFFERS_PER_THREAD);
+    }
+
+    /**
+     * Writes the subtree of the path into the zip stream.
+     */
+    public void writeIntoZip(@Nonnull ZipOutputStream zipStream, @Nonnull String root, @Nonnull String path,
+                             @Nonnull SourceModel.DepthMode depthMode)
+            throws IOException, RepositoryException {
+        writeRendered(zipStream, submit(root, path, depthMode));
+    }
+
+    /**
+     * Cancels the rendering of an aborted export and releases its buffers and resolvers; the shared workers are
+     * left running.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Future<List<Object>> task : tasks) {
+            task.cancel(true);
+        }
+        try {
+            synchronized (running) {
+                long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+                long remaining;
+                while (running.get() > 0 && (remaining = timeout - System.currentTimeMillis()) > 0) {
+                    running.wait(remaining);
+                }
+            }
+            if (running.get() > 0) {
+                LOG.warn("source export workers not terminated");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (ExportBuffer buffer : buffers) {
+            buffer.release(); // the buffers of an aborted export
+        }
+        closeResolvers();
+    }
+
+    protected void closeResolvers() {
+        for (ResourceResolver clone : clones) {
+            clone.close();
+        }
+        clones.clear();
+    }
+
+    // writing (the calling thread)
+
+    protected void writeRendered(@Nonnull ZipOutputStream zipStream, @Nonnull Future<List<Object>> rendered)
+            throws IOException, RepositoryException {
+        for (Object item : get(rendered)) {
+            if (item instanceof BufferedEntry) {
+                writeEntry(zipStream, (BufferedEntry) item);
+            } else {
+                @SuppressWarnings("unchecked")
+                Future<List<Object>> subtree = (Future<List<Object>>) item;
+                writeRendered(zipStream, subtree);
+            }
+        }
+    }
+
+    protected void writeEntry(@Nonnull ZipOutputStream zipStream, @Nonnull BufferedEntry item)
+            throws IOException {
+        try {
+            ZipEntry entry = new ZipEntry(item.name);
+            if (item.lastModified != null) {
+                entry.setLastModifiedTime(item.lastModified);
+            }
+            if (item.binary && SourceModel.isCompressed(item.name)) {
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(item.buffer.size);
+                entry.setCompressedSize(item.buffer.size);
+                entry.setCrc(item.buffer.crc.getValue());
+            } else {
+                zipStream.setLevel(Deflater.DEFAULT_COMPRESSION);
+            }
+            zipStream.putNextEntry(entry);
+            item.buffer.writeTo(zipStream);
+            zipStream.closeEntry();
+        } finally {
+            item.buffer.release();
+        }
+    }
+
+    @Nonnull
+    protected List<Object> get(@Nonnull Future<List<Object>> rendered) throws IOException, RepositoryException {
+        head = rendered;
+        workers.headChanged();
+        // renders the subtree if no worker has started it (a no-op if started or done)
+        ((RunnableFuture<List<Object>>) rendered).run();
+        try {
+            return rendered.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("source export interrupted", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RepositoryException) {
+                throw (RepositoryException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RepositoryException(cause);
+        }
+    }
+
+    // rendering (the worker threads)
+
+    /**
+     * @return the future of the rendered subtree: a list of buffered entries and the futures of the subtrees
+     * in the order of the export
+     */
+    protected Future<List<Object>> submit(@Nonnull final String root, @Nonnull final String path,
+                                          @Nonnull final SourceModel.DepthMode depthMode) {
+        RenderTask task = new RenderTask(root, path, depthMode);
+        tasks.add(task.future);
+        if (closed) {
+            task.future.cancel(false);
+            return task.future;
+        }
+        try {
+            workers.executor.execute(task.future);
+        } catch (RejectedExecutionException ex) {
+            // the workers are closed - the subtree is rendered by the zip writer
+            LOG.debug("rendering of '{}' not scheduled: {}", path, ex.toString());
+        }
+        return task.future;
+    }
+
+    protected class RenderTask implements Callable<List<Object>> {
+
+        protected final String root;
+        protected final String path;
+        protected final SourceModel.DepthMode depthMode;
+        protected final FutureTask<List<Object>> future = new FutureTask<>(this);
+
+        public RenderTask(@Nonnull String root, @Nonnull String path, @Nonnull SourceModel.DepthMode depthMode) {
+            this.root = root;
+            this.path = path;
+            this.depthMode = depthMode;
+        }
+
+        @Override
+        public List<Object> call() throws Exception {
+            running.incrementAndGet();
+            try {
+                if (closed) {
+                    throw new IOException("source export closed");
+                }
+                workers.awaitStagingSpace(ParallelSourceExport.this, future);
+                return render(root, path, depthMode);
+            } finally {
+                tasks.remove(future);
+                synchronized (running) {
+                    running.decrementAndGet();
+                    running.notifyAll();
+                }
+            }
+        }
+    }
+
+    protected List<Object> render(@Nonnull String root, @Nonnull String path,
+                                  @Nonnull SourceModel.DepthMode depthMode)
+            throws IOException, RepositoryException, InterruptedException {
+        BufferingSink sink = new BufferingSink();
+        ResourceResolver resolver = resolvers.take();
+        try {
+            Resource resource = resolver.getResource(path);
+            if (resource != null) {
+                new SourceModel(config, new BeanContext.Service(resolver), resource)
+                        .writeEntries(sink, root, depthMode);
+            }
+        } finally {
+            resolvers.put(resolver);
+        }
+        return sink.items;
+    }
+
+    protected class BufferingSink implements SourceModel.EntrySink {
+
+        protected final List<Object> items = new ArrayList<>();
+
+        protected BufferedEntry current;
+
+        @Override
+        public OutputStream beginEntry(@Nonnull String name, @Nullable FileTime lastModified, boolean binary)
+                throws IOException {
+            current = new BufferedEntry(name, lastModified, binary, new ExportBuffer());
+            items.add(current);
+            return current.buffer;
+        }
+
+        @Override
+        public void endEntry() throws IOException {
+            current.buffer.flush();
+            current = null;
+        }
+
+        @Override
+        public void addSubtree(@Nonnull SourceModel model, @Nonnull String root,
+                               @Nonnull SourceModel.DepthMode depthMode) {
+            items.add(submit(root, model.getPath(), depthMode));
+        }
+    }
+
+    protected static class BufferedEntry {
+
+        public final String name;
+        public final FileTime lastModified;
+        public final boolean binary;
+        public final ExportBuffer buffer;
+
+        public BufferedEntry(String name, FileTime lastModified, boolean binary, ExportBuffer buffer) {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.binary = binary;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * The content of an entry with its size and checksum; kept in memory if a memory buffer is available and
+     * the content is small enough, otherwise in a temporary file.
+     */
+    protected class ExportBuffer extends OutputStream {
+
+        protected final CRC32 crc = new CRC32();
+        protected long size = 0;
+
+        protected ByteArrayOutputStream memory;
+        protected File file;
+        protected OutputStream fileStream;
+
+        public ExportBuffer() throws IOException {
+            buffers.add(this);
+            if (memoryBuffers.tryAcquire()) {
+                memory = new ByteArrayOutputStream(8192);
+            } else {
+                spill();
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@Nonnull byte[] bytes, int offset, int length) throws IOException {
+            if (memory != null && memory.size() + length > MEMORY_BUFFER_SIZE) {
+                spill();
+            }
+            crc.update(bytes, offset, length);
+            size += length;
+            if (memory != null) {
+                memory.write(bytes, offset, length);
+            } else {
+                fileStream.write(bytes, offset, length);
+                workers.stage(length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (fileStream != null) {
+                fileStream.flush();
+            }
+        }
+
+        public void writeTo(@Nonnull OutputStream output) throws IOException {
+            if (memory != null) {
+                memory.writeTo(output);
+            } else {
+                fileStream.close();
+                fileStream = null;
+                try (InputStream input = new FileInputStream(file)) {
+                    IOUtils.copy(input, output);
+                }
+            }
+        }
+
+        protected void spill() throws IOException {
+            file = File.createTempFile("source-export-", ".tmp");
+            fileStream = new BufferedOutputStream(new FileOutputStream(file));
+            if (memory != null) {
+                memory.writeTo(fileStream);
+                workers.stage(memory.size());
+                memory = null;
+                memoryBuffers.release();
+            }
+        }
+
+        public void release() {
+            if (buffers.remove(this)) {
+                if (memory != null) {
+                    memory = null;
+                    memoryBuffers.release();
+                }
+                IOUtils.closeQuietly(fileStream);
+                fileStream = null;
+                if (file != null) {
+                    FileUtils.deleteQuietly(file);
+                    file = null;
+                    workers.unstage(size);
+                }
+            }
+        }
+    }
+}
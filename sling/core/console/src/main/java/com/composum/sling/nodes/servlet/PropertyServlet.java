@@ -7,6 +7,7 @@ import com.composum.sling.core.servlet.AbstractServiceServlet;
 import com.composum.sling.core.servlet.ServletOperation;
 import com.composum.sling.core.servlet.ServletOperationSet;
 import com.composum.sling.core.servlet.Status;
+import com.composum.sling.core.util.BinaryDelivery;
 import com.composum.sling.core.util.JsonUtil;
 import com.composum.sling.core.util.MimeTypeUtil;
 import com.composum.sling.core.util.PropertyUtil;
@@ -14,8 +15,10 @@ import com.composum.sling.core.util.RequestUtil;
 import com.composum.sling.core.util.ResponseUtil;
 import com.composum.sling.core.util.XSS;
 import com.composum.sling.nodes.NodesConfiguration;
+import com.composum.sling.nodes.upload.ChunkedUpload;
+import com.composum.sling.nodes.upload.ChunkedUploadService;
+import com.composum.sling.nodes.upload.UploadLimitException;
 import com.google.gson.stream.JsonWriter;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.sling.SlingServlet;
@@ -26,14 +29,13 @@ import org.apache.sling.api.request.RequestParameter;
 import org.apache.sling.api.request.RequestParameterMap;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.resource.ValueMap;
-import org.apache.sling.api.servlets.HttpConstants;
 import org.apache.tika.mime.MimeType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.jcr.Binary;
+import javax.jcr.AccessDeniedException;
 import javax.jcr.Node;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.Property;
@@ -43,7 +45,6 @@ import javax.jcr.Session;
 import javax.jcr.Value;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Calendar;
@@ -58,7 +59,7 @@ import static javax.servlet.http.HttpServletResponse.SC_OK;
  */
 @SlingServlet(
         paths = "/bin/cpm/nodes/property",
-        methods = {"GET", "POST", "PUT"}
+        methods = {"GET", "POST", "PUT", "DELETE"}
 )
 public class PropertyServlet extends AbstractServiceServlet {
 
@@ -67,16 +68,23 @@ public class PropertyServlet extends AbstractServiceServlet {
     public static final StringFilter DEFAULT_PROPS_FILTER = new StringFilter.BlackList();
     public static final StringFilter BINARY_PROPS_FILTER = new StringFilter.BlackList();
 
+    public static final String PARAM_UPLOAD = "upload";
+    public static final String PARAM_SIZE = "size";
+    public static final String PARAM_CHECKSUM = "checksum";
+
     @Reference
     private NodesConfiguration coreConfig;
 
+    @Reference
+    private ChunkedUploadService uploadService;
+
     //
     // Servlet operations
     //
 
     public enum Extension {json, bin}
 
-    public enum Operation {get, put, update, map, copy, remove, xss}
+    public enum Operation {get, put, update, map, copy, remove, xss, upload, commit}
 
     protected ServletOperationSet<Extension, Operation> operations = new ServletOperationSet<>(Extension.json);
 
@@ -105,10 +113,16 @@ public class PropertyServlet extends AbstractServiceServlet {
                 Operation.xss, new CheckXssOperation());
         operations.setOperation(ServletOperationSet.Method.GET, Extension.bin,
                 Operation.get, new GetBinaryOperation());
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json,
+                Operation.upload, new GetUploadOperation());
 
         // POST
         operations.setOperation(ServletOperationSet.Method.POST, Extension.bin,
                 Operation.put, new PostBinaryOperation());
+        operations.setOperation(ServletOperationSet.Method.POST, Extension.json,
+                Operation.upload, new StartUploadOperation());
+        operations.setOperation(ServletOperationSet.Method.POST, Extension.json,
+                Operation.commit, new CommitUploadOperation());
 
         // PUT
         operations.setOperation(ServletOperationSet.Method.PUT, Extension.json,
@@ -119,10 +133,14 @@ public class PropertyServlet extends AbstractServiceServlet {
                 Operation.put, new PutBinaryOperation());
         operations.setOperation(ServletOperationSet.Method.PUT, Extension.bin,
                 Operation.update, new PutUpdateOperation());
+        operations.setOperation(ServletOperationSet.Method.PUT, Extension.bin,
+                Operation.upload, new PutChunkOperation());
 
         // DELETE
         operations.setOperation(ServletOperationSet.Method.DELETE, Extension.json,
                 Operation.remove, new RemoveOperation());
+        operations.setOperation(ServletOperationSet.Method.DELETE, Extension.json,
+                Operation.upload, new AbortUploadOperation());
     }
 
     protected class CheckXssOperation implements ServletOperation {
@@ -431,40 +449,21 @@ public class PropertyServlet extends AbstractServiceServlet {
 
                     String name = RequestUtil.getParameter(request, PARAM_NAME, com.composum.sling.core.util.ResourceUtil.PROP_DATA);
 
-                    javax.jcr.Property property = node.getProperty(name);
-                    Binary binary = property != null ? property.getBinary() : null;
-                    if (binary != null) {
+                    javax.jcr.Property property = node.hasProperty(name) ? node.getProperty(name) : null;
+                    if (property != null) {
 
-                        try {
-                            MimeType mimeType = MimeTypeUtil.getMimeType(resource);
-                            if (mimeType != null) {
-                                response.setContentType(mimeType.toString());
-                            }
-                            String filename = MimeTypeUtil.getFilename(resource, null);
-                            if (StringUtils.isNotBlank(filename)) {
-                                response.setHeader("Content-Disposition", "inline; filename=" + filename);
-                            }
-
-                            Calendar lastModified = resource.getProperty(com.composum.sling.core.util.ResourceUtil.PROP_LAST_MODIFIED, Calendar.class);
-                            if (lastModified != null) {
-                                response.setDateHeader(HttpConstants.HEADER_LAST_MODIFIED, lastModified.getTimeInMillis());
-                            }
-
-                            response.setContentLength((int) binary.getSize());
-                            response.setStatus(SC_OK);
-
-                            InputStream input = binary.getStream();
-                            BufferedInputStream buffered = new BufferedInputStream(input);
-                            try {
-                                IOUtils.copy(buffered, response.getOutputStream());
-                            } finally {
-                                buffered.close();
-                                input.close();
-                            }
-                        } finally {
-                            binary.dispose();
+                        MimeType mimeType = MimeTypeUtil.getMimeType(resource);
+                        if (mimeType != null) {
+                            response.setContentType(mimeType.toString());
+                        }
+                        String filename = MimeTypeUtil.getFilename(resource, null);
+                        if (StringUtils.isNotBlank(filename)) {
+                            response.setHeader("Content-Disposition", "inline; filename=" + filename);
                         }
 
+                        Calendar lastModified = resource.getProperty(com.composum.sling.core.util.ResourceUtil.PROP_LAST_MODIFIED, Calendar.class);
+                        BinaryDelivery.deliver(request, response, property, lastModified);
+
                     } else {
                         response.sendError(HttpServletResponse.SC_NOT_FOUND, "no binary '" + name + "' property found");
                     }
@@ -585,17 +584,209 @@ public class PropertyServlet extends AbstractServiceServlet {
 
         @Override
         protected void postChange(Node node) throws RepositoryException {
-            Calendar lastModified = PropertyUtil.getProperty(node, JcrConstants.JCR_LASTMODIFIED, (Calendar) null);
-            if (lastModified != null) {
+            updateLastModified(node);
+        }
+    }
+
+    protected void updateLastModified(Node node) throws RepositoryException {
+        Calendar lastModified = PropertyUtil.getProperty(node, JcrConstants.JCR_LASTMODIFIED, (Calendar) null);
+        if (lastModified != null) {
+            Session session = node.getSession();
+            String userId = session.getUserID();
+            Calendar now = new GregorianCalendar();
+            now.setTime(new Date());
+            PropertyUtil.setProperty(node, JcrConstants.JCR_LASTMODIFIED, now, PropertyType.DATE);
+            if (StringUtils.isNotBlank(userId)) {
+                PropertyUtil.setProperty(node, JcrConstants.JCR_LASTMODIFIED + "By", userId, PropertyType.STRING);
+            }
+        }
+    }
+
+    //
+    // chunked upload of large binaries
+    //
+
+    /**
+     * Starts a chunked upload of a binary property of the resource node (POST 'upload.json'); expects:
+     * <ul>
+     * <li>the 'size' parameter with the size of the binary</li>
+     * <li>an optional 'name' parameter for the property name (default 'jcr:data')</li>
+     * <li>an optional 'checksum' parameter with the SHA-256 checksum (hex) of the binary</li>
+     * </ul>
+     * The chunks are sent with PUT 'upload.bin' requests with the 'upload' key and the 'offset' of the chunk; an
+     * interrupted upload can be resumed at the offset reported by the GET 'upload.json' request. The binary is
+     * written with the POST 'commit.json' request after the last chunk.
+     */
+    protected class StartUploadOperation implements ServletOperation {
+
+        @Override
+        public void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response,
+                         ResourceHandle resource)
+                throws RepositoryException, IOException {
+
+            if (!resource.isValid()) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+
+            String name = XSS.filter(RequestUtil.getParameter(request, PARAM_NAME,
+                    com.composum.sling.core.util.ResourceUtil.PROP_DATA));
+            long size;
+            try {
+                size = Long.parseLong(RequestUtil.getParameter(request, PARAM_SIZE, ""));
+            } catch (NumberFormatException ex) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "no valid 'size' parameter found");
+                return;
+            }
+            if (size < 0 || StringUtils.isBlank(name)) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "invalid upload parameters");
+                return;
+            }
+
+            ChunkedUpload upload;
+            try {
+                upload = uploadService.start(request.getResourceResolver(), resource.getPath(), name, size,
+                        request.getParameter(PARAM_CHECKSUM));
+            } catch (AccessDeniedException ex) {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN, ex.getMessage());
+                return;
+            } catch (UploadLimitException ex) {
+                response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, ex.getMessage());
+                return;
+            }
+
+            JsonWriter jsonWriter = ResponseUtil.getJsonWriter(response);
+            response.setStatus(SC_OK);
+            upload.toJson(jsonWriter);
+        }
+    }
+
+    protected abstract class UploadOperation implements ServletOperation {
+
+        @Override
+        public void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response,
+                         ResourceHandle resource)
+                throws ServletException, IOException {
+
+            String id = request.getParameter(PARAM_UPLOAD);
+            ChunkedUpload upload = StringUtils.isNotBlank(id)
+                    ? uploadService.get(request.getResourceResolver().getUserID(), id) : null;
+            if (upload == null || !upload.getPath().equals(resource.getPath())) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "no upload '" + id + "' found");
+                return;
+            }
+            doIt(request, response, resource, upload);
+        }
+
+        protected abstract void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response,
+                                     ResourceHandle resource, ChunkedUpload upload)
+                throws ServletException, IOException;
+
+        protected void writeProgress(SlingHttpServletResponse response, ChunkedUpload upload, int status)
+                throws IOException {
+            JsonWriter jsonWriter = ResponseUtil.getJsonWriter(response);
+            response.setStatus(status);
+            upload.toJson(jsonWriter);
+        }
+    }
+
+    /**
+     * Reports the progress of an upload and the offset to resume an interrupted upload.
+     */
+    protected class GetUploadOperation extends UploadOperation {
+
+        @Override
+        protected void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response,
+                            ResourceHandle resource, ChunkedUpload upload)
+                throws IOException {
+            writeProgress(response, upload, SC_OK);
+        }
+    }
+
+    /**
+     * Appends the request content as the chunk at the 'offset' position; a chunk at another position than the
+     * offset of the received content is rejected with the status 'conflict' and the current progress.
+     */
+    protected class PutChunkOperation extends UploadOperation {
+
+        @Override
+        protected void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response,
+                            ResourceHandle resource, ChunkedUpload upload)
+                throws IOException {
+            long offset;
+            try {
+                offset = Long.parseLong(RequestUtil.getParameter(request, PARAM_OFFSET, ""));
+            } catch (NumberFormatException ex) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "no valid 'offset' parameter found");
+                return;
+            }
+            if (uploadService.append(upload, offset, request.getInputStream())) {
+                writeProgress(response, upload, SC_OK);
+            } else {
+                writeProgress(response, upload, HttpServletResponse.SC_CONFLICT);
+            }
+        }
+    }
+
+    /**
+     * Writes the complete and verified content of the upload to the binary property with one single write.
+     */
+    protected class CommitUploadOperation extends UploadOperation {
+
+        @Override
+        protected void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response,
+                            ResourceHandle resource, ChunkedUpload upload)
+                throws IOException {
+
+            Node node = resource.adaptTo(Node.class);
+            if (node == null) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "can't determine file node '" + resource.getPath() + "'");
+                return;
+            }
+
+            InputStream input;
+            try {
+                input = uploadService.open(upload, request.getParameter(PARAM_CHECKSUM));
+            } catch (IOException ex) {
+                LOG.error(resource.getPath() + ": upload not committed - " + ex.getMessage());
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+                return;
+            }
+
+            boolean committed = false;
+            try {
+                LOG.info(resource.getPath() + ": commit of the upload for binary property '" + upload.getName() + "'");
                 Session session = node.getSession();
-                String userId = session.getUserID();
-                Calendar now = new GregorianCalendar();
-                now.setTime(new Date());
-                PropertyUtil.setProperty(node, JcrConstants.JCR_LASTMODIFIED, now, PropertyType.DATE);
-                if (StringUtils.isNotBlank(userId)) {
-                    PropertyUtil.setProperty(node, JcrConstants.JCR_LASTMODIFIED + "By", userId, PropertyType.STRING);
-                }
+                PropertyUtil.setProperty(node, upload.getName(), input);
+                updateLastModified(node);
+                session.save();
+                committed = true;
+
+            } catch (RepositoryException ex) {
+                LOG.error(ex.getMessage(), ex);
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+            } finally {
+                input.close(); // the staged file is closed before it is removed
+            }
+            if (committed) {
+                uploadService.remove(upload);
+                writeProgress(response, upload, SC_OK);
             }
         }
     }
+
+    /**
+     * Aborts the upload and removes the staged content.
+     */
+    protected class AbortUploadOperation extends UploadOperation {
+
+        @Override
+        protected void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response,
+                            ResourceHandle resource, ChunkedUpload upload) {
+            uploadService.remove(upload);
+            response.setContentLength(0);
+            response.setStatus(SC_OK);
+        }
+    }
 }
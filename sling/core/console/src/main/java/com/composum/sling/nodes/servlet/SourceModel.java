@@ -32,6 +32,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -297,6 +298,19 @@ public class SourceModel extends ConsoleSlingBean {
      */
     public void writePackage(OutputStream output, String group, String packageName, String version)
             throws IOException, IOErrorOnCloseException, RepositoryException {
+        writePackage(output, group, packageName, version, null);
+    }
+
+    /**
+     * Writes a complete package about the node - arguments specify the package metadata.
+     *
+     * @param workers if present the subtrees are rendered concurrently (see {@link ParallelSourceExport})
+     * @throws IOException             on IO errors
+     * @throws IOErrorOnCloseException is thrown when an IO error appears during {@link ZipOutputStream#close()}
+     */
+    public void writePackage(OutputStream output, String group, String packageName, String version,
+                             @Nullable ParallelSourceExport.Workers workers)
+            throws IOException, IOErrorOnCloseException, RepositoryException {
 
         String root = "jcr_root";
         ZipOutputStream zipStream = new ZipOutputStream(output);
@@ -305,10 +319,10 @@ public class SourceModel extends ConsoleSlingBean {
         if (ResourceUtil.CONTENT_NODE.equals(getName())) {
             SourceModel parentModel = new SourceModel(config, context, resource.getParent());
             writeParents(zipStream, root, parentModel.getResource().getParent());
-            parentModel.writeIntoZip(zipStream, root, DepthMode.DEEP);
+            parentModel.writeIntoZip(zipStream, root, DepthMode.DEEP, workers);
         } else {
             writeParents(zipStream, root, resource.getParent());
-            writeIntoZip(zipStream, root, DepthMode.DEEP);
+            writeIntoZip(zipStream, root, DepthMode.DEEP, workers);
         }
         zipStream.flush();
         try {
@@ -442,13 +456,106 @@ public class SourceModel extends ConsoleSlingBean {
      */
     public void writeArchive(@Nonnull OutputStream output)
             throws IOException, RepositoryException {
+        writeArchive(output, null);
+    }
+
+    /**
+     * Writes a "naked" Zip about the node: no package metadata, no parent nodes.
+     *
+     * @param workers if present the subtrees are rendered concurrently (see {@link ParallelSourceExport})
+     */
+    public void writeArchive(@Nonnull OutputStream output, @Nullable ParallelSourceExport.Workers workers)
+            throws IOException, RepositoryException {
 
         ZipOutputStream zipStream = new ZipOutputStream(output);
-        writeIntoZip(zipStream, resource.getPath(), DepthMode.DEEP);
+        writeIntoZip(zipStream, resource.getPath(), DepthMode.DEEP, workers);
         zipStream.flush();
         zipStream.close();
     }
 
+    /**
+     * Writes the node into the zip; concurrently rendered if workers are available.
+     */
+    protected void writeIntoZip(@Nonnull ZipOutputStream zipStream, @Nonnull String root,
+                                @Nonnull DepthMode depthMode, @Nullable ParallelSourceExport.Workers workers)
+            throws IOException, RepositoryException {
+        if (workers != null) {
+            try (ParallelSourceExport export = new ParallelSourceExport(config, getResolver(), workers)) {
+                export.writeIntoZip(zipStream, root, getPath(), depthMode);
+            }
+        } else {
+            writeIntoZip(zipStream, root, depthMode);
+        }
+    }
+
+    /**
+     * The target of the entries of a source export: the zip stream itself or the buffers of a concurrent export.
+     */
+    protected interface EntrySink {
+
+        /**
+         * @return the stream to write the content of the entry to; must not be closed
+         */
+        OutputStream beginEntry(@Nonnull String name, @Nullable FileTime lastModified, boolean binary)
+                throws IOException;
+
+        void endEntry() throws IOException;
+
+        /**
+         * writes (or schedules) the entries of a subtree which has to follow the entries written before
+         */
+        void addSubtree(@Nonnull SourceModel model, @Nonnull String root, @Nonnull DepthMode depthMode)
+                throws IOException, RepositoryException;
+    }
+
+    /**
+     * The file extensions of binaries which are compressed already, these are not compressed again.
+     */
+    public static final Pattern COMPRESSED_BINARY = Pattern.compile(
+            "^.*\\.(jpe?g|png|gif|webp|zip|jar|gz|tgz|bz2|xz|7z|rar|mp3|mp4|m4a|m4v|mov|webm|ogg|woff2?)$",
+            Pattern.CASE_INSENSITIVE);
+
+    public static boolean isCompressed(@Nonnull String name) {
+        return COMPRESSED_BINARY.matcher(name).matches();
+    }
+
+    /**
+     * Writes the entries directly into the zip stream.
+     */
+    protected static class ZipStreamSink implements EntrySink {
+
+        protected final ZipOutputStream zipStream;
+
+        public ZipStreamSink(@Nonnull ZipOutputStream zipStream) {
+            this.zipStream = zipStream;
+        }
+
+        @Override
+        public OutputStream beginEntry(@Nonnull String name, @Nullable FileTime lastModified, boolean binary)
+                throws IOException {
+            ZipEntry entry = new ZipEntry(name);
+            if (lastModified != null) {
+                entry.setLastModifiedTime(lastModified);
+            }
+            // the size and the checksum needed for a STORED entry are unknown before the content is written;
+            // compressed binaries are deflated without compression instead to save the effort
+            zipStream.setLevel(binary && isCompressed(name) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+            zipStream.putNextEntry(entry);
+            return zipStream;
+        }
+
+        @Override
+        public void endEntry() throws IOException {
+            zipStream.closeEntry();
+        }
+
+        @Override
+        public void addSubtree(@Nonnull SourceModel model, @Nonnull String root, @Nonnull DepthMode depthMode)
+                throws IOException, RepositoryException {
+            model.writeEntries(this, root, depthMode);
+        }
+    }
+
     /**
      * Writes a "naked" Zip about the node: no package metadata, no parent nodes. This might include entries about
      * subnodes if {writeDeep}=true, and might include entries about binary properties.
@@ -458,42 +565,45 @@ public class SourceModel extends ConsoleSlingBean {
      */
     protected void writeIntoZip(@Nonnull ZipOutputStream zipStream, @Nonnull String root, @Nonnull DepthMode depthMode)
             throws IOException, RepositoryException {
+        writeEntries(new ZipStreamSink(zipStream), root, depthMode);
+    }
+
+    /**
+     * Writes the entries of the node into the sink; the subtrees are delegated to the sink.
+     *
+     * @param depthMode determines to what extent we write subnodes
+     */
+    protected void writeEntries(@Nonnull EntrySink sink, @Nonnull String root, @Nonnull DepthMode depthMode)
+            throws IOException, RepositoryException {
         if (resource == null || ResourceUtil.isNonExistingResource(resource)) {
             return;
         }
         if (ResourceUtil.isResourceType(resource, ResourceUtil.TYPE_RESOURCE) && ResourceUtil.isResourceType(resource.getParent(), NT_FILE)) {
             // there is no proper way to write a nt:resource of a nt:file into a package.
             // We write the parent - nt:file - instead.
-            new SourceModel(config, context, resource.getParent()).writeIntoZip(zipStream, root, depthMode);
+            new SourceModel(config, context, resource.getParent()).writeEntries(sink, root, depthMode);
             return;
         }
         RenderingType renderingType = getRenderingType(resource, false);
         if (renderingType == RenderingType.BINARYFILE) {
             if (DepthMode.DEEP == depthMode) {
-                writeFile(zipStream, root, resource);
+                writeFile(sink, root, resource);
             }
             // not writeDeep: a .content.xml is not present for a file, so we can't do anything.
             return;
         }
 
-        ZipEntry entry;
-        FileTime lastModified = getLastModified(resource);
-        entry = new ZipEntry(getZipName(root));
-        if (lastModified != null) {
-            entry.setLastModifiedTime(lastModified);
-        }
-        zipStream.putNextEntry(entry);
-
+        OutputStream entry = sink.beginEntry(getZipName(root), getLastModified(resource), false);
         Queue<String> binaryProperties = new ArrayDeque<>(); // these need to have an additional file
         Queue<SourceModel> additionalFiles = new ArrayDeque<>();
-        Writer writer = new OutputStreamWriter(zipStream, UTF_8);
+        Writer writer = new OutputStreamWriter(entry, UTF_8);
         writeXmlFile(writer, depthMode, binaryProperties, additionalFiles);
         writer.flush(); // deliberately not close since that'd close the zip 8-/
-        zipStream.closeEntry();
+        sink.endEntry();
 
-        writeBinaryProperties(zipStream, root, binaryProperties);
+        writeBinaryProperties(sink, root, binaryProperties);
         for (SourceModel binaryFile : additionalFiles) {
-            binaryFile.writeIntoZip(zipStream, root, depthMode);
+            sink.addSubtree(binaryFile, root, depthMode);
         }
     }
 
@@ -501,7 +611,7 @@ public class SourceModel extends ConsoleSlingBean {
      * Writes the current node as a file node (not the jcr:content but the parent) incl. it's binary data and possibly
      * additional data about nonstandard properties.
      */
-    protected void writeFile(@Nonnull ZipOutputStream zipStream, @Nonnull String root, @Nonnull ResourceHandle file)
+    protected void writeFile(@Nonnull EntrySink sink, @Nonnull String root, @Nonnull ResourceHandle file)
             throws IOException, RepositoryException {
         if (file.getName().equals(JCR_CONTENT)) {
             // file format doesn't allow this - we need to write the file with the parent's name
@@ -509,19 +619,14 @@ public class SourceModel extends ConsoleSlingBean {
         }
 
         FileTime lastModified = getLastModified(file);
-        ZipEntry entry;
         String path = requireNonNull(file).getPath();
         Binary binaryData = ResourceUtil.getBinaryData(file);
         if (binaryData != null) {
-            entry = new ZipEntry(getZipName(root, path));
-            if (lastModified != null) {
-                entry.setLastModifiedTime(lastModified);
-            }
-            zipStream.putNextEntry(entry);
+            OutputStream entry = sink.beginEntry(getZipName(root, path), lastModified, true);
             try (InputStream fileContent = binaryData.getStream()) {
-                IOUtils.copy(fileContent, zipStream);
+                IOUtils.copy(fileContent, entry);
             }
-            zipStream.closeEntry();
+            sink.endEntry();
         } else {
             LOG.warn("Can't get binary data for {}", path);
         }
@@ -535,19 +640,16 @@ public class SourceModel extends ConsoleSlingBean {
         if (fileIsNonstandard || contentNodeIsNonstandard) {
             Queue<String> binaryProperties = new ArrayDeque<>(); // these need to have an additional file
             Queue<SourceModel> binaryFiles = new ArrayDeque<>();
-            entry = new ZipEntry(getZipName(root, file.getPath() + ".dir/.content.xml"));
-            if (lastModified != null) {
-                entry.setLastModifiedTime(lastModified);
-            }
-            zipStream.putNextEntry(entry);
-            Writer writer = new OutputStreamWriter(zipStream, UTF_8);
+            OutputStream entry = sink.beginEntry(getZipName(root, file.getPath() + ".dir/.content.xml"),
+                    lastModified, false);
+            Writer writer = new OutputStreamWriter(entry, UTF_8);
             SourceModel fileModel = new SourceModel(config, context, file);
             fileModel.writeXmlFile(writer, DepthMode.DEEP, binaryProperties, binaryFiles);
             writer.flush();
-            zipStream.closeEntry();
-            writeBinaryProperties(zipStream, root, binaryProperties);
+            sink.endEntry();
+            writeBinaryProperties(sink, root, binaryProperties);
             for (SourceModel binaryFile : binaryFiles) {
-                binaryFile.writeIntoZip(zipStream, root, DepthMode.DEEP);
+                sink.addSubtree(binaryFile, root, DepthMode.DEEP);
             }
         }
     }
@@ -555,7 +657,7 @@ public class SourceModel extends ConsoleSlingBean {
     /**
      * Writes the binary properties collected in {binaryProperties} into entries in the zip file.
      */
-    protected void writeBinaryProperties(@Nonnull ZipOutputStream zipStream, @Nonnull String root, @Nullable Queue<String> binaryProperties) throws IOException {
+    protected void writeBinaryProperties(@Nonnull EntrySink sink, @Nonnull String root, @Nullable Queue<String> binaryProperties) throws IOException {
         if (binaryProperties == null || binaryProperties.isEmpty()) {
             return;
         }
@@ -564,14 +666,10 @@ public class SourceModel extends ConsoleSlingBean {
             try (InputStream inputStream = propertyResource != null ? propertyResource.adaptTo(InputStream.class) : null) {
                 if (inputStream != null) {
                     FileTime lastModified = getLastModified(ResourceHandle.use(propertyResource));
-                    ZipEntry entry;
-                    entry = new ZipEntry(getZipName(root, binPropPath) + ".binary");
-                    if (lastModified != null) {
-                        entry.setLastModifiedTime(lastModified);
-                    }
-                    zipStream.putNextEntry(entry);
-                    IOUtils.copy(inputStream, zipStream);
-                    zipStream.closeEntry();
+                    OutputStream entry = sink.beginEntry(getZipName(root, binPropPath) + ".binary",
+                            lastModified, true);
+                    IOUtils.copy(inputStream, entry);
+                    sink.endEntry();
                 } else {
                     LOG.warn("Can't get binary data for binary property {}", binPropPath);
                 }
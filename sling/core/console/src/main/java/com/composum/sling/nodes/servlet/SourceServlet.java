@@ -6,6 +6,7 @@ import com.composum.sling.core.util.XSS;
 import com.composum.sling.nodes.NodesConfiguration;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.sling.SlingServlet;
 import org.apache.sling.api.SlingHttpServletRequest;
@@ -16,6 +17,7 @@ import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.osgi.framework.BundleContext;
 
+import javax.annotation.Nullable;
 import javax.jcr.RepositoryException;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
@@ -33,11 +35,41 @@ public class SourceServlet extends SlingSafeMethodsServlet {
 
     protected BundleContext bundleContext;
 
+    /** the workers shared by the concurrent exports; (re)created according to the configured number of threads */
+    protected ParallelSourceExport.Workers exportWorkers;
+
     @Activate
     private void activate(final BundleContext bundleContext) {
         this.bundleContext = bundleContext;
     }
 
+    @Deactivate
+    protected synchronized void deactivate() {
+        if (exportWorkers != null) {
+            exportWorkers.close();
+            exportWorkers = null;
+        }
+    }
+
+    /**
+     * @return the workers for a concurrent export; 'null' if the export is configured as sequential
+     */
+    @Nullable
+    protected synchronized ParallelSourceExport.Workers getExportWorkers() {
+        int threads = nodesConfig.getSourceExportThreads();
+        long stagingLimit = nodesConfig.getSourceExportStagingLimit();
+        if (exportWorkers != null && (exportWorkers.getThreads() != threads
+                || exportWorkers.stagingLimit != stagingLimit)) {
+            // the running exports of the replaced workers are finished by their zip writers
+            exportWorkers.close();
+            exportWorkers = null;
+        }
+        if (exportWorkers == null && threads > 0) {
+            exportWorkers = new ParallelSourceExport.Workers(threads, stagingLimit);
+        }
+        return exportWorkers;
+    }
+
     protected boolean isEnabled() {
         return nodesConfig.isEnabled(this);
     }
@@ -91,7 +123,7 @@ public class SourceServlet extends SlingSafeMethodsServlet {
                         response.setContentType("application/octet-stream");
                         response.setHeader("Content-Disposition", "inline; filename=" + name);
 
-                        sourceModel.writeArchive(response.getOutputStream());
+                        sourceModel.writeArchive(response.getOutputStream(), getExportWorkers());
                         break;
 
                     // a content hierarchy in a zipped Vault package for installation by the Package Manager
@@ -107,7 +139,8 @@ public class SourceServlet extends SlingSafeMethodsServlet {
                         response.setContentType("application/octet-stream");
                         response.setHeader("Content-Disposition", "inline; filename=" + name + "-" + version + ".zip");
 
-                        sourceModel.writePackage(response.getOutputStream(), group, name, version);
+                        sourceModel.writePackage(response.getOutputStream(), group, name, version,
+                                getExportWorkers());
                         break;
 
                     default:
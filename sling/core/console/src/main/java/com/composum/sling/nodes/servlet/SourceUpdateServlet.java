@@ -1,9 +1,14 @@
 package com.composum.sling.nodes.servlet;
 
 import com.composum.sling.core.servlet.AbstractServiceServlet;
+import com.composum.sling.core.util.RequestUtil;
+import com.composum.sling.core.util.ResponseUtil;
 import com.composum.sling.core.util.XSS;
 import com.composum.sling.nodes.NodesConfiguration;
+import com.composum.sling.nodes.update.PartialUpdateException;
 import com.composum.sling.nodes.update.SourceUpdateService;
+import com.composum.sling.nodes.update.UpdateStatistics;
+import com.google.gson.stream.JsonWriter;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.sling.SlingServlet;
@@ -43,6 +48,9 @@ public class SourceUpdateServlet extends SlingAllMethodsServlet {
 
     private static final Logger LOG = LoggerFactory.getLogger(SourceUpdateServlet.class);
 
+    /** if 'true' the changes are determined only and the statistics are returned as JSON */
+    public static final String PARAM_DRY_RUN = "dryRun";
+
     @Reference
     protected NodesConfiguration nodesConfig;
 
@@ -76,10 +84,18 @@ public class SourceUpdateServlet extends SlingAllMethodsServlet {
             switch (pathInfo.getExtension()) {
 
                 case "zip":
-                    sourceUpdateService.updateFromZip(request.getResourceResolver(),
-                            file.getInputStream(), XSS.filter(pathInfo.getSuffix()));
-
-                    response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+                    boolean dryRun = RequestUtil.getParameter(request, PARAM_DRY_RUN, Boolean.FALSE);
+                    UpdateStatistics statistics = sourceUpdateService.updateFromZip(request.getResourceResolver(),
+                            file.getInputStream(), XSS.filter(pathInfo.getSuffix()), dryRun);
+
+                    if (dryRun) {
+                        response.setStatus(HttpServletResponse.SC_OK);
+                        JsonWriter writer = ResponseUtil.getJsonWriter(response);
+                        statistics.toJson(writer);
+                        writer.flush();
+                    } else {
+                        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+                    }
                     break;
 
                 default:
@@ -87,6 +103,13 @@ public class SourceUpdateServlet extends SlingAllMethodsServlet {
                     break;
             }
 
+        } catch (PartialUpdateException ex) {
+            // the saved part of the update is reported to repeat the update or to recover the content
+            LOG.error(ex.getMessage(), ex);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            JsonWriter writer = ResponseUtil.getJsonWriter(response);
+            ex.getStatistics().toJson(writer);
+            writer.flush();
         } catch (RepositoryException | TransformerException | RuntimeException ex) {
             throw new ServletException(ex);
         }
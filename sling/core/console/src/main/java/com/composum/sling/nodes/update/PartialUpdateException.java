@@ -0,0 +1,26 @@
+package com.composum.sling.nodes.update;
+
+import javax.annotation.Nonnull;
+import javax.jcr.RepositoryException;
+
+/**
+ * Thrown if a source update fails after a part of the changes is saved already; the statistics are reporting the
+ * last saved path, so that the caller can recover - e.g. by repeating the update.
+ */
+public class PartialUpdateException extends RepositoryException {
+
+    protected final UpdateStatistics statistics;
+
+    public PartialUpdateException(@Nonnull UpdateStatistics statistics, @Nonnull Throwable cause) {
+        super("update failed after saving up to '" + statistics.getLastSavedPath() + "': " + cause, cause);
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return the counters of the changes saved and not saved until the failure
+     */
+    @Nonnull
+    public UpdateStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -23,4 +23,24 @@ public interface SourceUpdateService {
     void updateFromZip(@Nonnull ResourceResolver resolver, @Nonnull InputStream zipInputStream, @Nonnull String nodePath)
             throws IOException, RepositoryException, TransformerException, IllegalArgumentException;
 
+    /**
+     * Like {@link #updateFromZip(ResourceResolver, InputStream, String)}, but the changes are saved in batches and
+     * counted; in the 'dry run' mode the changes are only counted, the target tree is left unchanged. If the update
+     * fails after some changes are saved, a {@link PartialUpdateException} reports the last saved path.
+     * <p>
+     * The default implementation doesn't support the dry run and doesn't count the changes.
+     *
+     * @param dryRun if 'true' the differences are determined and counted only
+     * @return the counters of the (simulated) update
+     */
+    @Nonnull
+    default UpdateStatistics updateFromZip(@Nonnull ResourceResolver resolver, @Nonnull InputStream zipInputStream,
+                                           @Nonnull String nodePath, boolean dryRun)
+            throws IOException, RepositoryException, TransformerException, IllegalArgumentException {
+        if (dryRun) {
+            throw new UnsupportedOperationException("dry run not supported by " + getClass().getName());
+        }
+        updateFromZip(resolver, zipInputStream, nodePath);
+        return new UpdateStatistics(false);
+    }
 }
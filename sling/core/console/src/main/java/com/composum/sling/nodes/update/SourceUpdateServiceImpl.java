@@ -3,19 +3,26 @@ package com.composum.sling.nodes.update;
 import com.composum.sling.core.ResourceHandle;
 import com.composum.sling.core.util.ResourceUtil;
 import org.apache.commons.collections.IteratorUtils;
-import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.ClassUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.jackrabbit.vault.fs.api.ProgressTrackerListener;
 import org.apache.jackrabbit.vault.fs.io.Importer;
-import org.apache.jackrabbit.vault.fs.io.MemoryArchive;
+import org.apache.jackrabbit.vault.fs.io.ZipArchive;
 import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,12 +31,21 @@ import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.nodetype.NodeDefinition;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -47,7 +63,8 @@ import static com.composum.sling.core.util.ResourceUtil.TYPE_SLING_FOLDER;
 
 @Component(
         label = "Composum Source Update Service",
-        description = "service to update content trees from XML"
+        description = "service to update content trees from XML",
+        metatype = true
 )
 @Service(SourceUpdateService.class)
 public class SourceUpdateServiceImpl implements SourceUpdateService {
@@ -58,6 +75,23 @@ public class SourceUpdateServiceImpl implements SourceUpdateService {
             "jcr:lastModifiedBy", "jcr:created", "jcr:createdBy", "jcr:isCheckedOut", "jcr:baseVersion",
             "jcr:versionHistory", "jcr:predecessors", "jcr:mergeFailed", "jcr:mergeFailed", "jcr:configuration"));
 
+    public static final String SAVE_THRESHOLD = "save.threshold";
+    @Property(
+            name = SAVE_THRESHOLD,
+            label = "save threshold",
+            description = "the number of changes after which the session is saved during an update with statistics"
+                    + " (the plain update is always saved at the end); 0: save at the end only",
+            intValue = 0
+    )
+    protected int saveThreshold;
+
+    @Activate
+    @Modified
+    protected void activate(ComponentContext context) {
+        Dictionary<String, Object> properties = context.getProperties();
+        saveThreshold = PropertiesUtil.toInteger(properties.get(SAVE_THRESHOLD), 0);
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -65,30 +99,115 @@ public class SourceUpdateServiceImpl implements SourceUpdateService {
      * creating nonexistent nodes along the way, and make node which nodes were present, and which were changed.
      * In a second pass, we recurse through the JCR tree again, delete nodes that were not present and update the lastModified
      * properties of nodes, below which there were changes.
+     * <p>
+     * The uploaded archive is spooled into a temporary file and the entries are read from that file on demand, so the
+     * memory used doesn't depend on the size of the archive. Only the differences are written into the target tree;
+     * new nodes are moved from the temporary import instead of copied.
+     * <p>
+     * All changes are saved at the end, the configured save threshold is not used - the update is done completely or
+     * not at all.
      */
     @Override
     public void updateFromZip(@Nonnull ResourceResolver resolver, @Nonnull InputStream rawZipInputStream, @Nonnull String nodePath)
             throws IOException, RepositoryException {
+        update(resolver, rawZipInputStream, nodePath, false, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The changes are saved each time the number of pending changes reaches the configured save threshold (if
+     * configured, by default all changes are saved at the end). If a later batch fails, the saved changes are kept
+     * and a {@link PartialUpdateException} reports the last saved path. A dry run doesn't write the archive into
+     * the repository: the temporary import is kept in the transient space of the session and discarded at the end.
+     */
+    @Override
+    @Nonnull
+    public UpdateStatistics updateFromZip(@Nonnull ResourceResolver resolver, @Nonnull InputStream rawZipInputStream,
+                                          @Nonnull String nodePath, boolean dryRun)
+            throws IOException, RepositoryException {
+        return update(resolver, rawZipInputStream, nodePath, dryRun, saveThreshold);
+    }
+
+    /**
+     * @param saveThreshold the number of changes after which the session is saved; 0: save at the end only
+     */
+    @Nonnull
+    protected UpdateStatistics update(@Nonnull ResourceResolver resolver, @Nonnull InputStream rawZipInputStream,
+                                      @Nonnull String nodePath, boolean dryRun, int saveThreshold)
+            throws IOException, RepositoryException {
         Session session = resolver.adaptTo(Session.class);
-        Resource tmpdir = makeTempdir(resolver);
-        final String tmpPath = tmpdir.getPath();
+        UpdateContext context = new UpdateContext(session, dryRun, saveThreshold);
+        long start = System.currentTimeMillis();
+        String tmpPath = null;
+        try {
+            File zipFile = spool(rawZipInputStream);
+            Resource tmpdir;
+            try {
+                tmpdir = makeTempdir(resolver);
+                tmpPath = tmpdir.getPath();
+                importArchive(zipFile, tmpdir.adaptTo(Node.class), getImportSession(session, dryRun));
+            } finally {
+                FileUtils.deleteQuietly(zipFile);
+            }
 
+            Resource topnode = tmpdir.getChild(nodePath.replaceFirst("^/+", ""));
+            if (topnode == null) {
+                throw new IllegalArgumentException("Archive does not contain given root path " + nodePath);
+            }
+            if (StringUtils.countMatches(nodePath, "/") < 3) {
+                throw new IllegalArgumentException("Suspicious / short root path: " + nodePath);
+            }
+            Resource resource = resolver.getResource(nodePath);
+            if (resource == null) {
+                throw new IllegalArgumentException("Node does not exist, so we cannot update it: " + nodePath);
+            }
+            equalize(topnode, resource, context);
+
+            if (!dryRun) {
+                LOG.info("Have changes: {}", session.hasPendingChanges());
+                context.save(nodePath);
+            }
+        } catch (IOException | RepositoryException | RuntimeException ex) {
+            if (context.statistics.saves > 0) {
+                LOG.error("update of '{}' failed after saving up to '{}': {}", nodePath,
+                        context.statistics.lastSavedPath, ex.toString());
+                throw new PartialUpdateException(context.statistics, ex);
+            }
+            throw ex;
+        } finally {
+            session.refresh(false); // discard - if it went OK it's already saved; a dry run drops the import here
+            if (tmpPath != null && session.itemExists(tmpPath)) {
+                session.removeItem(tmpPath);
+                session.save();
+            }
+            context.statistics.time = System.currentTimeMillis() - start;
+        }
+        LOG.info("update of '{}': {}", nodePath, context.statistics);
+        return context.statistics;
+    }
+
+    /**
+     * Imports the spooled archive below the temporary folder with the given session.
+     */
+    protected void importArchive(@Nonnull File zipFile, @Nonnull Node tmpdir, @Nonnull Session importSession)
+            throws IOException, RepositoryException {
         Importer importer;
         ImportErrorListener errorListener = new ImportErrorListener();
+        ZipArchive archive = new ZipArchive(zipFile);
         try {
             importer = new Importer();
-            // TODO(hps,11.02.20) Use ZipStreamArchive once that's public (in later vault versions)
-            MemoryArchive archive = new MemoryArchive(false);
-            archive.run(rawZipInputStream);
+            archive.open(true);
             importer.getOptions().setStrict(true);
             importer.getOptions().setListener(errorListener);
-            importer.run(archive, tmpdir.adaptTo(Node.class));
+            importer.run(archive, importSession != tmpdir.getSession()
+                    ? withSession(tmpdir, importSession) : tmpdir);
         } catch (IOException | RepositoryException e) {
             throw e;
         } catch (Exception e) {
             throw new IOException(e);
         } finally {
-            rawZipInputStream.close();
+            archive.close();
         }
         if (importer.hasErrors()) {
             StringBuilder buf = new StringBuilder("Errors during import: ");
@@ -96,28 +215,84 @@ public class SourceUpdateServiceImpl implements SourceUpdateService {
                     buf.append(e.getLeft()).append(" : ").append(String.valueOf(e.getRight())).append("\n"));
             throw new RepositoryException(buf.toString());
         }
+    }
 
-        try {
-            Resource topnode = tmpdir.getChild(nodePath.replaceFirst("^/+", ""));
-            if (topnode == null) {
-                throw new IllegalArgumentException("Archive does not contain given root path " + nodePath);
-            }
-            if (StringUtils.countMatches(nodePath, "/") < 3) {
-                throw new IllegalArgumentException("Suspicious / short root path: " + nodePath);
+    /**
+     * @return the session used by the importer; the import of a dry run is kept in the transient space of the
+     * session - the archive is not written into the repository, it's dropped at the end of the dry run
+     */
+    @Nonnull
+    protected Session getImportSession(@Nonnull Session session, boolean dryRun) {
+        return dryRun ? withoutSave(session) : session;
+    }
+
+    /**
+     * @return the session with all methods but 'save' which is ignored
+     */
+    @Nonnull
+    protected static Session withoutSave(@Nonnull final Session session) {
+        return delegate(session, Session.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("save".equals(method.getName()) && method.getParameterTypes().length == 0) {
+                    return null;
+                }
+                return invokeDelegate(session, method, args);
             }
-            Resource resource = resolver.getResource(nodePath);
-            if (resource == null) {
-                throw new IllegalArgumentException("Node does not exist, so we cannot update it: " + nodePath);
+        });
+    }
+
+    /**
+     * @return the node with the given session as its session; the importer uses the session of the import root
+     */
+    @Nonnull
+    protected static Node withSession(@Nonnull final Node node, @Nonnull final Session session) {
+        return delegate(node, Node.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("getSession".equals(method.getName()) && method.getParameterTypes().length == 0) {
+                    return session;
+                }
+                return invokeDelegate(node, method, args);
             }
-            equalize(topnode, resource, session);
+        });
+    }
 
-            LOG.info("Have changes: {}", session.hasPendingChanges());
-            session.save();
-        } finally {
-            session.refresh(false); // discard - if it went OK it's already saved.
-            if (resolver.getResource(tmpPath) != null) { session.removeItem(tmpdir.getPath()); }
-            session.save();
+    /**
+     * @return a proxy with all interfaces of the delegate (e.g. the Jackrabbit extensions of the JCR API)
+     */
+    @SuppressWarnings("unchecked")
+    protected static <T> T delegate(@Nonnull T delegate, @Nonnull Class<T> type, @Nonnull InvocationHandler handler) {
+        List<Class<?>> interfaces = ClassUtils.getAllInterfaces(delegate.getClass());
+        if (!interfaces.contains(type)) {
+            interfaces.add(type);
+        }
+        return (T) Proxy.newProxyInstance(delegate.getClass().getClassLoader(),
+                interfaces.toArray(new Class<?>[0]), handler);
+    }
+
+    protected static Object invokeDelegate(@Nonnull Object delegate, @Nonnull Method method, Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Copies the (uploaded) archive into a temporary file; the stream is closed.
+     */
+    protected File spool(@Nonnull InputStream rawZipInputStream) throws IOException {
+        File file = File.createTempFile("source-update-", ".zip");
+        try (InputStream input = rawZipInputStream;
+             OutputStream output = new BufferedOutputStream(new FileOutputStream(file))) {
+            IOUtils.copy(input, output);
+        } catch (IOException | RuntimeException ex) {
+            FileUtils.deleteQuietly(file);
+            throw ex;
         }
+        return file;
     }
 
     protected Resource makeTempdir(ResourceResolver resolver) throws RepositoryException {
@@ -125,17 +300,76 @@ public class SourceUpdateServiceImpl implements SourceUpdateService {
         return ResourceUtil.getOrCreateResource(resolver, path, TYPE_SLING_FOLDER);
     }
 
-    private void equalize(@Nonnull Resource templateresource, @Nonnull Resource resource, Session session)
+    /**
+     * The state of an update: the session, the mode and the statistics.
+     */
+    protected static class UpdateContext {
+
+        public final Session session;
+        public final boolean dryRun;
+        public final int saveThreshold;
+        public final UpdateStatistics statistics;
+
+        /** the number of changes since the last save */
+        protected int pending;
+
+        public UpdateContext(Session session, boolean dryRun, int saveThreshold) {
+            this.session = session;
+            this.dryRun = dryRun;
+            this.saveThreshold = saveThreshold;
+            this.statistics = new UpdateStatistics(dryRun);
+        }
+
+        public void changed(int count) {
+            pending += count;
+        }
+
+        /**
+         * Saves the session if the save threshold is reached.
+         *
+         * @param path the path of the node completed before
+         */
+        public void checkSave(String path) throws RepositoryException {
+            if (saveThreshold > 0 && pending >= saveThreshold) {
+                save(path);
+            }
+        }
+
+        public void save(String path) throws RepositoryException {
+            if (!dryRun) {
+                session.save();
+                statistics.saves++;
+                statistics.lastSavedPath = path;
+                pending = 0;
+            }
+        }
+    }
+
+    private void equalize(@Nonnull Resource templateresource, @Nonnull Resource resource, @Nonnull UpdateContext context)
             throws PersistenceException, RepositoryException {
+        final UpdateStatistics statistics = context.statistics;
+        final boolean dryRun = context.dryRun;
+        statistics.nodesVisited++;
         boolean thisNodeChanged = false;
         ValueMap templatevalues = ResourceUtil.getValueMap(templateresource);
-        ModifiableValueMap newvalues = resource.adaptTo(ModifiableValueMap.class);
-        if (newvalues == null) { throw new IllegalArgumentException("Node not modifiable: " + resource.getPath()); }
+        ModifiableValueMap newvalues = dryRun ? null : resource.adaptTo(ModifiableValueMap.class);
+        if (!dryRun && newvalues == null) { throw new IllegalArgumentException("Node not modifiable: " + resource.getPath()); }
+        ValueMap values = dryRun ? ResourceUtil.getValueMap(resource) : newvalues;
+        int changedProperties = 0;
 
-        // first copy type information since this changes attributes
-        newvalues.put(PROP_PRIMARY_TYPE, templatevalues.get(PROP_PRIMARY_TYPE));
+        // first copy type information since this changes attributes - if changed, to leave unchanged nodes untouched
+        Object primaryType = templatevalues.get(PROP_PRIMARY_TYPE);
+        if (!Objects.equals(primaryType, values.get(PROP_PRIMARY_TYPE))) {
+            changedProperties++;
+            if (!dryRun) { newvalues.put(PROP_PRIMARY_TYPE, primaryType); }
+        }
         String[] mixins = templatevalues.get(PROP_MIXINTYPES, new String[0]);
-        if (mixins.length > 0) { newvalues.put(PROP_MIXINTYPES, mixins); } else { newvalues.remove(PROP_MIXINTYPES); }
+        if (!Arrays.equals(mixins, values.get(PROP_MIXINTYPES, new String[0]))) {
+            changedProperties++;
+            if (!dryRun) {
+                if (mixins.length > 0) { newvalues.put(PROP_MIXINTYPES, mixins); } else { newvalues.remove(PROP_MIXINTYPES); }
+            }
+        }
 
         Node node = resource.adaptTo(Node.class);
         NodeDefinition definition = node.getDefinition();
@@ -144,26 +378,34 @@ public class SourceUpdateServiceImpl implements SourceUpdateService {
         try {
             for (Map.Entry<String, Object> entry : templatevalues.entrySet()) {
                 if (!ignoredMetadataAttributes.contains(entry.getKey()) &&
-                        ObjectUtils.notEqual(entry.getValue(), newvalues.get(entry.getKey()))) {
+                        !isEqualValue(entry.getValue(), values.get(entry.getKey()))) {
                     thisNodeChanged = true;
-                    newvalues.put(entry.getKey(), entry.getValue());
+                    changedProperties++;
+                    if (!dryRun) {
+                        newvalues.put(entry.getKey(), templatevalues.get(entry.getKey())); // a compared stream is consumed
+                    }
                 }
             }
 
-            for (String key : new HashSet<>(newvalues.keySet())) {
+            for (String key : new HashSet<>(values.keySet())) {
                 if (!ignoredMetadataAttributes.contains(key) && !templatevalues.containsKey(key)) {
                     thisNodeChanged = true;
-                    newvalues.remove(key);
+                    changedProperties++;
+                    if (!dryRun) { newvalues.remove(key); }
                 }
             }
+            statistics.propertiesChanged += changedProperties;
+            context.changed(changedProperties);
 
             for (Resource child : resource.getChildren()) {
                 Resource templateChild = templateresource.getChild(child.getName());
                 if (templateChild == null) {
                     thisNodeChanged = true;
-                    resource.getResourceResolver().delete(child);
+                    statistics.nodesRemoved++;
+                    context.changed(1);
+                    if (!dryRun) { resource.getResourceResolver().delete(child); }
                 } else {
-                    equalize(templateChild, child, session);
+                    equalize(templateChild, child, context);
                 }
             }
 
@@ -172,13 +414,21 @@ public class SourceUpdateServiceImpl implements SourceUpdateService {
 
             for (Resource templateChild : templateresource.getChildren()) {
                 if (null == resource.getChild(templateChild.getName())) {
-                    session.move(templateChild.getPath(), resource.getPath() + "/" + templateChild.getName());
                     thisNodeChanged = true;
+                    statistics.nodesAdded++;
+                    context.changed(1);
+                    if (!dryRun) {
+                        context.session.move(templateChild.getPath(), resource.getPath() + "/" + templateChild.getName());
+                    }
                 }
             }
 
             if (node.getPrimaryNodeType().hasOrderableChildNodes()) {
-                ensureSameOrdering(templatechildren, resource);
+                if (dryRun) {
+                    thisNodeChanged |= !isSameOrdering(templatechildren, resource);
+                } else {
+                    ensureSameOrdering(templatechildren, resource);
+                }
             }
 
         } catch (PersistenceException | RepositoryException | RuntimeException e) {
@@ -186,7 +436,10 @@ public class SourceUpdateServiceImpl implements SourceUpdateService {
             throw e;
         }
 
-        if (thisNodeChanged) {
+        if (thisNodeChanged || changedProperties > 0) {
+            statistics.nodesChanged++;
+        }
+        if (thisNodeChanged && !dryRun) {
             Resource modifcandidate = resource;
             while (modifcandidate != null && !ResourceUtil.isNodeType(modifcandidate, TYPE_LAST_MODIFIED)) {
                 modifcandidate = modifcandidate.getParent();
@@ -195,6 +448,41 @@ public class SourceUpdateServiceImpl implements SourceUpdateService {
                 ResourceHandle.use(modifcandidate).setProperty(PROP_LAST_MODIFIED, Calendar.getInstance());
             }
         }
+        context.checkSave(resource.getPath());
+    }
+
+    /**
+     * Compares property values; multi values are compared element by element and binaries by their content, so
+     * that unchanged values are not written again.
+     */
+    protected boolean isEqualValue(Object templateValue, Object value) {
+        if (templateValue instanceof InputStream && value instanceof InputStream) {
+            try (InputStream templateStream = (InputStream) templateValue; InputStream stream = (InputStream) value) {
+                return IOUtils.contentEquals(templateStream, stream);
+            } catch (IOException ex) {
+                LOG.warn("binary values not compared: {}", ex.toString());
+                return false;
+            }
+        }
+        return Objects.deepEquals(templateValue, value);
+    }
+
+    /**
+     * @return 'true' if the children present in both trees are in the same order
+     */
+    private boolean isSameOrdering(List<Resource> templatechildren, Resource resource) {
+        Set<String> names = new HashSet<>();
+        for (Resource child : resource.getChildren()) { names.add(child.getName()); }
+        List<String> templatenames = new ArrayList<>();
+        for (Resource child : templatechildren) {
+            if (names.remove(child.getName())) { templatenames.add(child.getName()); }
+        }
+        Set<String> common = new HashSet<>(templatenames);
+        List<String> resourcenames = new ArrayList<>();
+        for (Resource child : resource.getChildren()) {
+            if (common.contains(child.getName())) { resourcenames.add(child.getName()); }
+        }
+        return templatenames.equals(resourcenames);
     }
 
     private void ensureSameOrdering(List<Resource> templatechildren, Resource resource) throws RepositoryException {
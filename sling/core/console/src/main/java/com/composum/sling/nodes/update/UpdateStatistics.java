@@ -0,0 +1,116 @@
+package com.composum.sling.nodes.update;
+
+import com.google.gson.stream.JsonWriter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * The counters of a source update (or of a dry run of it) to estimate the effort of large content updates.
+ */
+public class UpdateStatistics {
+
+    protected final boolean dryRun;
+
+    protected long nodesVisited;
+    protected long nodesChanged;
+    protected long nodesAdded;
+    protected long nodesRemoved;
+    protected long propertiesChanged;
+    protected long saves;
+    protected long time;
+    protected String lastSavedPath;
+
+    public UpdateStatistics(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * @return 'true' if the changes are only determined, not written
+     */
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * @return the number of nodes of the target tree compared with the archive
+     */
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    /**
+     * @return the number of existing nodes with changed properties, types or children
+     */
+    public long getNodesChanged() {
+        return nodesChanged;
+    }
+
+    /**
+     * @return the number of nodes (the root nodes of new subtrees) added from the archive
+     */
+    public long getNodesAdded() {
+        return nodesAdded;
+    }
+
+    /**
+     * @return the number of nodes (the root nodes of subtrees) not contained in the archive and removed
+     */
+    public long getNodesRemoved() {
+        return nodesRemoved;
+    }
+
+    /**
+     * @return the number of properties set or removed
+     */
+    public long getPropertiesChanged() {
+        return propertiesChanged;
+    }
+
+    /**
+     * @return the number of session saves during the update (the final save included)
+     */
+    public long getSaves() {
+        return saves;
+    }
+
+    /**
+     * @return the duration of the update in milliseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return the path of the node which was completed when the changes were saved the last time; the nodes before
+     * (in document order) and the subtree of this node are updated; 'null' if nothing is saved
+     */
+    @Nullable
+    public String getLastSavedPath() {
+        return lastSavedPath;
+    }
+
+    public void toJson(@Nonnull JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("dryRun").value(dryRun);
+        writer.name("nodesVisited").value(nodesVisited);
+        writer.name("nodesChanged").value(nodesChanged);
+        writer.name("nodesAdded").value(nodesAdded);
+        writer.name("nodesRemoved").value(nodesRemoved);
+        writer.name("propertiesChanged").value(propertiesChanged);
+        writer.name("saves").value(saves);
+        writer.name("time").value(time);
+        if (lastSavedPath != null) {
+            writer.name("lastSavedPath").value(lastSavedPath);
+        }
+        writer.endObject();
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateStatistics{dryRun=" + dryRun + ", visited=" + nodesVisited + ", changed=" + nodesChanged
+                + ", added=" + nodesAdded + ", removed=" + nodesRemoved + ", properties=" + propertiesChanged
+                + ", saves=" + saves + ", lastSaved=" + lastSavedPath + ", time=" + time + "ms}";
+    }
+}
@@ -0,0 +1,129 @@
+package com.composum.sling.nodes.upload;
+
+import com.google.gson.stream.JsonWriter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+
+/**
+ * The state of an upload of a binary which is transferred in chunks: the chunks are appended to a staging file until
+ * the announced size is reached; the checksum of the content is computed while the chunks are received.
+ */
+public class ChunkedUpload {
+
+    protected final String id;
+    protected final String userId;
+    protected final String path;
+    protected final String name;
+    protected final long size;
+    protected final String checksum;
+    protected final File file;
+    protected final long created = System.currentTimeMillis();
+
+    protected MessageDigest digest;
+    /** written while the upload is locked by the service, read without locking to report the progress */
+    protected volatile long offset;
+    protected volatile long touched = created;
+
+    public ChunkedUpload(@Nonnull String id, @Nonnull String userId, @Nonnull String path, @Nonnull String name,
+                         long size, @Nullable String checksum, @Nonnull File file, @Nonnull MessageDigest digest) {
+        this.id = id;
+        this.userId = userId;
+        this.path = path;
+        this.name = name;
+        this.size = size;
+        this.checksum = checksum;
+        this.file = file;
+        this.digest = digest;
+    }
+
+    /**
+     * @return the key of the upload for the requests of the chunks
+     */
+    @Nonnull
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the user who started the upload; only this user can continue it
+     */
+    @Nonnull
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return the path of the node the binary is written to
+     */
+    @Nonnull
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the name of the binary property
+     */
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the announced size of the binary
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the expected checksum (hex) announced at the start, if any
+     */
+    @Nullable
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return the number of bytes received so far - the position of the next chunk
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return 'true' if all bytes are received
+     */
+    public boolean isComplete() {
+        return offset >= size;
+    }
+
+    /**
+     * @return the percentage of the received bytes
+     */
+    public int getProgress() {
+        long offset = this.offset;
+        return size > 0 ? (int) (offset * 100L / size) : 100;
+    }
+
+    public void toJson(@Nonnull JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(id);
+        writer.name("path").value(path);
+        writer.name("name").value(name);
+        writer.name("size").value(size);
+        writer.name("offset").value(offset);
+        writer.name("progress").value(getProgress());
+        writer.name("complete").value(isComplete());
+        writer.endObject();
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkedUpload{id=" + id + ", path=" + path + ", name=" + name + ", size=" + size
+                + ", offset=" + getOffset() + "}";
+    }
+}
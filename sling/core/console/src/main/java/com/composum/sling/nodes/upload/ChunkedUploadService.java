@@ -0,0 +1,63 @@
+package com.composum.sling.nodes.upload;
+
+import org.apache.sling.api.resource.ResourceResolver;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.AccessDeniedException;
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stages large binaries uploaded in chunks on the local disk, so that an interrupted upload can be resumed at the
+ * last received position and the binary is written to the repository with one write after the transfer.
+ */
+public interface ChunkedUploadService {
+
+    /**
+     * Starts a new upload for the user of the resolver.
+     *
+     * @param resolver the resolver of the user uploading the binary
+     * @param path     the path of the node the binary is written to
+     * @param name     the name of the binary property
+     * @param size     the size of the binary
+     * @param checksum the expected SHA-256 checksum (hex) of the binary, if known
+     * @throws AccessDeniedException if the user isn't allowed to write the property
+     * @throws UploadLimitException  if the upload exceeds a configured limit
+     */
+    @Nonnull
+    ChunkedUpload start(@Nonnull ResourceResolver resolver, @Nonnull String path, @Nonnull String name, long size,
+                        @Nullable String checksum) throws IOException, RepositoryException;
+
+    /**
+     * @return the upload of the user; null if not found or expired
+     */
+    @Nullable
+    ChunkedUpload get(@Nonnull String userId, @Nonnull String id);
+
+    /**
+     * Appends a chunk to the staged content; the chunk is rejected if it doesn't start at the current offset of the
+     * upload - the client has to resume at the current offset. A chunk which is interrupted is discarded completely.
+     *
+     * @param offset the position of the chunk in the binary
+     * @return 'true' if the chunk was appended
+     */
+    boolean append(@Nonnull ChunkedUpload upload, long offset, @Nonnull InputStream chunk) throws IOException;
+
+    /**
+     * Opens the staged content to write it to the repository.
+     *
+     * @param checksum the expected SHA-256 checksum (hex), if not announced at the start
+     * @return the stream of the complete and verified content
+     * @throws IOException if the upload isn't complete, already removed or the checksum doesn't match
+     */
+    @Nonnull
+    InputStream open(@Nonnull ChunkedUpload upload, @Nullable String checksum) throws IOException;
+
+    /**
+     * Finishes or aborts the upload and removes the staged content; a stream opened for the upload has to be closed
+     * before.
+     */
+    void remove(@Nonnull ChunkedUpload upload);
+}
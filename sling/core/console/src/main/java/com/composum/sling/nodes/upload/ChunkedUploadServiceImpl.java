@@ -0,0 +1,326 @@
+package com.composum.sling.nodes.upload;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.AccessDeniedException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Dictionary;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the state of the running uploads in memory and the staged content in files of a staging directory; uploads
+ * which are not continued within the configured expiration time are removed by a periodic sweep. The size of the
+ * uploads, the number of open uploads per user and the space of the staging directory are limited; the space is
+ * reserved with the announced size when an upload is started.
+ */
+@Component(
+        label = "Composum Nodes Chunked Upload Service",
+        description = "stages large binaries uploaded in chunks on the local disk",
+        metatype = true
+)
+@Service(ChunkedUploadService.class)
+public class ChunkedUploadServiceImpl implements ChunkedUploadService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedUploadServiceImpl.class);
+
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+
+    public static final String FILE_SUFFIX = ".upload";
+
+    /** the period (in milliseconds) of the sweep of the expired uploads */
+    public static final long SWEEP_PERIOD = 60000L;
+
+    public static final String STAGING_DIRECTORY = "upload.staging.directory";
+    @Property(
+            name = STAGING_DIRECTORY,
+            label = "Staging Directory",
+            description = "the directory for the staged uploads; default: 'composum-uploads' in the temp directory",
+            value = ""
+    )
+    protected File stagingDirectory;
+
+    public static final String EXPIRATION = "upload.expiration";
+    @Property(
+            name = EXPIRATION,
+            label = "Expiration",
+            description = "the time (in minutes) after which an upload which isn't continued is removed",
+            intValue = 1440
+    )
+    protected long expiration;
+
+    public static final String MAX_SIZE = "upload.max.size";
+    @Property(
+            name = MAX_SIZE,
+            label = "Max Size",
+            description = "the maximum size (in MB) of one upload",
+            intValue = 10240
+    )
+    protected long maxSize;
+
+    public static final String MAX_USER_UPLOADS = "upload.max.user";
+    @Property(
+            name = MAX_USER_UPLOADS,
+            label = "Max Uploads per User",
+            description = "the maximum number of open uploads of one user",
+            intValue = 10
+    )
+    protected int maxUserUploads;
+
+    public static final String MAX_STAGING = "upload.max.staging";
+    @Property(
+            name = MAX_STAGING,
+            label = "Max Staging Size",
+            description = "the maximum size (in MB) of all open uploads together",
+            intValue = 51200
+    )
+    protected long maxStaging;
+
+    protected final Map<String, ChunkedUpload> uploads = new ConcurrentHashMap<>();
+
+    protected ScheduledExecutorService sweepExecutor;
+
+    @Activate
+    @Modified
+    protected void activate(ComponentContext context) {
+        Dictionary<String, Object> properties = context.getProperties();
+        String directory = PropertiesUtil.toString(properties.get(STAGING_DIRECTORY), "");
+        stagingDirectory = StringUtils.isNotBlank(directory) ? new File(directory)
+                : new File(System.getProperty("java.io.tmpdir"), "composum-uploads");
+        expiration = PropertiesUtil.toInteger(properties.get(EXPIRATION), 1440) * 60000L;
+        maxSize = PropertiesUtil.toInteger(properties.get(MAX_SIZE), 10240) * 1024L * 1024L;
+        maxUserUploads = PropertiesUtil.toInteger(properties.get(MAX_USER_UPLOADS), 10);
+        maxStaging = PropertiesUtil.toInteger(properties.get(MAX_STAGING), 51200) * 1024L * 1024L;
+        removeOrphans();
+        stopSweep();
+        sweepExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@Nonnull Runnable runnable) {
+                Thread thread = new Thread(runnable, "composum-upload-sweep");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sweepExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                removeExpired();
+            }
+        }, SWEEP_PERIOD, SWEEP_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        stopSweep();
+        for (ChunkedUpload upload : uploads.values()) {
+            remove(upload);
+        }
+    }
+
+    protected void stopSweep() {
+        if (sweepExecutor != null) {
+            sweepExecutor.shutdownNow();
+            sweepExecutor = null;
+        }
+    }
+
+    @Override
+    @Nonnull
+    public ChunkedUpload start(@Nonnull ResourceResolver resolver, @Nonnull String path, @Nonnull String name,
+                               long size, @Nullable String checksum) throws IOException, RepositoryException {
+        if (size < 0) {
+            throw new IllegalArgumentException("invalid upload size " + size);
+        }
+        String userId = resolver.getUserID();
+        Session session = resolver.adaptTo(Session.class);
+        String propertyPath = path + "/" + name;
+        if (userId == null || session == null || !session.hasPermission(propertyPath, Session.ACTION_SET_PROPERTY)) {
+            throw new AccessDeniedException("upload to '" + propertyPath + "' not allowed");
+        }
+        if (size > maxSize) {
+            throw new UploadLimitException("upload size " + size + " exceeds the maximum size " + maxSize);
+        }
+        removeExpired();
+        if (!stagingDirectory.isDirectory() && !stagingDirectory.mkdirs()) {
+            throw new IOException("can't create staging directory " + stagingDirectory);
+        }
+        synchronized (uploads) {
+            int userUploads = 0;
+            long staged = 0;
+            for (ChunkedUpload upload : uploads.values()) {
+                staged += upload.size;
+                if (upload.userId.equals(userId)) {
+                    userUploads++;
+                }
+            }
+            if (userUploads >= maxUserUploads) {
+                throw new UploadLimitException("too many open uploads of user '" + userId + "'");
+            }
+            if (staged + size > maxStaging) {
+                throw new UploadLimitException("not enough staging space for an upload of " + size + " bytes");
+            }
+            String id = UUID.randomUUID().toString();
+            File file = new File(stagingDirectory, id + FILE_SUFFIX);
+            if (!file.createNewFile()) {
+                throw new IOException("can't create staging file " + file);
+            }
+            ChunkedUpload upload = new ChunkedUpload(id, userId, path, name, size,
+                    StringUtils.isNotBlank(checksum) ? checksum.trim() : null, file, createDigest());
+            uploads.put(id, upload);
+            LOG.info("upload started: {}", upload);
+            return upload;
+        }
+    }
+
+    @Override
+    @Nullable
+    public ChunkedUpload get(@Nonnull String userId, @Nonnull String id) {
+        removeExpired();
+        ChunkedUpload upload = uploads.get(id);
+        return upload != null && upload.userId.equals(userId) ? upload : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The state of the checksum is saved before each chunk, so that an interrupted chunk can be discarded.
+     */
+    @Override
+    public boolean append(@Nonnull ChunkedUpload upload, long offset, @Nonnull InputStream chunk)
+            throws IOException {
+        synchronized (upload) {
+            if (offset != upload.offset || !uploads.containsKey(upload.id)) {
+                return false;
+            }
+            upload.touched = System.currentTimeMillis();
+            MessageDigest saved = cloneDigest(upload.digest);
+            long received = 0;
+            try (FileOutputStream output = new FileOutputStream(upload.file, true)) {
+                byte[] buffer = new byte[64 * 1024];
+                int count;
+                while ((count = chunk.read(buffer)) >= 0) {
+                    if (upload.offset + received + count > upload.size) {
+                        throw new IOException("chunk exceeds the size of the upload " + upload.id);
+                    }
+                    output.write(buffer, 0, count);
+                    upload.digest.update(buffer, 0, count);
+                    received += count;
+                }
+            } catch (IOException ex) {
+                upload.digest = saved;
+                try (RandomAccessFile file = new RandomAccessFile(upload.file, "rw")) {
+                    file.setLength(upload.offset);
+                }
+                throw ex;
+            }
+            upload.offset += received;
+            LOG.debug("chunk appended: {}", upload);
+            return true;
+        }
+    }
+
+    @Override
+    @Nonnull
+    public InputStream open(@Nonnull ChunkedUpload upload, @Nullable String checksum) throws IOException {
+        synchronized (upload) {
+            if (!uploads.containsKey(upload.id)) {
+                throw new IOException("upload removed: " + upload);
+            }
+            if (!upload.isComplete() || upload.file.length() != upload.size) {
+                throw new IOException("upload incomplete: " + upload);
+            }
+            String expected = StringUtils.isNotBlank(checksum) ? checksum.trim() : upload.checksum;
+            if (expected != null) {
+                String actual = Hex.encodeHexString(cloneDigest(upload.digest).digest());
+                if (!actual.equalsIgnoreCase(expected)) {
+                    throw new IOException("checksum mismatch of upload " + upload.id + ": " + actual);
+                }
+            }
+            upload.touched = System.currentTimeMillis();
+            return new FileInputStream(upload.file);
+        }
+    }
+
+    @Override
+    public void remove(@Nonnull ChunkedUpload upload) {
+        uploads.remove(upload.id);
+        synchronized (upload) {
+            if (upload.file.exists() && !upload.file.delete()) {
+                LOG.warn("can't delete staging file {}", upload.file);
+            }
+        }
+    }
+
+    protected void removeExpired() {
+        long now = System.currentTimeMillis();
+        for (ChunkedUpload upload : uploads.values()) {
+            if (upload.touched < now - expiration) {
+                LOG.info("upload expired: {}", upload);
+                remove(upload);
+            }
+        }
+    }
+
+    /**
+     * Deletes the staged files which don't belong to an open upload - the files left by a previous instance.
+     */
+    protected void removeOrphans() {
+        File[] files = stagingDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(FILE_SUFFIX)
+                        && !uploads.containsKey(name.substring(0, name.length() - FILE_SUFFIX.length()))) {
+                    LOG.info("orphaned staging file removed: {}", file);
+                    if (!file.delete()) {
+                        LOG.warn("can't delete staging file {}", file);
+                    }
+                }
+            }
+        }
+    }
+
+    protected static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    protected static MessageDigest cloneDigest(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
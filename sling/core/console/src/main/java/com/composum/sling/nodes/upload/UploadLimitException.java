@@ -0,0 +1,14 @@
+package com.composum.sling.nodes.upload;
+
+import java.io.IOException;
+
+/**
+ * Signals that an upload can't be started because a configured limit of the {@link ChunkedUploadService} (the size
+ * of an upload, the number of open uploads of a user or the space of the staging directory) is exceeded.
+ */
+public class UploadLimitException extends IOException {
+
+    public UploadLimitException(String message) {
+        super(message);
+    }
+}
@@ -95,6 +95,7 @@ public class PackageJobExecutor extends AbstractJobExecutor<String> {
     @Override
     @Activate
     protected void activate(ComponentContext context) throws Exception {
+        super.activate(context);
         Dictionary<String, Object> properties = context.getProperties();
         defaultSaveThreshold = PropertiesUtil.toInteger(properties.get(DEFAULT_SAVE_THRESHOLD), 1024);
         progressTrackIdleTime = PropertiesUtil.toInteger(properties.get(PROGRESS_TRACK_IDLE_TIME), 10);
@@ -45,6 +45,8 @@ public class AbstractClientlibTest {
 
     protected boolean debuggingMode;
     protected boolean useMinifiedFiles;
+    protected boolean pipedProcessing;
+    protected boolean gzipEnabled;
 
     protected RendererContext rendererContext;
 
@@ -82,6 +84,7 @@ public class AbstractClientlibTest {
                         threadPoolMin = 0;
                         threadPoolMax = 1;
                         linkTemplate = ClientlibConfigurationService.LINK_DEFAULT_TEMPLATE;
+                        cssMinimize = true;
                     }
 
                     @Override
@@ -93,6 +96,16 @@ public class AbstractClientlibTest {
                     public boolean getUseMinifiedFiles() {
                         return AbstractClientlibTest.this.useMinifiedFiles;
                     }
+
+                    @Override
+                    public boolean getPipedProcessing() {
+                        return AbstractClientlibTest.this.pipedProcessing;
+                    }
+
+                    @Override
+                    public boolean getGzipEnabled() {
+                        return AbstractClientlibTest.this.gzipEnabled;
+                    }
                 });
 
         ServletContext servletContext = Mockito.mock(ServletContext.class);
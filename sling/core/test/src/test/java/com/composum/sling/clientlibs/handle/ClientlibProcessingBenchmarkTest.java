@@ -0,0 +1,226 @@
+package com.composum.sling.clientlibs.handle;
+
+import com.composum.sling.clientlibs.processor.CssProcessor;
+import com.composum.sling.clientlibs.processor.CssUrlMapper;
+import com.composum.sling.clientlibs.processor.DefaultGzipProcessor;
+import com.composum.sling.clientlibs.processor.GzipProcessor;
+import com.composum.sling.clientlibs.processor.ProcessorPipeline;
+import com.composum.sling.clientlibs.processor.RenderedLinks;
+import com.composum.sling.clientlibs.processor.RenderingVisitor;
+import com.composum.sling.clientlibs.processor.YUICssProcessor;
+import com.composum.sling.clientlibs.service.ClientlibService;
+import com.composum.sling.clientlibs.service.DefaultClientlibService;
+import com.composum.sling.core.concurrent.LazyCreationService;
+import com.composum.sling.core.concurrent.SequencerService;
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static com.composum.sling.clientlibs.handle.Clientlib.PROP_CATEGORY;
+import static com.composum.sling.clientlibs.handle.Clientlib.PROP_ORDER;
+import static com.composum.sling.clientlibs.handle.ClientlibResourceFolder.PROP_EMBED;
+import static com.composum.sling.clientlibs.handle.Clientlib.Type.css;
+import static com.composum.sling.core.util.ResourceUtil.PROP_PRIMARY_TYPE;
+import static com.composum.sling.core.util.ResourceUtil.PROP_RESOURCE_TYPE;
+import static com.composum.sling.core.util.ResourceUtil.TYPE_SLING_FOLDER;
+import static com.composum.sling.core.util.ResourceUtil.TYPE_SLING_ORDERED_FOLDER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Compares the processing of a large minified and gzipped CSS category in the single threaded pipeline mode with
+ * the former piped mode: both have to deliver the same content; the processing times are logged. For real
+ * measurements the size of the category and the number of runs can be raised with the system properties
+ * {@value #PROP_LIBS}, {@value #PROP_FILES} and {@value #PROP_RUNS}. The allocations of the link rendering with
+ * interned and with newly created references are compared, too (if the JVM supports the measurement of thread
+ * allocations).
+ */
+public class ClientlibProcessingBenchmarkTest extends AbstractClientlibTest {
+
+    private static final Logger LOG = getLogger(ClientlibProcessingBenchmarkTest.class);
+
+    protected static final String PROP_LIBS = "clientlib.benchmark.libs";
+    protected static final String PROP_FILES = "clientlib.benchmark.files";
+    protected static final String PROP_RUNS = "clientlib.benchmark.runs";
+
+    protected DefaultClientlibService benchmarkService;
+    protected ThreadPoolExecutor benchmarkExecutor;
+
+    @Before
+    public void setupBenchmark() throws Exception {
+        useMinifiedFiles = true;
+        gzipEnabled = true;
+        int libs = Integer.getInteger(PROP_LIBS, 5);
+        int files = Integer.getInteger(PROP_FILES, 20);
+        for (int lib = 0; lib < libs; lib++) {
+            String path = "/libs/benchmark/lib" + lib;
+            context.build().resource(path, PROP_PRIMARY_TYPE, TYPE_SLING_FOLDER,
+                    PROP_RESOURCE_TYPE, Clientlib.RESOURCE_TYPE,
+                    PROP_CATEGORY, array("benchmark"), PROP_ORDER, String.valueOf(lib))
+                    .resource("css", PROP_PRIMARY_TYPE, TYPE_SLING_ORDERED_FOLDER);
+            for (int file = 0; file < files; file++) {
+                context.build().resource(path + "/css").file("file" + file + ".css",
+                        new ByteArrayInputStream(createCss(lib, file).getBytes("UTF-8")));
+            }
+        }
+        context.build().commit();
+
+        final CssProcessor yuiCssProcessor = context.registerInjectActivateService(new YUICssProcessor());
+        final GzipProcessor defaultGzipProcessor = context.registerInjectActivateService(new DefaultGzipProcessor());
+        benchmarkService = new DefaultClientlibService() {
+            {
+                clientlibConfig = configurationService;
+                resolverFactory = context.getService(ResourceResolverFactory.class);
+                sequencer = context.getService(SequencerService.class);
+                lazyCreationService = context.getService(LazyCreationService.class);
+                cssProcessor = yuiCssProcessor;
+                gzipProcessor = defaultGzipProcessor;
+                permissionPlugins.add(permissionPlugin);
+                activate(context.componentContext());
+                // the piped mode needs several threads
+                executorService.shutdown();
+                executorService = benchmarkExecutor = new ThreadPoolExecutor(10, 20, 200L,
+                        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+                processorMap.put(css, new ProcessorPipeline(new CssUrlMapper(), cssProcessor));
+            }
+        };
+    }
+
+    @After
+    public void teardownBenchmark() {
+        benchmarkExecutor.shutdown();
+    }
+
+    @Test
+    public void comparePipelineAndPipedMode() throws Exception {
+        int runs = Integer.getInteger(PROP_RUNS, 3);
+        ClientlibRef ref = ClientlibRef.forCategory(css, "benchmark", false, null);
+
+        pipedProcessing = false;
+        String pipelineResult = process(ref);
+        pipedProcessing = true;
+        String pipedResult = process(ref);
+        assertEquals(pipedResult, pipelineResult);
+        assertTrue(pipelineResult.contains("url("));
+        assertTrue(pipelineResult.length() < createCss(0, 0).length() * Integer.getInteger(PROP_LIBS, 5)
+                * Integer.getInteger(PROP_FILES, 20)); // is minified
+
+        long pipelineTime = 0;
+        long pipedTime = 0;
+        for (int run = 0; run < runs; run++) {
+            pipedProcessing = false;
+            long begin = System.nanoTime();
+            process(ref);
+            pipelineTime += System.nanoTime() - begin;
+            pipedProcessing = true;
+            begin = System.nanoTime();
+            process(ref);
+            pipedTime += System.nanoTime() - begin;
+        }
+        LOG.info("Processing {} ({} bytes) {} times: pipeline mode {} ms, piped mode {} ms", ref,
+                pipelineResult.length(), runs, TimeUnit.NANOSECONDS.toMillis(pipelineTime),
+                TimeUnit.NANOSECONDS.toMillis(pipedTime));
+    }
+
+    @Test
+    public void renderingAllocations() throws Exception {
+        int runs = Integer.getInteger(PROP_RUNS, 3) * 10;
+        int libs = Integer.getInteger(PROP_LIBS, 5);
+        for (int lib = 0; lib < libs; lib++) {
+            // some rules in each library which are parsed into references for each page
+            context.resourceResolver().getResource("/libs/benchmark/lib" + lib + "/css")
+                    .adaptTo(ModifiableValueMap.class).put(PROP_EMBED, array("/libs/benchmark/lib0/css/file0.css",
+                    "/libs/benchmark/lib0/css/file1.css", "category:benchmark"));
+        }
+        context.resourceResolver().commit();
+        ClientlibRef ref = ClientlibRef.forCategory(css, "benchmark", false, null);
+        assertSame(ref, ClientlibRef.forCategory(css, "benchmark", false, null));
+        int links = renderPage().getPaths().size();
+        assertTrue(links > 0);
+
+        // the references are created again for each page if the table of the interned references is dropped
+        long begin = System.nanoTime();
+        long allocated = allocatedBytes();
+        for (int run = 0; run < runs; run++) {
+            ClientlibRef.INTERNED.clear();
+            renderPage();
+        }
+        long created = allocatedBytes() - allocated;
+        long createdTime = System.nanoTime() - begin;
+
+        renderPage(); // warm up the table
+        begin = System.nanoTime();
+        allocated = allocatedBytes();
+        for (int run = 0; run < runs; run++) {
+            renderPage();
+        }
+        long interned = allocatedBytes() - allocated;
+        long internedTime = System.nanoTime() - begin;
+        LOG.info("Rendering the links of {} {} times: {} bytes / {} ms per page if the references are created, " +
+                        "{} bytes / {} ms per page if interned", ref, runs, created / runs,
+                TimeUnit.NANOSECONDS.toMillis(createdTime) / runs, interned / runs,
+                TimeUnit.NANOSECONDS.toMillis(internedTime) / runs);
+        if (created > 0) {
+            assertTrue(interned < created);
+        }
+    }
+
+    /** Resolves the benchmark category and records the rendering of its links as done for each page. */
+    protected RenderedLinks renderPage() throws Exception {
+        ClientlibElement category = clientlib2Service.resolve(
+                ClientlibRef.forCategory(css, "benchmark", false, null), context.resourceResolver());
+        assertNotNull(category);
+        return new RenderingVisitor(category, rendererContext).record();
+    }
+
+    /** @return the bytes allocated by the current thread so far; 0 if not supported by the JVM */
+    protected long allocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadBean;
+            if (allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled()) {
+                return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    /** Regenerates the cache file and returns the unzipped content. */
+    protected String process(ClientlibRef ref) throws Exception {
+        ClientlibService.ClientlibInfo hints = benchmarkService.prepareContent(context.request(), ref, true,
+                ClientlibService.ENCODING_GZIP, true, "thisisnotahash", -1);
+        assertEquals(ClientlibService.ENCODING_GZIP, hints.encoding);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        benchmarkService.deliverContent(context.resourceResolver(), ref, true, out, ClientlibService.ENCODING_GZIP);
+        return IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())), "UTF-8");
+    }
+
+    protected String createCss(int lib, int file) {
+        StringBuilder buf = new StringBuilder();
+        buf.append("/* lib ").append(lib).append(" file ").append(file).append(" */\n");
+        for (int rule = 0; rule < 50; rule++) {
+            buf.append(".lib").append(lib).append("-file").append(file).append("-rule").append(rule).append(" {\n")
+                    .append("    margin: 0px 0px 0px 0px;\n")
+                    .append("    color: #ffffff;\n")
+                    .append("    background: url( '../images/image").append(rule).append(".png' ) no-repeat;\n")
+                    .append("}\n\n");
+        }
+        return buf.toString();
+    }
+}
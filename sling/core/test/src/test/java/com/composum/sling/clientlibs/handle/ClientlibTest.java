@@ -2,6 +2,7 @@ package com.composum.sling.clientlibs.handle;
 
 import com.composum.sling.clientlibs.processor.DefaultLinkRenderer;
 import com.composum.sling.clientlibs.processor.LinkRenderer;
+import com.composum.sling.clientlibs.processor.RenderedLinks;
 import com.composum.sling.clientlibs.processor.RenderingVisitor;
 import com.composum.sling.clientlibs.processor.UpdateTimeVisitor;
 import com.composum.sling.clientlibs.service.ClientlibConfigurationService;
@@ -281,6 +282,21 @@ public class ClientlibTest extends AbstractClientlibTest {
                 "js:/libs/c3@{hash}]", canonicHashes(getRenderedClientlibs()));
     }
 
+    /** The recorded renderings replayed against the context give the same links as the rendering visitors. */
+    @Test
+    public void testReplayedLinkGenerationC3WithPreviousC1() throws Exception {
+        RenderedLinks c1Links = new RenderingVisitor(c1, rendererContext).record();
+        RenderedLinks c3Links = new RenderingVisitor(c3, rendererContext).record();
+        assertTrue(getRenderedClientlibs().isEmpty());
+
+        assertEquals("[js:/libs/jquery/2.2.4/jquery.js, js:/apps/c1@{hash}]",
+                canonicHashes(c1Links.replay(rendererContext)));
+        assertEquals("[js:/libs/jslib/c2dep.js, js:/libs/jslib/onlyc3depend.min.js, js:/libs/c3@{hash}]",
+                canonicHashes(c3Links.replay(rendererContext)));
+        // nothing left to render on a repeated replay within the same request
+        assertTrue(c3Links.replay(rendererContext).isEmpty());
+    }
+
     /** This is not really a test yet - just a sanity check since everything in the repo has creation date "now". */
     @Test
     public void testUpdateSimpleCheckC3() throws Exception {
@@ -0,0 +1,109 @@
+package com.composum.sling.clientlibs.processor;
+
+import com.composum.sling.clientlibs.handle.AbstractClientlibTest;
+import com.composum.sling.clientlibs.handle.Clientlib;
+import com.composum.sling.clientlibs.handle.ClientlibRef;
+import com.composum.sling.clientlibs.service.ClientlibService;
+import com.composum.sling.clientlibs.service.DefaultClientlibService;
+import com.composum.sling.core.concurrent.LazyCreationService;
+import com.composum.sling.core.concurrent.SequencerService;
+import com.composum.sling.core.util.HttpUtil;
+import io.airlift.compress.zstd.ZstdDecompressor;
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static com.composum.sling.clientlibs.handle.Clientlib.PROP_CATEGORY;
+import static com.composum.sling.clientlibs.handle.Clientlib.Type.css;
+import static com.composum.sling.core.util.ResourceUtil.PROP_PRIMARY_TYPE;
+import static com.composum.sling.core.util.ResourceUtil.PROP_RESOURCE_TYPE;
+import static com.composum.sling.core.util.ResourceUtil.TYPE_SLING_FOLDER;
+import static com.composum.sling.core.util.ResourceUtil.TYPE_SLING_ORDERED_FOLDER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the delivery of a clientlib in the encodings of the registered {@link EncodingProcessor}s: each encoding
+ * is cached in its own file and the encoding is chosen from the Accept-Encoding header of the client.
+ */
+public class EncodingProcessorTest extends AbstractClientlibTest {
+
+    protected DefaultClientlibService encodingService;
+
+    @Before
+    public void setupEncodings() throws Exception {
+        gzipEnabled = true;
+        String path = "/libs/encodings/lib";
+        context.build().resource(path, PROP_PRIMARY_TYPE, TYPE_SLING_FOLDER,
+                PROP_RESOURCE_TYPE, Clientlib.RESOURCE_TYPE, PROP_CATEGORY, array("encodings"))
+                .resource("css", PROP_PRIMARY_TYPE, TYPE_SLING_ORDERED_FOLDER);
+        for (int file = 0; file < 10; file++) {
+            StringBuilder buf = new StringBuilder();
+            for (int rule = 0; rule < 100; rule++) {
+                buf.append(".file").append(file).append("-rule").append(rule).append(" { color: #ffffff; }\n");
+            }
+            context.build().resource(path + "/css").file("file" + file + ".css",
+                    new ByteArrayInputStream(buf.toString().getBytes("UTF-8")));
+        }
+        context.build().commit();
+
+        final GzipProcessor defaultGzipProcessor = context.registerInjectActivateService(new DefaultGzipProcessor());
+        final EncodingProcessor zstdProcessor = context.registerInjectActivateService(new ZstdProcessor());
+        encodingService = new DefaultClientlibService() {
+            {
+                clientlibConfig = configurationService;
+                resolverFactory = context.getService(ResourceResolverFactory.class);
+                sequencer = context.getService(SequencerService.class);
+                lazyCreationService = context.getService(LazyCreationService.class);
+                gzipProcessor = defaultGzipProcessor;
+                permissionPlugins.add(permissionPlugin);
+                activate(context.componentContext());
+                processorMap.put(css, new ProcessorPipeline(new CssUrlMapper()));
+                bindEncodingProcessor(zstdProcessor);
+            }
+        };
+    }
+
+    @Test
+    public void encodingVariants() throws Exception {
+        assertEquals(Arrays.asList(ClientlibService.ENCODING_ZSTD, ClientlibService.ENCODING_GZIP),
+                encodingService.getEncodings());
+        assertEquals(ClientlibService.ENCODING_ZSTD, HttpUtil.selectEncoding("gzip, deflate, br, zstd",
+                encodingService.getEncodings()));
+        assertEquals(ClientlibService.ENCODING_GZIP, HttpUtil.selectEncoding("gzip, deflate, br",
+                encodingService.getEncodings()));
+
+        ClientlibRef ref = ClientlibRef.forCategory(css, "encodings", false, null);
+        byte[] gzipResult = deliver(ref, ClientlibService.ENCODING_GZIP);
+        String content = IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(gzipResult)), "UTF-8");
+        assertTrue(content.contains(".file0-rule0 {") && content.contains(".file9-rule99 {"));
+
+        byte[] zstdResult = deliver(ref, ClientlibService.ENCODING_ZSTD);
+        byte[] decoded = new byte[content.length() * 2];
+        int length = new ZstdDecompressor().decompress(zstdResult, 0, zstdResult.length,
+                decoded, 0, decoded.length);
+        assertEquals(content, new String(decoded, 0, length, "UTF-8"));
+
+        // both variants are cached
+        assertNotNull(context.resourceResolver().getResource(
+                "/var/composum/clientlibs/categorycache/encodings.gzip.css"));
+        assertNotNull(context.resourceResolver().getResource(
+                "/var/composum/clientlibs/categorycache/encodings.zstd.css"));
+    }
+
+    protected byte[] deliver(ClientlibRef ref, String encoding) throws Exception {
+        ClientlibService.ClientlibInfo hints = encodingService.prepareContent(context.request(), ref, false,
+                encoding, true, "thisisnotahash", -1);
+        assertEquals(encoding, hints.encoding);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encodingService.deliverContent(context.resourceResolver(), ref, false, out, encoding);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,85 @@
+package com.composum.sling.clientlibs.service;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the persistence and the stamps of the {@link ClientlibHashIndex}.
+ */
+public class ClientlibHashIndexTest {
+
+    public static final String INDEX_ROOT = "/var/composum/clientlibs/hashindex";
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    @Test
+    public void writeAndRead() {
+        ResourceResolver resolver = context.resourceResolver();
+        ClientlibHashIndex index = new ClientlibHashIndex(INDEX_ROOT, System.currentTimeMillis() - 1000L);
+        Calendar lastUpdateTime = Calendar.getInstance();
+        index.write(resolver, "css:/libs/test/lib", entry("abcdefghijk", lastUpdateTime, "test/lib"));
+
+        ClientlibUpdateTimeCache.Entry entry = index.read(resolver, "css:/libs/test/lib");
+        assertNotNull(entry);
+        assertEquals("abcdefghijk", entry.getHash());
+        assertEquals(lastUpdateTime.getTimeInMillis(), entry.getLastUpdateTime().getTimeInMillis());
+        assertEquals(Collections.singleton("test/lib"), entry.getDependencies());
+        assertEquals(Collections.singleton("cat"), entry.getCategories());
+        assertNull(index.read(resolver, "css:/libs/test/other"));
+
+        // entries written before the observation was started are not trusted
+        ClientlibHashIndex restarted = new ClientlibHashIndex(INDEX_ROOT, System.currentTimeMillis() + 1000L);
+        assertNull(restarted.read(resolver, "css:/libs/test/lib"));
+    }
+
+    @Test
+    public void advanceStamp() {
+        ResourceResolver resolver = context.resourceResolver();
+        long trustedSince = System.currentTimeMillis() - 1000L;
+        ClientlibHashIndex index = new ClientlibHashIndex(INDEX_ROOT, trustedSince);
+        index.write(resolver, "lib1", entry("hash1", null, "test/lib1", "test/lib1/css/a.css"));
+        index.write(resolver, "lib2", entry("hash2", null, "test/lib2"));
+
+        // a node which has observed the same changes shares the entries
+        ClientlibHashIndex other = new ClientlibHashIndex(INDEX_ROOT, trustedSince);
+        assertNotNull(other.read(resolver, "lib1"));
+
+        // a node which has observed a further change doesn't use the entries of the lagging node
+        other.advance(resolver, 4711L);
+        assertEquals(4711L, other.getStamp());
+        assertNull(other.read(resolver, "lib1"));
+        assertNull(resolver.getResource(INDEX_ROOT + "/0"));
+        index.write(resolver, "lib2", entry("hash2", null, "test/lib2"));
+        assertNull(other.read(resolver, "lib2"));
+
+        // after observing the change both are sharing the new entries again
+        index.advance(resolver, 4711L);
+        assertNull(index.read(resolver, "lib2"));
+        assertNull(resolver.getResource(INDEX_ROOT + "/0"));
+        other.write(resolver, "lib1", entry("hash1", null, "test/lib1", "test/lib1/css/a.css"));
+        assertNotNull(index.read(resolver, "lib1"));
+        assertNotNull(resolver.getResource(INDEX_ROOT + "/4711"));
+
+        // an older change time doesn't move the stamp back
+        index.advance(resolver, 42L);
+        assertEquals(4711L, index.getStamp());
+        assertNotNull(index.read(resolver, "lib1"));
+    }
+
+    protected ClientlibUpdateTimeCache.Entry entry(String hash, Calendar lastUpdateTime, String... dependencies) {
+        return new ClientlibUpdateTimeCache.Entry(hash, lastUpdateTime, Arrays.asList(dependencies),
+                Collections.singletonList("cat"));
+    }
+}
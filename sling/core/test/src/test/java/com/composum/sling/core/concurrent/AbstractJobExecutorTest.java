@@ -0,0 +1,283 @@
+package com.composum.sling.core.concurrent;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.consumer.JobExecutionContext;
+import org.apache.sling.event.jobs.consumer.JobExecutionResult;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.composum.sling.core.concurrent.AbstractJobExecutor.AUDIT_SEGMENTS_SUFFIX;
+import static com.composum.sling.core.concurrent.AbstractJobExecutor.JOB_OUTFILE_PROPERTY;
+import static com.composum.sling.core.concurrent.AbstractJobExecutor.JOB_REFRENCE_PROPERTY;
+import static com.composum.sling.core.concurrent.AbstractJobExecutor.MAX_JOB_QUEUE;
+import static com.composum.sling.core.concurrent.AbstractJobExecutor.MAX_JOB_THREADS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Executes jobs with a stub {@link AbstractJobExecutor}: the waiting for the result, the cancellation of stopped
+ * jobs, the rejection of jobs if the executor is exhausted and the audit of the output during and after the
+ * execution.
+ */
+public class AbstractJobExecutorTest {
+
+    public static final String AUDIT_BASE_PATH = "/var/audit/jobs/test";
+    public static final String REFERENCE = "/conf/scripts/test.groovy";
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    protected TestJobExecutor executor;
+    protected File outfile;
+    protected Calendar started;
+    protected Job job;
+    protected JobExecutionContext jobContext;
+    protected JobExecutionContext.ResultBuilder resultBuilder;
+    protected JobExecutionResult succeeded;
+    protected JobExecutionResult failed;
+    protected JobExecutionResult cancelled;
+
+    /** the executor of the test; the job is given by the test */
+    protected static class TestJobExecutor extends AbstractJobExecutor<String> {
+
+        protected Callable<String> callable;
+        protected PrintWriter out;
+
+        @Override
+        protected String getJobTopic() {
+            return "com/composum/test/job";
+        }
+
+        @Override
+        protected String getAuditBasePath() {
+            return AUDIT_BASE_PATH;
+        }
+
+        @Override
+        protected boolean jobExecutionEnabled(Job job) {
+            return true;
+        }
+
+        @Override
+        protected Callable<String> createCallable(Job job, JobExecutionContext context,
+                                                  ResourceResolver adminResolver, PrintWriter out) {
+            this.out = out;
+            return callable;
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        SemaphoreSequencer sequencer = new SemaphoreSequencer();
+        sequencer.activate(null);
+        executor = new TestJobExecutor();
+        executor.resolverFactory = context.getService(ResourceResolverFactory.class);
+        executor.sequencer = sequencer;
+        executor.activate(context.componentContext());
+
+        outfile = File.createTempFile("job-", ".out");
+        started = Calendar.getInstance();
+        job = mock(Job.class);
+        when(job.getProperty(JOB_REFRENCE_PROPERTY, String.class)).thenReturn(REFERENCE);
+        when(job.getProperty(JOB_REFRENCE_PROPERTY)).thenReturn(REFERENCE);
+        when(job.getProperty(JOB_OUTFILE_PROPERTY, String.class)).thenReturn(outfile.getPath());
+        when(job.getProperty("event.job.started.time", Calendar.class)).thenReturn(started);
+        when(job.getPropertyNames()).thenReturn(Collections.singleton(JOB_REFRENCE_PROPERTY));
+
+        jobContext = mock(JobExecutionContext.class);
+        resultBuilder = mock(JobExecutionContext.ResultBuilder.class);
+        succeeded = mock(JobExecutionResult.class);
+        failed = mock(JobExecutionResult.class);
+        cancelled = mock(JobExecutionResult.class);
+        when(jobContext.result()).thenReturn(resultBuilder);
+        when(resultBuilder.message(anyString())).thenReturn(resultBuilder);
+        when(resultBuilder.succeeded()).thenReturn(succeeded);
+        when(resultBuilder.failed()).thenReturn(failed);
+        when(resultBuilder.cancelled()).thenReturn(cancelled);
+    }
+
+    @After
+    public void teardown() {
+        executor.deactivate(context.componentContext());
+        outfile.delete();
+    }
+
+    @Test
+    public void succeeded() throws Exception {
+        executor.callable = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                Thread.sleep(2 * AbstractJobExecutor.JOB_WAIT_INTERVAL); // waits several intervals
+                return "done";
+            }
+        };
+        assertSame(succeeded, executor.process(job, jobContext));
+        verify(resultBuilder).message("done");
+        assertNotNull(getAuditResource());
+        assertFalse(outfile.exists());
+    }
+
+    @Test
+    public void stoppedJobIsCancelled() throws Exception {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        executor.callable = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                try {
+                    new CountDownLatch(1).await(); // forever
+                } catch (InterruptedException ex) {
+                    interrupted.countDown();
+                }
+                return "not stopped";
+            }
+        };
+        when(jobContext.isStopped()).thenReturn(true);
+        assertSame(cancelled, executor.process(job, jobContext));
+        verify(resultBuilder).message("execution stopped");
+        assertTrue("job not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+        assertNotNull(getAuditResource()); // the audit is written nonetheless
+    }
+
+    @Test
+    public void rejectedIfExhausted() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<String> blocking = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                release.await();
+                return "blocking";
+            }
+        };
+        try {
+            for (int i = 0; i < MAX_JOB_THREADS + MAX_JOB_QUEUE; i++) {
+                executor.getJobExecutorService().submit(blocking);
+            }
+            executor.callable = blocking;
+            // a failed job is retried by the job manager later
+            assertSame(failed, executor.process(job, jobContext));
+        } finally {
+            release.countDown();
+        }
+
+        executor.deactivate(context.componentContext());
+        assertSame(failed, executor.process(job, jobContext));
+    }
+
+    @Test
+    public void segmentOfAppendedFile() throws Exception {
+        try (FileOutputStream output = new FileOutputStream(outfile)) {
+            output.write("0123456789".getBytes("UTF-8"));
+            output.flush();
+            try (FileInputStream input = new FileInputStream(outfile)) {
+                input.getChannel().position(3L);
+                InputStream segment = new AbstractJobExecutor.SegmentInputStream(input, 5L);
+                // the file is appended concurrently - the segment keeps its length
+                output.write("abcdef".getBytes("UTF-8"));
+                output.flush();
+                assertTrue(segment.available() <= 5);
+                assertEquals('3', segment.read());
+                assertEquals(1L, segment.skip(1L));
+                byte[] buffer = new byte[10];
+                assertEquals(3, segment.read(buffer, 0, buffer.length));
+                assertEquals("567", new String(buffer, 0, 3, "UTF-8"));
+                assertEquals(-1, segment.read());
+                assertEquals(-1, segment.read(buffer, 0, buffer.length));
+                assertEquals(0L, segment.skip(5L));
+                assertEquals(0, segment.available());
+            }
+        }
+        InputStream empty = new AbstractJobExecutor.SegmentInputStream(new ByteArrayInputStream(new byte[3]), 0L);
+        assertEquals(-1, empty.read());
+    }
+
+    @Test
+    public void segmentsReplacedByAuditFile() throws Exception {
+        final String auditPath = executor.buildAuditPathIntern(REFERENCE, started);
+        final String segmentsPath = auditPath + "/" + outfile.getName() + AUDIT_SEGMENTS_SUFFIX;
+        final List<String> segments = new ArrayList<>();
+        executor.callable = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                // the updates of the audit during the execution, forced instead of waiting for the interval
+                TestJobExecutor.AuditUpdate update = executor.new AuditUpdate(auditPath, outfile.getName(), outfile);
+                PrintWriter out = executor.out;
+                try {
+                    out.print("first part\n");
+                    out.flush();
+                    update.nextUpdate = 0L;
+                    update.update();
+                    update.nextUpdate = 0L;
+                    update.update(); // no new output, no new segment
+                    out.print("second part\n");
+                    out.flush();
+                    update.nextUpdate = 0L;
+                    update.update();
+                } finally {
+                    update.close();
+                }
+                ResourceResolver resolver = executor.resolverFactory.getAdministrativeResourceResolver(null);
+                try {
+                    Resource folder = resolver.getResource(segmentsPath);
+                    assertNotNull(folder);
+                    for (Resource segment : folder.getChildren()) {
+                        segments.add(segment.getName() + ":" + getContent(segment));
+                    }
+                } finally {
+                    resolver.close();
+                }
+                return "done";
+            }
+        };
+        assertSame(succeeded, executor.process(job, jobContext));
+        assertEquals(2, segments.size());
+        assertEquals("00001:first part\n", segments.get(0));
+        assertEquals("00002:second part\n", segments.get(1));
+
+        Resource audit = getAuditResource();
+        assertNotNull(audit);
+        assertEquals("first part\nsecond part\n", getContent(audit.getChild(outfile.getName())));
+        assertNull(context.resourceResolver().getResource(segmentsPath));
+        assertEquals(REFERENCE, audit.getValueMap().get(JOB_REFRENCE_PROPERTY, String.class));
+    }
+
+    protected Resource getAuditResource() throws Exception {
+        context.resourceResolver().refresh();
+        return context.resourceResolver().getResource(executor.buildAuditPathIntern(REFERENCE, started));
+    }
+
+    protected String getContent(Resource file) throws Exception {
+        try (InputStream content = file.getChild("jcr:content").getValueMap().get("jcr:data", InputStream.class)) {
+            return IOUtils.toString(content, "UTF-8");
+        }
+    }
+}
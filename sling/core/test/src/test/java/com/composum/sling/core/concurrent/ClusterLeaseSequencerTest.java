@@ -0,0 +1,108 @@
+package com.composum.sling.core.concurrent;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.jcr.Session;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Simulates two cluster nodes by two {@link ClusterLeaseSequencer} instances working with their own sessions on
+ * the same repository.
+ */
+public class ClusterLeaseSequencerTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    protected ClusterLeaseSequencer node1;
+    protected ClusterLeaseSequencer node2;
+
+    @Before
+    public void setup() {
+        node1 = createSequencer();
+        node2 = createSequencer();
+    }
+
+    protected ClusterLeaseSequencer createSequencer() {
+        return context.registerInjectActivateService(new ClusterLeaseSequencer(),
+                ClusterLeaseSequencer.LEASE_TIME, 1L,
+                ClusterLeaseSequencer.CLOCK_SKEW, 1L,
+                ClusterLeaseSequencer.POLL_INTERVAL, 50L);
+    }
+
+    @Test
+    public void exclusiveAcrossNodes() throws Exception {
+        ClusterLeaseSequencer.Token token = node1.tryAcquire("/content/test", 1, TimeUnit.SECONDS);
+        assertNotNull(token);
+        assertEquals(1, node1.getLeaseCount());
+        assertLeaseOwner(node1, "/content/test");
+        assertNull(node2.tryAcquire("/content/test", 300, TimeUnit.MILLISECONDS));
+        // other keys are not affected
+        ClusterLeaseSequencer.Token other = node2.tryAcquire("/content/other", 1, TimeUnit.SECONDS);
+        assertNotNull(other);
+        node2.release(other);
+        node1.release(token);
+        assertEquals(0, node1.getLeaseCount());
+        assertNull(context.resourceResolver().getResource(node1.getLeasePath("/content/test")));
+        token = node2.tryAcquire("/content/test", 1, TimeUnit.SECONDS);
+        assertNotNull(token);
+        assertLeaseOwner(node2, "/content/test");
+        node2.release(token);
+    }
+
+    @Test
+    public void heartbeatKeepsLease() throws Exception {
+        ClusterLeaseSequencer.Token token = node1.acquire("/content/test");
+        Thread.sleep(2500); // longer than the lease time
+        assertNull(node2.tryAcquire("/content/test", 200, TimeUnit.MILLISECONDS));
+        node1.release(token);
+    }
+
+    @Test
+    public void expiredLeaseIsTakenOver() throws Exception {
+        ClusterLeaseSequencer.Token token = node1.acquire("/content/test");
+        node1.stopHeartbeat(); // node 1 is gone
+        ClusterLeaseSequencer.Token takenOver = node2.tryAcquire("/content/test", 5, TimeUnit.SECONDS);
+        assertNotNull(takenOver);
+        assertLeaseOwner(node2, "/content/test");
+        // the late release of the former owner doesn't remove the lease of the new owner
+        node1.release(token);
+        assertLeaseOwner(node2, "/content/test");
+        node2.release(takenOver);
+    }
+
+    @Test
+    public void expiryRespectsClockSkew() throws Exception {
+        ClusterLeaseSequencer.Token token = node1.acquire("/content/test");
+        node1.stopHeartbeat();
+        // the clock of node 2 may be ahead - the lease is expired for node 2 only after the skew margin
+        node2.clockSkew = 3;
+        assertNull(node2.tryAcquire("/content/test", 2, TimeUnit.SECONDS));
+        assertLeaseOwner(node1, "/content/test");
+        ClusterLeaseSequencer.Token takenOver = node2.tryAcquire("/content/test", 5, TimeUnit.SECONDS);
+        assertNotNull(takenOver);
+        assertLeaseOwner(node2, "/content/test");
+        node1.release(token);
+        node2.release(takenOver);
+    }
+
+    protected void assertLeaseOwner(ClusterLeaseSequencer owner, String key) throws Exception {
+        context.resourceResolver().adaptTo(Session.class).refresh(false);
+        Resource lease = context.resourceResolver().getResource(owner.getLeasePath(key));
+        assertNotNull(lease);
+        ValueMap values = lease.adaptTo(ValueMap.class);
+        assertNotNull(values);
+        assertEquals(key, values.get(ClusterLeaseSequencer.PROP_KEY, String.class));
+        assertEquals(owner.ownerId, values.get(ClusterLeaseSequencer.PROP_OWNER, String.class));
+    }
+}
@@ -0,0 +1,275 @@
+package com.composum.sling.core.servlet;
+
+import com.composum.sling.core.ResourceHandle;
+import com.composum.sling.core.filter.ResourceFilter;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.SyntheticResource;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the paging of the children by the 'tree' operation of the {@link NodeTreeServlet} with a folder of some
+ * hundred children: pages by 'offset' and 'limit', the continuation by the 'cursor' in repository order and in
+ * sorted order and the suppression of the synthetic duplicates.
+ */
+public class NodeTreeServletPagingTest {
+
+    protected static final String FOLDER = "/content/folder";
+    protected static final int CHILDREN = 300;
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    protected TestServlet servlet;
+
+    /** the servlet of the test; sorts the children on demand */
+    protected static class TestServlet extends NodeTreeServlet {
+
+        protected boolean sorted;
+
+        @Override
+        protected ResourceFilter getNodeFilter(SlingHttpServletRequest request) {
+            return ResourceFilter.ALL;
+        }
+
+        @Override
+        protected boolean isSortedTreeItems(ResourceHandle resource) {
+            return sorted;
+        }
+
+        @Override
+        protected boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        protected ServletOperationSet getOperations() {
+            return null;
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        // the repository order differs from the sorted order; some names differ in their case only
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < CHILDREN - 10; i++) {
+            names.add(String.format("child-%03d", i));
+        }
+        for (int i = 0; i < 10; i++) {
+            names.add(String.format("Child-%03d", i * 7));
+        }
+        Collections.shuffle(names, new Random(4711));
+        Session session = context.resourceResolver().adaptTo(Session.class);
+        Node folder = session.getRootNode().addNode("content", "nt:unstructured").addNode("folder", "nt:unstructured");
+        for (String name : names) {
+            folder.addNode(name, "nt:unstructured");
+        }
+        session.save();
+        servlet = new TestServlet();
+    }
+
+    @Test
+    public void unpaged() throws Exception {
+        JsonObject tree = tree(servlet.new TreeOperation(), new HashMap<String, Object>());
+        assertEquals(CHILDREN, names(tree).size());
+        assertNull(tree.get("paging"));
+
+        List<String> ordered = allChildren();
+        servlet.sorted = true;
+        List<String> sorted = allChildren();
+        assertNotEquals(ordered, sorted);
+        assertEquals(new HashSet<>(ordered), new HashSet<>(sorted));
+        // sorted case insensitive, equal sort names ordered by the name
+        int child7 = sorted.indexOf("child-007");
+        assertEquals("Child-007", sorted.get(child7 - 1));
+    }
+
+    @Test
+    public void offsetAndLimit() throws Exception {
+        for (boolean sorted : new boolean[]{false, true}) {
+            servlet.sorted = sorted;
+            List<String> all = allChildren();
+
+            JsonObject page = page(10, 25, null);
+            assertEquals(all.subList(10, 35), names(page));
+            JsonObject paging = page.getAsJsonObject("paging");
+            assertEquals(10, paging.get("offset").getAsInt());
+            assertEquals(25, paging.get("limit").getAsInt());
+            assertTrue(paging.get("hasMore").getAsBoolean());
+            assertNotNull(paging.get("cursor"));
+
+            page = page(CHILDREN - 5, 10, null);
+            assertEquals(all.subList(CHILDREN - 5, CHILDREN), names(page));
+            assertFalse(page.getAsJsonObject("paging").get("hasMore").getAsBoolean());
+            assertNull(page.getAsJsonObject("paging").get("cursor"));
+
+            page = page(CHILDREN - 10, 10, null);
+            assertEquals(all.subList(CHILDREN - 10, CHILDREN), names(page)); // exactly the rest
+            assertFalse(page.getAsJsonObject("paging").get("hasMore").getAsBoolean());
+
+            assertTrue(names(page(CHILDREN + 10, 10, null)).isEmpty());
+        }
+    }
+
+    @Test
+    public void orderedPagesByCursor() throws Exception {
+        servlet.sorted = false;
+        List<String> all = allChildren();
+        for (int limit : new int[]{1, 7, 100, CHILDREN}) {
+            assertEquals("limit " + limit, all, allPages(servlet.new TreeOperation(), limit));
+        }
+    }
+
+    @Test
+    public void sortedPagesByCursor() throws Exception {
+        servlet.sorted = true;
+        List<String> all = allChildren();
+        for (int limit : new int[]{1, 7, 100, CHILDREN}) {
+            assertEquals("limit " + limit, all, allPages(servlet.new TreeOperation(), limit));
+        }
+        // a page of a sorted node contains the children after the key of the cursor
+        JsonObject first = page(0, 20, null);
+        String cursor = first.getAsJsonObject("paging").get("cursor").getAsString();
+        JsonObject next = page(0, 20, cursor);
+        assertEquals(all.subList(20, 40), names(next));
+        assertNull(next.getAsJsonObject("paging").get("offset")); // no position for a sorted node
+        // the cursor is still valid if children before the cursor are removed
+        context.resourceResolver().delete(context.resourceResolver().getResource(FOLDER + "/" + all.get(3)));
+        context.resourceResolver().commit();
+        assertEquals(all.subList(20, 40), names(page(0, 20, cursor)));
+    }
+
+    @Test
+    public void syntheticDuplicatesSuppressed() throws Exception {
+        NodeTreeServlet.TreeOperation operation = servlet.new TreeOperation() {
+            @Override
+            protected NodeTreeServlet.TreeNodeStrategy getNodeStrategy(SlingHttpServletRequest request) {
+                return new NodeTreeServlet.DefaultTreeNodeStrategy(ResourceFilter.ALL) {
+                    @Override
+                    public Iterable<Resource> getChildren(Resource nodeResource) {
+                        List<Resource> children = new ArrayList<>();
+                        for (Resource child : nodeResource.getChildren()) {
+                            children.add(child);
+                            if (children.size() % 50 == 0) { // a synthetic duplicate of some children
+                                children.add(synthetic(child.getName()));
+                            }
+                        }
+                        children.add(synthetic("synthetic"));
+                        return children;
+                    }
+                };
+            }
+        };
+        for (boolean sorted : new boolean[]{false, true}) {
+            servlet.sorted = sorted;
+            List<String> all = names(tree(operation, new HashMap<String, Object>()));
+            assertEquals(CHILDREN + 1, all.size());
+            assertEquals(CHILDREN + 1, new HashSet<>(all).size());
+            assertTrue(all.contains("synthetic"));
+            for (int limit : new int[]{1, 7, 100}) {
+                List<String> paged = allPages(operation, limit);
+                assertEquals("limit " + limit, all, paged);
+            }
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("offset", "49");
+            parameters.put("limit", "3");
+            assertEquals(all.subList(49, 52), names(tree(operation, parameters)));
+        }
+    }
+
+    protected Resource synthetic(String name) {
+        return new SyntheticResource(context.resourceResolver(), FOLDER + "/" + name, "test/synthetic");
+    }
+
+    /** the children of the folder as delivered without paging */
+    protected List<String> allChildren() throws Exception {
+        return names(tree(servlet.new TreeOperation(), new HashMap<String, Object>()));
+    }
+
+    /** the children of the folder collected by following the cursors of the pages */
+    protected List<String> allPages(NodeTreeServlet.TreeOperation operation, int limit) throws Exception {
+        List<String> names = new ArrayList<>();
+        Set<String> unique = new HashSet<>();
+        String cursor = null;
+        for (int pages = 0; pages <= CHILDREN + 1; pages++) {
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("limit", String.valueOf(limit));
+            if (cursor != null) {
+                parameters.put("cursor", cursor);
+            }
+            JsonObject page = tree(operation, parameters);
+            List<String> pageNames = names(page);
+            assertTrue(pageNames.size() <= limit);
+            for (String name : pageNames) {
+                assertTrue(name + " delivered twice", unique.add(name));
+            }
+            names.addAll(pageNames);
+            JsonObject paging = page.getAsJsonObject("paging");
+            assertEquals(limit, paging.get("limit").getAsInt());
+            if (!paging.get("hasMore").getAsBoolean()) {
+                assertNull(paging.get("cursor"));
+                return names;
+            }
+            assertEquals(limit, pageNames.size());
+            cursor = paging.get("cursor").getAsString();
+        }
+        throw new AssertionError("paging doesn't end");
+    }
+
+    protected JsonObject page(int offset, int limit, String cursor) throws Exception {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("offset", String.valueOf(offset));
+        parameters.put("limit", String.valueOf(limit));
+        if (cursor != null) {
+            parameters.put("cursor", cursor);
+        }
+        return tree(servlet.new TreeOperation(), parameters);
+    }
+
+    protected JsonObject tree(NodeTreeServlet.TreeOperation operation, Map<String, Object> parameters)
+            throws Exception {
+        MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.resourceResolver(),
+                context.bundleContext());
+        request.setParameterMap(parameters);
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        operation.doIt(request, response, ResourceHandle.use(context.resourceResolver().getResource(FOLDER)));
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        return new JsonParser().parse(response.getOutputAsString()).getAsJsonObject();
+    }
+
+    protected List<String> names(JsonObject tree) {
+        List<String> names = new ArrayList<>();
+        for (JsonElement child : tree.getAsJsonArray("children")) {
+            names.add(child.getAsJsonObject().get("name").getAsString());
+        }
+        return names;
+    }
+}
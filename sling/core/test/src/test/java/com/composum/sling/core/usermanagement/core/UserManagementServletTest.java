@@ -0,0 +1,213 @@
+package com.composum.sling.core.usermanagement.core;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the listings of the {@link UserManagementServlet}: the complete listing, the pages selected by 'offset'
+ * and 'limit' and the details requested by the 'transitive' and 'properties' parameters.
+ */
+public class UserManagementServletTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    protected JackrabbitSession session;
+    protected Set<String> userIds;
+
+    @Before
+    public void setup() throws Exception {
+        session = (JackrabbitSession) context.resourceResolver().adaptTo(Session.class);
+        UserManager userManager = session.getUserManager();
+        Group editors = userManager.createGroup("editors");
+        Group authors = userManager.createGroup("authors");
+        editors.addMember(authors);
+        for (String id : new String[]{"user-a", "user-b", "user-c", "user-d", "user-e"}) {
+            User user = userManager.createUser(id, id);
+            user.setProperty("email", session.getValueFactory().createValue(id + "@example.com"));
+            authors.addMember(user);
+        }
+        userManager.createSystemUser("system-user", null);
+        session.save();
+        userIds = ids(list(new UserManagementServlet.GetUsers(), new HashMap<String, Object>()));
+        assertTrue(userIds.contains("user-a") && userIds.contains("user-e") && userIds.contains("system-user"));
+    }
+
+    @Test
+    public void completeListing() throws Exception {
+        for (JsonElement element : list(new UserManagementServlet.GetUsers(), new HashMap<String, Object>())) {
+            JsonObject user = element.getAsJsonObject();
+            String id = user.get("id").getAsString();
+            assertEquals("system-user".equals(id), user.get("systemUser").getAsBoolean());
+            if (id.startsWith("user-")) {
+                assertEquals(values("authors"), values(user.getAsJsonArray("declaredMemberOf")));
+                assertEquals(values("authors", "editors"), values(user.getAsJsonArray("memberOf")));
+                assertEquals(id + "@example.com", user.getAsJsonObject("properties")
+                        .getAsJsonArray("email").get(0).getAsString());
+            }
+        }
+        Set<String> groupIds = ids(list(new UserManagementServlet.GetGroups(), new HashMap<String, Object>()));
+        assertTrue(groupIds.contains("editors") && groupIds.contains("authors"));
+        assertFalse(groupIds.contains("user-a"));
+    }
+
+    @Test
+    public void pages() throws Exception {
+        Set<String> paged = new HashSet<>();
+        for (int offset = 0; offset < userIds.size(); offset += 2) {
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("offset", String.valueOf(offset));
+            parameters.put("limit", "2");
+            Set<String> page = ids(list(new UserManagementServlet.GetUsers(), parameters));
+            assertEquals(Math.min(2, userIds.size() - offset), page.size());
+            for (String id : page) {
+                assertTrue(id + " listed twice", paged.add(id));
+            }
+        }
+        assertEquals(userIds, paged);
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("offset", "3");
+        assertEquals(userIds.size() - 3, list(new UserManagementServlet.GetUsers(), parameters).size());
+    }
+
+    @Test
+    public void detailsOfPages() throws Exception {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("limit", String.valueOf(userIds.size()));
+        for (JsonElement element : list(new UserManagementServlet.GetUsers(), parameters)) {
+            JsonObject user = element.getAsJsonObject();
+            if (user.get("id").getAsString().startsWith("user-")) {
+                // the declared memberships are always listed, the details only on request
+                assertEquals(values("authors"), values(user.getAsJsonArray("declaredMemberOf")));
+                assertEquals(0, user.getAsJsonArray("memberOf").size());
+                assertTrue(user.getAsJsonObject("properties").entrySet().isEmpty());
+            }
+        }
+
+        parameters.put("transitive", "true");
+        for (JsonElement element : list(new UserManagementServlet.GetUsers(), parameters)) {
+            JsonObject user = element.getAsJsonObject();
+            if (user.get("id").getAsString().startsWith("user-")) {
+                assertEquals(values("authors", "editors"), values(user.getAsJsonArray("memberOf")));
+                assertTrue(user.getAsJsonObject("properties").entrySet().isEmpty());
+            }
+        }
+
+        parameters.remove("transitive");
+        parameters.put("properties", "true");
+        for (JsonElement element : list(new UserManagementServlet.GetUsers(), parameters)) {
+            JsonObject user = element.getAsJsonObject();
+            String id = user.get("id").getAsString();
+            if (id.startsWith("user-")) {
+                assertEquals(0, user.getAsJsonArray("memberOf").size());
+                assertEquals(id + "@example.com", user.getAsJsonObject("properties")
+                        .getAsJsonArray("email").get(0).getAsString());
+            }
+        }
+
+        parameters.put("limit", "1");
+        JsonObject group = list(new UserManagementServlet.GetGroups(), parameters).get(0).getAsJsonObject();
+        assertEquals(0, group.getAsJsonArray("memberOf").size());
+    }
+
+    @Test
+    public void invalidPage() throws Exception {
+        for (String[] parameter : new String[][]{{"limit", "-1"}, {"offset", "-2"}, {"offset", "first"}}) {
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put(parameter[0], parameter[1]);
+            MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+            new UserManagementServlet.GetUsers().doIt(request(parameters), response, null);
+            assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+            assertEquals("", response.getOutputAsString());
+        }
+    }
+
+    @Test
+    public void failureBeforeWriting() throws Exception {
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        try {
+            new UserManagementServlet.GetUsers() {
+                @Override
+                protected UserManagementServlet.UserEntry processPrincipal(User user, boolean transitive,
+                                                                           boolean properties)
+                        throws RepositoryException {
+                    throw new RepositoryException("failure for the test");
+                }
+            }.doIt(request(new HashMap<String, Object>()), response, null);
+            fail("listing not failed");
+        } catch (RepositoryException ex) {
+            // nothing is written - the servlet can report the failure by the status of the response
+            assertEquals("", response.getOutputAsString());
+            assertFalse(response.isCommitted());
+        }
+    }
+
+    protected JsonArray list(UserManagementServlet.GetAuthorizables<?, ?> operation, Map<String, Object> parameters)
+            throws Exception {
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        operation.doIt(request(parameters), response, null);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        return new JsonParser().parse(response.getOutputAsString()).getAsJsonArray();
+    }
+
+    protected MockSlingHttpServletRequest request(Map<String, Object> parameters) {
+        MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.resourceResolver(),
+                context.bundleContext());
+        request.setParameterMap(parameters);
+        return request;
+    }
+
+    protected Set<String> ids(JsonArray entries) {
+        Set<String> ids = new HashSet<>();
+        for (JsonElement entry : entries) {
+            ids.add(entry.getAsJsonObject().get("id").getAsString());
+        }
+        return ids;
+    }
+
+    protected List<String> values(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    protected List<String> values(JsonArray array) {
+        List<String> list = new ArrayList<>();
+        for (JsonElement element : array) {
+            list.add(element.getAsString());
+        }
+        list.sort(null);
+        return list;
+    }
+}
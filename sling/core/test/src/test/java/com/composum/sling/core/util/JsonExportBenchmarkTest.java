@@ -0,0 +1,193 @@
+package com.composum.sling.core.util;
+
+import com.composum.sling.core.mapping.MappingRules;
+import com.google.gson.stream.JsonWriter;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Compares the JSON export of a wide and of a deep resource tree with sorted and with unsorted properties to the
+ * former recursive export which collected all properties of each node for sorting. The times and the allocations
+ * (if the JVM supports the measurement of thread allocations) are logged; for real measurements the size of the
+ * trees and the number of runs can be raised with the system properties {@value #PROP_WIDTH}, {@value #PROP_DEPTH}
+ * and {@value #PROP_RUNS}.
+ */
+public class JsonExportBenchmarkTest {
+
+    private static final Logger LOG = getLogger(JsonExportBenchmarkTest.class);
+
+    protected static final String PROP_WIDTH = "json.benchmark.width";
+    protected static final String PROP_DEPTH = "json.benchmark.depth";
+    protected static final String PROP_RUNS = "json.benchmark.runs";
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    protected MappingRules sorted;
+    protected MappingRules unsorted;
+
+    @Before
+    public void setup() throws Exception {
+        int width = Integer.getInteger(PROP_WIDTH, 10);
+        int depth = Integer.getInteger(PROP_DEPTH, 500);
+        Session session = context.resourceResolver().adaptTo(Session.class);
+        Node content = session.getRootNode().addNode("content", "nt:unstructured");
+        // wide: width^3 nodes on three levels
+        Node wide = content.addNode("wide", "nt:unstructured");
+        for (int i = 0; i < width; i++) {
+            Node level1 = createNode(wide, "n" + i);
+            for (int j = 0; j < width; j++) {
+                Node level2 = createNode(level1, "n" + j);
+                for (int k = 0; k < width; k++) {
+                    createNode(level2, "n" + k);
+                }
+            }
+        }
+        // deep: one chain of 'depth' nodes
+        Node node = content.addNode("deep", "nt:unstructured");
+        for (int i = 0; i < depth; i++) {
+            node = createNode(node, "n");
+        }
+        session.save();
+
+        sorted = MappingRules.getDefaultMappingRules();
+        unsorted = new MappingRules(sorted, null, null, null, null, null, null, false);
+    }
+
+    protected Node createNode(Node parent, String name) throws RepositoryException {
+        Node node = parent.addNode(name, "nt:unstructured");
+        node.setProperty("title", "the title of " + name);
+        node.setProperty("description", "a longer description of the node " + name + " for the export");
+        node.setProperty("count", 42L);
+        node.setProperty("flag", true);
+        node.setProperty("created", Calendar.getInstance());
+        node.setProperty("tags", new String[]{"a", "b", "c"});
+        return node;
+    }
+
+    @Test
+    public void compareExports() throws Exception {
+        int runs = Integer.getInteger(PROP_RUNS, 3);
+        for (String path : new String[]{"/content/wide", "/content/deep"}) {
+            Resource resource = context.resourceResolver().getResource(path);
+            String expected = exportRecursive(resource, sorted);
+            assertEquals(expected, export(resource, sorted));
+            assertEquals(expected.length(), export(resource, unsorted).length());
+
+            long[] recursive = new long[2];
+            long[] stackSorted = new long[2];
+            long[] stackUnsorted = new long[2];
+            for (int run = 0; run < runs; run++) {
+                measure(recursive, resource, sorted, true);
+                measure(stackSorted, resource, sorted, false);
+                measure(stackUnsorted, resource, unsorted, false);
+            }
+            LOG.info("Exporting {} ({} chars) {} times: recursive {} ms / {} bytes, sorted {} ms / {} bytes, " +
+                            "unsorted {} ms / {} bytes per export", path, expected.length(), runs,
+                    TimeUnit.NANOSECONDS.toMillis(recursive[0] / runs), recursive[1] / runs,
+                    TimeUnit.NANOSECONDS.toMillis(stackSorted[0] / runs), stackSorted[1] / runs,
+                    TimeUnit.NANOSECONDS.toMillis(stackUnsorted[0] / runs), stackUnsorted[1] / runs);
+        }
+    }
+
+    /** Adds the time and the allocated bytes of one export to the 'total'. */
+    protected void measure(long[] total, Resource resource, MappingRules rules, boolean recursive)
+            throws Exception {
+        long begin = System.nanoTime();
+        long allocated = allocatedBytes();
+        if (recursive) {
+            exportRecursive(resource, rules);
+        } else {
+            export(resource, rules);
+        }
+        total[1] += allocatedBytes() - allocated;
+        total[0] += System.nanoTime() - begin;
+    }
+
+    protected String export(Resource resource, MappingRules rules) throws Exception {
+        StringWriter writer = new StringWriter();
+        JsonUtil.exportJson(new JsonWriter(writer), resource, rules);
+        return writer.toString();
+    }
+
+    protected String exportRecursive(Resource resource, MappingRules rules) throws Exception {
+        StringWriter writer = new StringWriter();
+        exportRecursive(new JsonWriter(writer), resource, rules, 1);
+        return writer.toString();
+    }
+
+    /** The former recursive export as the baseline of the comparison. */
+    protected void exportRecursive(JsonWriter writer, Resource resource, MappingRules mapping, int depth)
+            throws RepositoryException, IOException {
+        writer.beginObject();
+        exportCollectedProperties(writer, resource, mapping);
+        if (mapping.maxDepth == 0 || depth < mapping.maxDepth) {
+            depth++;
+            for (Resource child : resource.getChildren()) {
+                if (mapping.resourceFilter.accept(child)) {
+                    writer.name(child.getName());
+                    exportRecursive(writer, child, mapping, depth);
+                }
+            }
+        }
+        writer.endObject();
+    }
+
+    /** The former export of the properties which collected all properties before filtering them. */
+    protected void exportCollectedProperties(JsonWriter writer, Resource resource, MappingRules mapping)
+            throws RepositoryException, IOException {
+        Node node = resource.adaptTo(Node.class);
+        TreeMap<String, Property> propertiesSet = new TreeMap<>();
+        PropertyIterator iterator = node.getProperties();
+        while (iterator.hasNext()) {
+            Property property = iterator.nextProperty();
+            propertiesSet.put(property.getName(), property);
+        }
+        if (mapping.propertyFormat.scope != MappingRules.PropertyFormat.Scope.value) {
+            writer.name(MappingRules.PROPERTIES_NAME);
+            writer.beginArray();
+        }
+        for (Map.Entry<String, Property> entry : propertiesSet.entrySet()) {
+            if (mapping.exportPropertyFilter.accept(entry.getKey())) {
+                JsonUtil.writeJsonProperty(writer, node, entry.getValue(), mapping);
+            }
+        }
+        if (mapping.propertyFormat.scope != MappingRules.PropertyFormat.Scope.value) {
+            writer.endArray();
+        }
+    }
+
+    /** @return the bytes allocated by the current thread so far; 0 if not supported by the JVM */
+    protected long allocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadBean;
+            if (allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled()) {
+                return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+}
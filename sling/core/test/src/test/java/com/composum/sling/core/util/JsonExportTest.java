@@ -0,0 +1,122 @@
+package com.composum.sling.core.util;
+
+import com.composum.sling.core.mapping.MappingRules;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the JSON export of resource trees by {@link JsonUtil#exportJson(JsonWriter, Resource, MappingRules)}.
+ */
+public class JsonExportTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    @Test
+    public void sortedAndUnsortedProperties() throws Exception {
+        Session session = context.resourceResolver().adaptTo(Session.class);
+        Node node = session.getRootNode().addNode("content", "nt:unstructured").addNode("test", "nt:unstructured");
+        node.setProperty("b", "2");
+        node.setProperty("c", 3L);
+        node.setProperty("a", true);
+        node.addNode("child", "nt:unstructured").setProperty("x", "y");
+        session.save();
+        Resource resource = context.resourceResolver().getResource("/content/test");
+
+        MappingRules sorted = MappingRules.getDefaultMappingRules();
+        List<String> names = topLevelNames(export(resource, sorted));
+        assertEquals(Arrays.asList("a", "b", "c", "jcr:primaryType", "child"), names);
+
+        MappingRules unsorted = new MappingRules(sorted, null, null, null, null, null, null, false);
+        List<String> unsortedNames = topLevelNames(export(resource, unsorted));
+        assertEquals("child", unsortedNames.get(unsortedNames.size() - 1)); // children after the properties
+        Collections.sort(unsortedNames.subList(0, unsortedNames.size() - 1));
+        assertEquals(names, unsortedNames);
+    }
+
+    @Test
+    public void deepTreeWithSmallStack() throws Exception {
+        final int depth = 2000;
+        Session session = context.resourceResolver().adaptTo(Session.class);
+        Node node = session.getRootNode().addNode("content", "nt:unstructured");
+        for (int i = 0; i < depth; i++) {
+            node = node.addNode("n", "nt:unstructured");
+        }
+        session.save();
+        final Resource resource = context.resourceResolver().getResource("/content");
+        final AtomicReference<String> json = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    json.set(export(resource, MappingRules.getDefaultMappingRules()));
+                } catch (Throwable ex) {
+                    error.set(ex);
+                }
+            }
+        }, "deep-export", 256 * 1024);
+        thread.start();
+        thread.join();
+        assertNull(error.get());
+
+        int objects = 0;
+        JsonReader reader = new JsonReader(new StringReader(json.get()));
+        JsonToken token;
+        while ((token = reader.peek()) != JsonToken.END_DOCUMENT) {
+            switch (token) {
+                case BEGIN_OBJECT:
+                    reader.beginObject();
+                    objects++;
+                    break;
+                case END_OBJECT:
+                    reader.endObject();
+                    break;
+                case NAME:
+                    reader.nextName();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        assertEquals(depth + 1, objects);
+    }
+
+    protected String export(Resource resource, MappingRules rules) throws Exception {
+        StringWriter writer = new StringWriter();
+        JsonUtil.exportJson(new JsonWriter(writer), resource, rules);
+        return writer.toString();
+    }
+
+    protected List<String> topLevelNames(String json) throws Exception {
+        List<String> names = new ArrayList<>();
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            names.add(reader.nextName());
+            reader.skipValue();
+        }
+        reader.endObject();
+        return names;
+    }
+}
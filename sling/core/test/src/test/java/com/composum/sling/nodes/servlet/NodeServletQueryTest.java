@@ -0,0 +1,258 @@
+package com.composum.sling.nodes.servlet;
+
+import com.composum.sling.core.filter.ResourceFilter;
+import com.composum.sling.core.filter.StringFilter;
+import com.composum.sling.nodes.NodesConfiguration;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the paging of the 'query' operations of the {@link NodeServlet}: the JSON object with the result and the
+ * summary, the pages by 'offset' (of the query rows) and 'limit' (of the accepted nodes), the continuation by the
+ * 'cursor' and the rejection of invalid cursors; nodes rejected by the node filter are read but not returned.
+ */
+public class NodeServletQueryTest {
+
+    protected static final String FOLDER = "/content/query";
+    protected static final String QUERY = "/jcr:root" + FOLDER + "/*[@marker='yes'] order by @index";
+    protected static final int NODES = 30;
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    protected NodeServlet servlet;
+    /** the names of the nodes accepted by the node filter in the order of the query */
+    protected List<String> accepted;
+
+    @Before
+    public void setup() throws Exception {
+        Session session = context.resourceResolver().adaptTo(Session.class);
+        Node folder = session.getRootNode().addNode("content", "nt:unstructured").addNode("query", "nt:unstructured");
+        accepted = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            // each third node is rejected by the node filter
+            String name = String.format(i % 3 == 2 ? "hidden-%02d" : "item-%02d", i);
+            Node node = folder.addNode(name, "nt:unstructured");
+            node.setProperty("marker", "yes");
+            node.setProperty("index", (long) i);
+            if (i % 3 != 2) {
+                accepted.add(name);
+            }
+        }
+        folder.addNode("unmarked", "nt:unstructured").setProperty("index", -1L);
+        session.save();
+
+        NodesConfiguration config = Mockito.mock(NodesConfiguration.class);
+        Mockito.when(config.getQueryResultLimit()).thenReturn(500L);
+        Mockito.when(config.getDefaultNodeFilter()).thenReturn(
+                new ResourceFilter.NameFilter(new StringFilter.BlackList("^hidden-.*$")));
+        servlet = new NodeServlet();
+        servlet.nodesConfig = config;
+    }
+
+    @Test
+    public void resultAndSummary() throws Exception {
+        JsonObject response = query(QUERY, new HashMap<String, Object>());
+        assertTrue(response.get("result").isJsonArray());
+        assertEquals(accepted, names(response));
+        JsonObject summary = response.getAsJsonObject("summary");
+        assertNotNull(summary.get("query"));
+        assertEquals(accepted.size(), summary.get("count").getAsInt());
+        assertEquals(0, summary.get("offset").getAsLong());
+        assertEquals(500, summary.get("limit").getAsInt());
+        assertEquals(NODES, summary.get("read").getAsLong());
+        assertTrue(summary.get("time").getAsLong() >= 0);
+        assertFalse(summary.get("hasMore").getAsBoolean());
+        assertNull(summary.get("cursor"));
+    }
+
+    @Test
+    public void filteredRowsAreReadButNotCounted() throws Exception {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("limit", "5");
+        JsonObject response = query(QUERY, parameters);
+        assertEquals(accepted.subList(0, 5), names(response)); // item-00, 01, 03, 04, 06
+        JsonObject summary = response.getAsJsonObject("summary");
+        assertEquals(5, summary.get("count").getAsInt());
+        assertEquals(7, summary.get("read").getAsLong()); // two hidden nodes read
+        assertTrue(summary.get("hasMore").getAsBoolean());
+        assertNotNull(summary.get("cursor"));
+
+        // the offset is the offset of the rows
+        parameters.put("offset", "3");
+        parameters.put("limit", "2");
+        assertEquals(accepted.subList(2, 4), names(query(QUERY, parameters)));
+        parameters.put("offset", "2");
+        response = query(QUERY, parameters);
+        assertEquals(accepted.subList(2, 4), names(response));
+        assertEquals(3, response.getAsJsonObject("summary").get("read").getAsLong());
+    }
+
+    @Test
+    public void pagesByCursor() throws Exception {
+        for (int limit : new int[]{1, 4, 7, accepted.size()}) {
+            List<String> names = new ArrayList<>();
+            Set<String> unique = new HashSet<>();
+            long read = 0;
+            String cursor = null;
+            for (int pages = 0; pages <= NODES; pages++) {
+                Map<String, Object> parameters = new HashMap<>();
+                parameters.put("limit", String.valueOf(limit));
+                if (cursor != null) {
+                    parameters.put("cursor", cursor);
+                }
+                JsonObject response = query(QUERY, parameters);
+                JsonObject summary = response.getAsJsonObject("summary");
+                assertEquals(read, summary.get("offset").getAsLong());
+                read += summary.get("read").getAsLong();
+                for (String name : names(response)) {
+                    assertTrue(name + " delivered twice", unique.add(name));
+                    names.add(name);
+                }
+                if (!summary.get("hasMore").getAsBoolean()) {
+                    cursor = null;
+                    break;
+                }
+                assertEquals(limit, summary.get("count").getAsInt());
+                cursor = summary.get("cursor").getAsString();
+            }
+            assertNull("paging doesn't end", cursor);
+            assertEquals("limit " + limit, accepted, names);
+            assertEquals(NODES, read);
+        }
+    }
+
+    @Test
+    public void cursorOfOtherQueryRejected() throws Exception {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("limit", "5");
+        String cursor = query(QUERY, parameters).getAsJsonObject("summary").get("cursor").getAsString();
+        parameters.put("cursor", cursor);
+        assertEquals(5, names(query(QUERY, parameters)).size());
+
+        String other = QUERY + " descending";
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, execute(other, parameters).getStatus());
+
+        // the HTML operation reports the error in the summary row
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        servlet.new HtmlQueryOperation().doIt(request(other, parameters), response, null);
+        assertTrue(response.getOutputAsString().contains("error danger"));
+        assertFalse(response.getOutputAsString().contains("data-path"));
+    }
+
+    @Test
+    public void malformedCursorRejected() throws Exception {
+        String hash = NodeServlet.QueryPage.getQueryHash(QUERY);
+        for (String cursor : new String[]{"%%%", encode("12"), encode("twelve:" + hash), encode("12:" + hash + ":x"),
+                encode("12:00000000")}) {
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("limit", "5");
+            parameters.put("cursor", cursor);
+            assertEquals(cursor, HttpServletResponse.SC_BAD_REQUEST, execute(QUERY, parameters).getStatus());
+        }
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("limit", "5");
+        parameters.put("cursor", encode("3:" + hash));
+        assertEquals(accepted.subList(2, 7), names(query(QUERY, parameters)));
+    }
+
+    @Test
+    public void htmlSummaryWithCursor() throws Exception {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("limit", "5");
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        servlet.new HtmlQueryOperation().doIt(request(QUERY, parameters), response, null);
+        String html = response.getOutputAsString();
+        String cursor = query(QUERY, parameters).getAsJsonObject("summary").get("cursor").getAsString();
+        assertTrue(html.contains("data-cursor=\"" + cursor + "\""));
+        assertTrue(html.contains("data-path=\"" + FOLDER + "/item-06\""));
+        assertFalse(html.contains("hidden-02"));
+    }
+
+    @Test
+    public void nodeTypeOfSimpleQuery() throws Exception {
+        NodeServlet.AbstractQueryOperation operation = servlet.new JsonQueryOperation();
+        for (String type : new String[]{"nt:unstructured", " nt:unstructured ", "cpp:Page"}) {
+            assertEquals(type.trim(), operation.getNodeType(request("word", parameter("type", type))));
+        }
+        for (String type : new String[]{"", "nt:unstructured)]//*[(", "nt:a:b", "nt unstructured", "*"}) {
+            assertNull(type, operation.getNodeType(request("word", parameter("type", type))));
+        }
+        assertNull(operation.getNodeType(request("word", new HashMap<String, Object>())));
+
+        assertEquals("/jcr:root/content//element(*,nt:unstructured)[jcr:contains(.,'word')] order by @path",
+                operation.getSimpleQuery("/content", "word", "nt:unstructured"));
+        assertEquals("/jcr:root/content//*[jcr:contains(.,'word')] order by @path",
+                operation.getSimpleQuery("/content", "word", null));
+        assertEquals(operation.getSimpleQuery("/content", "word", null),
+                operation.getSimpleQuery("/content", "word"));
+        assertEquals("/jcr:root//*[jcr:contains(.,'word')] order by @path",
+                operation.getSimpleQuery("/", "word", null));
+    }
+
+    protected String encode(String cursor) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected Map<String, Object> parameter(String name, String value) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put(name, value);
+        return parameters;
+    }
+
+    protected JsonObject query(String query, Map<String, Object> parameters) throws Exception {
+        MockSlingHttpServletResponse response = execute(query, parameters);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        return new JsonParser().parse(response.getOutputAsString()).getAsJsonObject();
+    }
+
+    protected MockSlingHttpServletResponse execute(String query, Map<String, Object> parameters) throws Exception {
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        servlet.new JsonQueryOperation().doIt(request(query, parameters), response, null);
+        return response;
+    }
+
+    protected MockSlingHttpServletRequest request(String query, Map<String, Object> parameters) {
+        MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.resourceResolver(),
+                context.bundleContext());
+        Map<String, Object> all = new HashMap<>(parameters);
+        all.put("query", query);
+        request.setParameterMap(all);
+        return request;
+    }
+
+    protected List<String> names(JsonObject response) {
+        List<String> names = new ArrayList<>();
+        for (JsonElement node : response.getAsJsonArray("result")) {
+            names.add(node.getAsJsonObject().get("name").getAsString());
+        }
+        return names;
+    }
+}
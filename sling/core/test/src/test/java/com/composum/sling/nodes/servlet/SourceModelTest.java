@@ -174,6 +174,50 @@ public class SourceModelTest {
                 "subfolder/401.jsp : 650 | 442210237\n"));
     }
 
+    @Test
+    public void parallelArchive() throws Exception {
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        model.writeArchive(sequential);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        try (ParallelSourceExport.Workers workers = new ParallelSourceExport.Workers(3, Long.MAX_VALUE)) {
+            model.writeArchive(parallel, workers);
+            assertThat(workers.getStaged(), is(0L));
+        }
+        assertThat(getZipContentOverview(parallel, true, false),
+                is(getZipContentOverview(sequential, true, false)));
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(parallel.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                ec.checkThat(entry.getName(), entry.getMethod(), is(entry.getName().endsWith(".jpg")
+                        ? ZipEntry.STORED : ZipEntry.DEFLATED));
+                zip.closeEntry();
+            }
+        }
+    }
+
+    @Test
+    public void parallelArchiveStagingLimit() throws Exception {
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        model.writeArchive(sequential);
+        // no staging space at all - only the subtrees the zip writer is waiting for are rendered
+        try (ParallelSourceExport.Workers workers = new ParallelSourceExport.Workers(2, 0L)) {
+            for (int i = 0; i < 3; i++) { // the workers are shared by the exports
+                ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+                model.writeArchive(parallel, workers);
+                assertThat(workers.getStaged(), is(0L));
+                assertThat(getZipContentOverview(parallel, true, false),
+                        is(getZipContentOverview(sequential, true, false)));
+            }
+        }
+        // closed workers - the subtrees are rendered by the zip writer
+        ParallelSourceExport.Workers closed = new ParallelSourceExport.Workers(2, Long.MAX_VALUE);
+        closed.close();
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        model.writeArchive(parallel, closed);
+        assertThat(getZipContentOverview(parallel, true, false),
+                is(getZipContentOverview(sequential, true, false)));
+    }
+
     @Nonnull
     protected String getZipContentOverview(ByteArrayOutputStream out, boolean details, boolean unpack) throws IOException {
         File basedir = new File("target").getAbsoluteFile();
@@ -0,0 +1,266 @@
+package com.composum.sling.nodes.update;
+
+import com.composum.sling.core.BeanContext;
+import com.composum.sling.core.filter.ResourceFilter;
+import com.composum.sling.nodes.NodesConfiguration;
+import com.composum.sling.nodes.servlet.SourceModel;
+import com.composum.sling.test.util.JcrTestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.annotation.Nonnull;
+import javax.jcr.Session;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.composum.sling.core.util.ResourceUtil.PROP_PRIMARY_TYPE;
+import static com.composum.sling.core.util.ResourceUtil.TYPE_UNSTRUCTURED;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link SourceUpdateServiceImpl}: the test content is exported with the {@link SourceModel} and changed
+ * in the repository; the update from the export has to restore the exported content.
+ */
+public class SourceUpdateServiceImplTest {
+
+    protected static final String PATH = "/content/composum/nodes/console/test/sourcemodel";
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    protected ResourceResolver resolver;
+    protected NodesConfiguration config;
+    protected SourceUpdateServiceImpl service;
+
+    @Before
+    public void setup() throws Exception {
+        resolver = context.resourceResolver();
+        JcrTestUtils.importCnd("/nodes/testingNodetypes.cnd", resolver);
+        JcrTestUtils.importTestPackage("/jcr_root" + PATH, resolver);
+        config = Mockito.mock(NodesConfiguration.class);
+        Mockito.when(config.getSourceNodesFilter()).thenReturn(ResourceFilter.ALL);
+        service = context.registerInjectActivateService(new SourceUpdateServiceImpl());
+        // the import and the export are not symmetric in all details - the content is normalized by a first update
+        service.updateFromZip(resolver, new ByteArrayInputStream(export()), PATH);
+    }
+
+    @Test
+    public void dryRunCountsLikeUpdate() throws Exception {
+        byte[] zip = export();
+        UpdateStatistics unchanged = service.updateFromZip(resolver, new ByteArrayInputStream(zip), PATH, true);
+        assertEquals(0, unchanged.getNodesChanged());
+        assertTrue(unchanged.getNodesVisited() > 10);
+        change();
+
+        UpdateStatistics dryRun = service.updateFromZip(resolver, new ByteArrayInputStream(zip), PATH, true);
+        assertTrue(dryRun.isDryRun());
+        assertEquals(0, dryRun.getSaves());
+        assertNull(dryRun.getLastSavedPath());
+        // the content is not changed by the dry run
+        assertNotNull(resolver.getResource(PATH + "/assetsfolder/obsolete"));
+        assertNull(resolver.getResource(PATH + "/subfolder/jcr:content/folder"));
+
+        UpdateStatistics update = service.updateFromZip(resolver, new ByteArrayInputStream(zip), PATH, false);
+        assertFalse(update.isDryRun());
+        assertEquals(dryRun.getNodesVisited(), update.getNodesVisited());
+        assertEquals(dryRun.getNodesChanged(), update.getNodesChanged());
+        assertEquals(dryRun.getNodesAdded(), update.getNodesAdded());
+        assertEquals(dryRun.getNodesRemoved(), update.getNodesRemoved());
+        assertEquals(dryRun.getPropertiesChanged(), update.getPropertiesChanged());
+        assertEquals(1, update.getNodesAdded());
+        assertEquals(1, update.getNodesRemoved());
+        assertEquals(1, update.getSaves());
+        assertEquals(PATH, update.getLastSavedPath());
+        assertRestored();
+    }
+
+    @Test
+    public void dryRunNotSaved() throws Exception {
+        byte[] zip = export();
+        change();
+        final AtomicInteger saves = new AtomicInteger();
+        SourceUpdateServiceImpl counting = context.registerInjectActivateService(new SourceUpdateServiceImpl() {
+            @Nonnull
+            @Override
+            protected Session getImportSession(@Nonnull final Session session, boolean dryRun) {
+                // counts the saves of the importer which are passed to the session
+                Session countingSession = delegate(session, Session.class, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("save".equals(method.getName())) {
+                            saves.incrementAndGet();
+                        }
+                        return invokeDelegate(session, method, args);
+                    }
+                });
+                return super.getImportSession(countingSession, dryRun);
+            }
+        });
+        UpdateStatistics dryRun = counting.updateFromZip(resolver, new ByteArrayInputStream(zip), PATH, true);
+        assertEquals(0, saves.get());
+        assertEquals(1, dryRun.getNodesAdded());
+        assertFalse(resolver.adaptTo(Session.class).hasPendingChanges());
+        Resource tmp = resolver.getResource("/tmp/composum/nodes/SourceUpdateService");
+        assertTrue(tmp == null || !tmp.hasChildren());
+        assertNotNull(resolver.getResource(PATH + "/assetsfolder/obsolete"));
+
+        counting.updateFromZip(resolver, new ByteArrayInputStream(zip), PATH, false);
+        assertTrue(saves.get() > 0);
+        assertRestored();
+    }
+
+    @Test
+    public void saveThreshold() throws Exception {
+        byte[] zip = export();
+        change();
+        service.saveThreshold = 1;
+        UpdateStatistics update = service.updateFromZip(resolver, new ByteArrayInputStream(zip), PATH, false);
+        // each changed node is saved on its own and the rest at the end
+        assertTrue(update.getSaves() >= 3);
+        assertEquals(PATH, update.getLastSavedPath());
+        assertRestored();
+    }
+
+    @Test
+    public void failureAfterSave() throws Exception {
+        byte[] zip = export();
+        change();
+        SourceUpdateServiceImpl failing = context.registerInjectActivateService(new SourceUpdateServiceImpl() {
+            @Override
+            protected boolean isEqualValue(Object templateValue, Object value) {
+                if ("various cases".equals(templateValue)) { // the title of 'subfolder/jcr:content'
+                    throw new IllegalStateException("failure for the test");
+                }
+                return super.isEqualValue(templateValue, value);
+            }
+        }, Collections.<String, Object>singletonMap(SourceUpdateServiceImpl.SAVE_THRESHOLD, 1));
+        try {
+            failing.updateFromZip(resolver, new ByteArrayInputStream(zip), PATH, false);
+            fail("update not failed");
+        } catch (PartialUpdateException ex) {
+            UpdateStatistics statistics = ex.getStatistics();
+            assertEquals(1, statistics.getSaves());
+            // 'assetsfolder' is updated before 'subfolder' fails, the changes of 'subfolder' are not saved
+            assertEquals(PATH + "/assetsfolder", statistics.getLastSavedPath());
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        assertNull(resolver.getResource(PATH + "/assetsfolder/obsolete"));
+        assertNull(resolver.getResource(PATH + "/subfolder/jcr:content/folder"));
+
+        // the plain update ignores the save threshold and doesn't save a part of the changes
+        resolver.create(resolver.getResource(PATH + "/assetsfolder"), "obsolete",
+                Collections.<String, Object>singletonMap(PROP_PRIMARY_TYPE, TYPE_UNSTRUCTURED));
+        resolver.commit();
+        try {
+            failing.updateFromZip(resolver, new ByteArrayInputStream(zip), PATH);
+            fail("update not failed");
+        } catch (IllegalStateException ex) {
+            assertNotNull(resolver.getResource(PATH + "/assetsfolder/obsolete"));
+        }
+    }
+
+    @Test
+    public void savedAtTheEndByDefault() throws Exception {
+        byte[] zip = export();
+        change();
+        UpdateStatistics update = service.updateFromZip(resolver, new ByteArrayInputStream(zip), PATH, false);
+        assertEquals(1, update.getSaves());
+        assertRestored();
+    }
+
+    @Test
+    public void binaries() throws Exception {
+        byte[] zip = export();
+        String propertytest = PATH + "/subfolder/jcr:content/propertytest";
+        String plain = PATH + "/assetsfolder/plain.jpg/jcr:content";
+        String equal = PATH + "/assetsfolder/withadditionaldata.jpg/jcr:content";
+        byte[] binary = IOUtils.toByteArray(resolver.getResource(propertytest).getValueMap()
+                .get("binary", InputStream.class));
+        byte[] image = IOUtils.toByteArray(resolver.getResource(plain).getValueMap()
+                .get(JcrConstants.JCR_DATA, InputStream.class));
+        Calendar equalModified = resolver.getResource(equal).getValueMap()
+                .get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+        assertNotNull(equalModified);
+
+        // all binaries are equal - nothing is written
+        UpdateStatistics unchanged = service.updateFromZip(resolver, new ByteArrayInputStream(zip), PATH, false);
+        assertEquals(0, unchanged.getPropertiesChanged());
+        assertEquals(0, unchanged.getNodesChanged());
+
+        resolver.getResource(propertytest).adaptTo(ModifiableValueMap.class)
+                .put("binary", new ByteArrayInputStream("changed".getBytes(StandardCharsets.UTF_8)));
+        resolver.getResource(plain).adaptTo(ModifiableValueMap.class)
+                .put(JcrConstants.JCR_DATA, new ByteArrayInputStream(Arrays.copyOf(image, image.length - 1)));
+        resolver.create(resolver.getResource(PATH + "/assetsfolder"), "obsolete",
+                Collections.<String, Object>singletonMap(PROP_PRIMARY_TYPE, TYPE_UNSTRUCTURED));
+        resolver.commit();
+
+        UpdateStatistics update = service.updateFromZip(resolver, new ByteArrayInputStream(zip), PATH, false);
+        // only the two changed binaries are written, the other binaries (e.g. 'binary with-weird na_me') are equal
+        assertEquals(2, update.getPropertiesChanged());
+        assertEquals(3, update.getNodesChanged()); // 'propertytest', 'plain.jpg/jcr:content' and 'assetsfolder'
+        assertEquals(1, update.getNodesRemoved());
+        assertEquals(0, update.getNodesAdded());
+        assertNull(resolver.getResource(PATH + "/assetsfolder/obsolete"));
+        assertArrayEquals(binary, IOUtils.toByteArray(resolver.getResource(propertytest).getValueMap()
+                .get("binary", InputStream.class)));
+        assertArrayEquals(image, IOUtils.toByteArray(resolver.getResource(plain).getValueMap()
+                .get(JcrConstants.JCR_DATA, InputStream.class)));
+        assertEquals(equalModified, resolver.getResource(equal).getValueMap()
+                .get(JcrConstants.JCR_LASTMODIFIED, Calendar.class));
+    }
+
+    /**
+     * Removes a node, adds a node and changes a property.
+     */
+    protected void change() throws Exception {
+        resolver.create(resolver.getResource(PATH + "/assetsfolder"), "obsolete",
+                Collections.<String, Object>singletonMap(PROP_PRIMARY_TYPE, TYPE_UNSTRUCTURED));
+        resolver.delete(resolver.getResource(PATH + "/subfolder/jcr:content/folder"));
+        resolver.getResource(PATH + "/subfolder/jcr:content/propertytest").adaptTo(ModifiableValueMap.class)
+                .put("bool", false);
+        resolver.commit();
+    }
+
+    protected void assertRestored() {
+        assertNull(resolver.getResource(PATH + "/assetsfolder/obsolete"));
+        Resource folder = resolver.getResource(PATH + "/subfolder/jcr:content/folder");
+        assertNotNull(folder);
+        assertEquals("Should not have a folder", folder.getValueMap().get("jcr:description", String.class));
+        ValueMap values = resolver.getResource(PATH + "/subfolder/jcr:content/propertytest").getValueMap();
+        assertEquals(Boolean.TRUE, values.get("bool", Boolean.class));
+    }
+
+    protected byte[] export() throws Exception {
+        Resource resource = resolver.getResource(PATH);
+        SourceModel model = new SourceModel(config,
+                new BeanContext.Service(context.request(), context.response(), resource, resolver), resource);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.writePackage(out, "test", "update", "1.0");
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,253 @@
+package com.composum.sling.nodes.upload;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import javax.jcr.AccessDeniedException;
+import javax.jcr.Session;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link ChunkedUploadServiceImpl}: the chunks have to be appended in order, the staged content has to be
+ * verified before the commit and the uploads are removed after the commit or the expiration.
+ */
+public class ChunkedUploadServiceImplTest {
+
+    protected static final String PATH = "/content/test/file/jcr:content";
+    protected static final String NAME = "jcr:data";
+    protected static final String CONTENT = "0123456789";
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    protected File staging;
+    protected ResourceResolver resolver;
+    protected ChunkedUploadServiceImpl service;
+
+    @Before
+    public void setup() throws Exception {
+        staging = folder.newFolder("staging");
+        FileUtils.writeStringToFile(new File(staging, "orphan" + ChunkedUploadServiceImpl.FILE_SUFFIX), "orphan");
+        FileUtils.writeStringToFile(new File(staging, "other.txt"), "other");
+        resolver = context.resourceResolver();
+        context.build().resource(PATH).commit();
+        service = context.registerInjectActivateService(new ChunkedUploadServiceImpl(),
+                ChunkedUploadServiceImpl.STAGING_DIRECTORY, staging.getPath(),
+                ChunkedUploadServiceImpl.MAX_SIZE, 1,
+                ChunkedUploadServiceImpl.MAX_USER_UPLOADS, 2,
+                ChunkedUploadServiceImpl.MAX_STAGING, 2);
+    }
+
+    @Test
+    public void orphansRemovedOnActivate() {
+        assertFalse(new File(staging, "orphan" + ChunkedUploadServiceImpl.FILE_SUFFIX).exists());
+        assertTrue(new File(staging, "other.txt").exists());
+    }
+
+    @Test
+    public void chunksOutOfOrderOrOverlapping() throws Exception {
+        ChunkedUpload upload = service.start(resolver, PATH, NAME, CONTENT.length(), null);
+        assertFalse(service.append(upload, 5, stream("56789")));
+        assertEquals(0, upload.getOffset());
+        assertTrue(service.append(upload, 0, stream("01234")));
+        assertEquals(5, upload.getOffset());
+        assertFalse(service.append(upload, 3, stream("34567")));
+        assertFalse(service.append(upload, 0, stream("01234")));
+        assertEquals(5, upload.getOffset());
+        assertTrue(service.append(upload, 5, stream("56789")));
+        assertTrue(upload.isComplete());
+        assertContent(upload, sha256(CONTENT));
+    }
+
+    @Test
+    public void chunkPastSize() throws Exception {
+        ChunkedUpload upload = service.start(resolver, PATH, NAME, 5, sha256("01234"));
+        try {
+            service.append(upload, 0, stream("0123456"));
+            fail("chunk past the size appended");
+        } catch (IOException ex) {
+            // expected
+        }
+        // the chunk is discarded completely - the file and the checksum
+        assertEquals(0, upload.getOffset());
+        assertEquals(0, upload.file.length());
+        assertTrue(service.append(upload, 0, stream("01234")));
+        assertContent(upload, null);
+    }
+
+    @Test
+    public void checksumMismatch() throws Exception {
+        ChunkedUpload upload = service.start(resolver, PATH, NAME, CONTENT.length(), sha256("9876543210"));
+        assertTrue(service.append(upload, 0, stream(CONTENT)));
+        try {
+            service.open(upload, null);
+            fail("content with a wrong checksum opened");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().startsWith("checksum mismatch"));
+        }
+        // the checksum given at the commit is used instead of the announced one
+        assertContent(upload, sha256(CONTENT));
+    }
+
+    @Test
+    public void incompleteUpload() throws Exception {
+        ChunkedUpload upload = service.start(resolver, PATH, NAME, CONTENT.length(), null);
+        assertTrue(service.append(upload, 0, stream("01234")));
+        try {
+            service.open(upload, null);
+            fail("incomplete upload opened");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().startsWith("upload incomplete"));
+        }
+    }
+
+    @Test
+    public void expiration() throws Exception {
+        ChunkedUpload upload = service.start(resolver, PATH, NAME, CONTENT.length(), null);
+        ChunkedUpload touched = service.start(resolver, PATH, NAME, CONTENT.length(), null);
+        upload.touched = System.currentTimeMillis() - service.expiration - 1000L;
+        service.removeExpired();
+        assertNull(service.get(resolver.getUserID(), upload.getId()));
+        assertFalse(upload.file.exists());
+        assertFalse(service.append(upload, 0, stream(CONTENT)));
+        assertNotNull(service.get(resolver.getUserID(), touched.getId()));
+        assertTrue(touched.file.exists());
+    }
+
+    @Test
+    public void commitTwice() throws Exception {
+        ChunkedUpload upload = service.start(resolver, PATH, NAME, CONTENT.length(), null);
+        assertTrue(service.append(upload, 0, stream(CONTENT)));
+        assertContent(upload, null);
+        service.remove(upload);
+        assertFalse(upload.file.exists());
+        assertNull(service.get(resolver.getUserID(), upload.getId()));
+        try {
+            service.open(upload, null);
+            fail("removed upload opened");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().startsWith("upload removed"));
+        }
+    }
+
+    @Test
+    public void progress() throws Exception {
+        ChunkedUpload upload = service.start(resolver, PATH, NAME, CONTENT.length(), null);
+        assertTrue(service.append(upload, 0, stream("0123")));
+        JsonObject json = toJson(upload);
+        assertEquals(upload.getId(), json.get("id").getAsString());
+        assertEquals(PATH, json.get("path").getAsString());
+        assertEquals(NAME, json.get("name").getAsString());
+        assertEquals(10L, json.get("size").getAsLong());
+        assertEquals(4L, json.get("offset").getAsLong());
+        assertEquals(40, json.get("progress").getAsInt());
+        assertFalse(json.get("complete").getAsBoolean());
+        assertTrue(service.append(upload, 4, stream("456789")));
+        json = toJson(upload);
+        assertEquals(10L, json.get("offset").getAsLong());
+        assertEquals(100, json.get("progress").getAsInt());
+        assertTrue(json.get("complete").getAsBoolean());
+    }
+
+    @Test
+    public void accessDenied() throws Exception {
+        ResourceResolver denied = mockResolver("denied", false);
+        try {
+            service.start(denied, PATH, NAME, CONTENT.length(), null);
+            fail("upload without permission started");
+        } catch (AccessDeniedException ex) {
+            // expected
+        }
+        assertTrue(FileUtils.listFiles(staging, new String[]{"upload"}, false).isEmpty());
+    }
+
+    @Test
+    public void limits() throws Exception {
+        long megabyte = 1024L * 1024L;
+        try {
+            service.start(resolver, PATH, NAME, megabyte + 1, null);
+            fail("upload larger than the maximum size started");
+        } catch (UploadLimitException ex) {
+            // expected
+        }
+        service.start(resolver, PATH, NAME, megabyte, null);
+        ChunkedUpload second = service.start(resolver, PATH, NAME, 10, null);
+        try {
+            service.start(resolver, PATH, NAME, 10, null);
+            fail("too many uploads of one user started");
+        } catch (UploadLimitException ex) {
+            // expected
+        }
+        ResourceResolver other = mockResolver("other", true);
+        try {
+            service.start(other, PATH, NAME, megabyte, null);
+            fail("upload beyond the staging space started");
+        } catch (UploadLimitException ex) {
+            // expected
+        }
+        // a removed upload releases its staging space
+        service.remove(second);
+        assertNotNull(service.start(other, PATH, NAME, megabyte - 10, null));
+    }
+
+    protected void assertContent(ChunkedUpload upload, String checksum) throws IOException {
+        byte[] expected = new byte[(int) upload.getSize()];
+        System.arraycopy(CONTENT.getBytes(StandardCharsets.UTF_8), 0, expected, 0, expected.length);
+        try (InputStream input = service.open(upload, checksum)) {
+            assertArrayEquals(expected, IOUtils.toByteArray(input));
+        }
+    }
+
+    protected JsonObject toJson(ChunkedUpload upload) throws IOException {
+        StringWriter buffer = new StringWriter();
+        upload.toJson(new JsonWriter(buffer));
+        return new JsonParser().parse(buffer.toString()).getAsJsonObject();
+    }
+
+    protected ResourceResolver mockResolver(String userId, boolean allowed) throws Exception {
+        Session session = Mockito.mock(Session.class);
+        Mockito.when(session.hasPermission(PATH + "/" + NAME, Session.ACTION_SET_PROPERTY)).thenReturn(allowed);
+        ResourceResolver mock = Mockito.mock(ResourceResolver.class);
+        Mockito.when(mock.getUserID()).thenReturn(userId);
+        Mockito.when(mock.adaptTo(Session.class)).thenReturn(session);
+        return mock;
+    }
+
+    protected static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected static String sha256(String content) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance(ChunkedUploadServiceImpl.DIGEST_ALGORITHM);
+        return Hex.encodeHexString(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+    }
+}
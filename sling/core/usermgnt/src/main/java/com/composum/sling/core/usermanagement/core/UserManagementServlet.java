@@ -7,6 +7,7 @@ import com.composum.sling.core.mapping.MappingRules;
 import com.composum.sling.core.servlet.AbstractServiceServlet;
 import com.composum.sling.core.servlet.ServletOperation;
 import com.composum.sling.core.servlet.ServletOperationSet;
+import com.composum.sling.core.util.RequestUtil;
 import com.composum.sling.core.util.ResponseUtil;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -44,6 +45,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -62,6 +64,11 @@ public class UserManagementServlet extends AbstractServiceServlet {
 
     public enum Operation {users, user, groups, tree, group, authorizable, disable, enable, password, groupsofauthorizable, removefromgroup, addtogroup, query, systemuser, authorizables, properties}
 
+    /** the listings: 'true' if the transitive memberships (memberOf, members) are requested */
+    public static final String PARAM_TRANSITIVE = "transitive";
+    /** the listings: 'true' if the properties of the users are requested */
+    public static final String PARAM_PROPERTIES = "properties";
+
     protected ServletOperationSet<Extension, Operation> operations = new ServletOperationSet<>(Extension.json);
 
     @Reference
@@ -138,21 +145,29 @@ public class UserManagementServlet extends AbstractServiceServlet {
         Map<String, Object> properties = new HashMap<>();
 
         static UserEntry fromUser(User user) throws RepositoryException {
+            return fromUser(user, true, true);
+        }
+
+        /**
+         * @param transitive if 'true' the transitive group memberships are resolved
+         * @param properties if 'true' the property values are read
+         */
+        static UserEntry fromUser(User user, boolean transitive, boolean properties) throws RepositoryException {
             UserEntry userEntry = new UserEntry();
-            Iterator<Group> groupIterator = user.memberOf();
-            Iterator<Group> declaredMemberOf = user.declaredMemberOf();
-            Iterator<String> propertyNames = user.getPropertyNames();
             userEntry.id = user.getID();
             userEntry.path = user.getPath();
             userEntry.admin = user.isAdmin();
             userEntry.disabled = user.isDisabled();
             userEntry.disabledReason = user.getDisabledReason();
             userEntry.principalName = user.getPrincipal().getName();
-            userEntry.memberOf = getIDs(groupIterator);
-            userEntry.declaredMemberOf = getIDs(declaredMemberOf);
+            if (transitive) {
+                userEntry.memberOf = getIDs(user.memberOf());
+            }
+            userEntry.declaredMemberOf = getIDs(user.declaredMemberOf());
             userEntry.isGroup = false;
             userEntry.systemUser = isSystemUser(user);
-            while (propertyNames.hasNext()) {
+            Iterator<String> propertyNames = properties ? user.getPropertyNames() : null;
+            while (propertyNames != null && propertyNames.hasNext()) {
                 String name = propertyNames.next();
                 Value[] property = user.getProperty(name);
                 String[] vs = new String[property.length];
@@ -167,12 +182,25 @@ public class UserManagementServlet extends AbstractServiceServlet {
 
     }
 
+    /** the 'isSystemUser' method of the implementation classes (not part of the API of older versions) */
+    protected static final ClassValue<Optional<Method>> IS_SYSTEM_USER = new ClassValue<Optional<Method>>() {
+        @Override
+        protected Optional<Method> computeValue(Class<?> type) {
+            try {
+                Method method = type.getMethod("isSystemUser");
+                method.setAccessible(true);
+                return Optional.of(method);
+            } catch (Exception e) {
+                return Optional.empty();
+            }
+        }
+    };
+
     protected static boolean isSystemUser(Authorizable user) {
         boolean su;//public boolean isSystemUser()
         try {
-            Method method = user.getClass().getMethod("isSystemUser");
-            method.setAccessible(true);
-            Boolean result = (Boolean) method.invoke(user);
+            Method method = IS_SYSTEM_USER.get(user.getClass()).orElse(null);
+            Boolean result = method != null ? (Boolean) method.invoke(user) : null;
             su = (result != null && result);
         } catch (Exception e) {
             //ignore
@@ -208,40 +236,78 @@ public class UserManagementServlet extends AbstractServiceServlet {
             this.authorizableClass = authorizableClass;
         }
 
+        /**
+         * Writes the JSON array of the authorizables entry by entry. The optional 'offset' and 'limit' parameters
+         * are selecting a page of the sorted list. Without paging all details are listed; a page contains the
+         * transitive memberships and the properties only if requested by the 'transitive' and 'properties' parameters.
+         * The parameters are validated, the query is executed and the first entry is read before the response is
+         * started, so that these failures are reported by the status of the response and not by a truncated array.
+         */
         @Override
         public void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response, ResourceHandle resource)
                 throws RepositoryException, IOException {
+            final Integer offset = getPageParameter(request, PARAM_OFFSET);
+            final Integer limit = getPageParameter(request, PARAM_LIMIT);
+            if (offset == null || limit == null) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "'offset' and 'limit' must be non negative numbers");
+                return;
+            }
             final ResourceResolver resolver = request.getResourceResolver();
             final JackrabbitSession session = (JackrabbitSession) resolver.adaptTo(Session.class);
             final UserManager userManager = session.getUserManager();
+            final boolean paged = offset > 0 || limit > 0;
+            final boolean transitive = RequestUtil.getParameter(request, PARAM_TRANSITIVE, !paged);
+            final boolean properties = RequestUtil.getParameter(request, PARAM_PROPERTIES, !paged);
             final Query q = new Query() {
                 @Override
                 public <T> void build(final QueryBuilder<T> builder) {
                     builder.setCondition(builder.nameMatches("%"));
                     builder.setSortOrder("@name", QueryBuilder.Direction.ASCENDING);
                     builder.setSelector(authorizableClass);
+                    if (paged) {
+                        builder.setLimit(offset, limit > 0 ? limit : -1);
+                    }
                 }
             };
             final Iterator<Authorizable> principals = userManager.findAuthorizables(q);
-
-            List<E> entries = new ArrayList<>();
-
-            while (principals.hasNext()) {
-                E entry = processPrincipal(authorizableClass.cast(principals.next()));
-                entries.add(entry);
+            E entry = principals.hasNext()
+                    ? processPrincipal(authorizableClass.cast(principals.next()), transitive, properties) : null;
+
+            final Gson gson = new GsonBuilder().create();
+            final JsonWriter writer = ResponseUtil.getJsonWriter(response);
+            writer.beginArray();
+            while (entry != null) {
+                gson.toJson(entry, entry.getClass(), writer);
+                entry = principals.hasNext()
+                        ? processPrincipal(authorizableClass.cast(principals.next()), transitive, properties) : null;
             }
-
-            String s = new GsonBuilder().create().toJson(entries);
-            response.setContentType(ResponseUtil.JSON_CONTENT_TYPE);
-            response.setCharacterEncoding(MappingRules.CHARSET.name());
-            PrintWriter writer = response.getWriter();
-            writer.write(s);
+            writer.endArray();
             writer.flush();
-            writer.close();
+        }
 
+        /**
+         * @return the value of the paging parameter, '0' if not present; 'null' if the value is not valid
+         */
+        protected Integer getPageParameter(SlingHttpServletRequest request, String name) {
+            String value = request.getParameter(name);
+            if (StringUtils.isBlank(value)) {
+                return 0;
+            }
+            try {
+                int number = Integer.parseInt(value.trim());
+                return number >= 0 ? number : null;
+            } catch (NumberFormatException ex) {
+                return null;
+            }
         }
 
-        protected abstract E processPrincipal(A authorizable) throws RepositoryException;
+        /**
+         * @param transitive if 'true' the transitive memberships are resolved
+         * @param properties if 'true' the properties are read (if listed for the type)
+         */
+        protected abstract E processPrincipal(A authorizable, boolean transitive, boolean properties)
+                throws RepositoryException;
 
         protected String[] getIDs(Iterator<Group> groupIterator) throws RepositoryException {
             List<String> strings = new ArrayList<>();
@@ -796,16 +862,17 @@ public class UserManagementServlet extends AbstractServiceServlet {
 
         @Override
         @SuppressWarnings("Duplicates")
-        protected AuthorizableEntry processPrincipal(Authorizable authorizable) throws RepositoryException {
+        protected AuthorizableEntry processPrincipal(Authorizable authorizable, boolean transitive, boolean properties)
+                throws RepositoryException {
             AuthorizableEntry authorizableEntry = new AuthorizableEntry();
             Principal principal = authorizable.getPrincipal();
-            Iterator<Group> groupIterator = authorizable.memberOf();
-            Iterator<Group> declaredMemberOf = authorizable.declaredMemberOf();
             authorizableEntry.id = authorizable.getID();
             authorizableEntry.path = authorizable.getPath();
             authorizableEntry.principalName = principal.getName();
-            authorizableEntry.memberOf = getIDs(groupIterator);
-            authorizableEntry.declaredMemberOf = getIDs(declaredMemberOf);
+            if (transitive) {
+                authorizableEntry.memberOf = getIDs(authorizable.memberOf());
+            }
+            authorizableEntry.declaredMemberOf = getIDs(authorizable.declaredMemberOf());
             authorizableEntry.isGroup = authorizable.isGroup();
             return authorizableEntry;
         }
@@ -817,8 +884,9 @@ public class UserManagementServlet extends AbstractServiceServlet {
         }
 
         @Override
-        protected UserEntry processPrincipal(User user) throws RepositoryException {
-            return UserEntry.fromUser(user);
+        protected UserEntry processPrincipal(User user, boolean transitive, boolean properties)
+                throws RepositoryException {
+            return UserEntry.fromUser(user, transitive, properties);
         }
     }
 
@@ -829,17 +897,17 @@ public class UserManagementServlet extends AbstractServiceServlet {
         }
 
         @Override
-        protected GroupEntry processPrincipal(Group group) throws RepositoryException {
+        protected GroupEntry processPrincipal(Group group, boolean transitive, boolean properties)
+                throws RepositoryException {
             GroupEntry groupEntry = new GroupEntry();
             Principal principal = group.getPrincipal();
-            Iterator<Group> groupIterator = group.memberOf();
-            Iterator<Group> declaredMemberOf = group.declaredMemberOf();
-            Iterator<String> propertyNames = group.getPropertyNames();
             groupEntry.id = group.getID();
             groupEntry.path = group.getPath();
             groupEntry.principalName = principal.getName();
-            groupEntry.memberOf = getIDs(groupIterator);
-            groupEntry.declaredMemberOf = getIDs(declaredMemberOf);
+            if (transitive) {
+                groupEntry.memberOf = getIDs(group.memberOf());
+            }
+            groupEntry.declaredMemberOf = getIDs(group.declaredMemberOf());
             groupEntry.isGroup = true;
             return groupEntry;
         }